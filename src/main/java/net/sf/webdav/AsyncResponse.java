@@ -0,0 +1,217 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package net.sf.webdav;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import net.sf.webdav.metrics.Metrics;
+
+/**
+ * Sends the body of a response with the non-blocking I/O of Servlet 3.1.
+ *
+ * The content is read piece by piece whenever the client can take more, no
+ * thread waits for a slow client in between. The transaction of the request
+ * is committed when the whole body has been written and rolled back if the
+ * client goes away or times out.
+ */
+public class AsyncResponse {
+
+    private static org.slf4j.Logger LOG = org.slf4j.LoggerFactory
+            .getLogger(AsyncResponse.class);
+
+    private static int BUF_SIZE = 65536;
+
+    private final HttpServletRequest _req;
+
+    private final HttpServletResponse _resp;
+
+    private final IWebdavStore _store;
+
+    private final ITransaction _transaction;
+
+    private final long _timeout;
+
+    private final Metrics _metrics;
+
+    private final AtomicBoolean _finished = new AtomicBoolean();
+
+    private AsyncContext _asyncContext;
+
+    private ReadableByteChannel _content;
+
+    /**
+     * @param timeout
+     *      milliseconds sending the body may take, 0 for no limit
+     * @param metrics
+     *      counts the bytes sent
+     */
+    AsyncResponse(HttpServletRequest req, HttpServletResponse resp,
+            IWebdavStore store, ITransaction transaction, long timeout,
+            Metrics metrics) {
+        _req = req;
+        _resp = resp;
+        _store = store;
+        _transaction = transaction;
+        _timeout = timeout;
+        _metrics = metrics;
+    }
+
+    /**
+     * @return <code>true</code> if a body is being sent, the transaction
+     *  must then be left open
+     */
+    public boolean isStarted() {
+        return _asyncContext != null;
+    }
+
+    /**
+     * Starts sending the body, the call returns right away. The content is
+     * closed when it has been sent or sending failed.
+     *
+     * @param content
+     *      the body, read within the transaction of the request
+     */
+    public void send(ReadableByteChannel content) throws IOException {
+        if (isStarted()) {
+            throw new IllegalStateException("body already sent");
+        }
+        _content = content;
+        ServletOutputStream out;
+        try {
+            out = _resp.getOutputStream();
+            _asyncContext = _req.startAsync();
+        } catch (IOException e) {
+            close();
+            throw e;
+        } catch (RuntimeException e) {
+            close();
+            throw e;
+        }
+        _asyncContext.setTimeout(_timeout);
+        _asyncContext.addListener(new Listener());
+        out.setWriteListener(new Pump(out));
+    }
+
+    /**
+     * ends the transaction and the response, only the first call counts
+     *
+     * @param commit
+     *      <code>true</code> if the whole body has been sent
+     * @param complete
+     *      <code>false</code> if the container already completes the
+     *      response
+     */
+    private void finish(boolean commit, boolean complete) {
+        if (!_finished.compareAndSet(false, true)) {
+            return;
+        }
+        close();
+        try {
+            if (commit) {
+                _store.commit(_transaction);
+            } else {
+                _store.rollback(_transaction);
+            }
+        } catch (RuntimeException e) {
+            LOG.error("AsyncResponse: ending the transaction failed", e);
+        }
+        if (complete) {
+            try {
+                _asyncContext.complete();
+            } catch (IllegalStateException e) {
+                LOG.trace("AsyncResponse: already completed");
+            }
+        }
+    }
+
+    private void close() {
+        try {
+            _content.close();
+        } catch (IOException e) {
+            LOG.warn("AsyncResponse: closing the content failed: " + e);
+        }
+    }
+
+    /**
+     * writes as much of the content as the client takes without blocking
+     */
+    private class Pump implements WriteListener {
+
+        private final ServletOutputStream _out;
+
+        private final ByteBuffer _buffer = ByteBuffer.allocate(BUF_SIZE);
+
+        Pump(ServletOutputStream out) {
+            _out = out;
+        }
+
+        public void onWritePossible() throws IOException {
+            try {
+                while (_out.isReady()) {
+                    _buffer.clear();
+                    if (_content.read(_buffer) == -1) {
+                        finish(true, true);
+                        return;
+                    }
+                    _out.write(_buffer.array(), 0, _buffer.position());
+                    _metrics.addBytesOut(_buffer.position());
+                }
+            } catch (IOException e) {
+                LOG.trace("AsyncResponse: sending failed: " + e);
+                finish(false, true);
+            } catch (RuntimeException e) {
+                LOG.error("AsyncResponse: reading the content failed", e);
+                finish(false, true);
+            }
+        }
+
+        public void onError(Throwable t) {
+            // mostly the client went away
+            LOG.trace("AsyncResponse: sending failed: " + t);
+            finish(false, true);
+        }
+    }
+
+    private class Listener implements AsyncListener {
+
+        public void onComplete(AsyncEvent event) {
+            finish(false, false);
+        }
+
+        public void onTimeout(AsyncEvent event) {
+            LOG.debug("AsyncResponse: client too slow, giving up");
+            finish(false, true);
+        }
+
+        public void onError(AsyncEvent event) {
+            finish(false, true);
+        }
+
+        public void onStartAsync(AsyncEvent event) {
+        }
+    }
+
+}
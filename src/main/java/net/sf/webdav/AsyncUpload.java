@@ -0,0 +1,507 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package net.sf.webdav;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.LinkedList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ReadListener;
+import javax.servlet.ServletInputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+/**
+ * Receives the body of a request with the non-blocking I/O of Servlet 3.1
+ * and executes the method on a worker thread of the container.
+ *
+ * The stores read the content they write from an InputStream. The body is
+ * handed to the method through a pipe as it arrives, so the store (and a
+ * QuotaStore) sees every byte once and at once. Small bodies are received
+ * completely before the method is executed, larger ones start it when the
+ * first bytes beyond the small size have arrived. The pipe holds a limited
+ * number of bytes, the thread receiving them waits for the store when it
+ * is full, never for the client.
+ */
+class AsyncUpload {
+
+    private static org.slf4j.Logger LOG = org.slf4j.LoggerFactory
+            .getLogger(AsyncUpload.class);
+
+    private static int BUF_SIZE = 65536;
+
+    /**
+     * bodies up to this size are received before the method is executed
+     */
+    private static int MEMORY_SIZE = 65536;
+
+    /**
+     * bytes the pipe holds before receiving waits for the store
+     */
+    private static int PIPE_SIZE = 16 * BUF_SIZE;
+
+    private final WebDavServletBean _servlet;
+
+    private final HttpServletRequest _req;
+
+    private final HttpServletResponse _resp;
+
+    private final long _maxUploadSize;
+
+    private final long _timeout;
+
+    private final AtomicBoolean _finished = new AtomicBoolean();
+
+    /**
+     * set when the method is handed to a worker
+     */
+    private final AtomicBoolean _executing = new AtomicBoolean();
+
+    /**
+     * counted down when the method has been executed
+     */
+    private final CountDownLatch _executed = new CountDownLatch(1);
+
+    private final Pipe _pipe = new Pipe(PIPE_SIZE);
+
+    /**
+     * the status sent instead of the method's error once the request was
+     * given up
+     */
+    private volatile int _abortStatus = 0;
+
+    private AsyncContext _asyncContext;
+
+    /**
+     * @param maxUploadSize
+     *      maximum length of the body, -1 for no limit
+     * @param timeout
+     *      milliseconds receiving the body and executing the method may
+     *      take, 0 for no limit
+     */
+    AsyncUpload(WebDavServletBean servlet, HttpServletRequest req,
+            HttpServletResponse resp, long maxUploadSize, long timeout) {
+        _servlet = servlet;
+        _req = req;
+        _resp = resp;
+        _maxUploadSize = maxUploadSize;
+        _timeout = timeout;
+    }
+
+    /**
+     * starts receiving the body, the call returns right away
+     */
+    void start() throws IOException {
+        if (_maxUploadSize >= 0 && getContentLength() > _maxUploadSize) {
+            // refused before any of it is received
+            _resp.sendError(WebdavStatus.SC_REQUEST_TOO_LONG);
+            return;
+        }
+        ServletInputStream in = _req.getInputStream();
+        _asyncContext = _req.startAsync();
+        _asyncContext.setTimeout(_timeout);
+        _asyncContext.addListener(new Listener());
+        in.setReadListener(new Receiver(in));
+    }
+
+    /**
+     * @return the Content-Length of the request, -1 if it isn't known
+     */
+    private long getContentLength() {
+        String contentLength = _req.getHeader("Content-Length");
+        if (contentLength == null) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(contentLength.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * hands the method to a worker of the container, only the first call
+     * counts
+     */
+    private void startExecuting() {
+        if (_finished.get() || !_executing.compareAndSet(false, true)) {
+            return;
+        }
+        _asyncContext.start(new Runnable() {
+            public void run() {
+                execute();
+            }
+        });
+    }
+
+    /**
+     * executes the method with the body from the pipe
+     */
+    private void execute() {
+        try {
+            try {
+                _servlet.execute(new PipedRequest(_req, _pipe),
+                        new PipedResponse(_resp));
+            } finally {
+                _pipe.close();
+            }
+        } catch (Exception e) {
+            LOG.error("AsyncUpload: executing " + _req.getMethod()
+                    + " failed", e);
+            sendError(WebdavStatus.SC_INTERNAL_SERVER_ERROR);
+        } finally {
+            finish(true);
+            _executed.countDown();
+        }
+    }
+
+    /**
+     * gives up on the request. The method being executed gets an
+     * IOException reading the body and ends the response itself, else the
+     * status is sent
+     *
+     * @param complete
+     *      <code>false</code> if the container already completes the
+     *      response
+     */
+    private void abort(int status, String reason, boolean complete) {
+        _abortStatus = status;
+        _pipe.fail(new IOException(reason));
+        if (_executing.get()) {
+            try {
+                _executed.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return;
+        }
+        if (complete) {
+            sendError(status);
+        }
+        finish(complete);
+    }
+
+    private void sendError(int status) {
+        if (!_resp.isCommitted()) {
+            try {
+                _resp.sendError(status);
+            } catch (IOException e) {
+                LOG.trace("AsyncUpload: sending " + status + " failed: " + e);
+            }
+        }
+    }
+
+    /**
+     * throws the body away and ends the response, only the first call
+     * counts
+     *
+     * @param complete
+     *      <code>false</code> if the container already completes the
+     *      response
+     */
+    private void finish(boolean complete) {
+        if (!_finished.compareAndSet(false, true)) {
+            return;
+        }
+        _pipe.close();
+        if (complete) {
+            try {
+                _asyncContext.complete();
+            } catch (IllegalStateException e) {
+                LOG.trace("AsyncUpload: already completed");
+            }
+        }
+    }
+
+    /**
+     * puts as much of the body as has arrived into the pipe
+     */
+    private class Receiver implements ReadListener {
+
+        private final ServletInputStream _in;
+
+        private long _length = 0;
+
+        Receiver(ServletInputStream in) {
+            _in = in;
+        }
+
+        public void onDataAvailable() {
+            try {
+                int read;
+                byte[] buffer = new byte[BUF_SIZE];
+                while (_in.isReady() && (read = _in.read(buffer)) != -1) {
+                    if (_finished.get()) {
+                        return;
+                    }
+                    _length += read;
+                    if (_length > MEMORY_SIZE) {
+                        startExecuting();
+                    }
+                    // waits while the pipe is full, the rest of the body is
+                    // dropped once the method stopped reading it
+                    _pipe.receive(buffer, read);
+                    buffer = new byte[BUF_SIZE];
+                }
+            } catch (IOException e) {
+                LOG.trace("AsyncUpload: receiving failed: " + e);
+                abort(WebdavStatus.SC_INTERNAL_SERVER_ERROR, e.toString(),
+                        true);
+            }
+        }
+
+        public void onAllDataRead() {
+            _pipe.end();
+            startExecuting();
+        }
+
+        public void onError(Throwable t) {
+            // mostly the client went away
+            LOG.trace("AsyncUpload: receiving failed: " + t);
+            abort(WebdavStatus.SC_INTERNAL_SERVER_ERROR, String.valueOf(t),
+                    true);
+        }
+    }
+
+    private class Listener implements AsyncListener {
+
+        public void onComplete(AsyncEvent event) {
+            _pipe.fail(new IOException("request completed"));
+            finish(false);
+        }
+
+        public void onTimeout(AsyncEvent event) {
+            LOG.debug("AsyncUpload: client too slow, giving up");
+            abort(WebdavStatus.SC_REQUEST_TIMEOUT, "request timed out", true);
+        }
+
+        public void onError(AsyncEvent event) {
+            abort(WebdavStatus.SC_INTERNAL_SERVER_ERROR, "request failed",
+                    true);
+        }
+
+        public void onStartAsync(AsyncEvent event) {
+        }
+    }
+
+    /**
+     * the body on its way from the receiving thread to the method, guarded
+     * by itself
+     */
+    private static class Pipe extends InputStream {
+
+        private final int _capacity;
+
+        private final LinkedList<byte[]> _chunks = new LinkedList<byte[]>();
+
+        private final LinkedList<Integer> _lengths = new LinkedList<Integer>();
+
+        /**
+         * read from the first chunk
+         */
+        private int _position = 0;
+
+        private int _buffered = 0;
+
+        /**
+         * the whole body has been received
+         */
+        private boolean _ended = false;
+
+        /**
+         * the method stopped reading
+         */
+        private boolean _closed = false;
+
+        private IOException _failure;
+
+        Pipe(int capacity) {
+            _capacity = capacity;
+        }
+
+        /**
+         * adds a piece of the body, the buffer then belongs to the pipe.
+         * Waits while the pipe is full
+         */
+        synchronized void receive(byte[] buffer, int length)
+                throws IOException {
+            while (_buffered >= _capacity && !_closed && _failure == null) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("interrupted");
+                }
+            }
+            if (_closed || _failure != null) {
+                return;
+            }
+            _chunks.add(buffer);
+            _lengths.add(Integer.valueOf(length));
+            _buffered += length;
+            notifyAll();
+        }
+
+        synchronized void end() {
+            _ended = true;
+            notifyAll();
+        }
+
+        /**
+         * the method gets the failure when it reads on
+         */
+        synchronized void fail(IOException failure) {
+            if (_failure == null && !_ended) {
+                _failure = failure;
+            }
+            notifyAll();
+        }
+
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            int read = read(b, 0, 1);
+            return read == -1 ? -1 : b[0] & 0xff;
+        }
+
+        public synchronized int read(byte[] b, int off, int len)
+                throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            while (_chunks.isEmpty() && !_ended && _failure == null
+                    && !_closed) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("interrupted");
+                }
+            }
+            if (_failure != null) {
+                throw _failure;
+            }
+            if (_chunks.isEmpty()) {
+                return -1;
+            }
+            int length = _lengths.getFirst().intValue();
+            int n = Math.min(len, length - _position);
+            System.arraycopy(_chunks.getFirst(), _position, b, off, n);
+            _position += n;
+            if (_position == length) {
+                _chunks.removeFirst();
+                _lengths.removeFirst();
+                _position = 0;
+            }
+            _buffered -= n;
+            notifyAll();
+            return n;
+        }
+
+        public synchronized int available() {
+            return _chunks.isEmpty() ? 0 : _lengths.getFirst().intValue()
+                    - _position;
+        }
+
+        /**
+         * the rest of the body is dropped
+         */
+        public synchronized void close() {
+            _closed = true;
+            _chunks.clear();
+            _lengths.clear();
+            _buffered = 0;
+            notifyAll();
+        }
+
+        synchronized boolean isFinished() {
+            return _chunks.isEmpty() && (_ended || _closed);
+        }
+    }
+
+    /**
+     * sends the reason the request was given up for instead of the error
+     * the method ran into reading the body
+     */
+    private class PipedResponse extends HttpServletResponseWrapper {
+
+        PipedResponse(HttpServletResponse resp) {
+            super(resp);
+        }
+
+        public void sendError(int sc) throws IOException {
+            super.sendError(_abortStatus != 0 ? _abortStatus : sc);
+        }
+
+        public void sendError(int sc, String msg) throws IOException {
+            if (_abortStatus != 0) {
+                super.sendError(_abortStatus);
+            } else {
+                super.sendError(sc, msg);
+            }
+        }
+    }
+
+    /**
+     * the request with the body from the pipe
+     */
+    private static class PipedRequest extends HttpServletRequestWrapper {
+
+        private final ServletInputStream _in;
+
+        PipedRequest(HttpServletRequest req, final Pipe pipe) {
+            super(req);
+            _in = new ServletInputStream() {
+
+                public int read() throws IOException {
+                    return pipe.read();
+                }
+
+                public int read(byte[] b, int off, int len)
+                        throws IOException {
+                    return pipe.read(b, off, len);
+                }
+
+                public int available() throws IOException {
+                    return pipe.available();
+                }
+
+                public boolean isFinished() {
+                    return pipe.isFinished();
+                }
+
+                public boolean isReady() {
+                    return true;
+                }
+
+                public void setReadListener(ReadListener listener) {
+                    throw new IllegalStateException(
+                            "the body is read by the servlet");
+                }
+            };
+        }
+
+        public ServletInputStream getInputStream() {
+            return _in;
+        }
+    }
+
+}
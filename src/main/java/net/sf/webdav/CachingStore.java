@@ -0,0 +1,588 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package net.sf.webdav;
+
+import java.io.InputStream;
+import java.security.Principal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.StringTokenizer;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Store decorator caching StoredObjects and folder listings, a request
+ * asks for the same object several times (HEAD/GET, the mime type, the
+ * body).
+ *
+ * Entries are dropped when the object is changed through this store and
+ * after a time to live, which is how changes made beside the servlet are
+ * picked up (IWebdavStore has no way to report them). A transaction that
+ * changed something reads past the cache until it ends, so uncommitted
+ * state is never cached. Callers get copies of the cached StoredObjects.
+ *
+ * Objects that don't exist are remembered for a shorter time, clients probe
+ * lots of them. Names that are known junk (desktop.ini, .DS_Store, ...) are
+ * looked up in the set of names in their folder, which is read once for all
+ * of them, instead of asking the store for each.
+ *
+ * @author re
+ */
+public class CachingStore extends StoreDecorator {
+
+    private static org.slf4j.Logger LOG = org.slf4j.LoggerFactory
+            .getLogger(CachingStore.class);
+
+    /**
+     * init-parameter: maximum number of cached objects and listings
+     */
+    public static final String CACHE_SIZE_PARAMETER = "cache-size";
+
+    /**
+     * init-parameter: time (ms) an entry is used before it is read again
+     */
+    public static final String CACHE_TTL_PARAMETER = "cache-ttl";
+
+    /**
+     * init-parameter: time (ms) an object is known not to exist
+     */
+    public static final String NEGATIVE_CACHE_TTL_PARAMETER = "negative-cache-ttl";
+
+    /**
+     * init-parameter: comma separated names clients ask for without need,
+     * '*' and '?' are wildcards
+     */
+    public static final String JUNK_NAMES_PARAMETER = "junk-names";
+
+    private final int _maxEntries;
+
+    private final long _timeToLive;
+
+    private final long _negativeTimeToLive;
+
+    private final String[] _junkNames;
+
+    private final ConcurrentHashMap<String, Entry<StoredObject>> _objects = new ConcurrentHashMap<String, Entry<StoredObject>>();
+
+    private final ConcurrentHashMap<String, Entry<Map<String, StoredObject>>> _children = new ConcurrentHashMap<String, Entry<Map<String, StoredObject>>>();
+
+    /**
+     * names of the children of folders, for the junk names
+     */
+    private final ConcurrentHashMap<String, Entry<Set<String>>> _names = new ConcurrentHashMap<String, Entry<Set<String>>>();
+
+    /**
+     * the paths with entries in any of the maps, sorted so that the paths
+     * below a folder are a range of them
+     */
+    private final TreeSet<String> _paths = new TreeSet<String>();
+
+    /**
+     * guards _paths and every change of the maps, reading the maps needs
+     * no lock
+     */
+    private final ReentrantLock _lock = new ReentrantLock();
+
+    /**
+     * counts the invalidations, a value read from the store is only cached
+     * if nothing was invalidated while it was read
+     */
+    private final AtomicLong _invalidations = new AtomicLong();
+
+    public CachingStore(IWebdavStore store, int maxEntries, long timeToLive) {
+        this(store, maxEntries, timeToLive, 0, new String[0]);
+    }
+
+    /**
+     * @param negativeTimeToLive
+     *      time (ms) an object is known not to exist, 0 to ask the store
+     *      every time
+     * @param junkNames
+     *      names that are looked up in the listing of their folder, '*' and
+     *      '?' are wildcards
+     */
+    public CachingStore(IWebdavStore store, int maxEntries, long timeToLive,
+            long negativeTimeToLive, String[] junkNames) {
+        super(store);
+        _maxEntries = maxEntries;
+        _timeToLive = timeToLive;
+        _negativeTimeToLive = negativeTimeToLive;
+        _junkNames = junkNames;
+    }
+
+    public CachingStore(IWebdavStore store, Properties properties) {
+        this(store, Integer.parseInt(properties.getProperty(
+                CACHE_SIZE_PARAMETER, "10000").trim()), Long
+                .parseLong(properties.getProperty(CACHE_TTL_PARAMETER, "5000")
+                        .trim()), Long.parseLong(properties.getProperty(
+                NEGATIVE_CACHE_TTL_PARAMETER, "2000").trim()),
+                parseNames(properties.getProperty(JUNK_NAMES_PARAMETER, "")));
+    }
+
+    private static String[] parseNames(String names) {
+        List<String> list = new ArrayList<String>();
+        StringTokenizer tokenizer = new StringTokenizer(names, ",");
+        while (tokenizer.hasMoreTokens()) {
+            String name = tokenizer.nextToken().trim();
+            if (name.length() > 0) {
+                list.add(name);
+            }
+        }
+        return list.toArray(new String[list.size()]);
+    }
+
+    protected ITransaction unwrap(ITransaction transaction) {
+        return transaction instanceof Transaction
+                ? ((Transaction) transaction)._transaction : transaction;
+    }
+
+    public ITransaction begin(Principal principal) {
+        return new Transaction(super.begin(principal), principal);
+    }
+
+    public void commit(ITransaction transaction) {
+        try {
+            super.commit(transaction);
+        } finally {
+            // a store may only publish changes on commit
+            invalidateChanged(transaction);
+        }
+    }
+
+    public void rollback(ITransaction transaction) {
+        try {
+            super.rollback(transaction);
+        } finally {
+            invalidateChanged(transaction);
+        }
+    }
+
+    public void createFolder(ITransaction transaction, String folderUri) {
+        changed(transaction, folderUri);
+        super.createFolder(transaction, folderUri);
+    }
+
+    public void createResource(ITransaction transaction, String resourceUri) {
+        changed(transaction, resourceUri);
+        super.createResource(transaction, resourceUri);
+    }
+
+    public long setResourceContent(ITransaction transaction,
+            String resourceUri, InputStream content, String contentType,
+            String characterEncoding) {
+        changed(transaction, resourceUri);
+        return super.setResourceContent(transaction, resourceUri, content,
+                contentType, characterEncoding);
+    }
+
+    public long[][] writeResourceContent(ITransaction transaction,
+            String resourceUri, long offset, long length,
+            long resourceLength, InputStream content) {
+        changed(transaction, resourceUri);
+        return super.writeResourceContent(transaction, resourceUri, offset,
+                length, resourceLength, content);
+    }
+
+    public void removeObject(ITransaction transaction, String uri) {
+        changed(transaction, uri);
+        super.removeObject(transaction, uri);
+    }
+
+    public boolean moveObject(ITransaction transaction, String sourceUri,
+            String destinationUri) {
+        changed(transaction, sourceUri);
+        changed(transaction, destinationUri);
+        return super.moveObject(transaction, sourceUri, destinationUri);
+    }
+
+    public boolean copyResource(ITransaction transaction, String sourceUri,
+            String destinationUri) {
+        changed(transaction, destinationUri);
+        return super.copyResource(transaction, sourceUri, destinationUri);
+    }
+
+    public StoredObject getStoredObject(ITransaction transaction, String uri) {
+        if (!useCache(transaction)) {
+            return super.getStoredObject(transaction, uri);
+        }
+        String path = normalize(uri);
+        Entry<StoredObject> entry = _objects.get(path);
+        if (entry != null && entry.isValid()) {
+            entry.used();
+            return entry._value == null ? null : copy(entry._value);
+        }
+        if (!path.equals("/")) {
+            // the names in the folder tell if the object exists, junk names
+            // are worth reading them
+            String parent = getParent(path);
+            String name = path.substring(parent.length() == 1 ? 1 : parent
+                    .length() + 1);
+            Set<String> siblings = null;
+            if (isJunk(name)) {
+                siblings = getNames(transaction, parent);
+                if (siblings == null) {
+                    return null;
+                }
+            } else {
+                Entry<Map<String, StoredObject>> listing = _children
+                        .get(parent);
+                if (listing != null && listing.isValid()) {
+                    listing.used();
+                    siblings = listing._value.keySet();
+                }
+            }
+            if (siblings != null && !siblings.contains(name)) {
+                return null;
+            }
+        }
+        long invalidations = _invalidations.get();
+        StoredObject so = super.getStoredObject(transaction, uri);
+        if (so != null) {
+            put(_objects, path, copy(so), _timeToLive, invalidations);
+        } else if (_negativeTimeToLive > 0) {
+            put(_objects, path, null, _negativeTimeToLive, invalidations);
+        }
+        return so;
+    }
+
+    /**
+     * @return the names of the children of a folder, from its cached
+     *  listing if there is one, <code>null</code> if it is no folder. The
+     *  set must not be changed
+     */
+    private Set<String> getNames(ITransaction transaction, String path) {
+        Entry<Set<String>> entry = _names.get(path);
+        if (entry != null && entry.isValid()) {
+            entry.used();
+            return entry._value;
+        }
+        Entry<Map<String, StoredObject>> listing = _children.get(path);
+        if (listing != null && listing.isValid()) {
+            listing.used();
+            // cached listings are never changed
+            return listing._value.keySet();
+        }
+        long invalidations = _invalidations.get();
+        String[] names = super.getChildrenNames(transaction, path);
+        if (names == null) {
+            return null;
+        }
+        Set<String> set = new HashSet<String>(Arrays.asList(names));
+        put(_names, path, set, _timeToLive, invalidations);
+        return set;
+    }
+
+    private boolean isJunk(String name) {
+        for (int i = 0; i < _junkNames.length; i++) {
+            if (matches(_junkNames[i], 0, name, 0)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return true if the name matches the pattern, '*' stands for any
+     *  characters and '?' for one
+     */
+    private static boolean matches(String pattern, int p, String name, int n) {
+        while (p < pattern.length()) {
+            char c = pattern.charAt(p);
+            if (c == '*') {
+                for (int i = n; i <= name.length(); i++) {
+                    if (matches(pattern, p + 1, name, i)) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+            if (n >= name.length() || (c != '?' && c != name.charAt(n))) {
+                return false;
+            }
+            p++;
+            n++;
+        }
+        return n == name.length();
+    }
+
+    public long getResourceLength(ITransaction transaction, String path) {
+        if (useCache(transaction)) {
+            Entry<StoredObject> entry = _objects.get(normalize(path));
+            if (entry != null && entry.isValid() && entry._value != null) {
+                entry.used();
+                return entry._value.getResourceLength();
+            }
+        }
+        return super.getResourceLength(transaction, path);
+    }
+
+    public String[] getChildrenNames(ITransaction transaction,
+            String folderUri) {
+        if (!useCache(transaction)) {
+            return super.getChildrenNames(transaction, folderUri);
+        }
+        Map<String, StoredObject> children = getChildren(transaction,
+                folderUri);
+        return children == null ? null : children.keySet().toArray(
+                new String[children.size()]);
+    }
+
+    public Map<String, StoredObject> getChildren(ITransaction transaction,
+            String folderUri) {
+        if (!useCache(transaction)) {
+            return super.getChildren(transaction, folderUri);
+        }
+        String path = normalize(folderUri);
+        Entry<Map<String, StoredObject>> entry = _children.get(path);
+        if (entry == null || !entry.isValid()) {
+            long invalidations = _invalidations.get();
+            Map<String, StoredObject> children = super.getChildren(
+                    transaction, folderUri);
+            if (children == null) {
+                return null;
+            }
+            Map<String, StoredObject> cached = new LinkedHashMap<String, StoredObject>();
+            for (Map.Entry<String, StoredObject> child : children.entrySet()) {
+                StoredObject so = child.getValue();
+                cached.put(child.getKey(), so == null ? null : copy(so));
+                if (so != null) {
+                    // the following requests on the children need them too
+                    put(_objects, getChild(path, child.getKey()), copy(so),
+                            _timeToLive, invalidations);
+                }
+            }
+            entry = put(_children, path, cached, _timeToLive, invalidations);
+        } else {
+            entry.used();
+        }
+        Map<String, StoredObject> children = new LinkedHashMap<String, StoredObject>();
+        for (Map.Entry<String, StoredObject> child : entry._value.entrySet()) {
+            StoredObject so = child.getValue();
+            children.put(child.getKey(), so == null ? null : copy(so));
+        }
+        return children;
+    }
+
+    /**
+     * drops all entries
+     */
+    public void clear() {
+        _lock.lock();
+        try {
+            _invalidations.incrementAndGet();
+            _objects.clear();
+            _children.clear();
+            _names.clear();
+            _paths.clear();
+        } finally {
+            _lock.unlock();
+        }
+    }
+
+    private boolean useCache(ITransaction transaction) {
+        return !(transaction instanceof Transaction)
+                || !((Transaction) transaction).hasChanged();
+    }
+
+    /**
+     * drops the entries of an object, of the objects below it and the
+     * listing of its folder, before the store changes it
+     */
+    private void changed(ITransaction transaction, String uri) {
+        String path = normalize(uri);
+        if (transaction instanceof Transaction) {
+            ((Transaction) transaction).changed(path);
+        }
+        invalidate(path);
+    }
+
+    private void invalidateChanged(ITransaction transaction) {
+        if (transaction instanceof Transaction) {
+            for (String path : ((Transaction) transaction).takeChanged()) {
+                invalidate(path);
+            }
+        }
+    }
+
+    private void invalidate(String path) {
+        String prefix = path.equals("/") ? path : path + "/";
+        _lock.lock();
+        try {
+            _invalidations.incrementAndGet();
+            remove(path);
+            remove(getParent(path));
+            // only the range of the paths below, not every entry
+            SortedSet<String> below = _paths.subSet(prefix, prefix
+                    + Character.MAX_VALUE);
+            for (String p : below) {
+                _objects.remove(p);
+                _children.remove(p);
+                _names.remove(p);
+            }
+            below.clear();
+        } finally {
+            _lock.unlock();
+        }
+    }
+
+    /**
+     * drops the entries of a path, called with _lock held
+     */
+    private void remove(String path) {
+        _objects.remove(path);
+        _children.remove(path);
+        _names.remove(path);
+        _paths.remove(path);
+    }
+
+    private <T> Entry<T> put(ConcurrentHashMap<String, Entry<T>> map,
+            String path, T value, long timeToLive, long invalidations) {
+        Entry<T> entry = new Entry<T>(value, System.currentTimeMillis()
+                + timeToLive);
+        _lock.lock();
+        try {
+            if (_invalidations.get() != invalidations) {
+                // may be outdated already
+                return entry;
+            }
+            if (map.size() >= _maxEntries) {
+                evict(map);
+            }
+            map.put(path, entry);
+            _paths.add(path);
+        } finally {
+            _lock.unlock();
+        }
+        return entry;
+    }
+
+    /**
+     * makes room in a full map, expired entries go first, then the least
+     * recently used ones until a quarter of the entries is dropped. Called
+     * with _lock held
+     */
+    private <T> void evict(ConcurrentHashMap<String, Entry<T>> map) {
+        List<Map.Entry<String, Entry<T>>> victims = new ArrayList<Map.Entry<String, Entry<T>>>();
+        List<Map.Entry<String, Entry<T>>> valid = new ArrayList<Map.Entry<String, Entry<T>>>(
+                map.size());
+        for (Map.Entry<String, Entry<T>> entry : map.entrySet()) {
+            if (entry.getValue().isValid()) {
+                valid.add(entry);
+            } else {
+                victims.add(entry);
+            }
+        }
+        int quarter = Math.max(1, _maxEntries / 4);
+        if (victims.size() < quarter) {
+            Collections.sort(valid,
+                    new Comparator<Map.Entry<String, Entry<T>>>() {
+                        public int compare(Map.Entry<String, Entry<T>> a,
+                                Map.Entry<String, Entry<T>> b) {
+                            long x = a.getValue()._lastUsed;
+                            long y = b.getValue()._lastUsed;
+                            return x < y ? -1 : (x == y ? 0 : 1);
+                        }
+                    });
+            for (int i = 0; i < valid.size() && victims.size() < quarter; i++) {
+                victims.add(valid.get(i));
+            }
+        }
+        LOG.trace("CachingStore: evicting " + victims.size() + " entries");
+        for (Map.Entry<String, Entry<T>> victim : victims) {
+            String path = victim.getKey();
+            map.remove(path);
+            if (!_objects.containsKey(path) && !_children.containsKey(path)
+                    && !_names.containsKey(path)) {
+                _paths.remove(path);
+            }
+        }
+    }
+
+    private static class Entry<T> {
+
+        final T _value;
+
+        final long _expiresAt;
+
+        /**
+         * when the entry was last used (System.nanoTime()), a plain write
+         * so that reading the cache doesn't contend on a shared order
+         */
+        volatile long _lastUsed = System.nanoTime();
+
+        Entry(T value, long expiresAt) {
+            _value = value;
+            _expiresAt = expiresAt;
+        }
+
+        void used() {
+            _lastUsed = System.nanoTime();
+        }
+
+        boolean isValid() {
+            return System.currentTimeMillis() < _expiresAt;
+        }
+    }
+
+    /**
+     * the transaction of the decorated store and the paths it changed
+     */
+    private static class Transaction implements ITransaction {
+
+        final ITransaction _transaction;
+
+        private final Principal _principal;
+
+        private Set<String> _changed = null;
+
+        Transaction(ITransaction transaction, Principal principal) {
+            _transaction = transaction;
+            _principal = principal;
+        }
+
+        public Principal getPrincipal() {
+            return _principal;
+        }
+
+        synchronized void changed(String path) {
+            if (_changed == null) {
+                _changed = new HashSet<String>();
+            }
+            _changed.add(path);
+        }
+
+        synchronized boolean hasChanged() {
+            return _changed != null;
+        }
+
+        synchronized Set<String> takeChanged() {
+            Set<String> changed = _changed;
+            _changed = null;
+            return changed == null ? new HashSet<String>() : changed;
+        }
+    }
+
+}
@@ -0,0 +1,856 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package net.sf.webdav;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PushbackInputStream;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.channels.WritableByteChannel;
+import java.security.Principal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.StringTokenizer;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+
+import net.sf.webdav.exceptions.WebdavException;
+
+/**
+ * Store decorator keeping compressible resources (text, XML, JSON, logs)
+ * gzip compressed in the decorated store.
+ *
+ * Whether a resource is compressible is decided by the extension of its
+ * name, PUT doesn't hand the content type to the store. The length of the
+ * uncompressed content is kept in an index beside the store, so
+ * StoredObjects and getResourceLength() report it without inflating
+ * anything. Readers get the uncompressed content, except for
+ * getEncodedResourceContent(), which DoGet uses to send the compressed bytes
+ * as they are to clients accepting gzip.
+ *
+ * The index is an append-only log of the compressed paths, changes made by
+ * a transaction are written when it is committed. As that is after the
+ * decorated store committed the content, readers don't trust the index
+ * whether content is compressed, they look for the gzip header this store
+ * writes.
+ *
+ * @author re
+ */
+public class CompressingStore extends StoreDecorator {
+
+    private static org.slf4j.Logger LOG = org.slf4j.LoggerFactory
+            .getLogger(CompressingStore.class);
+
+    /**
+     * init-parameter: comma separated extensions of compressible resources
+     */
+    public static final String COMPRESS_EXTENSIONS_PARAMETER = "compress-extensions";
+
+    /**
+     * init-parameter: file of the index, defaults to the rootpath followed
+     * by ".compression-index"
+     */
+    public static final String COMPRESSION_INDEX_PARAMETER = "compression-index";
+
+    public static final String DEFAULT_EXTENSIONS = "txt,log,xml,json,csv,html,htm,css,js,svg,md";
+
+    private static final String ENCODING = "gzip";
+
+    /**
+     * log records the index is compacted at, in addition to twice its size
+     */
+    private static final int COMPACT_SLACK = 1000;
+
+    private static int BUF_SIZE = 65536;
+
+    private final Set<String> _extensions;
+
+    private final File _indexFile;
+
+    /**
+     * uncompressed length of the compressed resources, by normalized path
+     */
+    private final ConcurrentHashMap<String, Long> _index = new ConcurrentHashMap<String, Long>();
+
+    /**
+     * guards writing the log and changing the index
+     */
+    private final ReentrantLock _lock = new ReentrantLock();
+
+    private Writer _log;
+
+    private int _logRecords;
+
+    /**
+     * @param extensions
+     *      extensions of compressible resources, without the dot
+     * @param indexFile
+     *      file the index is kept in
+     */
+    public CompressingStore(IWebdavStore store, String[] extensions,
+            File indexFile) {
+        super(store);
+        _extensions = new HashSet<String>();
+        for (int i = 0; i < extensions.length; i++) {
+            _extensions.add(extensions[i].toLowerCase());
+        }
+        _indexFile = indexFile;
+        _lock.lock();
+        try {
+            load();
+            compact();
+        } finally {
+            _lock.unlock();
+        }
+    }
+
+    public CompressingStore(IWebdavStore store, Properties properties) {
+        this(store, parseExtensions(properties.getProperty(
+                COMPRESS_EXTENSIONS_PARAMETER, DEFAULT_EXTENSIONS)),
+                getIndexFile(properties));
+    }
+
+    private static String[] parseExtensions(String extensions) {
+        List<String> list = new ArrayList<String>();
+        StringTokenizer tokenizer = new StringTokenizer(extensions, ",");
+        while (tokenizer.hasMoreTokens()) {
+            String extension = tokenizer.nextToken().trim();
+            if (extension.startsWith(".")) {
+                extension = extension.substring(1);
+            }
+            if (extension.length() > 0) {
+                list.add(extension);
+            }
+        }
+        return list.toArray(new String[list.size()]);
+    }
+
+    private static File getIndexFile(Properties properties) {
+        String indexFile = properties.getProperty(COMPRESSION_INDEX_PARAMETER);
+        if (indexFile != null && indexFile.trim().length() > 0) {
+            return new File(indexFile.trim());
+        }
+        String rootPath = properties.getProperty("rootpath");
+        if (rootPath == null || rootPath.equals("*WAR-FILE-ROOT*")) {
+            throw new WebdavException("missing parameter: "
+                    + COMPRESSION_INDEX_PARAMETER);
+        }
+        File root = new File(rootPath).getAbsoluteFile();
+        return new File(root.getParentFile(), root.getName()
+                + ".compression-index");
+    }
+
+    protected ITransaction unwrap(ITransaction transaction) {
+        return transaction instanceof Transaction
+                ? ((Transaction) transaction)._transaction : transaction;
+    }
+
+    public ITransaction begin(Principal principal) {
+        return new Transaction(super.begin(principal), principal);
+    }
+
+    public void commit(ITransaction transaction) {
+        super.commit(transaction);
+        if (transaction instanceof Transaction) {
+            List<String[]> changes = ((Transaction) transaction)._changes;
+            _lock.lock();
+            try {
+                for (String[] change : changes) {
+                    apply(change, true);
+                }
+            } finally {
+                _lock.unlock();
+            }
+            changes.clear();
+        }
+    }
+
+    public void rollback(ITransaction transaction) {
+        if (transaction instanceof Transaction) {
+            ((Transaction) transaction)._changes.clear();
+        }
+        super.rollback(transaction);
+    }
+
+    public void destroy() {
+        _lock.lock();
+        try {
+            closeLog();
+        } finally {
+            _lock.unlock();
+        }
+        super.destroy();
+    }
+
+    public void createResource(ITransaction transaction, String resourceUri) {
+        super.createResource(transaction, resourceUri);
+        change(transaction, "D", normalize(resourceUri), null);
+    }
+
+    public long setResourceContent(ITransaction transaction,
+            String resourceUri, InputStream content, String contentType,
+            String characterEncoding) {
+        String path = normalize(resourceUri);
+        if (!isCompressible(path)) {
+            long length = super.setResourceContent(transaction, resourceUri,
+                    content, contentType, characterEncoding);
+            change(transaction, "D", path, null);
+            return length;
+        }
+        GzipInputStream gzip = new GzipInputStream(content);
+        try {
+            super.setResourceContent(transaction, resourceUri, gzip,
+                    contentType, characterEncoding);
+        } finally {
+            gzip.end();
+        }
+        long length = gzip.getLength();
+        change(transaction, "S", path, String.valueOf(length));
+        return length;
+    }
+
+    /**
+     * parts are stored as they are, the completed resource isn't compressed
+     */
+    public long[][] writeResourceContent(ITransaction transaction,
+            String resourceUri, long offset, long length,
+            long resourceLength, InputStream content) {
+        long[][] received = super.writeResourceContent(transaction,
+                resourceUri, offset, length, resourceLength, content);
+        if (received != null && received.length == 1 && received[0][0] == 0
+                && received[0][1] == resourceLength - 1) {
+            change(transaction, "D", normalize(resourceUri), null);
+        }
+        return received;
+    }
+
+    public void removeObject(ITransaction transaction, String uri) {
+        super.removeObject(transaction, uri);
+        change(transaction, "D", normalize(uri), null);
+    }
+
+    public boolean moveObject(ITransaction transaction, String sourceUri,
+            String destinationUri) {
+        if (!super.moveObject(transaction, sourceUri, destinationUri)) {
+            return false;
+        }
+        change(transaction, "M", normalize(sourceUri),
+                normalize(destinationUri));
+        return true;
+    }
+
+    public boolean copyResource(ITransaction transaction, String sourceUri,
+            String destinationUri) {
+        if (!super.copyResource(transaction, sourceUri, destinationUri)) {
+            return false;
+        }
+        Long length = getLength(transaction, normalize(sourceUri));
+        if (length == null) {
+            change(transaction, "D", normalize(destinationUri), null);
+        } else {
+            change(transaction, "S", normalize(destinationUri), length
+                    .toString());
+        }
+        return true;
+    }
+
+    public StoredObject getStoredObject(ITransaction transaction, String uri) {
+        StoredObject so = super.getStoredObject(transaction, uri);
+        if (so != null && so.isResource()) {
+            Long length = getLength(transaction, normalize(uri));
+            if (length != null) {
+                so.setResourceLength(length.longValue());
+            }
+        }
+        return so;
+    }
+
+    public Map<String, StoredObject> getChildren(ITransaction transaction,
+            String folderUri) {
+        Map<String, StoredObject> children = super.getChildren(transaction,
+                folderUri);
+        if (children != null) {
+            String path = normalize(folderUri);
+            for (Map.Entry<String, StoredObject> child : children.entrySet()) {
+                StoredObject so = child.getValue();
+                if (so != null && so.isResource()) {
+                    Long length = getLength(transaction, getChild(path, child
+                            .getKey()));
+                    if (length != null) {
+                        so.setResourceLength(length.longValue());
+                    }
+                }
+            }
+        }
+        return children;
+    }
+
+    public long getResourceLength(ITransaction transaction, String path) {
+        Long length = getLength(transaction, normalize(path));
+        if (length != null) {
+            return length.longValue();
+        }
+        return super.getResourceLength(transaction, path);
+    }
+
+    public InputStream getResourceContent(ITransaction transaction,
+            String resourceUri) {
+        InputStream in = super.getResourceContent(transaction, resourceUri);
+        if (in == null || !mayBeCompressed(transaction, resourceUri)) {
+            return in;
+        }
+        PushbackInputStream pushback = new PushbackInputStream(in,
+                GzipInputStream.HEADER.length);
+        try {
+            byte[] header = new byte[GzipInputStream.HEADER.length];
+            int read = readHeader(pushback, header);
+            pushback.unread(header, 0, read);
+            if (read == header.length
+                    && Arrays.equals(header, GzipInputStream.HEADER)) {
+                return inflate(pushback);
+            }
+            return pushback;
+        } catch (IOException e) {
+            close(pushback);
+            throw new WebdavException(e);
+        }
+    }
+
+    public InputStream getResourceContent(ITransaction transaction,
+            String resourceUri, long offset, long length) {
+        if (!isStoredCompressed(transaction, resourceUri)) {
+            return super.getResourceContent(transaction, resourceUri, offset,
+                    length);
+        }
+        return range(getResourceContent(transaction, resourceUri), offset,
+                length);
+    }
+
+    public long transferResourceContent(ITransaction transaction,
+            String resourceUri, long offset, long length,
+            WritableByteChannel target) {
+        if (!isStoredCompressed(transaction, resourceUri)) {
+            return super.transferResourceContent(transaction, resourceUri,
+                    offset, length, target);
+        }
+        return transfer(getResourceContent(transaction, resourceUri, offset,
+                length < 0 ? Long.MAX_VALUE : length), target);
+    }
+
+    public String getContentEncoding(ITransaction transaction,
+            String resourceUri) {
+        if (isStoredCompressed(transaction, resourceUri)) {
+            return ENCODING;
+        }
+        return super.getContentEncoding(transaction, resourceUri);
+    }
+
+    public long getEncodedResourceLength(ITransaction transaction,
+            String resourceUri) {
+        if (isStoredCompressed(transaction, resourceUri)) {
+            return _store.getResourceLength(unwrap(transaction), resourceUri);
+        }
+        return super.getEncodedResourceLength(transaction, resourceUri);
+    }
+
+    public InputStream getEncodedResourceContent(ITransaction transaction,
+            String resourceUri) {
+        if (isStoredCompressed(transaction, resourceUri)) {
+            return _store.getResourceContent(unwrap(transaction), resourceUri);
+        }
+        return super.getEncodedResourceContent(transaction, resourceUri);
+    }
+
+    /**
+     * @return <code>true</code> if the extension of the name is one of the
+     *  compressible ones
+     */
+    protected boolean isCompressible(String path) {
+        String name = path.substring(path.lastIndexOf('/') + 1);
+        int dot = name.lastIndexOf('.');
+        return dot != -1
+                && _extensions.contains(name.substring(dot + 1).toLowerCase());
+    }
+
+    /**
+     * @return <code>true</code> if the resource can be stored compressed,
+     *  by its name or by the index
+     */
+    private boolean mayBeCompressed(ITransaction transaction,
+            String resourceUri) {
+        String path = normalize(resourceUri);
+        return isCompressible(path) || getLength(transaction, path) != null;
+    }
+
+    /**
+     * @return <code>true</code> if the stored content starts with the gzip
+     *  header written by this store
+     */
+    private boolean isStoredCompressed(ITransaction transaction,
+            String resourceUri) {
+        if (!mayBeCompressed(transaction, resourceUri)) {
+            return false;
+        }
+        byte[] header = new byte[GzipInputStream.HEADER.length];
+        InputStream in = super.getResourceContent(transaction, resourceUri, 0,
+                header.length);
+        if (in == null) {
+            return false;
+        }
+        try {
+            return readHeader(in, header) == header.length
+                    && Arrays.equals(header, GzipInputStream.HEADER);
+        } catch (IOException e) {
+            throw new WebdavException(e);
+        } finally {
+            close(in);
+        }
+    }
+
+    /**
+     * @return number of bytes read, less than the length of the header only
+     *  at the end of the stream
+     */
+    private static int readHeader(InputStream in, byte[] header)
+            throws IOException {
+        int position = 0;
+        while (position < header.length) {
+            int read = in.read(header, position, header.length - position);
+            if (read == -1) {
+                break;
+            }
+            position += read;
+        }
+        return position;
+    }
+
+    private static InputStream inflate(InputStream in) {
+        try {
+            return new GZIPInputStream(in, BUF_SIZE);
+        } catch (IOException e) {
+            close(in);
+            throw new WebdavException(e);
+        }
+    }
+
+    private static void close(InputStream in) {
+        try {
+            in.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    /**
+     * @return the uncompressed length of a resource as the transaction sees
+     *  it, <code>null</code> if the resource isn't compressed
+     */
+    private Long getLength(ITransaction transaction, String path) {
+        if (transaction instanceof Transaction) {
+            List<String[]> changes = ((Transaction) transaction)._changes;
+            synchronized (changes) {
+                // the latest change of the transaction that touches the path
+                for (int i = changes.size() - 1; i >= 0; i--) {
+                    String[] change = changes.get(i);
+                    if (change[0].equals("S")) {
+                        if (change[1].equals(path)) {
+                            return Long.valueOf(change[2]);
+                        }
+                    } else if (change[0].equals("D")) {
+                        if (isBelow(path, change[1])) {
+                            return null;
+                        }
+                    } else if (isBelow(path, change[2])) {
+                        // look up where it was moved from
+                        path = change[1] + path.substring(change[2].length());
+                    } else if (isBelow(path, change[1])) {
+                        return null;
+                    }
+                }
+            }
+        }
+        return _index.get(path);
+    }
+
+    private static boolean isBelow(String path, String folder) {
+        return path.equals(folder) || folder.equals("/")
+                || path.startsWith(folder + "/");
+    }
+
+    /**
+     * remembers a change until the transaction is committed, it is applied
+     * at once without a transaction of this store
+     */
+    private void change(ITransaction transaction, String type, String path,
+            String value) {
+        String[] change = new String[] { type, path, value };
+        if (transaction instanceof Transaction) {
+            List<String[]> changes = ((Transaction) transaction)._changes;
+            synchronized (changes) {
+                changes.add(change);
+            }
+        } else {
+            _lock.lock();
+            try {
+                apply(change, true);
+            } finally {
+                _lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * changes the index and logs the change if something changed, called
+     * with _lock held
+     */
+    private void apply(String[] change, boolean log) {
+        boolean changed;
+        if (change[0].equals("S")) {
+            Long length = Long.valueOf(change[2]);
+            changed = !length.equals(_index.put(change[1], length));
+        } else if (change[0].equals("D")) {
+            changed = _index.remove(change[1]) != null;
+            String prefix = change[1].equals("/") ? "/" : change[1] + "/";
+            for (Iterator<String> it = _index.keySet().iterator(); it
+                    .hasNext();) {
+                if (it.next().startsWith(prefix)) {
+                    it.remove();
+                    changed = true;
+                }
+            }
+        } else {
+            changed = false;
+            String source = change[1];
+            String destination = change[2];
+            Map<String, Long> moved = new ConcurrentHashMap<String, Long>();
+            for (Iterator<Map.Entry<String, Long>> it = _index.entrySet()
+                    .iterator(); it.hasNext();) {
+                Map.Entry<String, Long> entry = it.next();
+                String path = entry.getKey();
+                if (isBelow(path, destination)) {
+                    // replaced by the moved object
+                    it.remove();
+                    changed = true;
+                } else if (isBelow(path, source)) {
+                    moved.put(destination
+                            + path.substring(source.length()), entry
+                            .getValue());
+                    it.remove();
+                    changed = true;
+                }
+            }
+            _index.putAll(moved);
+        }
+        if (changed && log) {
+            write(change[0]
+                    + "\t"
+                    + encode(change[1])
+                    + (change[0].equals("D") ? "" : "\t"
+                            + (change[0].equals("S") ? change[2]
+                                    : encode(change[2]))));
+        }
+    }
+
+    /**
+     * reads the index from the log, called with _lock held
+     */
+    private void load() {
+        _index.clear();
+        if (!_indexFile.exists()) {
+            return;
+        }
+        try {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(
+                    new FileInputStream(_indexFile), "UTF-8"));
+            try {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    replay(line);
+                }
+            } finally {
+                reader.close();
+            }
+        } catch (IOException e) {
+            throw new WebdavException(e);
+        }
+    }
+
+    private void replay(String line) {
+        String[] fields = line.split("\t", -1);
+        try {
+            String type = fields[0];
+            if (type.equals("S")) {
+                Long.parseLong(fields[2]);
+                apply(new String[] { type, decode(fields[1]), fields[2] },
+                        false);
+            } else if (type.equals("D")) {
+                apply(new String[] { type, decode(fields[1]), null }, false);
+            } else if (type.equals("M")) {
+                apply(new String[] { type, decode(fields[1]),
+                        decode(fields[2]) }, false);
+            } else {
+                LOG.warn("CompressingStore: invalid index record: " + line);
+            }
+        } catch (RuntimeException e) {
+            // the last record may be cut off by a crash
+            LOG.warn("CompressingStore: invalid index record: " + line);
+        }
+    }
+
+    private void write(String record) {
+        try {
+            if (_log == null) {
+                _log = openLog(_indexFile, true);
+            }
+            _log.write(record);
+            _log.write('\n');
+            _log.flush();
+        } catch (IOException e) {
+            LOG.error("CompressingStore: writing the index failed");
+            throw new WebdavException(e);
+        }
+        _logRecords++;
+        if (_logRecords > 2 * _index.size() + COMPACT_SLACK) {
+            compact();
+        }
+    }
+
+    /**
+     * replaces the log by one record per compressed resource, called with
+     * _lock held
+     */
+    private void compact() {
+        File compacted = new File(_indexFile.getPath() + ".tmp");
+        try {
+            closeLog();
+            Writer writer = openLog(compacted, false);
+            int records = 0;
+            try {
+                for (Map.Entry<String, Long> entry : _index.entrySet()) {
+                    writer.write("S\t" + encode(entry.getKey()) + "\t"
+                            + entry.getValue() + "\n");
+                    records++;
+                }
+            } finally {
+                writer.close();
+            }
+            if (!compacted.renameTo(_indexFile)) {
+                // some platforms (Windows) don't rename over an existing file
+                if (!_indexFile.delete() || !compacted.renameTo(_indexFile)) {
+                    throw new IOException("cannot replace " + _indexFile);
+                }
+            }
+            _logRecords = records;
+        } catch (IOException e) {
+            LOG.error("CompressingStore: compacting the index failed", e);
+            compacted.delete();
+        }
+    }
+
+    private void closeLog() {
+        if (_log != null) {
+            try {
+                _log.close();
+            } catch (IOException e) {
+                LOG.warn("CompressingStore: closing the index failed", e);
+            }
+            _log = null;
+        }
+    }
+
+    private static Writer openLog(File file, boolean append)
+            throws IOException {
+        return new BufferedWriter(new OutputStreamWriter(new FileOutputStream(
+                file, append), "UTF-8"));
+    }
+
+    private static String encode(String path) {
+        try {
+            return URLEncoder.encode(path, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e.getMessage());
+        }
+    }
+
+    private static String decode(String s) {
+        try {
+            return URLDecoder.decode(s, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e.getMessage());
+        }
+    }
+
+    /**
+     * the transaction of the decorated store and the changes of the index it
+     * made, guarded by the list
+     */
+    private static class Transaction implements ITransaction {
+
+        final ITransaction _transaction;
+
+        private final Principal _principal;
+
+        /**
+         * type ("S" for a compressed resource with its length, "D" for a
+         * removed path, "M" for a moved one), path and length or destination
+         */
+        final List<String[]> _changes = new ArrayList<String[]>();
+
+        Transaction(ITransaction transaction, Principal principal) {
+            _transaction = transaction;
+            _principal = principal;
+        }
+
+        public Principal getPrincipal() {
+            return _principal;
+        }
+    }
+
+    /**
+     * reads another stream gzip compressed, counting the uncompressed bytes.
+     * GZIPOutputStream can't be used, the store pulls the content.
+     */
+    private static class GzipInputStream extends InputStream {
+
+        static final byte[] HEADER = { 0x1f, (byte) 0x8b,
+                Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff };
+
+        private final InputStream _in;
+
+        private final Deflater _deflater = new Deflater(Deflater.BEST_SPEED,
+                true);
+
+        private final CRC32 _crc = new CRC32();
+
+        private final byte[] _input = new byte[BUF_SIZE];
+
+        private final byte[] _output = new byte[BUF_SIZE];
+
+        private int _position;
+
+        private int _limit;
+
+        private long _length;
+
+        private boolean _header;
+
+        private boolean _trailer;
+
+        GzipInputStream(InputStream in) {
+            _in = in;
+        }
+
+        /**
+         * @return number of uncompressed bytes read
+         */
+        long getLength() {
+            return _length;
+        }
+
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            int read = read(b, 0, 1);
+            return read == -1 ? -1 : b[0] & 0xff;
+        }
+
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            while (_position == _limit) {
+                if (!fill()) {
+                    return -1;
+                }
+            }
+            int n = Math.min(len, _limit - _position);
+            System.arraycopy(_output, _position, b, off, n);
+            _position += n;
+            return n;
+        }
+
+        /**
+         * @return <code>false</code> at the end of the compressed stream
+         */
+        private boolean fill() throws IOException {
+            _position = 0;
+            _limit = 0;
+            if (!_header) {
+                System.arraycopy(HEADER, 0, _output, 0, HEADER.length);
+                _limit = HEADER.length;
+                _header = true;
+                return true;
+            }
+            if (_deflater.finished()) {
+                if (_trailer) {
+                    return false;
+                }
+                writeInt((int) _crc.getValue(), 0);
+                writeInt((int) _length, 4);
+                _limit = 8;
+                _trailer = true;
+                return true;
+            }
+            if (_deflater.needsInput()) {
+                int read = _in.read(_input, 0, _input.length);
+                if (read == -1) {
+                    _deflater.finish();
+                } else if (read > 0) {
+                    _crc.update(_input, 0, read);
+                    _length += read;
+                    _deflater.setInput(_input, 0, read);
+                }
+            }
+            _limit = _deflater.deflate(_output, 0, _output.length);
+            return true;
+        }
+
+        private void writeInt(int value, int offset) {
+            // little endian
+            for (int i = 0; i < 4; i++) {
+                _output[offset + i] = (byte) (value >> (8 * i));
+            }
+        }
+
+        /**
+         * releases the deflater
+         */
+        void end() {
+            _deflater.end();
+        }
+
+        public void close() throws IOException {
+            _in.close();
+        }
+    }
+
+}
@@ -0,0 +1,903 @@
+/*
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package net.sf.webdav;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.Principal;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+import net.sf.webdav.exceptions.WebdavException;
+
+/**
+ * WebdavStore keeping every distinct content only once.
+ *
+ * The content of a resource is stored as a blob file named by its SHA-256
+ * hash, the resources refer to the blobs. Copying a resource just adds a
+ * reference, uploading content that is already there only costs the hashing,
+ * and the hash is a strong ETag. A blob is deleted with its last reference.
+ *
+ * The resources and folders are held in memory and every change is appended
+ * to a log in the root folder, which is replayed at startup and compacted
+ * when it has grown to several times the size of the index. Blobs and log
+ * records are forced to the disk before they are relied on.
+ *
+ * Nothing is transactional: changes are visible at once and survive a
+ * rollback, as with LocalFileSystemStore.
+ *
+ * @author re
+ */
+public class ContentAddressedStore implements IChannelStore,
+        IRandomAccessStore, IChildrenStore, IMoveStore, ICopyStore {
+
+    private static org.slf4j.Logger LOG = org.slf4j.LoggerFactory
+            .getLogger(ContentAddressedStore.class);
+
+    private static int BUF_SIZE = 65536;
+
+    private static final String LOG_FILE = "index.log";
+
+    private static final String BLOB_FOLDER = "blobs";
+
+    private static final String TEMP_PREFIX = "upload-";
+
+    private static final String ROOT = "/";
+
+    /**
+     * log records the index is compacted at, in addition to twice its size
+     */
+    private static final int COMPACT_SLACK = 1000;
+
+    /**
+     * hash of the empty content, the ETag of resources without content
+     */
+    private static final String EMPTY_HASH = "e3b0c44298fc1c149afbf4c8996fb92427ae41e4649b934ca495991b7852b855";
+
+    private final File _root;
+
+    private final File _blobFolder;
+
+    private final ConcurrentHashMap<String, Entry> _index = new ConcurrentHashMap<String, Entry>();
+
+    /**
+     * names of the children of the folders
+     */
+    private final ConcurrentHashMap<String, ConcurrentHashMap<String, Boolean>> _children = new ConcurrentHashMap<String, ConcurrentHashMap<String, Boolean>>();
+
+    /**
+     * references to the blobs, guarded by _lock
+     */
+    private final Map<String, Integer> _references = new HashMap<String, Integer>();
+
+    /**
+     * changes of the index and the blobs are done one at a time, reading
+     * needs no lock
+     */
+    private final ReentrantLock _lock = new ReentrantLock();
+
+    private Writer _log;
+
+    /**
+     * the file under _log, to force the records to the disk
+     */
+    private FileOutputStream _logStream;
+
+    private int _logRecords = 0;
+
+    public ContentAddressedStore(File root) {
+        _root = root;
+        _blobFolder = new File(root, BLOB_FOLDER);
+        if (!_blobFolder.exists() && !_blobFolder.mkdirs()) {
+            throw new WebdavException("root path: "
+                    + _blobFolder.getAbsolutePath()
+                    + " does not exist and could not be created");
+        }
+        _lock.lock();
+        try {
+            load();
+            removeUnreferencedBlobs();
+            compact();
+        } finally {
+            _lock.unlock();
+        }
+    }
+
+    public void destroy() {
+        _lock.lock();
+        try {
+            try {
+                closeLog();
+            } catch (IOException e) {
+                LOG.error("ContentAddressedStore.destroy() failed", e);
+            }
+        } finally {
+            _lock.unlock();
+        }
+    }
+
+    public ITransaction begin(final Principal principal)
+            throws WebdavException {
+        LOG.trace("ContentAddressedStore.begin()");
+        return new ITransaction() {
+            public Principal getPrincipal() {
+                return principal;
+            }
+        };
+    }
+
+    public void checkAuthentication(ITransaction transaction)
+            throws SecurityException {
+        LOG.trace("ContentAddressedStore.checkAuthentication()");
+        // do nothing
+    }
+
+    public void commit(ITransaction transaction) throws WebdavException {
+        // do nothing
+        LOG.trace("ContentAddressedStore.commit()");
+    }
+
+    public void rollback(ITransaction transaction) throws WebdavException {
+        // do nothing
+        LOG.trace("ContentAddressedStore.rollback()");
+    }
+
+    public void createFolder(ITransaction transaction, String uri)
+            throws WebdavException {
+        LOG.trace("ContentAddressedStore.createFolder(" + uri + ")");
+        String path = normalize(uri);
+        _lock.lock();
+        try {
+            checkCreate(path, uri);
+            long now = System.currentTimeMillis();
+            put(path, new Entry(true, null, 0, now, now));
+            append("F", path, "-", "0", now, now);
+        } finally {
+            _lock.unlock();
+        }
+    }
+
+    public void createResource(ITransaction transaction, String uri)
+            throws WebdavException {
+        LOG.trace("ContentAddressedStore.createResource(" + uri + ")");
+        String path = normalize(uri);
+        _lock.lock();
+        try {
+            checkCreate(path, uri);
+            long now = System.currentTimeMillis();
+            put(path, new Entry(false, null, 0, now, now));
+            append("R", path, "-", "0", now, now);
+        } finally {
+            _lock.unlock();
+        }
+    }
+
+    private void checkCreate(String path, String uri) {
+        Entry parent = _index.get(getParent(path));
+        if (parent == null || !parent._folder || _index.containsKey(path)) {
+            throw new WebdavException("cannot create object: " + uri);
+        }
+    }
+
+    public long setResourceContent(ITransaction transaction, String uri,
+            InputStream is, String contentType, String characterEncoding)
+            throws WebdavException {
+        LOG.trace("ContentAddressedStore.setResourceContent(" + uri + ")");
+        String path = normalize(uri);
+
+        // the hash is only known at the end, the content goes to a
+        // temporary file first
+        File temp;
+        String hash;
+        long length = 0;
+        try {
+            temp = File.createTempFile(TEMP_PREFIX, ".tmp", _blobFolder);
+            MessageDigest digest = newDigest();
+            boolean written = false;
+            FileOutputStream os = new FileOutputStream(temp);
+            try {
+                int read;
+                byte[] copyBuffer = new byte[BUF_SIZE];
+                while ((read = is.read(copyBuffer, 0, copyBuffer.length)) != -1) {
+                    digest.update(copyBuffer, 0, read);
+                    os.write(copyBuffer, 0, read);
+                    length += read;
+                }
+                // the log record referring to the blob may not survive a
+                // crash that the blob doesn't
+                os.getChannel().force(false);
+                written = true;
+            } finally {
+                try {
+                    is.close();
+                } finally {
+                    os.close();
+                    if (!written) {
+                        temp.delete();
+                    }
+                }
+            }
+            hash = toHex(digest.digest());
+        } catch (IOException e) {
+            LOG.error("ContentAddressedStore.setResourceContent(" + uri
+                    + ") failed");
+            throw new WebdavException(e);
+        }
+
+        _lock.lock();
+        try {
+            Entry entry = _index.get(path);
+            if (entry == null || entry._folder) {
+                temp.delete();
+                throw new WebdavException("no such resource: " + uri);
+            }
+            File blob = getBlob(hash);
+            if (blob.exists()) {
+                // the same content is already there
+                temp.delete();
+            } else {
+                blob.getParentFile().mkdirs();
+                if (!temp.renameTo(blob)) {
+                    temp.delete();
+                    throw new WebdavException("cannot store content of: "
+                            + uri);
+                }
+            }
+            addReference(hash);
+            long now = System.currentTimeMillis();
+            put(path, new Entry(false, hash, length, entry._creationDate, now));
+            append("R", path, hash, Long.toString(length),
+                    entry._creationDate, now);
+            removeReference(entry._hash);
+        } finally {
+            _lock.unlock();
+        }
+        return length;
+    }
+
+    public String[] getChildrenNames(ITransaction transaction, String uri)
+            throws WebdavException {
+        LOG.trace("ContentAddressedStore.getChildrenNames(" + uri + ")");
+        Map<String, Boolean> children = _children.get(normalize(uri));
+        return children == null ? null : children.keySet().toArray(
+                new String[0]);
+    }
+
+    public Map<String, StoredObject> getChildren(ITransaction transaction,
+            String uri) throws WebdavException {
+        LOG.trace("ContentAddressedStore.getChildren(" + uri + ")");
+        String path = normalize(uri);
+        Map<String, Boolean> children = _children.get(path);
+        if (children == null) {
+            return null;
+        }
+        Map<String, StoredObject> childMap = new LinkedHashMap<String, StoredObject>();
+        for (String name : children.keySet()) {
+            Entry child = _index.get(getChild(path, name));
+            if (child != null) {
+                childMap.put(name, child.toStoredObject());
+            }
+        }
+        return childMap;
+    }
+
+    public void removeObject(ITransaction transaction, String uri)
+            throws WebdavException {
+        LOG.trace("ContentAddressedStore.removeObject(" + uri + ")");
+        String path = normalize(uri);
+        _lock.lock();
+        try {
+            Entry entry = _index.get(path);
+            Map<String, Boolean> children = _children.get(path);
+            if (entry == null || path.equals(ROOT)
+                    || (children != null && !children.isEmpty())) {
+                throw new WebdavException("cannot delete object: " + uri);
+            }
+            remove(path);
+            append("D", path);
+            removeReference(entry._hash);
+        } finally {
+            _lock.unlock();
+        }
+    }
+
+    public boolean moveObject(ITransaction transaction, String sourceUri,
+            String destinationUri) throws WebdavException {
+        LOG.trace("ContentAddressedStore.moveObject(" + sourceUri + ", "
+                + destinationUri + ")");
+        String source = normalize(sourceUri);
+        String destination = normalize(destinationUri);
+        _lock.lock();
+        try {
+            Entry destinationParent = _index.get(getParent(destination));
+            if (!_index.containsKey(source) || source.equals(ROOT)
+                    || _index.containsKey(destination)
+                    || destinationParent == null || !destinationParent._folder
+                    || destination.startsWith(source + "/")) {
+                return false;
+            }
+            move(source, destination);
+            append("M", source, destination);
+        } finally {
+            _lock.unlock();
+        }
+        return true;
+    }
+
+    public boolean copyResource(ITransaction transaction, String sourceUri,
+            String destinationUri) throws WebdavException {
+        LOG.trace("ContentAddressedStore.copyResource(" + sourceUri + ", "
+                + destinationUri + ")");
+        String source = normalize(sourceUri);
+        String destination = normalize(destinationUri);
+        _lock.lock();
+        try {
+            Entry entry = _index.get(source);
+            if (entry == null || entry._folder) {
+                throw new WebdavException("no such resource: " + sourceUri);
+            }
+            Entry old = _index.get(destination);
+            if (old == null) {
+                checkCreate(destination, destinationUri);
+            } else if (old._folder) {
+                return false;
+            }
+            // only the index changes
+            addReference(entry._hash);
+            long now = System.currentTimeMillis();
+            put(destination, new Entry(false, entry._hash, entry._length,
+                    now, now));
+            append("R", destination, entry._hash == null ? "-" : entry._hash,
+                    Long.toString(entry._length), now, now);
+            if (old != null) {
+                removeReference(old._hash);
+            }
+        } finally {
+            _lock.unlock();
+        }
+        return true;
+    }
+
+    public InputStream getResourceContent(ITransaction transaction, String uri)
+            throws WebdavException {
+        LOG.trace("ContentAddressedStore.getResourceContent(" + uri + ")");
+        return getResourceContent(transaction, uri, 0, Long.MAX_VALUE);
+    }
+
+    public InputStream getResourceContent(ITransaction transaction,
+            String uri, long offset, long length) throws WebdavException {
+        LOG.trace("ContentAddressedStore.getResourceContent(" + uri + ", "
+                + offset + ", " + length + ")");
+        Entry entry = getResource(uri);
+        if (entry._hash == null) {
+            return new BufferedInputStream(new ByteArrayInputStream(
+                    new byte[0]));
+        }
+        try {
+            RandomAccessFile raf = new RandomAccessFile(getBlob(entry._hash),
+                    "r");
+            try {
+                raf.seek(offset);
+            } catch (IOException e) {
+                raf.close();
+                throw e;
+            }
+            return new BufferedInputStream(
+                    new LocalFileSystemStore.RangeInputStream(raf, length));
+        } catch (IOException e) {
+            LOG.error("ContentAddressedStore.getResourceContent(" + uri
+                    + ") failed");
+            throw new WebdavException(e);
+        }
+    }
+
+    public long transferResourceContent(ITransaction transaction, String uri,
+            long offset, long length, WritableByteChannel target)
+            throws WebdavException {
+        LOG.trace("ContentAddressedStore.transferResourceContent(" + uri
+                + ")");
+        Entry entry = getResource(uri);
+        if (entry._hash == null) {
+            return 0;
+        }
+        try {
+            FileInputStream in = new FileInputStream(getBlob(entry._hash));
+            try {
+                FileChannel channel = in.getChannel();
+                long end = channel.size();
+                if (length >= 0 && offset + length < end) {
+                    end = offset + length;
+                }
+                long position = offset;
+                while (position < end) {
+                    long transferred = channel.transferTo(position, end
+                            - position, target);
+                    if (transferred <= 0) {
+                        break;
+                    }
+                    position += transferred;
+                }
+                return Math.max(0, position - offset);
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            LOG.error("ContentAddressedStore.transferResourceContent(" + uri
+                    + ") failed");
+            throw new WebdavException(e);
+        }
+    }
+
+    public long getResourceLength(ITransaction transaction, String uri)
+            throws WebdavException {
+        LOG.trace("ContentAddressedStore.getResourceLength(" + uri + ")");
+        Entry entry = _index.get(normalize(uri));
+        return entry == null ? 0 : entry._length;
+    }
+
+    public StoredObject getStoredObject(ITransaction transaction, String uri) {
+        Entry entry = _index.get(normalize(uri));
+        return entry == null ? null : entry.toStoredObject();
+    }
+
+    private Entry getResource(String uri) {
+        Entry entry = _index.get(normalize(uri));
+        if (entry == null || entry._folder) {
+            throw new WebdavException("no such resource: " + uri);
+        }
+        return entry;
+    }
+
+    /**
+     * puts an entry into the index, called with _lock held
+     */
+    private void put(String path, Entry entry) {
+        _index.put(path, entry);
+        if (entry._folder && !_children.containsKey(path)) {
+            _children.put(path, new ConcurrentHashMap<String, Boolean>());
+        }
+        if (!path.equals(ROOT)) {
+            Map<String, Boolean> siblings = _children.get(getParent(path));
+            if (siblings != null) {
+                siblings.put(getName(path), Boolean.TRUE);
+            }
+        }
+    }
+
+    /**
+     * removes an entry from the index, called with _lock held
+     */
+    private void remove(String path) {
+        _index.remove(path);
+        _children.remove(path);
+        Map<String, Boolean> siblings = _children.get(getParent(path));
+        if (siblings != null) {
+            siblings.remove(getName(path));
+        }
+    }
+
+    /**
+     * moves an entry and everything below it, called with _lock held
+     */
+    private void move(String source, String destination) {
+        List<String> paths = new ArrayList<String>();
+        collectPaths(source, paths);
+        Map<String, Boolean> siblings = _children.get(getParent(source));
+        if (siblings != null) {
+            siblings.remove(getName(source));
+        }
+        for (String path : paths) {
+            String newPath = destination + path.substring(source.length());
+            _index.put(newPath, _index.remove(path));
+            ConcurrentHashMap<String, Boolean> children = _children
+                    .remove(path);
+            if (children != null) {
+                _children.put(newPath, children);
+            }
+        }
+        siblings = _children.get(getParent(destination));
+        if (siblings != null) {
+            siblings.put(getName(destination), Boolean.TRUE);
+        }
+    }
+
+    private void collectPaths(String path, List<String> paths) {
+        paths.add(path);
+        Map<String, Boolean> children = _children.get(path);
+        if (children != null) {
+            for (String name : children.keySet()) {
+                collectPaths(getChild(path, name), paths);
+            }
+        }
+    }
+
+    private void addReference(String hash) {
+        if (hash != null) {
+            Integer references = _references.get(hash);
+            _references.put(hash, Integer.valueOf(references == null ? 1
+                    : references.intValue() + 1));
+        }
+    }
+
+    /**
+     * drops a reference to a blob and deletes the blob with the last one,
+     * called with _lock held
+     */
+    private void removeReference(String hash) {
+        if (hash == null) {
+            return;
+        }
+        Integer references = _references.get(hash);
+        if (references == null || references.intValue() <= 1) {
+            _references.remove(hash);
+            if (!getBlob(hash).delete()) {
+                LOG.warn("ContentAddressedStore: cannot delete blob " + hash);
+            }
+        } else {
+            _references.put(hash, Integer.valueOf(references.intValue() - 1));
+        }
+    }
+
+    private File getBlob(String hash) {
+        return new File(new File(_blobFolder, hash.substring(0, 2)), hash);
+    }
+
+    /**
+     * reads the index from the log, called with _lock held
+     */
+    private void load() {
+        _index.clear();
+        _children.clear();
+        _references.clear();
+        long now = System.currentTimeMillis();
+        put(ROOT, new Entry(true, null, 0, now, now));
+
+        File logFile = new File(_root, LOG_FILE);
+        File compacted = new File(_root, LOG_FILE + ".tmp");
+        if (!logFile.exists() && compacted.exists()) {
+            // compact() was cut off after it deleted the log, the compacted
+            // log is complete
+            LOG.warn("ContentAddressedStore: recovering the compacted log");
+            if (!compacted.renameTo(logFile)) {
+                throw new WebdavException("cannot replace " + logFile);
+            }
+        } else if (compacted.exists()) {
+            // compact() was cut off while writing it
+            compacted.delete();
+        }
+        if (logFile.exists()) {
+            try {
+                BufferedReader reader = new BufferedReader(
+                        new InputStreamReader(new FileInputStream(logFile),
+                                "UTF-8"));
+                try {
+                    String line;
+                    while ((line = reader.readLine()) != null) {
+                        replay(line);
+                    }
+                } finally {
+                    reader.close();
+                }
+            } catch (IOException e) {
+                throw new WebdavException(e);
+            }
+        }
+        for (Entry entry : _index.values()) {
+            addReference(entry._hash);
+        }
+    }
+
+    private void replay(String line) {
+        String[] fields = line.split("\t", -1);
+        try {
+            String type = fields[0];
+            if (type.equals("F") || type.equals("R")) {
+                String path = unescape(fields[1]);
+                String hash = fields[2].equals("-") ? null : fields[2];
+                put(path, new Entry(type.equals("F"), hash, Long
+                        .parseLong(fields[3]), Long.parseLong(fields[4]), Long
+                        .parseLong(fields[5])));
+            } else if (type.equals("D")) {
+                remove(unescape(fields[1]));
+            } else if (type.equals("M")) {
+                move(unescape(fields[1]), unescape(fields[2]));
+            } else {
+                LOG.warn("ContentAddressedStore: invalid log record: " + line);
+            }
+        } catch (RuntimeException e) {
+            // the last record may be cut off by a crash
+            LOG.warn("ContentAddressedStore: invalid log record: " + line);
+        }
+    }
+
+    /**
+     * deletes blobs no resource refers to and temporary files of uploads
+     * that never finished, called with _lock held
+     */
+    private void removeUnreferencedBlobs() {
+        if (_references.isEmpty() && !new File(_root, LOG_FILE).exists()
+                && !new File(_root, LOG_FILE + ".tmp").exists()) {
+            // without a log the blobs may still be the only copy of the
+            // content, only a store that was never written has no log
+            return;
+        }
+        File[] folders = _blobFolder.listFiles();
+        for (int i = 0; i < folders.length; i++) {
+            if (!folders[i].isDirectory()) {
+                if (folders[i].getName().startsWith(TEMP_PREFIX)) {
+                    folders[i].delete();
+                }
+                continue;
+            }
+            File[] blobs = folders[i].listFiles();
+            for (int j = 0; j < blobs.length; j++) {
+                if (!_references.containsKey(blobs[j].getName())) {
+                    LOG.debug("ContentAddressedStore: removing unreferenced"
+                            + " blob " + blobs[j].getName());
+                    blobs[j].delete();
+                }
+            }
+        }
+    }
+
+    /**
+     * appends a record to the log, called with _lock held
+     */
+    private void append(String type, String path, String hash,
+            String length, long creationDate, long lastModified) {
+        write(type + "\t" + escape(path) + "\t" + hash + "\t" + length + "\t"
+                + creationDate + "\t" + lastModified);
+    }
+
+    private void append(String type, String path) {
+        write(type + "\t" + escape(path));
+    }
+
+    private void append(String type, String source, String destination) {
+        write(type + "\t" + escape(source) + "\t" + escape(destination));
+    }
+
+    private void write(String record) {
+        try {
+            if (_log == null) {
+                _logStream = new FileOutputStream(new File(_root, LOG_FILE),
+                        true);
+                _log = openLog(_logStream);
+            }
+            _log.write(record);
+            _log.write('\n');
+            _log.flush();
+            _logStream.getChannel().force(false);
+        } catch (IOException e) {
+            LOG.error("ContentAddressedStore: writing the log failed");
+            throw new WebdavException(e);
+        }
+        _logRecords++;
+        if (_logRecords > 2 * _index.size() + COMPACT_SLACK) {
+            compact();
+        }
+    }
+
+    /**
+     * replaces the log by one record per entry, called with _lock held
+     */
+    private void compact() {
+        LOG.debug("ContentAddressedStore: compacting the log");
+        File logFile = new File(_root, LOG_FILE);
+        File compacted = new File(_root, LOG_FILE + ".tmp");
+        try {
+            closeLog();
+            FileOutputStream out = new FileOutputStream(compacted);
+            Writer writer = openLog(out);
+            int records = 0;
+            try {
+                // parents before their children
+                List<String> paths = new ArrayList<String>();
+                collectPaths(ROOT, paths);
+                for (String path : paths) {
+                    if (path.equals(ROOT)) {
+                        continue;
+                    }
+                    Entry entry = _index.get(path);
+                    writer.write((entry._folder ? "F" : "R") + "\t"
+                            + escape(path) + "\t"
+                            + (entry._hash == null ? "-" : entry._hash) + "\t"
+                            + entry._length + "\t" + entry._creationDate
+                            + "\t" + entry._lastModified + "\n");
+                    records++;
+                }
+                writer.flush();
+                // the log is only replaced by a complete one
+                out.getChannel().force(false);
+            } finally {
+                writer.close();
+            }
+            if (!compacted.renameTo(logFile)) {
+                // some platforms (Windows) don't rename over an existing
+                // file. load() takes the compacted log if this is cut off
+                // between the delete and the rename
+                if (!logFile.delete() || !compacted.renameTo(logFile)) {
+                    throw new IOException("cannot replace " + logFile);
+                }
+            }
+            _logRecords = records;
+        } catch (IOException e) {
+            LOG.error("ContentAddressedStore: compacting the log failed", e);
+            compacted.delete();
+        }
+    }
+
+    private static Writer openLog(OutputStream out) throws IOException {
+        return new BufferedWriter(new OutputStreamWriter(out, "UTF-8"));
+    }
+
+    private void closeLog() throws IOException {
+        if (_log != null) {
+            Writer log = _log;
+            _log = null;
+            _logStream = null;
+            log.close();
+        }
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e.getMessage());
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuffer sb = new StringBuffer(bytes.length * 2);
+        for (int i = 0; i < bytes.length; i++) {
+            sb.append(Character.forDigit((bytes[i] >> 4) & 0xf, 16));
+            sb.append(Character.forDigit(bytes[i] & 0xf, 16));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * paths may contain anything but tabs and line breaks would break the
+     * log records
+     */
+    private static String escape(String path) {
+        StringBuffer sb = new StringBuffer(path.length());
+        for (int i = 0; i < path.length(); i++) {
+            char c = path.charAt(i);
+            if (c == '\\') {
+                sb.append("\\\\");
+            } else if (c == '\t') {
+                sb.append("\\t");
+            } else if (c == '\n') {
+                sb.append("\\n");
+            } else if (c == '\r') {
+                sb.append("\\r");
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    private static String unescape(String s) {
+        StringBuffer sb = new StringBuffer(s.length());
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '\\' && i + 1 < s.length()) {
+                char next = s.charAt(++i);
+                sb.append(next == 't' ? '\t' : next == 'n' ? '\n'
+                        : next == 'r' ? '\r' : next);
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @return the path with a leading and without a trailing slash
+     */
+    private static String normalize(String uri) {
+        String path = uri.replace('\\', '/');
+        while (path.indexOf("//") != -1) {
+            path = path.replaceAll("//", "/");
+        }
+        if (!path.startsWith("/")) {
+            path = "/" + path;
+        }
+        if (path.length() > 1 && path.endsWith("/")) {
+            path = path.substring(0, path.length() - 1);
+        }
+        return path;
+    }
+
+    private static String getParent(String path) {
+        int slash = path.lastIndexOf('/');
+        return slash <= 0 ? ROOT : path.substring(0, slash);
+    }
+
+    private static String getName(String path) {
+        return path.substring(path.lastIndexOf('/') + 1);
+    }
+
+    private static String getChild(String path, String name) {
+        return path.equals(ROOT) ? ROOT + name : path + "/" + name;
+    }
+
+    /**
+     * a folder or resource, never changes
+     */
+    private static class Entry {
+
+        final boolean _folder;
+
+        /**
+         * blob of the content, <code>null</code> if there is none
+         */
+        final String _hash;
+
+        final long _length;
+
+        final long _creationDate;
+
+        final long _lastModified;
+
+        Entry(boolean folder, String hash, long length, long creationDate,
+                long lastModified) {
+            _folder = folder;
+            _hash = hash;
+            _length = length;
+            _creationDate = creationDate;
+            _lastModified = lastModified;
+        }
+
+        StoredObject toStoredObject() {
+            StoredObject so = new StoredObject();
+            so.setFolder(_folder);
+            so.setCreationDate(new Date(_creationDate));
+            so.setLastModified(new Date(_lastModified));
+            so.setResourceLength(_length);
+            if (!_folder) {
+                so.setETag(_hash == null ? EMPTY_HASH : _hash);
+            }
+            return so;
+        }
+    }
+
+}
@@ -0,0 +1,44 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package net.sf.webdav;
+
+import java.io.IOException;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import net.sf.webdav.exceptions.LockFailedException;
+
+/**
+ * Optional extension of {@link IMethodExecutor} for executors that can send
+ * the body of their response without holding a thread while a slow client
+ * reads it. Used by WebDavServletBean in async mode.
+ */
+public interface IAsyncMethodExecutor extends IMethodExecutor {
+
+    /**
+     * Executes the method like
+     * {@link IMethodExecutor#execute(ITransaction, HttpServletRequest, HttpServletResponse)}
+     * , but may hand the body of the response to <code>async</code> instead
+     * of writing it. The transaction then ends when the body has been sent.
+     *
+     * @param async
+     *      sends the body of the response
+     */
+    void execute(ITransaction transaction, HttpServletRequest req,
+            HttpServletResponse resp, AsyncResponse async) throws IOException,
+            LockFailedException;
+
+}
@@ -0,0 +1,53 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package net.sf.webdav;
+
+import java.nio.channels.WritableByteChannel;
+
+import net.sf.webdav.exceptions.WebdavException;
+
+/**
+ * Optional extension of {@link IWebdavStore} for stores that can hand the
+ * content of a resource directly to a channel, e.g. with
+ * <code>FileChannel.transferTo()</code>. GET uses it instead of copying the
+ * content through {@link IWebdavStore#getResourceContent} when the store
+ * implements it.
+ */
+public interface IChannelStore extends IWebdavStore {
+
+    /**
+     * Transfers the content of the resource specified by
+     * <code>resourceUri</code> to the given channel.
+     *
+     * @param transaction
+     *      indicates that the method is within the scope of a WebDAV
+     *      transaction
+     * @param resourceUri
+     *      URI of the content resource
+     * @param offset
+     *      position of the first byte to transfer
+     * @param length
+     *      number of bytes to transfer, <code>-1</code> to transfer
+     *      everything from <code>offset</code> to the end of the resource
+     * @param target
+     *      channel the content is written to, it is not closed
+     * @return number of bytes transferred
+     * @throws WebdavException
+     *      if something goes wrong on the store level
+     */
+    long transferResourceContent(ITransaction transaction, String resourceUri,
+            long offset, long length, WritableByteChannel target);
+
+}
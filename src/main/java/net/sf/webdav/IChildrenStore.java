@@ -0,0 +1,47 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package net.sf.webdav;
+
+import java.util.Map;
+
+import net.sf.webdav.exceptions.WebdavException;
+
+/**
+ * Optional extension of {@link IWebdavStore} for stores that can list the
+ * children of a folder together with their metadata in one pass. Folder
+ * listings (PROPFIND, GET, COPY, DELETE) use it instead of calling
+ * {@link IWebdavStore#getStoredObject} for every child.
+ */
+public interface IChildrenStore extends IWebdavStore {
+
+    /**
+     * Gets the children of the folder specified by <code>folderUri</code>
+     * together with their StoredObjects.
+     *
+     * @param transaction
+     *      indicates that the method is within the scope of a WebDAV
+     *      transaction
+     * @param folderUri
+     *      URI of the folder
+     * @return map of the child names (not the full URIs) to their
+     *  StoredObjects, <code>null</code> if the folder does not exist or is
+     *  not a folder
+     * @throws WebdavException
+     *      if something goes wrong on the store level
+     */
+    Map<String, StoredObject> getChildren(ITransaction transaction,
+            String folderUri);
+
+}
@@ -0,0 +1,74 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package net.sf.webdav;
+
+import java.io.InputStream;
+
+import net.sf.webdav.exceptions.WebdavException;
+
+/**
+ * Optional extension of {@link IWebdavStore} for stores that keep the
+ * content of resources compressed. GET sends the compressed content as it
+ * is, with a Content-Encoding header, if the client accepts the encoding.
+ * {@link IWebdavStore#getResourceContent} and the lengths of the store are
+ * always the uncompressed ones.
+ */
+public interface ICompressedStore extends IWebdavStore {
+
+    /**
+     * Gets the encoding the content of a resource is stored with.
+     *
+     * @param transaction
+     *      indicates that the method is within the scope of a WebDAV
+     *      transaction
+     * @param resourceUri
+     *      URI of the content resource
+     * @return the content coding as used in the Content-Encoding header
+     *  (e.g. "gzip"), <code>null</code> if the content is stored as it is
+     * @throws WebdavException
+     *      if something goes wrong on the store level
+     */
+    String getContentEncoding(ITransaction transaction, String resourceUri);
+
+    /**
+     * Gets the length of the content of a resource as it is stored.
+     *
+     * @param transaction
+     *      indicates that the method is within the scope of a WebDAV
+     *      transaction
+     * @param resourceUri
+     *      URI of the content resource
+     * @return length of the encoded content
+     * @throws WebdavException
+     *      if something goes wrong on the store level
+     */
+    long getEncodedResourceLength(ITransaction transaction, String resourceUri);
+
+    /**
+     * Gets the content of a resource as it is stored.
+     *
+     * @param transaction
+     *      indicates that the method is within the scope of a WebDAV
+     *      transaction
+     * @param resourceUri
+     *      URI of the content resource
+     * @return input stream of the encoded content
+     * @throws WebdavException
+     *      if something goes wrong on the store level
+     */
+    InputStream getEncodedResourceContent(ITransaction transaction,
+            String resourceUri);
+
+}
@@ -0,0 +1,49 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package net.sf.webdav;
+
+import net.sf.webdav.exceptions.WebdavException;
+
+/**
+ * Optional extension of {@link IWebdavStore} for stores that can copy the
+ * content of a resource themselves, without handing it through
+ * {@link IWebdavStore#getResourceContent} and
+ * {@link IWebdavStore#setResourceContent}. COPY uses it for every resource
+ * it copies when the store implements it.
+ */
+public interface ICopyStore extends IWebdavStore {
+
+    /**
+     * Creates the resource <code>destinationUri</code> with the content of
+     * the resource <code>sourceUri</code>. The destination does not exist
+     * when this is called.
+     *
+     * @param transaction
+     *      indicates that the method is within the scope of a WebDAV
+     *      transaction
+     * @param sourceUri
+     *      URI of the resource to copy
+     * @param destinationUri
+     *      URI of the new resource
+     * @return <code>true</code> if the resource was copied,
+     *  <code>false</code> if the store can't copy it itself, nothing was
+     *  changed then
+     * @throws WebdavException
+     *      if something goes wrong on the store level
+     */
+    boolean copyResource(ITransaction transaction, String sourceUri,
+            String destinationUri);
+
+}
@@ -0,0 +1,48 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package net.sf.webdav;
+
+import net.sf.webdav.exceptions.WebdavException;
+
+/**
+ * Optional extension of {@link IWebdavStore} for stores that can move a
+ * resource or folder without copying its content, e.g. by renaming a file.
+ * MOVE falls back to copying and deleting if the store doesn't implement it
+ * or can't move the object.
+ */
+public interface IMoveStore extends IWebdavStore {
+
+    /**
+     * Moves the object (resource or folder with everything below it)
+     * specified by <code>sourceUri</code> to <code>destinationUri</code>.
+     * The destination does not exist when this is called.
+     *
+     * @param transaction
+     *      indicates that the method is within the scope of a WebDAV
+     *      transaction
+     * @param sourceUri
+     *      URI of the object to move
+     * @param destinationUri
+     *      URI the object is moved to
+     * @return <code>true</code> if the object was moved, <code>false</code>
+     *  if the store can't move it (e.g. the destination is on another
+     *  volume), nothing was changed then
+     * @throws WebdavException
+     *      if something goes wrong on the store level
+     */
+    boolean moveObject(ITransaction transaction, String sourceUri,
+            String destinationUri);
+
+}
@@ -0,0 +1,62 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package net.sf.webdav;
+
+import java.io.InputStream;
+
+import net.sf.webdav.exceptions.WebdavException;
+
+/**
+ * Optional extension of {@link IWebdavStore} for stores that can receive the
+ * content of a resource in parts, at any position and in any order. Used for
+ * PUT requests with a Content-Range header.
+ *
+ * The parts are staged until all bytes of the resource have been received,
+ * then the staged content replaces the content of the resource. Parts of
+ * the same resource may be written at the same time by several requests.
+ */
+public interface IPartialUploadStore extends IWebdavStore {
+
+    /**
+     * Writes a part of the content of the resource specified by
+     * <code>resourceUri</code>. A part received before with another
+     * <code>resourceLength</code> is thrown away.
+     *
+     * @param transaction
+     *      indicates that the method is within the scope of a WebDAV
+     *      transaction
+     * @param resourceUri
+     *      URI of the content resource
+     * @param offset
+     *      position of the first byte of the part
+     * @param length
+     *      number of bytes of the part
+     * @param resourceLength
+     *      length of the whole content
+     * @param content
+     *      the part, if it ends early the bytes read are kept
+     * @return the ranges received so far, sorted by their first byte with
+     *  adjacent ranges joined. Each range is an array of the first and the
+     *  last byte position (inclusive). The resource has its new content
+     *  when the only range is the whole content. <code>null</code> if the
+     *  store can't stage content, nothing has been written then.
+     * @throws WebdavException
+     *      if something goes wrong on the store level
+     */
+    long[][] writeResourceContent(ITransaction transaction,
+            String resourceUri, long offset, long length,
+            long resourceLength, InputStream content);
+
+}
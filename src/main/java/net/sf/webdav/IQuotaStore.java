@@ -0,0 +1,52 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package net.sf.webdav;
+
+import net.sf.webdav.exceptions.WebdavException;
+
+/**
+ * Optional extension of {@link IWebdavStore} for stores that limit the space
+ * their content may take. Used for the DAV:quota-available-bytes and
+ * DAV:quota-used-bytes properties (RFC 4331).
+ */
+public interface IQuotaStore extends IWebdavStore {
+
+    /**
+     * @param transaction
+     *      indicates that the method is within the scope of a WebDAV
+     *      transaction
+     * @param folderUri
+     *      URI of the collection
+     * @return the number of bytes used of the quota the collection belongs
+     *  to, -1 if the store doesn't know
+     * @throws WebdavException
+     *      if something goes wrong on the store level
+     */
+    long getQuotaUsedBytes(ITransaction transaction, String folderUri);
+
+    /**
+     * @param transaction
+     *      indicates that the method is within the scope of a WebDAV
+     *      transaction
+     * @param folderUri
+     *      URI of the collection
+     * @return the number of bytes that can still be stored in the
+     *  collection, -1 if there is no limit
+     * @throws WebdavException
+     *      if something goes wrong on the store level
+     */
+    long getQuotaAvailableBytes(ITransaction transaction, String folderUri);
+
+}
@@ -0,0 +1,49 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package net.sf.webdav;
+
+import java.io.InputStream;
+
+import net.sf.webdav.exceptions.WebdavException;
+
+/**
+ * Optional extension of {@link IWebdavStore} for stores that can read a part
+ * of a resource without reading everything in front of it. Used to answer
+ * GET requests with a Range header.
+ */
+public interface IRandomAccessStore extends IWebdavStore {
+
+    /**
+     * Gets a part of the content of the resource specified by
+     * <code>resourceUri</code>.
+     *
+     * @param transaction
+     *      indicates that the method is within the scope of a WebDAV
+     *      transaction
+     * @param resourceUri
+     *      URI of the content resource
+     * @param offset
+     *      position of the first byte to read
+     * @param length
+     *      maximum number of bytes to read
+     * @return input stream that starts at <code>offset</code> and ends after
+     *  <code>length</code> bytes or at the end of the resource
+     * @throws WebdavException
+     *      if something goes wrong on the store level
+     */
+    InputStream getResourceContent(ITransaction transaction,
+            String resourceUri, long offset, long length);
+
+}
@@ -0,0 +1,103 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package net.sf.webdav;
+
+import java.util.Properties;
+
+import net.sf.webdav.metrics.HotSpots;
+import net.sf.webdav.metrics.Metrics;
+
+/**
+ * Store decorator timing every call of the decorated store, to be
+ * configured in "store-decorators" where the time should be measured, e.g.
+ * innermost to see the store alone.
+ *
+ * Besides the histograms of MeteredStore it logs the calls slower than a
+ * threshold with the path and the HTTP method they were made for, and keeps
+ * the paths the store spends the most time on. WebDavServletBean publishes
+ * all of it with the other metrics of the servlet.
+ */
+public class InstrumentedStore extends MeteredStore {
+
+    private static org.slf4j.Logger LOG = org.slf4j.LoggerFactory
+            .getLogger(InstrumentedStore.class);
+
+    /**
+     * init-parameter: milliseconds after which a store call is logged as
+     * slow
+     */
+    public static final String THRESHOLD_PARAMETER = "slow-store-call-threshold";
+
+    /**
+     * init-parameter: number of paths the store spends the most time on to
+     * keep
+     */
+    public static final String HOT_PATHS_PARAMETER = "store-hot-paths";
+
+    private final long _threshold;
+
+    private final HotSpots _hotPaths;
+
+    /**
+     * @param threshold
+     *      milliseconds after which a call is logged as slow, -1 to log none
+     * @param hotPaths
+     *      number of paths to keep
+     */
+    public InstrumentedStore(IWebdavStore store, Metrics metrics,
+            long threshold, int hotPaths) {
+        super(store, metrics);
+        _threshold = threshold < 0 ? Long.MAX_VALUE : threshold * 1000000;
+        _hotPaths = new HotSpots(hotPaths, Metrics.NANOS);
+        if (metrics != Metrics.NONE) {
+            metrics.setStoreHotSpots(_hotPaths);
+        }
+    }
+
+    public InstrumentedStore(IWebdavStore store, Properties properties) {
+        this(store, Metrics.NONE, Long.parseLong(properties.getProperty(
+                THRESHOLD_PARAMETER, "100").trim()), Integer
+                .parseInt(properties.getProperty(HOT_PATHS_PARAMETER, "20")
+                        .trim()));
+    }
+
+    public void setMetrics(Metrics metrics) {
+        super.setMetrics(metrics);
+        metrics.setStoreHotSpots(_hotPaths);
+    }
+
+    protected void finished(String operation, String uri, long start) {
+        long elapsed = System.nanoTime() - start;
+        _metrics.getStoreTimes(operation).record(elapsed);
+        if (uri != null) {
+            _hotPaths.record(uri, elapsed);
+        }
+        if (elapsed >= _threshold) {
+            _metrics.addSlowStoreCall();
+            String method = Metrics.getCurrentMethod();
+            LOG.warn("InstrumentedStore: " + operation + " of " + uri
+                    + " took " + (elapsed / 1000000) + " ms"
+                    + (method != null ? " for " + method : ""));
+        }
+    }
+
+    /**
+     * @return the paths the store spends the most time on
+     */
+    public HotSpots getHotPaths() {
+        return _hotPaths;
+    }
+
+}
@@ -16,18 +16,37 @@
 package net.sf.webdav;
 
 import java.io.BufferedInputStream;
+import java.io.BufferedReader;
 import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
 import java.security.Principal;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
 
+import net.sf.webdav.exceptions.AccessDeniedException;
 import net.sf.webdav.exceptions.WebdavException;
 
 /**
@@ -36,19 +55,107 @@ import net.sf.webdav.exceptions.WebdavException;
  * @author joa
  * @author re
  */
-public class LocalFileSystemStore implements IWebdavStore {
+public class LocalFileSystemStore implements IChannelStore,
+        IRandomAccessStore, IChildrenStore, IMoveStore, ICopyStore,
+        IPartialUploadStore {
 
     private static org.slf4j.Logger LOG = org.slf4j.LoggerFactory
             .getLogger(LocalFileSystemStore.class);
 
     private static int BUF_SIZE = 65536;
 
+    /**
+     * init-parameter: "1" to write the content of resources into a temporary
+     * file that replaces the resource on commit
+     */
+    public static final String ATOMIC_WRITES_PARAMETER = "atomic-writes";
+
+    /**
+     * init-parameter: when written content is forced to the disk, "none",
+     * "file" or "directory" (the file and, after the rename, its directory)
+     */
+    public static final String FSYNC_PARAMETER = "fsync";
+
+    /**
+     * init-parameter: seconds a partial upload is kept without receiving a
+     * part, 0 to keep them until they are completed
+     */
+    public static final String UPLOAD_EXPIRY_PARAMETER = "upload-expiry";
+
+    public static final long DEFAULT_UPLOAD_EXPIRY = 24 * 60 * 60;
+
+    public static final int FSYNC_NONE = 0;
+    public static final int FSYNC_FILE = 1;
+    public static final int FSYNC_DIRECTORY = 2;
+
+    /**
+     * temporary files start with this prefix. Names with it are reserved to
+     * the store, they are hidden from listings and can't be reached by path
+     */
+    private static final String TEMP_PREFIX = ".webdav-put-";
+
+    /**
+     * folder below the root staging partial uploads, hidden by its prefix
+     */
+    private static final String UPLOAD_FOLDER = TEMP_PREFIX + "uploads";
+
+    /**
+     * milliseconds after its last modification before a file gets a strong
+     * entity tag
+     */
+    private static final long ETAG_SETTLE_TIME = 1000;
+
     private File _root = null;
 
+    private boolean _atomicWrites = false;
+
+    private int _fsync = FSYNC_NONE;
+
+    /**
+     * partial uploads in progress, by the path of their resource
+     */
+    private final Map<String, Upload> _uploads = new HashMap<String, Upload>();
+
+    /**
+     * guards _uploads, taken before the lock of an Upload
+     */
+    private final ReentrantLock _uploadsLock = new ReentrantLock();
+
+    /**
+     * milliseconds a partial upload is kept without receiving a part
+     */
+    private long _uploadExpiry = DEFAULT_UPLOAD_EXPIRY * 1000;
+
+    /**
+     * when the upload folder was last looked for expired uploads, guarded by
+     * _uploadsLock
+     */
+    private long _lastExpiry = 0;
+
     public LocalFileSystemStore(File root) {
         _root = root;
     }
 
+    public LocalFileSystemStore(File root, Properties properties) {
+        this(root);
+        _atomicWrites = "1".equals(properties.getProperty(
+                ATOMIC_WRITES_PARAMETER, "0").trim());
+        String fsync = properties.getProperty(FSYNC_PARAMETER, "none").trim();
+        if (fsync.equals("none")) {
+            _fsync = FSYNC_NONE;
+        } else if (fsync.equals("file")) {
+            _fsync = FSYNC_FILE;
+        } else if (fsync.equals("directory")) {
+            _fsync = FSYNC_DIRECTORY;
+        } else {
+            throw new WebdavException("invalid value for " + FSYNC_PARAMETER
+                    + ": " + fsync);
+        }
+        _uploadExpiry = Long.parseLong(properties.getProperty(
+                UPLOAD_EXPIRY_PARAMETER, String.valueOf(DEFAULT_UPLOAD_EXPIRY))
+                .trim()) * 1000;
+    }
+
     public void destroy() {
         ;
     }
@@ -62,7 +169,7 @@ public class LocalFileSystemStore implements IWebdavStore {
                         + " does not exist and could not be created");
             }
         }
-        return null;
+        return new Transaction(principal);
     }
 
     public void checkAuthentication(ITransaction transaction)
@@ -73,20 +180,52 @@ public class LocalFileSystemStore implements IWebdavStore {
     }
 
     public void commit(ITransaction transaction) throws WebdavException {
-        // do nothing
         LOG.trace("LocalFileSystemStore.commit()");
+        if (!(transaction instanceof Transaction)) {
+            return;
+        }
+        Map<File, File> pending = ((Transaction) transaction).takePending();
+        Set<File> directories = new LinkedHashSet<File>();
+        Iterator<Map.Entry<File, File>> it = pending.entrySet().iterator();
+        try {
+            while (it.hasNext()) {
+                Map.Entry<File, File> entry = it.next();
+                File file = entry.getKey();
+                File temp = entry.getValue();
+                if (!rename(temp, file)) {
+                    throw new WebdavException("cannot replace file: "
+                            + file.getPath());
+                }
+                it.remove();
+                directories.add(file.getParentFile());
+            }
+        } finally {
+            // what could not be renamed is lost
+            for (File temp : pending.values()) {
+                temp.delete();
+            }
+        }
+        if (_fsync == FSYNC_DIRECTORY) {
+            for (File directory : directories) {
+                syncDirectory(directory);
+            }
+        }
     }
 
     public void rollback(ITransaction transaction) throws WebdavException {
-        // do nothing
         LOG.trace("LocalFileSystemStore.rollback()");
-
+        if (transaction instanceof Transaction) {
+            for (File temp : ((Transaction) transaction).takePending()
+                    .values()) {
+                temp.delete();
+            }
+        }
     }
 
     public void createFolder(ITransaction transaction, String uri)
             throws WebdavException {
         LOG.trace("LocalFileSystemStore.createFolder(" + uri + ")");
-        File file = new File(_root, uri);
+        File file = getFile(uri);
         if (!file.mkdir())
             throw new WebdavException("cannot create folder: " + uri);
     }
@@ -94,8 +233,19 @@ public class LocalFileSystemStore implements IWebdavStore {
     public void createResource(ITransaction transaction, String uri)
             throws WebdavException {
         LOG.trace("LocalFileSystemStore.createResource(" + uri + ")");
-        File file = new File(_root, uri);
+        File file = getFile(uri);
         try {
+            if (_atomicWrites && transaction instanceof Transaction) {
+                // the empty file appears on commit like the content, a
+                // failed PUT leaves nothing behind
+                if (file.exists()
+                        || ((Transaction) transaction).getPending(file) != null)
+                    throw new WebdavException("cannot create file: " + uri);
+                File temp = File.createTempFile(TEMP_PREFIX, ".tmp", file
+                        .getParentFile());
+                ((Transaction) transaction).addPending(file, temp);
+                return;
+            }
             if (!file.createNewFile())
                 throw new WebdavException("cannot create file: " + uri);
         } catch (IOException e) {
@@ -111,10 +261,21 @@ public class LocalFileSystemStore implements IWebdavStore {
             throws WebdavException {
 
         LOG.trace("LocalFileSystemStore.setResourceContent(" + uri + ")");
-        File file = new File(_root, uri);
+        File file = getFile(uri);
+        discardUpload(file);
+        File target = file;
+        boolean atomic = _atomicWrites && transaction instanceof Transaction;
         try {
-            OutputStream os = new BufferedOutputStream(new FileOutputStream(
-                    file), BUF_SIZE);
+            if (atomic) {
+                // readers keep seeing the old content until commit() renames
+                // the temporary file, which lies in the same directory so
+                // that the rename doesn't have to copy
+                target = File.createTempFile(TEMP_PREFIX, ".tmp", file
+                        .getParentFile());
+            }
+            boolean written = false;
+            FileOutputStream fos = new FileOutputStream(target);
+            OutputStream os = new BufferedOutputStream(fos, BUF_SIZE);
             try {
                 int read;
                 byte[] copyBuffer = new byte[BUF_SIZE];
@@ -122,11 +283,19 @@ public class LocalFileSystemStore implements IWebdavStore {
                 while ((read = is.read(copyBuffer, 0, copyBuffer.length)) != -1) {
                     os.write(copyBuffer, 0, read);
                 }
+                os.flush();
+                if (_fsync != FSYNC_NONE) {
+                    fos.getFD().sync();
+                }
+                written = true;
             } finally {
                 try {
                     is.close();
                 } finally {
                     os.close();
+                    if (atomic && !written) {
+                        target.delete();
+                    }
                 }
             }
         } catch (IOException e) {
@@ -134,6 +303,14 @@ public class LocalFileSystemStore implements IWebdavStore {
                     + ") failed");
             throw new WebdavException(e);
         }
+        if (atomic) {
+            File replaced = ((Transaction) transaction).addPending(file,
+                    target);
+            if (replaced != null) {
+                replaced.delete();
+            }
+            file = target;
+        }
         long length = -1;
 
         try {
@@ -146,10 +323,263 @@ public class LocalFileSystemStore implements IWebdavStore {
         return length;
     }
 
+    public long[][] writeResourceContent(ITransaction transaction,
+            String uri, long offset, long length, long resourceLength,
+            InputStream is) throws WebdavException {
+        LOG.trace("LocalFileSystemStore.writeResourceContent(" + uri + ", "
+                + offset + ", " + length + "/" + resourceLength + ")");
+        if (offset < 0 || length < 0 || offset + length > resourceLength) {
+            throw new WebdavException("invalid range of " + uri + ": "
+                    + offset + "+" + length + "/" + resourceLength);
+        }
+        File file = getFile(uri);
+        Upload upload = getUpload(file, resourceLength, getOwner(transaction));
+
+        long written = 0;
+        try {
+            // parts are written into the same file by several requests at a
+            // time, each at its own position
+            RandomAccessFile raf = new RandomAccessFile(upload._part, "rw");
+            try {
+                raf.seek(offset);
+                byte[] copyBuffer = new byte[BUF_SIZE];
+                while (written < length) {
+                    int read = is.read(copyBuffer, 0, (int) Math.min(
+                            copyBuffer.length, length - written));
+                    if (read == -1) {
+                        break;
+                    }
+                    raf.write(copyBuffer, 0, read);
+                    written += read;
+                }
+                if (_fsync != FSYNC_NONE) {
+                    raf.getFD().sync();
+                }
+            } finally {
+                try {
+                    is.close();
+                } finally {
+                    raf.close();
+                }
+            }
+        } catch (IOException e) {
+            // a broken connection still leaves what was written
+            LOG.debug("LocalFileSystemStore.writeResourceContent(" + uri
+                    + ") ended after " + written + " bytes", e);
+        }
+
+        long[][] received;
+        boolean complete;
+        upload._lock.lock();
+        try {
+            if (written > 0) {
+                upload.add(offset, offset + written - 1);
+            }
+            received = upload._received.toArray(new long[upload._received
+                    .size()][]);
+            complete = upload.isComplete() && !upload._completed;
+            if (complete) {
+                upload._completed = true;
+            }
+        } finally {
+            upload._lock.unlock();
+        }
+        if (complete) {
+            _uploadsLock.lock();
+            try {
+                if (_uploads.get(file.getPath()) == upload) {
+                    _uploads.remove(file.getPath());
+                }
+            } finally {
+                _uploadsLock.unlock();
+            }
+            upload._ranges.delete();
+            completeUpload(transaction, file, upload._part);
+        }
+        if (written < length) {
+            throw new WebdavException("part of " + uri + " ended after "
+                    + written + " of " + length + " bytes");
+        }
+        return received;
+    }
+
+    /**
+     * @return the name of the principal of the transaction, <code>null</code>
+     *  if there is none
+     */
+    private static String getOwner(ITransaction transaction) {
+        Principal principal = transaction.getPrincipal();
+        return principal == null ? null : principal.getName();
+    }
+
+    /**
+     * @return the upload in progress for the file, a new one if there is
+     *  none or the one there has another length
+     * @throws AccessDeniedException
+     *      if the upload in progress was started by another principal
+     */
+    private Upload getUpload(File file, long resourceLength, String owner) {
+        _uploadsLock.lock();
+        try {
+            expireUploads();
+            Upload upload = _uploads.get(file.getPath());
+            if (upload == null) {
+                // uploads survive restarts in the upload folder
+                upload = Upload.load(getUploadFile(file, ".part"),
+                        getUploadFile(file, ".ranges"));
+            }
+            if (upload != null && !upload.isOwner(owner)) {
+                // the parts of one principal are never completed by another
+                throw new AccessDeniedException("upload of " + file.getPath()
+                        + " was started by another principal");
+            }
+            if (upload != null && upload._length != resourceLength) {
+                upload.discard();
+                upload = null;
+            }
+            if (upload == null) {
+                File folder = new File(_root, UPLOAD_FOLDER);
+                if (!folder.isDirectory() && !folder.mkdirs()) {
+                    throw new WebdavException("cannot create folder: "
+                            + folder.getPath());
+                }
+                upload = Upload.create(getUploadFile(file, ".part"),
+                        getUploadFile(file, ".ranges"), resourceLength, owner);
+            }
+            _uploads.put(file.getPath(), upload);
+            return upload;
+        } finally {
+            _uploadsLock.unlock();
+        }
+    }
+
+    /**
+     * throws away the uploads that received no part for longer than the
+     * expiry, also those left by an earlier run. Looks at most ten times per
+     * expiry, called with _uploadsLock held
+     */
+    private void expireUploads() {
+        long now = System.currentTimeMillis();
+        if (_uploadExpiry <= 0 || now - _lastExpiry < _uploadExpiry / 10) {
+            return;
+        }
+        _lastExpiry = now;
+        for (Iterator<Upload> it = _uploads.values().iterator(); it
+                .hasNext();) {
+            Upload upload = it.next();
+            if (isExpired(upload._part, now)
+                    && isExpired(upload._ranges, now)) {
+                LOG.debug("LocalFileSystemStore: upload " + upload._part
+                        + " expired");
+                it.remove();
+                upload.discard();
+            }
+        }
+        File[] files = new File(_root, UPLOAD_FOLDER).listFiles();
+        for (int i = 0; files != null && i < files.length; i++) {
+            String name = files[i].getName();
+            int dot = name.lastIndexOf('.');
+            if (dot == -1) {
+                continue;
+            }
+            File part = new File(files[i].getParentFile(), name.substring(0,
+                    dot)
+                    + ".part");
+            File ranges = new File(files[i].getParentFile(), name.substring(
+                    0, dot)
+                    + ".ranges");
+            if (isExpired(part, now) && isExpired(ranges, now)) {
+                part.delete();
+                ranges.delete();
+            }
+        }
+    }
+
+    /**
+     * @return <code>true</code> if the file wasn't written for longer than
+     *  the upload expiry or doesn't exist
+     */
+    private boolean isExpired(File file, long now) {
+        return now - file.lastModified() > _uploadExpiry;
+    }
+
+    /**
+     * throws away the parts received for the file
+     */
+    private void discardUpload(File file) {
+        _uploadsLock.lock();
+        try {
+            Upload upload = _uploads.remove(file.getPath());
+            if (upload != null) {
+                upload.discard();
+            } else if (new File(_root, UPLOAD_FOLDER).isDirectory()) {
+                getUploadFile(file, ".part").delete();
+                getUploadFile(file, ".ranges").delete();
+            }
+        } finally {
+            _uploadsLock.unlock();
+        }
+    }
+
+    /**
+     * replaces the content of the file by a completed upload, on commit if
+     * writes are atomic
+     */
+    private void completeUpload(ITransaction transaction, File file,
+            File part) {
+        if (_atomicWrites && transaction instanceof Transaction) {
+            // a new upload of the file may start before the commit
+            File temp;
+            try {
+                temp = File.createTempFile(TEMP_PREFIX, ".tmp", file
+                        .getParentFile());
+            } catch (IOException e) {
+                throw new WebdavException(e);
+            }
+            if (!rename(part, temp)) {
+                temp.delete();
+                throw new WebdavException("cannot replace file: "
+                        + temp.getPath());
+            }
+            File replaced = ((Transaction) transaction).addPending(file, temp);
+            if (replaced != null) {
+                replaced.delete();
+            }
+            return;
+        }
+        if (!rename(part, file)) {
+            throw new WebdavException("cannot replace file: "
+                    + file.getPath());
+        }
+        if (_fsync == FSYNC_DIRECTORY) {
+            syncDirectory(file.getParentFile());
+        }
+    }
+
+    /**
+     * @return the file in the upload folder for the file, named after the
+     *  hash of its path
+     */
+    private File getUploadFile(File file, String suffix) {
+        String path = file.getPath();
+        try {
+            MessageDigest digest = MessageDigest.getInstance("MD5");
+            byte[] hash = digest.digest(path.getBytes("UTF-8"));
+            StringBuffer name = new StringBuffer(hash.length * 2);
+            for (int i = 0; i < hash.length; i++) {
+                name.append(Character.forDigit((hash[i] >> 4) & 0xf, 16));
+                name.append(Character.forDigit(hash[i] & 0xf, 16));
+            }
+            return new File(new File(_root, UPLOAD_FOLDER), name + suffix);
+        } catch (Exception e) {
+            throw new WebdavException(e);
+        }
+    }
+
     public String[] getChildrenNames(ITransaction transaction, String uri)
             throws WebdavException {
         LOG.trace("LocalFileSystemStore.getChildrenNames(" + uri + ")");
-        File file = new File(_root, uri);
+        File file = getFile(uri);
         String[] childrenNames = null;
         if (file.isDirectory()) {
             File[] children = file.listFiles();
@@ -157,6 +587,9 @@ public class LocalFileSystemStore implements IWebdavStore {
             String name = null;
             for (int i = 0; i < children.length; i++) {
                 name = children[i].getName();
+                if (name.startsWith(TEMP_PREFIX)) {
+                    continue;
+                }
                 childList.add(name);
                 LOG.trace("Child " + i + ": " + name);
             }
@@ -168,8 +601,20 @@ public class LocalFileSystemStore implements IWebdavStore {
 
     public void removeObject(ITransaction transaction, String uri)
             throws WebdavException {
-        File file = new File(_root, uri);
-        boolean success = file.delete();
+        File file = getFile(uri);
+        discardUpload(file);
+        boolean success;
+        File temp = null;
+        if (transaction instanceof Transaction) {
+            temp = ((Transaction) transaction).removePending(file);
+        }
+        if (temp != null) {
+            // content staged by this transaction, maybe of a file it created
+            temp.delete();
+            success = file.delete() || !file.exists();
+        } else {
+            success = file.delete();
+        }
         LOG.trace("LocalFileSystemStore.removeObject(" + uri + ")=" + success);
         if (!success) {
             throw new WebdavException("cannot delete object: " + uri);
@@ -177,10 +622,86 @@ public class LocalFileSystemStore implements IWebdavStore {
 
     }
 
+    public boolean moveObject(ITransaction transaction, String sourceUri,
+            String destinationUri) throws WebdavException {
+        File source = getFile(sourceUri);
+        File destination = getFile(destinationUri);
+        // renaming is atomic and doesn't touch the content, it fails if
+        // source and destination are on different volumes
+        boolean success = source.renameTo(destination);
+        LOG.trace("LocalFileSystemStore.moveObject(" + sourceUri + ", "
+                + destinationUri + ")=" + success);
+        return success;
+    }
+
+    public boolean copyResource(ITransaction transaction, String sourceUri,
+            String destinationUri) throws WebdavException {
+        LOG.trace("LocalFileSystemStore.copyResource(" + sourceUri + ", "
+                + destinationUri + ")");
+        File source = getContentFile(transaction, sourceUri);
+        File destination = getFile(destinationUri);
+        discardUpload(destination);
+        File target = destination;
+        boolean atomic = _atomicWrites && transaction instanceof Transaction;
+
+        try {
+            if (atomic) {
+                // staged like the content of a PUT
+                target = File.createTempFile(TEMP_PREFIX, ".tmp", destination
+                        .getParentFile());
+            }
+            boolean written = false;
+            FileInputStream in = new FileInputStream(source);
+            try {
+                FileOutputStream out = new FileOutputStream(target);
+                try {
+                    // file to file transferTo() stays in the kernel, where
+                    // the platform supports it (copy_file_range) the
+                    // filesystem can even share the blocks (reflink)
+                    FileChannel sourceChannel = in.getChannel();
+                    FileChannel destinationChannel = out.getChannel();
+                    long size = sourceChannel.size();
+                    long position = 0;
+                    while (position < size) {
+                        long transferred = sourceChannel.transferTo(position,
+                                size - position, destinationChannel);
+                        if (transferred <= 0) {
+                            break;
+                        }
+                        position += transferred;
+                    }
+                    if (_fsync != FSYNC_NONE) {
+                        out.getFD().sync();
+                    }
+                    written = true;
+                } finally {
+                    out.close();
+                    if (atomic && !written) {
+                        target.delete();
+                    }
+                }
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            LOG.error("LocalFileSystemStore.copyResource(" + sourceUri + ", "
+                    + destinationUri + ") failed");
+            throw new WebdavException(e);
+        }
+        if (atomic) {
+            File replaced = ((Transaction) transaction).addPending(
+                    destination, target);
+            if (replaced != null) {
+                replaced.delete();
+            }
+        }
+        return true;
+    }
+
     public InputStream getResourceContent(ITransaction transaction, String uri)
             throws WebdavException {
         LOG.trace("LocalFileSystemStore.getResourceContent(" + uri + ")");
-        File file = new File(_root, uri);
+        File file = getContentFile(transaction, uri);
 
         InputStream in;
         try {
@@ -193,27 +714,502 @@ public class LocalFileSystemStore implements IWebdavStore {
         return in;
     }
 
+    public InputStream getResourceContent(ITransaction transaction,
+            String uri, long offset, long length) throws WebdavException {
+        LOG.trace("LocalFileSystemStore.getResourceContent(" + uri + ", "
+                + offset + ", " + length + ")");
+        File file = getContentFile(transaction, uri);
+
+        InputStream in;
+        try {
+            RandomAccessFile raf = new RandomAccessFile(file, "r");
+            try {
+                raf.seek(offset);
+            } catch (IOException e) {
+                raf.close();
+                throw e;
+            }
+            in = new BufferedInputStream(new RangeInputStream(raf, length));
+        } catch (IOException e) {
+            LOG.error("LocalFileSystemStore.getResourceContent(" + uri
+                    + ") failed");
+            throw new WebdavException(e);
+        }
+        return in;
+    }
+
+    public long transferResourceContent(ITransaction transaction, String uri,
+            long offset, long length, WritableByteChannel target)
+            throws WebdavException {
+        LOG.trace("LocalFileSystemStore.transferResourceContent(" + uri + ")");
+        File file = getContentFile(transaction, uri);
+
+        try {
+            FileInputStream in = new FileInputStream(file);
+            try {
+                FileChannel channel = in.getChannel();
+                long end = channel.size();
+                if (length >= 0 && offset + length < end) {
+                    end = offset + length;
+                }
+                long position = offset;
+                while (position < end) {
+                    // transferTo() lets the kernel copy the data (sendfile)
+                    // if the target channel supports it
+                    long transferred = channel.transferTo(position, end
+                            - position, target);
+                    if (transferred <= 0) {
+                        break;
+                    }
+                    position += transferred;
+                }
+                return position - offset;
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            LOG.error("LocalFileSystemStore.transferResourceContent(" + uri
+                    + ") failed");
+            throw new WebdavException(e);
+        }
+    }
+
     public long getResourceLength(ITransaction transaction, String uri)
             throws WebdavException {
         LOG.trace("LocalFileSystemStore.getResourceLength(" + uri + ")");
-        File file = new File(_root, uri);
+        File file = getContentFile(transaction, uri);
         return file.length();
     }
 
-    public StoredObject getStoredObject(ITransaction transaction, String uri) {
+    public Map<String, StoredObject> getChildren(ITransaction transaction,
+            String uri) throws WebdavException {
+        LOG.trace("LocalFileSystemStore.getChildren(" + uri + ")");
+        File file = getFile(uri);
+        // listFiles() returns null if the file is no directory, that saves
+        // the extra isDirectory() call
+        File[] children = file.listFiles();
+        if (children == null) {
+            return null;
+        }
+        Map<String, StoredObject> childMap = new LinkedHashMap<String, StoredObject>(
+                children.length * 4 / 3 + 1);
+        for (int i = 0; i < children.length; i++) {
+            File child = children[i];
+            if (child.getName().startsWith(TEMP_PREFIX)) {
+                continue;
+            }
+            StoredObject so = readStoredObject(child);
+            if (so != null) {
+                // null if it was deleted since it was listed
+                childMap.put(child.getName(), so);
+            }
+        }
+        return childMap;
+    }
 
-        StoredObject so = null;
+    public StoredObject getStoredObject(ITransaction transaction, String uri) {
 
+        if (isReserved(uri)) {
+            // not found, like in listings
+            return null;
+        }
         File file = new File(_root, uri);
-        if (file.exists()) {
-            so = new StoredObject();
-            so.setFolder(file.isDirectory());
-            so.setLastModified(new Date(file.lastModified()));
-            so.setCreationDate(new Date(file.lastModified()));
-            so.setResourceLength(getResourceLength(transaction, uri));
+        StoredObject so = readStoredObject(file);
+        if (so == null || !so.isFolder()) {
+            File content = getContentFile(transaction, uri);
+            if (content != file && so == null) {
+                // created by this transaction, appears on commit
+                so = readStoredObject(content);
+            } else if (content != file) {
+                StoredObject staged = readStoredObject(content);
+                so.setResourceLength(staged != null ? staged
+                        .getResourceLength() : 0);
+                so.setETag(staged != null ? staged.getETag() : null);
+            }
         }
 
         return so;
     }
 
+    /**
+     * reads type, length, modification date and entity tag of a file with a
+     * single system call
+     * 
+     * @return the StoredObject of the file, <code>null</code> if it doesn't
+     *  exist
+     */
+    private static StoredObject readStoredObject(File file) {
+        BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(file.toPath(),
+                    BasicFileAttributes.class);
+        } catch (IOException e) {
+            // NoSuchFileException, or the file can't be read
+            return null;
+        }
+        long lastModified = attributes.lastModifiedTime().toMillis();
+        StoredObject so = new StoredObject();
+        so.setFolder(attributes.isDirectory());
+        so.setLastModified(new Date(lastModified));
+        so.setCreationDate(new Date(lastModified));
+        so.setResourceLength(attributes.isDirectory() ? 0 : attributes
+                .size());
+        if (!attributes.isDirectory()) {
+            so.setETag(getETag(attributes));
+        }
+        return so;
+    }
+
+    /**
+     * @return a strong entity tag of the file from its identity, length and
+     *  modification time, like the one of Apache httpd. <code>null</code>
+     *  for a file modified less than ETAG_SETTLE_TIME ago, where another
+     *  change may come within the resolution of the clock of the file
+     *  system and keep the tag, the methods use a weak one then
+     */
+    private static String getETag(BasicFileAttributes attributes) {
+        long modified = attributes.lastModifiedTime().to(
+                TimeUnit.MICROSECONDS);
+        if (System.currentTimeMillis() - modified / 1000 < ETAG_SETTLE_TIME) {
+            return null;
+        }
+        Object key = attributes.fileKey();
+        return (key != null ? Integer.toHexString(key.hashCode()) + "-" : "")
+                + Long.toHexString(attributes.size()) + "-"
+                + Long.toHexString(modified);
+    }
+
+    /**
+     * @return the file of a resource or folder
+     * @throws AccessDeniedException
+     *      if the path leads to a temporary file or into the upload folder
+     */
+    private File getFile(String uri) {
+        if (isReserved(uri)) {
+            throw new AccessDeniedException("reserved name: " + uri);
+        }
+        return new File(_root, uri);
+    }
+
+    /**
+     * @return <code>true</code> if a segment of the path starts with the
+     *  prefix of the files of the store
+     */
+    private static boolean isReserved(String uri) {
+        if (uri.indexOf(TEMP_PREFIX) == -1) {
+            return false;
+        }
+        // backslashes separate too on Windows
+        String[] segments = uri.split("[/\\\\]");
+        for (int i = 0; i < segments.length; i++) {
+            if (segments[i].startsWith(TEMP_PREFIX)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the file holding the content of the resource as seen by the
+     *  transaction, that is the temporary file if it wrote new content
+     */
+    private File getContentFile(ITransaction transaction, String uri) {
+        File file = getFile(uri);
+        if (transaction instanceof Transaction) {
+            File temp = ((Transaction) transaction).getPending(file);
+            if (temp != null) {
+                return temp;
+            }
+        }
+        return file;
+    }
+
+    /**
+     * replaces a file by another one, atomically where the platform allows
+     * it
+     */
+    private boolean rename(File source, File target) {
+        if (source.renameTo(target)) {
+            return true;
+        }
+        // some platforms (Windows) don't rename over an existing file
+        return target.delete() && source.renameTo(target);
+    }
+
+    private static volatile boolean _directorySyncUnsupported = false;
+
+    /**
+     * forces the entries of a directory to the disk, so a renamed file
+     * survives a crash. Not every platform can open directories (Windows
+     * can't), they are left to the file system there
+     */
+    private static void syncDirectory(File directory) {
+        if (_directorySyncUnsupported) {
+            return;
+        }
+        try {
+            FileChannel channel = FileChannel.open(directory.toPath(),
+                    StandardOpenOption.READ);
+            try {
+                channel.force(true);
+            } finally {
+                channel.close();
+            }
+        } catch (IOException e) {
+            // not possible on this platform, it's no reason to fail
+            _directorySyncUnsupported = true;
+            LOG.warn("Can't force directories to the disk, fsync=directory"
+                    + " only syncs files", e);
+        }
+    }
+
+    /**
+     * the transaction of a request, remembers the temporary files with new
+     * content for their resources
+     */
+    private static class Transaction implements ITransaction {
+
+        private final Principal _principal;
+
+        private Map<File, File> _pending = null;
+
+        Transaction(Principal principal) {
+            _principal = principal;
+        }
+
+        public Principal getPrincipal() {
+            return _principal;
+        }
+
+        synchronized File addPending(File file, File temp) {
+            if (_pending == null) {
+                _pending = new LinkedHashMap<File, File>();
+            }
+            return _pending.put(file, temp);
+        }
+
+        synchronized File getPending(File file) {
+            return _pending == null ? null : _pending.get(file);
+        }
+
+        synchronized File removePending(File file) {
+            return _pending == null ? null : _pending.remove(file);
+        }
+
+        synchronized Map<File, File> takePending() {
+            Map<File, File> pending = _pending;
+            _pending = null;
+            return pending == null ? new LinkedHashMap<File, File>() : pending;
+        }
+    }
+
+    /**
+     * a resource received in parts: the file the parts are written into and
+     * the file logging the ranges received, one "first-last" line per part
+     * after a line with the length and the name of the principal who
+     * started it, if any. Guarded by its lock.
+     */
+    private static class Upload {
+
+        final File _part;
+
+        final File _ranges;
+
+        final long _length;
+
+        /**
+         * the name of the principal who started it, <code>null</code> if
+         * there was none
+         */
+        final String _owner;
+
+        /**
+         * sorted and joined
+         */
+        final List<long[]> _received = new ArrayList<long[]>();
+
+        boolean _completed = false;
+
+        final ReentrantLock _lock = new ReentrantLock();
+
+        private Upload(File part, File ranges, long length, String owner) {
+            _part = part;
+            _ranges = ranges;
+            _length = length;
+            _owner = owner;
+        }
+
+        /**
+         * @return a new upload, replacing the files of an old one
+         */
+        static Upload create(File part, File ranges, long length,
+                String owner) {
+            Upload upload = new Upload(part, ranges, length, owner);
+            part.delete();
+            upload.write(owner == null ? length + "\n" : length + " "
+                    + owner + "\n", false);
+            return upload;
+        }
+
+        /**
+         * @return the upload logged in the ranges file, <code>null</code>
+         *  if there is none
+         */
+        static Upload load(File part, File ranges) {
+            if (!ranges.exists() || !part.exists()) {
+                return null;
+            }
+            try {
+                BufferedReader reader = new BufferedReader(new InputStreamReader(
+                        new FileInputStream(ranges), "UTF-8"));
+                try {
+                    String header = reader.readLine();
+                    int space = header.indexOf(' ');
+                    if (space == -1) {
+                        space = header.length();
+                    }
+                    Upload upload = new Upload(part, ranges, Long
+                            .parseLong(header.substring(0, space).trim()),
+                            space < header.length() ? header
+                                    .substring(space + 1) : null);
+                    String line;
+                    while ((line = reader.readLine()) != null) {
+                        int dash = line.indexOf('-');
+                        try {
+                            upload.join(Long.parseLong(line.substring(0,
+                                    dash)), Long.parseLong(line
+                                    .substring(dash + 1)));
+                        } catch (RuntimeException e) {
+                            // the last line may be cut off by a crash
+                            LOG.warn("invalid range in " + ranges + ": "
+                                    + line);
+                        }
+                    }
+                    return upload;
+                } finally {
+                    reader.close();
+                }
+            } catch (Exception e) {
+                LOG.warn("cannot read " + ranges + ", upload starts over", e);
+                part.delete();
+                ranges.delete();
+                return null;
+            }
+        }
+
+        /**
+         * adds a received range and logs it
+         */
+        void add(long first, long last) {
+            join(first, last);
+            if (!_completed) {
+                write(first + "-" + last + "\n", true);
+            }
+        }
+
+        /**
+         * adds a range to the received ones
+         */
+        private void join(long first, long last) {
+            long[] range = new long[] { first, last };
+            int i = 0;
+            while (i < _received.size() && _received.get(i)[0] <= first) {
+                i++;
+            }
+            _received.add(i, range);
+            // join with the neighbours
+            if (i > 0 && _received.get(i - 1)[1] + 1 >= first) {
+                range = _received.get(i - 1);
+                range[1] = Math.max(range[1], last);
+                _received.remove(i--);
+            }
+            while (i + 1 < _received.size()
+                    && _received.get(i + 1)[0] <= range[1] + 1) {
+                range[1] = Math.max(range[1], _received.remove(i + 1)[1]);
+            }
+        }
+
+        boolean isOwner(String owner) {
+            return _owner == null ? owner == null : _owner.equals(owner);
+        }
+
+        boolean isComplete() {
+            return _received.size() == 1 && _received.get(0)[0] == 0
+                    && _received.get(0)[1] == _length - 1;
+        }
+
+        void discard() {
+            _lock.lock();
+            try {
+                if (_completed) {
+                    // the part is the content of the resource by now
+                    return;
+                }
+                _completed = true;
+                _part.delete();
+                _ranges.delete();
+            } finally {
+                _lock.unlock();
+            }
+        }
+
+        private void write(String s, boolean append) {
+            try {
+                FileOutputStream out = new FileOutputStream(_ranges, append);
+                try {
+                    out.write(s.getBytes("UTF-8"));
+                } finally {
+                    out.close();
+                }
+            } catch (IOException e) {
+                throw new WebdavException(e);
+            }
+        }
+    }
+
+    /**
+     * reads at most a given number of bytes from the current position of a
+     * RandomAccessFile and closes the file when closed
+     */
+    static class RangeInputStream extends InputStream {
+
+        private RandomAccessFile _file;
+
+        private long _remaining;
+
+        RangeInputStream(RandomAccessFile file, long length) {
+            _file = file;
+            _remaining = length;
+        }
+
+        public int read() throws IOException {
+            if (_remaining <= 0) {
+                return -1;
+            }
+            int b = _file.read();
+            if (b != -1) {
+                _remaining--;
+            }
+            return b;
+        }
+
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (_remaining <= 0) {
+                return -1;
+            }
+            if (len > _remaining) {
+                len = (int) _remaining;
+            }
+            int read = _file.read(b, off, len);
+            if (read > 0) {
+                _remaining -= read;
+            }
+            return read;
+        }
+
+        public void close() throws IOException {
+            _file.close();
+        }
+    }
+
 }
@@ -0,0 +1,881 @@
+/*
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package net.sf.webdav;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.security.Principal;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.sf.webdav.exceptions.WebdavException;
+
+/**
+ * WebdavStore keeping everything in memory, as a scratch area for short
+ * living files or to measure the servlet without any I/O.
+ *
+ * The objects are found by their path in a hash index, every folder knows
+ * the names of its children. Content is held in pooled chunks of
+ * ByteBuffers (optionally off-heap) and never changes once written, so
+ * readers and copies share it without locking. With a byte budget the least
+ * recently used content is moved to a backing store when the budget is
+ * exceeded and read back when it is accessed again.
+ *
+ * Nothing is transactional: changes are visible at once and survive a
+ * rollback, as with LocalFileSystemStore.
+ *
+ * @author re
+ */
+public class MemoryStore implements IChannelStore, IRandomAccessStore,
+        IChildrenStore, IMoveStore, ICopyStore {
+
+    private static org.slf4j.Logger LOG = org.slf4j.LoggerFactory
+            .getLogger(MemoryStore.class);
+
+    /**
+     * init-parameter: maximum number of content bytes held in memory, 0 or
+     * missing for no limit
+     */
+    public static final String BUDGET_PARAMETER = "memory-budget";
+
+    /**
+     * init-parameter: "1" to hold content outside of the Java heap
+     */
+    public static final String DIRECT_BUFFERS_PARAMETER = "memory-direct-buffers";
+
+    private static final int CHUNK_SIZE = 65536;
+
+    /**
+     * number of free chunks kept for reuse
+     */
+    private static final int MAX_POOLED_CHUNKS = 256;
+
+    private static final String ROOT = "/";
+
+    private final ConcurrentHashMap<String, Node> _index = new ConcurrentHashMap<String, Node>();
+
+    /**
+     * creating, removing and moving objects is done one at a time, reading
+     * needs no lock
+     */
+    private final Object _structureLock = new Object();
+
+    private final ConcurrentLinkedQueue<ByteBuffer> _pool = new ConcurrentLinkedQueue<ByteBuffer>();
+
+    private final AtomicInteger _pooled = new AtomicInteger();
+
+    /**
+     * bytes of all chunks in use
+     */
+    private final AtomicLong _allocated = new AtomicLong();
+
+    private final boolean _directBuffers;
+
+    private final long _budget;
+
+    private final IWebdavStore _backingStore;
+
+    /**
+     * nodes with content in memory, least recently used first
+     */
+    private final LinkedHashMap<Node, Node> _lru = new LinkedHashMap<Node, Node>(
+            16, 0.75f, true);
+
+    private final AtomicLong _backingIds = new AtomicLong();
+
+    public MemoryStore() {
+        this(0, null, false);
+    }
+
+    /**
+     * @param budget
+     *      maximum number of content bytes held in memory, 0 for no limit
+     * @param backingStore
+     *      where content is moved to if the budget is exceeded,
+     *      <code>null</code> to refuse content that doesn't fit
+     * @param directBuffers
+     *      true to hold content outside of the Java heap
+     */
+    public MemoryStore(long budget, IWebdavStore backingStore,
+            boolean directBuffers) {
+        _budget = budget;
+        _backingStore = backingStore;
+        _directBuffers = directBuffers;
+        Date now = new Date();
+        _index.put(ROOT, new Node(true, now));
+    }
+
+    /**
+     * used by WebdavServlet, the root path is where a LocalFileSystemStore
+     * keeps the content that doesn't fit into the budget
+     */
+    public MemoryStore(File root, Properties properties) {
+        this(getBudget(properties), getBudget(properties) > 0
+                ? new LocalFileSystemStore(root) : null, "1".equals(properties
+                .getProperty(DIRECT_BUFFERS_PARAMETER, "0").trim()));
+    }
+
+    private static long getBudget(Properties properties) {
+        return Long.parseLong(properties.getProperty(BUDGET_PARAMETER, "0")
+                .trim());
+    }
+
+    public void destroy() {
+        synchronized (_structureLock) {
+            for (Node node : _index.values()) {
+                node.setContent(null);
+            }
+            _index.clear();
+            _index.put(ROOT, new Node(true, new Date()));
+        }
+        _pool.clear();
+        _pooled.set(0);
+        if (_backingStore != null) {
+            _backingStore.destroy();
+        }
+    }
+
+    public ITransaction begin(final Principal principal)
+            throws WebdavException {
+        LOG.trace("MemoryStore.begin()");
+        return new ITransaction() {
+            public Principal getPrincipal() {
+                return principal;
+            }
+        };
+    }
+
+    public void checkAuthentication(ITransaction transaction)
+            throws SecurityException {
+        LOG.trace("MemoryStore.checkAuthentication()");
+        // do nothing
+    }
+
+    public void commit(ITransaction transaction) throws WebdavException {
+        // do nothing
+        LOG.trace("MemoryStore.commit()");
+    }
+
+    public void rollback(ITransaction transaction) throws WebdavException {
+        // do nothing
+        LOG.trace("MemoryStore.rollback()");
+    }
+
+    public void createFolder(ITransaction transaction, String uri)
+            throws WebdavException {
+        LOG.trace("MemoryStore.createFolder(" + uri + ")");
+        create(uri, true);
+    }
+
+    public void createResource(ITransaction transaction, String uri)
+            throws WebdavException {
+        LOG.trace("MemoryStore.createResource(" + uri + ")");
+        create(uri, false);
+    }
+
+    private void create(String uri, boolean folder) {
+        String path = normalize(uri);
+        synchronized (_structureLock) {
+            Node parent = _index.get(getParent(path));
+            if (parent == null || !parent._folder || _index.containsKey(path)) {
+                throw new WebdavException("cannot create "
+                        + (folder ? "folder" : "file") + ": " + uri);
+            }
+            _index.put(path, new Node(folder, new Date()));
+            parent._children.put(getName(path), Boolean.TRUE);
+            parent._lastModified = System.currentTimeMillis();
+        }
+    }
+
+    public long setResourceContent(ITransaction transaction, String uri,
+            InputStream is, String contentType, String characterEncoding)
+            throws WebdavException {
+        LOG.trace("MemoryStore.setResourceContent(" + uri + ")");
+        Node node = getResource(uri);
+
+        Content content;
+        try {
+            try {
+                // without a backing store there is nowhere to move other
+                // content to, the budget is checked chunk by chunk
+                content = readContent(is, _budget > 0
+                        && _backingStore == null);
+            } finally {
+                is.close();
+            }
+        } catch (IOException e) {
+            LOG.error("MemoryStore.setResourceContent(" + uri + ") failed");
+            throw new WebdavException(e);
+        }
+        long length = content._length;
+        node.setContent(content);
+        node._lastModified = System.currentTimeMillis();
+        touch(node);
+        makeRoom();
+        return length;
+    }
+
+    public String[] getChildrenNames(ITransaction transaction, String uri)
+            throws WebdavException {
+        LOG.trace("MemoryStore.getChildrenNames(" + uri + ")");
+        Node node = _index.get(normalize(uri));
+        if (node == null || !node._folder) {
+            return null;
+        }
+        return node._children.keySet().toArray(new String[0]);
+    }
+
+    public Map<String, StoredObject> getChildren(ITransaction transaction,
+            String uri) throws WebdavException {
+        LOG.trace("MemoryStore.getChildren(" + uri + ")");
+        String path = normalize(uri);
+        Node node = _index.get(path);
+        if (node == null || !node._folder) {
+            return null;
+        }
+        Map<String, StoredObject> childMap = new LinkedHashMap<String, StoredObject>();
+        for (String name : node._children.keySet()) {
+            Node child = _index.get(getChild(path, name));
+            if (child != null) {
+                childMap.put(name, child.toStoredObject());
+            }
+        }
+        return childMap;
+    }
+
+    public void removeObject(ITransaction transaction, String uri)
+            throws WebdavException {
+        LOG.trace("MemoryStore.removeObject(" + uri + ")");
+        String path = normalize(uri);
+        Node node;
+        synchronized (_structureLock) {
+            node = _index.get(path);
+            if (node == null || path.equals(ROOT)
+                    || (node._folder && !node._children.isEmpty())) {
+                throw new WebdavException("cannot delete object: " + uri);
+            }
+            _index.remove(path);
+            Node parent = _index.get(getParent(path));
+            parent._children.remove(getName(path));
+            parent._lastModified = System.currentTimeMillis();
+        }
+        node.setContent(null);
+    }
+
+    public boolean moveObject(ITransaction transaction, String sourceUri,
+            String destinationUri) throws WebdavException {
+        LOG.trace("MemoryStore.moveObject(" + sourceUri + ", "
+                + destinationUri + ")");
+        String source = normalize(sourceUri);
+        String destination = normalize(destinationUri);
+        synchronized (_structureLock) {
+            Node destinationParent = _index.get(getParent(destination));
+            if (!_index.containsKey(source) || source.equals(ROOT)
+                    || _index.containsKey(destination)
+                    || destinationParent == null || !destinationParent._folder
+                    || destination.startsWith(source + "/")) {
+                return false;
+            }
+            // the nodes keep their content, only their paths change
+            List<String> paths = new ArrayList<String>();
+            collectPaths(source, paths);
+            for (String path : paths) {
+                _index.put(destination + path.substring(source.length()),
+                        _index.remove(path));
+            }
+            long now = System.currentTimeMillis();
+            Node sourceParent = _index.get(getParent(source));
+            sourceParent._children.remove(getName(source));
+            sourceParent._lastModified = now;
+            destinationParent._children.put(getName(destination),
+                    Boolean.TRUE);
+            destinationParent._lastModified = now;
+        }
+        return true;
+    }
+
+    private void collectPaths(String path, List<String> paths) {
+        paths.add(path);
+        Node node = _index.get(path);
+        if (node != null && node._folder) {
+            for (String name : node._children.keySet()) {
+                collectPaths(getChild(path, name), paths);
+            }
+        }
+    }
+
+    public boolean copyResource(ITransaction transaction, String sourceUri,
+            String destinationUri) throws WebdavException {
+        LOG.trace("MemoryStore.copyResource(" + sourceUri + ", "
+                + destinationUri + ")");
+        Node source = getResource(sourceUri);
+        Node destination = _index.get(normalize(destinationUri));
+        if (destination == null) {
+            create(destinationUri, false);
+            destination = getResource(destinationUri);
+        } else if (destination._folder) {
+            return false;
+        }
+        // content never changes, both resources can share it
+        Content content = load(source);
+        content.retain();
+        try {
+            destination.setContent(content);
+        } finally {
+            content.release();
+        }
+        destination._lastModified = System.currentTimeMillis();
+        touch(destination);
+        return true;
+    }
+
+    public InputStream getResourceContent(ITransaction transaction, String uri)
+            throws WebdavException {
+        LOG.trace("MemoryStore.getResourceContent(" + uri + ")");
+        Content content = load(getResource(uri));
+        return new ContentInputStream(content, 0, content._length);
+    }
+
+    public InputStream getResourceContent(ITransaction transaction,
+            String uri, long offset, long length) throws WebdavException {
+        LOG.trace("MemoryStore.getResourceContent(" + uri + ", " + offset
+                + ", " + length + ")");
+        Content content = load(getResource(uri));
+        long start = Math.min(offset, content._length);
+        return new ContentInputStream(content, start, Math.min(length,
+                content._length - start));
+    }
+
+    public long transferResourceContent(ITransaction transaction, String uri,
+            long offset, long length, WritableByteChannel target)
+            throws WebdavException {
+        LOG.trace("MemoryStore.transferResourceContent(" + uri + ")");
+        Content content = load(getResource(uri));
+        try {
+            long end = content._length;
+            if (length >= 0 && offset + length < end) {
+                end = offset + length;
+            }
+            long position = offset;
+            while (position < end) {
+                ByteBuffer chunk = content._chunks[(int) (position / CHUNK_SIZE)]
+                        .duplicate();
+                int chunkOffset = (int) (position % CHUNK_SIZE);
+                chunk.limit((int) Math.min(chunk.limit(), chunkOffset + end
+                        - position));
+                chunk.position(chunkOffset);
+                while (chunk.hasRemaining()) {
+                    position += target.write(chunk);
+                }
+            }
+            return Math.max(0, position - offset);
+        } catch (IOException e) {
+            LOG.error("MemoryStore.transferResourceContent(" + uri
+                    + ") failed");
+            throw new WebdavException(e);
+        } finally {
+            content.release();
+        }
+    }
+
+    public long getResourceLength(ITransaction transaction, String uri)
+            throws WebdavException {
+        LOG.trace("MemoryStore.getResourceLength(" + uri + ")");
+        Node node = _index.get(normalize(uri));
+        return node == null ? 0 : node._length;
+    }
+
+    public StoredObject getStoredObject(ITransaction transaction, String uri) {
+        Node node = _index.get(normalize(uri));
+        return node == null ? null : node.toStoredObject();
+    }
+
+    private Node getResource(String uri) {
+        Node node = _index.get(normalize(uri));
+        if (node == null || node._folder) {
+            throw new WebdavException("no such resource: " + uri);
+        }
+        return node;
+    }
+
+    /**
+     * @return the content of a resource, read back from the backing store if
+     *  it was moved there. The caller has to release() it
+     */
+    private Content load(Node node) {
+        while (true) {
+            Content content = node._content;
+            if (content != null) {
+                if (content.retain()) {
+                    touch(node);
+                    return content;
+                }
+                // replaced just now, look again
+                continue;
+            }
+            String backingUri;
+            synchronized (node) {
+                backingUri = node._backingUri;
+                if (node._content != null) {
+                    continue;
+                }
+                if (backingUri == null) {
+                    // never written
+                    return new Content(new ByteBuffer[0], 0);
+                }
+                content = readFromBackingStore(backingUri);
+                node.setResidentContent(content);
+                // the reader's reference, the content may be evicted again
+                // before it is read
+                content.retain();
+            }
+            removeFromBackingStore(backingUri);
+            touch(node);
+            makeRoom();
+            return content;
+        }
+    }
+
+    /**
+     * marks a node as the most recently used
+     */
+    private void touch(Node node) {
+        if (_budget > 0 && _backingStore != null) {
+            synchronized (_lru) {
+                _lru.put(node, node);
+            }
+        }
+    }
+
+    /**
+     * moves least recently used content to the backing store until the
+     * budget is kept
+     */
+    private void makeRoom() {
+        if (_budget <= 0 || _backingStore == null) {
+            return;
+        }
+        while (_allocated.get() > _budget) {
+            Node victim;
+            synchronized (_lru) {
+                Iterator<Node> it = _lru.keySet().iterator();
+                if (!it.hasNext()) {
+                    return;
+                }
+                victim = it.next();
+                it.remove();
+            }
+            try {
+                evict(victim);
+            } catch (WebdavException e) {
+                // the content stays in memory, the budget is exceeded
+                LOG.error("MemoryStore: moving content to the backing store"
+                        + " failed", e);
+                return;
+            }
+        }
+    }
+
+    private void evict(Node node) {
+        synchronized (node) {
+            Content content = node._content;
+            if (content == null || !content.retain()) {
+                return;
+            }
+            try {
+                String backingUri = "/.webdav-memory-"
+                        + _backingIds.incrementAndGet();
+                ITransaction transaction = _backingStore.begin(null);
+                boolean committed = false;
+                try {
+                    _backingStore.createResource(transaction, backingUri);
+                    _backingStore.setResourceContent(transaction, backingUri,
+                            openStream(content), null, null);
+                    _backingStore.commit(transaction);
+                    committed = true;
+                } finally {
+                    if (!committed) {
+                        _backingStore.rollback(transaction);
+                    }
+                }
+                node.evicted(backingUri);
+            } finally {
+                content.release();
+            }
+        }
+    }
+
+    private Content readFromBackingStore(String backingUri) {
+        ITransaction transaction = _backingStore.begin(null);
+        boolean committed = false;
+        try {
+            InputStream in = _backingStore.getResourceContent(transaction,
+                    backingUri);
+            Content content;
+            try {
+                content = readContent(in, false);
+            } finally {
+                in.close();
+            }
+            _backingStore.commit(transaction);
+            committed = true;
+            return content;
+        } catch (IOException e) {
+            throw new WebdavException(e);
+        } finally {
+            if (!committed) {
+                _backingStore.rollback(transaction);
+            }
+        }
+    }
+
+    private void removeFromBackingStore(String backingUri) {
+        ITransaction transaction = _backingStore.begin(null);
+        boolean committed = false;
+        try {
+            _backingStore.removeObject(transaction, backingUri);
+            _backingStore.commit(transaction);
+            committed = true;
+        } catch (WebdavException e) {
+            LOG.warn("MemoryStore: cannot remove " + backingUri
+                    + " from the backing store", e);
+        } finally {
+            if (!committed) {
+                _backingStore.rollback(transaction);
+            }
+        }
+    }
+
+    /**
+     * @param bounded
+     *      true to stop reading as soon as the chunks in use exceed the
+     *      budget
+     */
+    private Content readContent(InputStream is, boolean bounded)
+            throws IOException {
+        List<ByteBuffer> chunks = new ArrayList<ByteBuffer>();
+        byte[] copyBuffer = new byte[CHUNK_SIZE];
+        long length = 0;
+        boolean complete = false;
+        try {
+            while (true) {
+                int filled = 0;
+                int read;
+                while (filled < CHUNK_SIZE
+                        && (read = is.read(copyBuffer, filled, CHUNK_SIZE
+                                - filled)) != -1) {
+                    filled += read;
+                }
+                if (filled == 0) {
+                    break;
+                }
+                ByteBuffer chunk = allocateChunk();
+                chunks.add(chunk);
+                if (bounded && _allocated.get() > _budget) {
+                    throw new WebdavException("memory budget of " + _budget
+                            + " bytes exceeded");
+                }
+                chunk.put(copyBuffer, 0, filled);
+                chunk.flip();
+                length += filled;
+                if (filled < CHUNK_SIZE) {
+                    break;
+                }
+            }
+            complete = true;
+        } finally {
+            if (!complete) {
+                for (ByteBuffer chunk : chunks) {
+                    freeChunk(chunk);
+                }
+            }
+        }
+        return new Content(chunks.toArray(new ByteBuffer[chunks.size()]),
+                length);
+    }
+
+    private InputStream openStream(Content content) {
+        if (!content.retain()) {
+            throw new WebdavException("content was released");
+        }
+        return new ContentInputStream(content, 0, content._length);
+    }
+
+    private ByteBuffer allocateChunk() {
+        _allocated.addAndGet(CHUNK_SIZE);
+        ByteBuffer chunk = _pool.poll();
+        if (chunk != null) {
+            _pooled.decrementAndGet();
+            chunk.clear();
+            return chunk;
+        }
+        return _directBuffers ? ByteBuffer.allocateDirect(CHUNK_SIZE)
+                : ByteBuffer.allocate(CHUNK_SIZE);
+    }
+
+    private void freeChunk(ByteBuffer chunk) {
+        _allocated.addAndGet(-CHUNK_SIZE);
+        if (_pooled.incrementAndGet() <= MAX_POOLED_CHUNKS) {
+            _pool.add(chunk);
+        } else {
+            _pooled.decrementAndGet();
+        }
+    }
+
+    /**
+     * @return the path with a leading and without a trailing slash
+     */
+    private static String normalize(String uri) {
+        String path = uri.replace('\\', '/');
+        while (path.indexOf("//") != -1) {
+            path = path.replaceAll("//", "/");
+        }
+        if (!path.startsWith("/")) {
+            path = "/" + path;
+        }
+        if (path.length() > 1 && path.endsWith("/")) {
+            path = path.substring(0, path.length() - 1);
+        }
+        return path;
+    }
+
+    private static String getParent(String path) {
+        int slash = path.lastIndexOf('/');
+        return slash <= 0 ? ROOT : path.substring(0, slash);
+    }
+
+    private static String getName(String path) {
+        return path.substring(path.lastIndexOf('/') + 1);
+    }
+
+    private static String getChild(String path, String name) {
+        return path.equals(ROOT) ? ROOT + name : path + "/" + name;
+    }
+
+    /**
+     * a folder or resource
+     */
+    private class Node {
+
+        final boolean _folder;
+
+        final long _creationDate;
+
+        volatile long _lastModified;
+
+        /**
+         * names of the children of a folder
+         */
+        final ConcurrentHashMap<String, Boolean> _children;
+
+        /**
+         * content in memory, <code>null</code> if there is none or it was
+         * moved to the backing store
+         */
+        volatile Content _content = null;
+
+        /**
+         * where the content is in the backing store
+         */
+        volatile String _backingUri = null;
+
+        volatile long _length = 0;
+
+        Node(boolean folder, Date creationDate) {
+            _folder = folder;
+            _creationDate = creationDate.getTime();
+            _lastModified = _creationDate;
+            _children = folder ? new ConcurrentHashMap<String, Boolean>()
+                    : null;
+        }
+
+        /**
+         * replaces the content, <code>null</code> to drop it
+         */
+        void setContent(Content content) {
+            String backingUri;
+            Content old;
+            synchronized (this) {
+                old = _content;
+                backingUri = _backingUri;
+                _content = content;
+                _backingUri = null;
+                _length = content == null ? 0 : content._length;
+            }
+            if (old != null) {
+                old.release();
+            }
+            if (content == null && _budget > 0 && _backingStore != null) {
+                synchronized (_lru) {
+                    _lru.remove(this);
+                }
+            }
+            if (backingUri != null) {
+                removeFromBackingStore(backingUri);
+            }
+        }
+
+        /**
+         * puts content read back from the backing store into memory, called
+         * with the node locked
+         */
+        void setResidentContent(Content content) {
+            _content = content;
+            _backingUri = null;
+        }
+
+        /**
+         * drops the content from memory after it was written to the backing
+         * store, called with the node locked
+         */
+        void evicted(String backingUri) {
+            Content content = _content;
+            _backingUri = backingUri;
+            _content = null;
+            content.release();
+        }
+
+        StoredObject toStoredObject() {
+            StoredObject so = new StoredObject();
+            so.setFolder(_folder);
+            so.setCreationDate(new Date(_creationDate));
+            so.setLastModified(new Date(_lastModified));
+            so.setResourceLength(_folder ? 0 : _length);
+            return so;
+        }
+    }
+
+    /**
+     * the content of a resource, never changes. Its chunks go back to the
+     * pool when the last reference is released
+     */
+    private class Content {
+
+        final ByteBuffer[] _chunks;
+
+        final long _length;
+
+        /**
+         * the node holding the content and every reader count as one
+         * reference
+         */
+        private final AtomicInteger _references = new AtomicInteger(1);
+
+        Content(ByteBuffer[] chunks, long length) {
+            _chunks = chunks;
+            _length = length;
+        }
+
+        /**
+         * @return false if the content was already released
+         */
+        boolean retain() {
+            while (true) {
+                int references = _references.get();
+                if (references <= 0) {
+                    return false;
+                }
+                if (_references.compareAndSet(references, references + 1)) {
+                    return true;
+                }
+            }
+        }
+
+        void release() {
+            if (_references.decrementAndGet() == 0) {
+                for (ByteBuffer chunk : _chunks) {
+                    freeChunk(chunk);
+                }
+            }
+        }
+    }
+
+    /**
+     * reads a part of a Content and releases it when closed
+     */
+    private static class ContentInputStream extends InputStream {
+
+        private final Content _content;
+
+        private long _position;
+
+        private final long _end;
+
+        private ByteBuffer _chunk = null;
+
+        private boolean _closed = false;
+
+        ContentInputStream(Content content, long offset, long length) {
+            _content = content;
+            _position = offset;
+            _end = offset + length;
+        }
+
+        private ByteBuffer currentChunk() {
+            if (_chunk == null || !_chunk.hasRemaining()) {
+                _chunk = _content._chunks[(int) (_position / CHUNK_SIZE)]
+                        .duplicate();
+                _chunk.position((int) (_position % CHUNK_SIZE));
+            }
+            return _chunk;
+        }
+
+        public int read() throws IOException {
+            if (_closed || _position >= _end) {
+                return -1;
+            }
+            _position++;
+            return currentChunk().get() & 0xff;
+        }
+
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (_closed || _position >= _end) {
+                return -1;
+            }
+            ByteBuffer chunk = currentChunk();
+            int n = (int) Math.min(Math.min(len, chunk.remaining()), _end
+                    - _position);
+            chunk.get(b, off, n);
+            _position += n;
+            return n;
+        }
+
+        public int available() throws IOException {
+            return _closed ? 0 : (int) Math.min(Integer.MAX_VALUE, _end
+                    - _position);
+        }
+
+        public void close() throws IOException {
+            if (!_closed) {
+                _closed = true;
+                _content.release();
+            }
+        }
+    }
+
+}
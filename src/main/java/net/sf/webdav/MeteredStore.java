@@ -0,0 +1,292 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package net.sf.webdav;
+
+import java.io.InputStream;
+import java.nio.channels.WritableByteChannel;
+import java.security.Principal;
+import java.util.Map;
+
+import net.sf.webdav.metrics.Metrics;
+
+/**
+ * Store decorator recording the time taken by every call of the decorated
+ * store in the histograms of {@link Metrics}, one for each operation. Calls
+ * returning a stream are timed until the stream is returned, not until it
+ * has been read.
+ *
+ * WebDavServletBean puts it beneath its TransactionMemoStore, so only the
+ * calls that reach the store are timed, unless there already is one among
+ * the decorators of the store.
+ */
+public class MeteredStore extends StoreDecorator {
+
+    protected Metrics _metrics;
+
+    public MeteredStore(IWebdavStore store, Metrics metrics) {
+        super(store);
+        _metrics = metrics;
+    }
+
+    /**
+     * records into other metrics from now on, must be called before the
+     * store is used by several threads
+     */
+    public void setMetrics(Metrics metrics) {
+        _metrics = metrics;
+    }
+
+    public ITransaction begin(Principal principal) {
+        long start = System.nanoTime();
+        try {
+            return super.begin(principal);
+        } finally {
+            finished("begin", null, start);
+        }
+    }
+
+    public void checkAuthentication(ITransaction transaction) {
+        long start = System.nanoTime();
+        try {
+            super.checkAuthentication(transaction);
+        } finally {
+            finished("checkAuthentication", null, start);
+        }
+    }
+
+    public void commit(ITransaction transaction) {
+        long start = System.nanoTime();
+        try {
+            super.commit(transaction);
+        } finally {
+            finished("commit", null, start);
+        }
+    }
+
+    public void rollback(ITransaction transaction) {
+        long start = System.nanoTime();
+        try {
+            super.rollback(transaction);
+        } finally {
+            finished("rollback", null, start);
+        }
+    }
+
+    public void createFolder(ITransaction transaction, String folderUri) {
+        long start = System.nanoTime();
+        try {
+            super.createFolder(transaction, folderUri);
+        } finally {
+            finished("createFolder", folderUri, start);
+        }
+    }
+
+    public void createResource(ITransaction transaction, String resourceUri) {
+        long start = System.nanoTime();
+        try {
+            super.createResource(transaction, resourceUri);
+        } finally {
+            finished("createResource", resourceUri, start);
+        }
+    }
+
+    public InputStream getResourceContent(ITransaction transaction,
+            String resourceUri) {
+        long start = System.nanoTime();
+        try {
+            return super.getResourceContent(transaction, resourceUri);
+        } finally {
+            finished("getResourceContent", resourceUri, start);
+        }
+    }
+
+    public long setResourceContent(ITransaction transaction,
+            String resourceUri, InputStream content, String contentType,
+            String characterEncoding) {
+        long start = System.nanoTime();
+        try {
+            return super.setResourceContent(transaction, resourceUri, content,
+                    contentType, characterEncoding);
+        } finally {
+            finished("setResourceContent", resourceUri, start);
+        }
+    }
+
+    public String[] getChildrenNames(ITransaction transaction,
+            String folderUri) {
+        long start = System.nanoTime();
+        try {
+            return super.getChildrenNames(transaction, folderUri);
+        } finally {
+            finished("getChildrenNames", folderUri, start);
+        }
+    }
+
+    public long getResourceLength(ITransaction transaction, String path) {
+        long start = System.nanoTime();
+        try {
+            return super.getResourceLength(transaction, path);
+        } finally {
+            finished("getResourceLength", path, start);
+        }
+    }
+
+    public void removeObject(ITransaction transaction, String uri) {
+        long start = System.nanoTime();
+        try {
+            super.removeObject(transaction, uri);
+        } finally {
+            finished("removeObject", uri, start);
+        }
+    }
+
+    public StoredObject getStoredObject(ITransaction transaction, String uri) {
+        long start = System.nanoTime();
+        try {
+            return super.getStoredObject(transaction, uri);
+        } finally {
+            finished("getStoredObject", uri, start);
+        }
+    }
+
+    public Map<String, StoredObject> getChildren(ITransaction transaction,
+            String folderUri) {
+        long start = System.nanoTime();
+        try {
+            return super.getChildren(transaction, folderUri);
+        } finally {
+            finished("getChildren", folderUri, start);
+        }
+    }
+
+    public InputStream getResourceContent(ITransaction transaction,
+            String resourceUri, long offset, long length) {
+        long start = System.nanoTime();
+        try {
+            return super.getResourceContent(transaction, resourceUri, offset,
+                    length);
+        } finally {
+            finished("getResourceContent", resourceUri, start);
+        }
+    }
+
+    public long transferResourceContent(ITransaction transaction,
+            String resourceUri, long offset, long length,
+            WritableByteChannel target) {
+        long start = System.nanoTime();
+        try {
+            return super.transferResourceContent(transaction, resourceUri,
+                    offset, length, target);
+        } finally {
+            finished("transferResourceContent", resourceUri, start);
+        }
+    }
+
+    public boolean moveObject(ITransaction transaction, String sourceUri,
+            String destinationUri) {
+        long start = System.nanoTime();
+        try {
+            return super.moveObject(transaction, sourceUri, destinationUri);
+        } finally {
+            finished("moveObject", sourceUri, start);
+        }
+    }
+
+    public boolean copyResource(ITransaction transaction, String sourceUri,
+            String destinationUri) {
+        long start = System.nanoTime();
+        try {
+            return super.copyResource(transaction, sourceUri, destinationUri);
+        } finally {
+            finished("copyResource", sourceUri, start);
+        }
+    }
+
+    public long[][] writeResourceContent(ITransaction transaction,
+            String resourceUri, long offset, long length, long resourceLength,
+            InputStream content) {
+        long start = System.nanoTime();
+        try {
+            return super.writeResourceContent(transaction, resourceUri,
+                    offset, length, resourceLength, content);
+        } finally {
+            finished("writeResourceContent", resourceUri, start);
+        }
+    }
+
+    public String getContentEncoding(ITransaction transaction,
+            String resourceUri) {
+        long start = System.nanoTime();
+        try {
+            return super.getContentEncoding(transaction, resourceUri);
+        } finally {
+            finished("getContentEncoding", resourceUri, start);
+        }
+    }
+
+    public long getEncodedResourceLength(ITransaction transaction,
+            String resourceUri) {
+        long start = System.nanoTime();
+        try {
+            return super.getEncodedResourceLength(transaction, resourceUri);
+        } finally {
+            finished("getEncodedResourceLength", resourceUri, start);
+        }
+    }
+
+    public InputStream getEncodedResourceContent(ITransaction transaction,
+            String resourceUri) {
+        long start = System.nanoTime();
+        try {
+            return super.getEncodedResourceContent(transaction, resourceUri);
+        } finally {
+            finished("getEncodedResourceContent", resourceUri, start);
+        }
+    }
+
+    public long getQuotaUsedBytes(ITransaction transaction, String folderUri) {
+        long start = System.nanoTime();
+        try {
+            return super.getQuotaUsedBytes(transaction, folderUri);
+        } finally {
+            finished("getQuotaUsedBytes", folderUri, start);
+        }
+    }
+
+    public long getQuotaAvailableBytes(ITransaction transaction,
+            String folderUri) {
+        long start = System.nanoTime();
+        try {
+            return super.getQuotaAvailableBytes(transaction, folderUri);
+        } finally {
+            finished("getQuotaAvailableBytes", folderUri, start);
+        }
+    }
+    /**
+     * records a call of the store
+     * 
+     * @param operation
+     *      the name of the store method
+     * @param uri
+     *      the path the call was about, <code>null</code> for calls about
+     *      the transaction
+     * @param start
+     *      System.nanoTime() when the call started
+     */
+    protected void finished(String operation, String uri, long start) {
+        _metrics.getStoreTimes(operation).recordSince(start);
+    }
+
+}
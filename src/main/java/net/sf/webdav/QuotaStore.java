@@ -0,0 +1,835 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package net.sf.webdav;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.Principal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import net.sf.webdav.exceptions.QuotaExceededException;
+import net.sf.webdav.exceptions.WebdavException;
+
+/**
+ * Store decorator limiting the bytes the content of the store may take, in
+ * total and for each top level collection (the home collections of the
+ * users, where the store is laid out like that).
+ *
+ * The bytes used are counted once when the store is created and then kept
+ * up to date by every change made through this store. Uploads are counted
+ * while they are read and fail with a QuotaExceededException as soon as a
+ * limit is crossed, so no more than the limit is ever written. Parts of
+ * partial uploads count from when they are staged, until the upload is
+ * complete, replaced or expired.
+ *
+ * Changes count at once, so concurrent uploads share the limits. When a
+ * transaction is rolled back, the lengths of the resources it changed are
+ * read again and what they use is corrected, stores that keep their changes
+ * on rollback keep them counted. A resource changed again by another
+ * transaction since is corrected by the length that change found instead.
+ * Changes of a path wait for the rollback of another change of it, and the
+ * other way round.
+ *
+ * There are no quotas for each principal: IWebdavStore doesn't tell who
+ * owns a resource. Where every user has a home collection at the top
+ * level, the quota of the top level collections is the quota of the users.
+ *
+ * @author re
+ */
+public class QuotaStore extends StoreDecorator {
+
+    private static org.slf4j.Logger LOG = org.slf4j.LoggerFactory
+            .getLogger(QuotaStore.class);
+
+    /**
+     * init-parameter: bytes the whole store may take
+     */
+    public static final String QUOTA_PARAMETER = "quota";
+
+    /**
+     * init-parameter: bytes each top level collection may take
+     */
+    public static final String COLLECTION_QUOTA_PARAMETER = "collection-quota";
+
+    private static final int STRIPES = 16;
+
+    private final long _quota;
+
+    private final long _collectionQuota;
+
+    private final AtomicLong _used = new AtomicLong();
+
+    /**
+     * bytes used in the top level collections, only counted if they have a
+     * quota
+     */
+    private final ConcurrentHashMap<String, AtomicLong> _collections = new ConcurrentHashMap<String, AtomicLong>();
+
+    /**
+     * partial uploads in progress, by path
+     */
+    private final ConcurrentHashMap<String, Staged> _staged = new ConcurrentHashMap<String, Staged>();
+
+    /**
+     * milliseconds the store keeps a partial upload without a new part
+     */
+    private final long _uploadExpiry;
+
+    /**
+     * changed paths to the last transaction that changed them, until it
+     * ends
+     */
+    private final ConcurrentHashMap<String, Transaction> _changedBy = new ConcurrentHashMap<String, Transaction>();
+
+    /**
+     * locks over the paths by their hash: a change holds the read lock of
+     * its paths while it counts, a rollback the write locks of the paths it
+     * changed until it has corrected them
+     */
+    private final ReentrantReadWriteLock[] _stripes = new ReentrantReadWriteLock[STRIPES];
+
+    /**
+     * @param quota
+     *      bytes the whole store may take, -1 for no limit
+     * @param collectionQuota
+     *      bytes each top level collection may take, -1 for no limit
+     */
+    public QuotaStore(IWebdavStore store, long quota, long collectionQuota) {
+        this(store, quota, collectionQuota,
+                LocalFileSystemStore.DEFAULT_UPLOAD_EXPIRY * 1000);
+    }
+
+    /**
+     * @param uploadExpiry
+     *      milliseconds the decorated store keeps a partial upload without a
+     *      new part, 0 if it keeps them until they are completed
+     */
+    public QuotaStore(IWebdavStore store, long quota, long collectionQuota,
+            long uploadExpiry) {
+        super(store);
+        _quota = quota;
+        _collectionQuota = collectionQuota;
+        _uploadExpiry = uploadExpiry;
+        for (int i = 0; i < _stripes.length; i++) {
+            _stripes[i] = new ReentrantReadWriteLock();
+        }
+        countUsage();
+    }
+
+    public QuotaStore(IWebdavStore store, Properties properties) {
+        this(store, Long.parseLong(properties.getProperty(QUOTA_PARAMETER,
+                "-1").trim()), Long.parseLong(properties.getProperty(
+                COLLECTION_QUOTA_PARAMETER, "-1").trim()), 1000 * Long
+                .parseLong(properties.getProperty(
+                        LocalFileSystemStore.UPLOAD_EXPIRY_PARAMETER,
+                        "" + LocalFileSystemStore.DEFAULT_UPLOAD_EXPIRY)
+                        .trim()));
+    }
+
+    /**
+     * counts the bytes used by walking the store, only done at start
+     */
+    private void countUsage() {
+        long start = System.currentTimeMillis();
+        ITransaction transaction = _store.begin(null);
+        try {
+            countUsage(transaction, "/");
+        } finally {
+            _store.rollback(transaction);
+        }
+        LOG.debug("QuotaStore: " + _used.get() + " bytes used, counted in "
+                + (System.currentTimeMillis() - start) + " ms");
+    }
+
+    private void countUsage(ITransaction transaction, String path) {
+        // not getChildren(), which a subclass may override
+        Map<String, StoredObject> children = listChildren(_store,
+                transaction, path);
+        if (children == null) {
+            return;
+        }
+        for (Map.Entry<String, StoredObject> child : children.entrySet()) {
+            String childPath = getChild(path, child.getKey());
+            StoredObject so = child.getValue();
+            if (so == null) {
+                continue;
+            }
+            if (so.isFolder()) {
+                countUsage(transaction, childPath);
+            } else {
+                charge(childPath, so.getResourceLength());
+            }
+        }
+    }
+
+    protected ITransaction unwrap(ITransaction transaction) {
+        return transaction instanceof Transaction
+                ? ((Transaction) transaction)._transaction : transaction;
+    }
+
+    public ITransaction begin(Principal principal) {
+        return new Transaction(super.begin(principal), principal);
+    }
+
+    public void commit(ITransaction transaction) {
+        super.commit(transaction);
+        if (transaction instanceof Transaction) {
+            Transaction t = (Transaction) transaction;
+            synchronized (t) {
+                ended(t);
+                t.clear();
+            }
+        }
+    }
+
+    public void rollback(ITransaction transaction) {
+        if (!(transaction instanceof Transaction)) {
+            super.rollback(transaction);
+            return;
+        }
+        Transaction t = (Transaction) transaction;
+        Set<String> paths = new HashSet<String>();
+        synchronized (t) {
+            paths.addAll(t._lengths.keySet());
+            for (String[] move : t._moves) {
+                paths.add(move[0]);
+                paths.add(move[1]);
+            }
+        }
+        // the store is read again before anybody else changes the paths
+        List<Lock> locks = lock(paths, true);
+        try {
+            super.rollback(transaction);
+            correct(t);
+        } finally {
+            unlock(locks);
+        }
+    }
+
+    /**
+     * corrects what the changes of a rolled back transaction charged by what
+     * the store kept of them
+     */
+    private void correct(Transaction transaction) {
+        Map<String, Long> lengths;
+        Map<String, Long> kept;
+        List<String[]> moves;
+        synchronized (transaction) {
+            ended(transaction);
+            lengths = new HashMap<String, Long>(transaction._lengths);
+            kept = new HashMap<String, Long>(transaction._kept);
+            moves = new ArrayList<String[]>(transaction._moves);
+            transaction.clear();
+        }
+        if (lengths.isEmpty() && moves.isEmpty()) {
+            return;
+        }
+        ITransaction check = _store.begin(transaction.getPrincipal());
+        try {
+            for (Map.Entry<String, Long> entry : lengths.entrySet()) {
+                // what another change found is counted since
+                Long length = kept.get(entry.getKey());
+                charge(entry.getKey(), (length != null ? length.longValue()
+                        : getLength(check, entry.getKey()))
+                        - entry.getValue().longValue());
+            }
+            for (String[] move : moves) {
+                // moved back if the source is there and the destination isn't
+                if (_store.getStoredObject(check, move[0]) != null
+                        && _store.getStoredObject(check, move[1]) == null) {
+                    long size = Long.parseLong(move[4]);
+                    if (move[2] != null) {
+                        getCollectionUsage(move[2]).addAndGet(size);
+                    }
+                    if (move[3] != null) {
+                        getCollectionUsage(move[3]).addAndGet(-size);
+                    }
+                }
+            }
+        } finally {
+            _store.rollback(check);
+        }
+    }
+
+    /**
+     * remembers the length the resource is counted with after a change of
+     * the transaction. Another transaction that changed it before keeps the
+     * length this change found, if it is rolled back
+     *
+     * @param before
+     *      the length the change found
+     */
+    private void changed(ITransaction transaction, String path, long before,
+            long length) {
+        Transaction t = transaction instanceof Transaction ? (Transaction) transaction
+                : null;
+        Transaction previous = t != null ? _changedBy.put(path, t)
+                : _changedBy.remove(path);
+        if (previous != null && previous != t) {
+            synchronized (previous) {
+                if (previous._lengths.containsKey(path)
+                        && !previous._kept.containsKey(path)) {
+                    previous._kept.put(path, Long.valueOf(before));
+                }
+            }
+        }
+        if (t != null) {
+            synchronized (t) {
+                t._lengths.put(path, Long.valueOf(length));
+            }
+        }
+    }
+
+    /**
+     * forgets the paths changed by a transaction, called holding its
+     * monitor
+     */
+    private void ended(Transaction transaction) {
+        for (String path : transaction._lengths.keySet()) {
+            _changedBy.remove(path, transaction);
+        }
+    }
+
+    /**
+     * takes the locks of the stripes of the paths in the order of the
+     * stripes, so threads taking several don't deadlock
+     *
+     * @return the locks to give to unlock()
+     */
+    private List<Lock> lock(Collection<String> paths, boolean write) {
+        TreeSet<Integer> stripes = new TreeSet<Integer>();
+        for (String path : paths) {
+            stripes.add(Integer.valueOf((path.hashCode() & 0x7fffffff)
+                    % _stripes.length));
+        }
+        List<Lock> locks = new ArrayList<Lock>(stripes.size());
+        for (Integer stripe : stripes) {
+            ReentrantReadWriteLock rw = _stripes[stripe.intValue()];
+            Lock lock = write ? rw.writeLock() : rw.readLock();
+            lock.lock();
+            locks.add(lock);
+        }
+        return locks;
+    }
+
+    private static void unlock(List<Lock> locks) {
+        for (Lock lock : locks) {
+            lock.unlock();
+        }
+    }
+
+    public long getQuotaUsedBytes(ITransaction transaction, String folderUri) {
+        String collection = getCollection(normalize(folderUri), true);
+        if (collection != null && _collectionQuota >= 0) {
+            return getCollectionUsage(collection).get();
+        }
+        return _used.get();
+    }
+
+    public long getQuotaAvailableBytes(ITransaction transaction,
+            String folderUri) {
+        long available = -1;
+        if (_quota >= 0) {
+            available = Math.max(0, _quota - _used.get());
+        }
+        String collection = getCollection(normalize(folderUri), true);
+        if (collection != null && _collectionQuota >= 0) {
+            long collectionAvailable = Math.max(0, _collectionQuota
+                    - getCollectionUsage(collection).get());
+            if (available == -1 || collectionAvailable < available) {
+                available = collectionAvailable;
+            }
+        }
+        return available;
+    }
+
+    public long setResourceContent(ITransaction transaction,
+            String resourceUri, InputStream content, String contentType,
+            String characterEncoding) {
+        String path = normalize(resourceUri);
+        List<Lock> locks = lock(Collections.singleton(path), false);
+        try {
+            // the old content is replaced, it doesn't count while the new
+            // one is read. a partial upload of the resource is thrown away
+            long before = getLength(transaction, path);
+            charge(path, -before);
+            release(path);
+            QuotaInputStream in = new QuotaInputStream(content, path);
+            long after = -1;
+            try {
+                after = super.setResourceContent(transaction, resourceUri,
+                        in, contentType, characterEncoding);
+            } catch (WebdavException e) {
+                if (in._exceeded) {
+                    throw new QuotaExceededException(resourceUri, e);
+                }
+                throw e;
+            } finally {
+                if (after < 0) {
+                    // failed, or the store doesn't tell
+                    after = getLength(transaction, path);
+                }
+                charge(path, after - in._charged);
+                changed(transaction, path, before, after);
+            }
+            return after;
+        } finally {
+            unlock(locks);
+        }
+    }
+
+    public long[][] writeResourceContent(ITransaction transaction,
+            String resourceUri, long offset, long length,
+            long resourceLength, InputStream content) {
+        String path = normalize(resourceUri);
+        List<Lock> locks = lock(Collections.singleton(path), false);
+        try {
+            return writeResourceContent(transaction, resourceUri, path,
+                    offset, length, resourceLength, content);
+        } finally {
+            unlock(locks);
+        }
+    }
+
+    private long[][] writeResourceContent(ITransaction transaction,
+            String resourceUri, String path, long offset, long length,
+            long resourceLength, InputStream content) {
+        long before = getLength(transaction, path);
+        Staged staged = getStaged(path, resourceLength);
+        // refused early if the whole content can't fit
+        if (exceeds(path, resourceLength - before - staged._charged.get())) {
+            throw new QuotaExceededException(resourceUri);
+        }
+        // the part counts while it is staged, a part sent again counts twice
+        // until the upload is complete
+        QuotaInputStream in = new QuotaInputStream(content, path);
+        long[][] received = null;
+        try {
+            received = super.writeResourceContent(transaction, resourceUri,
+                    offset, length, resourceLength, in);
+        } catch (WebdavException e) {
+            if (in._exceeded) {
+                throw new QuotaExceededException(resourceUri, e);
+            }
+            throw e;
+        } finally {
+            staged._charged.addAndGet(in._charged);
+            staged._written = System.currentTimeMillis();
+        }
+        if (received == null) {
+            // nothing was staged
+            charge(path, -in._charged);
+            staged._charged.addAndGet(-in._charged);
+        } else if (received.length == 1 && received[0][0] == 0
+                && received[0][1] == resourceLength - 1
+                && _staged.remove(path, staged)) {
+            // the staged bytes are the content now
+            charge(path, resourceLength - before - staged._charged.get());
+            changed(transaction, path, before, resourceLength);
+        }
+        return received;
+    }
+
+    public void removeObject(ITransaction transaction, String uri) {
+        String path = normalize(uri);
+        List<Lock> locks = lock(Collections.singleton(path), false);
+        try {
+            long before = getLength(transaction, path);
+            super.removeObject(transaction, uri);
+            charge(path, -before);
+            changed(transaction, path, before, 0);
+            release(path);
+        } finally {
+            unlock(locks);
+        }
+    }
+
+    public boolean copyResource(ITransaction transaction, String sourceUri,
+            String destinationUri) {
+        String destination = normalize(destinationUri);
+        List<Lock> locks = lock(Collections.singleton(destination), false);
+        try {
+            long size = getLength(transaction, normalize(sourceUri));
+            long before = getLength(transaction, destination);
+            if (exceeds(destination, size - before)) {
+                throw new QuotaExceededException(destinationUri);
+            }
+            if (!super.copyResource(transaction, sourceUri, destinationUri)) {
+                return false;
+            }
+            charge(destination, size - before);
+            changed(transaction, destination, before, size);
+            return true;
+        } finally {
+            unlock(locks);
+        }
+    }
+
+    public boolean moveObject(ITransaction transaction, String sourceUri,
+            String destinationUri) {
+        String source = normalize(sourceUri);
+        String destination = normalize(destinationUri);
+        List<Lock> locks = lock(Arrays.asList(source, destination), false);
+        try {
+            return moveObject(transaction, sourceUri, source,
+                    destinationUri, destination);
+        } finally {
+            unlock(locks);
+        }
+    }
+
+    private boolean moveObject(ITransaction transaction, String sourceUri,
+            String source, String destinationUri, String destination) {
+        String from = null;
+        String to = null;
+        long size = 0;
+        if (_collectionQuota >= 0) {
+            StoredObject so = super.getStoredObject(transaction, source);
+            boolean folder = so != null && so.isFolder();
+            from = getCollection(source, folder);
+            to = getCollection(destination, folder);
+            if (from == null ? to != null : !from.equals(to)) {
+                // only moves between collections change what they use
+                size = folder ? getTreeLength(transaction, source) : so
+                        .getResourceLength();
+                if (to != null
+                        && getCollectionUsage(to).get() + size > _collectionQuota) {
+                    // copying fails with a proper error
+                    return false;
+                }
+            }
+        }
+        if (!super.moveObject(transaction, sourceUri, destinationUri)) {
+            return false;
+        }
+        if (size != 0) {
+            if (from != null) {
+                getCollectionUsage(from).addAndGet(-size);
+            }
+            if (to != null) {
+                getCollectionUsage(to).addAndGet(size);
+            }
+        }
+        if (transaction instanceof Transaction) {
+            Transaction t = (Transaction) transaction;
+            synchronized (t) {
+                for (String[] renamed : t.moved(source, destination)) {
+                    if (_changedBy.remove(renamed[0], t)) {
+                        _changedBy.put(renamed[1], t);
+                    }
+                }
+                if (size != 0) {
+                    t._moves.add(new String[] { source, destination, from,
+                            to, String.valueOf(size) });
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the partial upload of the path, a new one if there is none or
+     *  the one there has another length, the store throws that away
+     */
+    private Staged getStaged(String path, long resourceLength) {
+        expireStaged();
+        Staged staged = _staged.get(path);
+        if (staged != null && staged._resourceLength != resourceLength
+                && _staged.remove(path, staged)) {
+            charge(path, -staged._charged.get());
+            staged = null;
+        }
+        if (staged == null) {
+            _staged.putIfAbsent(path, new Staged(resourceLength));
+            staged = _staged.get(path);
+        }
+        return staged;
+    }
+
+    /**
+     * stops counting the partial upload of the path, the store threw it
+     * away
+     */
+    private void release(String path) {
+        Staged staged = _staged.remove(path);
+        if (staged != null) {
+            charge(path, -staged._charged.get());
+        }
+    }
+
+    /**
+     * stops counting the partial uploads the store expired
+     */
+    private void expireStaged() {
+        if (_uploadExpiry <= 0) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        for (Map.Entry<String, Staged> entry : _staged.entrySet()) {
+            Staged staged = entry.getValue();
+            if (now - staged._written > _uploadExpiry
+                    && _staged.remove(entry.getKey(), staged)) {
+                charge(entry.getKey(), -staged._charged.get());
+            }
+        }
+    }
+
+    /**
+     * @return the length of a resource, 0 for folders and objects that don't
+     *  exist
+     */
+    private long getLength(ITransaction transaction, String path) {
+        StoredObject so = super.getStoredObject(transaction, path);
+        return so == null || so.isFolder() ? 0 : so.getResourceLength();
+    }
+
+    private long getTreeLength(ITransaction transaction, String path) {
+        Map<String, StoredObject> children = super.getChildren(transaction,
+                path);
+        long length = 0;
+        if (children != null) {
+            for (Map.Entry<String, StoredObject> child : children.entrySet()) {
+                StoredObject so = child.getValue();
+                if (so != null && so.isFolder()) {
+                    length += getTreeLength(transaction, getChild(path, child
+                            .getKey()));
+                } else if (so != null) {
+                    length += so.getResourceLength();
+                }
+            }
+        }
+        return length;
+    }
+
+    /**
+     * adds bytes to what the store and the collection of the path use
+     *
+     * @return <code>true</code> if that crosses a limit
+     */
+    private boolean charge(String path, long bytes) {
+        if (bytes == 0) {
+            return false;
+        }
+        boolean exceeded = _used.addAndGet(bytes) > _quota && _quota >= 0;
+        if (_collectionQuota >= 0) {
+            String collection = getCollection(path, false);
+            if (collection != null) {
+                exceeded |= getCollectionUsage(collection).addAndGet(bytes) > _collectionQuota;
+            }
+        }
+        return exceeded && bytes > 0;
+    }
+
+    /**
+     * @return <code>true</code> if adding bytes to the path would cross a
+     *  limit
+     */
+    private boolean exceeds(String path, long bytes) {
+        if (bytes <= 0) {
+            return false;
+        }
+        if (_quota >= 0 && _used.get() + bytes > _quota) {
+            return true;
+        }
+        if (_collectionQuota >= 0) {
+            String collection = getCollection(path, false);
+            return collection != null
+                    && getCollectionUsage(collection).get() + bytes > _collectionQuota;
+        }
+        return false;
+    }
+
+    private AtomicLong getCollectionUsage(String collection) {
+        AtomicLong usage = _collections.get(collection);
+        if (usage == null) {
+            _collections.putIfAbsent(collection, new AtomicLong());
+            usage = _collections.get(collection);
+        }
+        return usage;
+    }
+
+    /**
+     * @param folder
+     *      <code>true</code> if the path is a folder, a top level folder is
+     *      its own collection
+     * @return the name of the top level collection the path lies in,
+     *  <code>null</code> for the root and resources at the top level
+     */
+    private static String getCollection(String path, boolean folder) {
+        if (path.equals("/")) {
+            return null;
+        }
+        int slash = path.indexOf('/', 1);
+        if (slash == -1) {
+            return folder ? path.substring(1) : null;
+        }
+        return path.substring(1, slash);
+    }
+
+    /**
+     * the transaction of the decorated store and the lengths its changes
+     * were counted with, guarded by itself
+     */
+    private static class Transaction implements ITransaction {
+
+        final ITransaction _transaction;
+
+        private final Principal _principal;
+
+        /**
+         * length of the changed resources, by path
+         */
+        final Map<String, Long> _lengths = new HashMap<String, Long>();
+
+        /**
+         * lengths changes of other transactions found after the changes of
+         * this one, by path
+         */
+        final Map<String, Long> _kept = new HashMap<String, Long>();
+
+        /**
+         * moves between collections: source, destination, source and
+         * destination collection, bytes
+         */
+        final List<String[]> _moves = new ArrayList<String[]>();
+
+        Transaction(ITransaction transaction, Principal principal) {
+            _transaction = transaction;
+            _principal = principal;
+        }
+
+        public Principal getPrincipal() {
+            return _principal;
+        }
+
+        /**
+         * the changed resources below the source are at the destination now
+         *
+         * @return the old and the new path of each of them
+         */
+        List<String[]> moved(String source, String destination) {
+            List<String[]> renamed = new ArrayList<String[]>();
+            Map<String, Long> moved = new HashMap<String, Long>();
+            for (Iterator<Map.Entry<String, Long>> it = _lengths.entrySet()
+                    .iterator(); it.hasNext();) {
+                Map.Entry<String, Long> entry = it.next();
+                String path = entry.getKey();
+                if (path.equals(source) || path.startsWith(source + "/")) {
+                    String newPath = destination
+                            + path.substring(source.length());
+                    moved.put(newPath, entry.getValue());
+                    it.remove();
+                    Long kept = _kept.remove(path);
+                    if (kept != null) {
+                        _kept.put(newPath, kept);
+                    }
+                    renamed.add(new String[] { path, newPath });
+                }
+            }
+            _lengths.putAll(moved);
+            return renamed;
+        }
+
+        void clear() {
+            _lengths.clear();
+            _kept.clear();
+            _moves.clear();
+        }
+    }
+
+    /**
+     * bytes charged for the staged parts of a partial upload
+     */
+    private static class Staged {
+
+        final long _resourceLength;
+
+        final AtomicLong _charged = new AtomicLong();
+
+        volatile long _written = System.currentTimeMillis();
+
+        Staged(long resourceLength) {
+            _resourceLength = resourceLength;
+        }
+    }
+
+    /**
+     * counts the bytes of an upload while they are read, the store gets an
+     * IOException when a limit is crossed
+     */
+    private class QuotaInputStream extends InputStream {
+
+        private final InputStream _in;
+
+        private final String _path;
+
+        long _charged = 0;
+
+        boolean _exceeded = false;
+
+        QuotaInputStream(InputStream in, String path) {
+            _in = in;
+            _path = path;
+        }
+
+        public int read() throws IOException {
+            int b = _in.read();
+            if (b != -1) {
+                count(1);
+            }
+            return b;
+        }
+
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = _in.read(b, off, len);
+            if (read > 0) {
+                count(read);
+            }
+            return read;
+        }
+
+        private void count(int bytes) throws IOException {
+            _charged += bytes;
+            if (charge(_path, bytes)) {
+                _exceeded = true;
+                throw new IOException("quota exceeded: " + _path);
+            }
+        }
+
+        public int available() throws IOException {
+            return _in.available();
+        }
+
+        public void close() throws IOException {
+            _in.close();
+        }
+    }
+
+}
@@ -0,0 +1,615 @@
+/*
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package net.sf.webdav;
+
+import java.io.File;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.nio.channels.WritableByteChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.Principal;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.SortedMap;
+import java.util.StringTokenizer;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import net.sf.webdav.exceptions.WebdavException;
+
+/**
+ * WebdavStore spreading the top level collections over several
+ * LocalFileSystemStores, e.g. on different disks.
+ *
+ * A top level collection (or resource) and everything below it lives in one
+ * shard. The shard is taken from a table of names if it is listed there,
+ * else it is found by consistent hashing of the name, so adding a shard only
+ * moves the collections the new shard takes over. The root folder shows the
+ * top level objects of all shards. A MOVE between shards copies the data
+ * to the other shard and removes it from the first one.
+ *
+ * When the shards or the table change, top level objects already stored in
+ * another shard than the one they are now assigned to stay where they are
+ * and are served from there, until they are removed or rebalance() moves
+ * them.
+ *
+ * @author re
+ */
+public class ShardedStore implements IChannelStore, IRandomAccessStore,
+        IChildrenStore, IMoveStore, ICopyStore, IPartialUploadStore {
+
+    private static org.slf4j.Logger LOG = org.slf4j.LoggerFactory
+            .getLogger(ShardedStore.class);
+
+    /**
+     * init-parameter: comma separated roots of the shards besides rootpath,
+     * which is shard 0
+     */
+    public static final String SHARD_ROOTS_PARAMETER = "shard-roots";
+
+    /**
+     * init-parameter: comma separated top level names with the number of
+     * their shard, e.g. "photos=1,video=2"
+     */
+    public static final String SHARD_TABLE_PARAMETER = "shard-table";
+
+    /**
+     * init-parameter: "1" to move the top level objects to the shards they
+     * are assigned to at startup
+     */
+    public static final String SHARD_REBALANCE_PARAMETER = "shard-rebalance";
+
+    /**
+     * points of every shard on the hash ring
+     */
+    private static final int VIRTUAL_NODES = 64;
+
+    private final LocalFileSystemStore[] _shards;
+
+    private final Map<String, Integer> _table;
+
+    /**
+     * hash ring position to shard
+     */
+    private final TreeMap<Long, Integer> _ring = new TreeMap<Long, Integer>();
+
+    /**
+     * top level names stored in another shard than the one they are
+     * assigned to, to the shard they are in
+     */
+    private final ConcurrentHashMap<String, Integer> _owners =
+            new ConcurrentHashMap<String, Integer>();
+
+    /**
+     * @param shards
+     *      the stores
+     * @param table
+     *      top level names to the index of their shard, the others are
+     *      hashed
+     */
+    public ShardedStore(LocalFileSystemStore[] shards,
+            Map<String, Integer> table) {
+        if (shards.length == 0) {
+            throw new WebdavException("no shards");
+        }
+        _shards = shards;
+        _table = new HashMap<String, Integer>(table);
+        for (Integer shard : _table.values()) {
+            if (shard.intValue() < 0 || shard.intValue() >= shards.length) {
+                throw new WebdavException("no such shard: " + shard);
+            }
+        }
+        for (int i = 0; i < shards.length; i++) {
+            for (int v = 0; v < VIRTUAL_NODES; v++) {
+                _ring.put(Long.valueOf(hash("shard-" + i + "-" + v)),
+                        Integer.valueOf(i));
+            }
+        }
+        findOwners();
+    }
+
+    /**
+     * used by WebdavServlet, the root path is shard 0
+     */
+    public ShardedStore(File root, Properties properties) {
+        this(createShards(root, properties), parseTable(properties
+                .getProperty(SHARD_TABLE_PARAMETER, "")));
+        if ("1".equals(properties.getProperty(SHARD_REBALANCE_PARAMETER, "0")
+                .trim())) {
+            moveOwners();
+        }
+    }
+
+    /**
+     * looks for top level objects in other shards than the ones they are
+     * assigned to, left there by an earlier layout
+     */
+    private void findOwners() {
+        ITransaction transaction = beginShards(null);
+        try {
+            for (int i = 0; i < _shards.length; i++) {
+                String[] names = _shards[i].getChildrenNames(getTransaction(
+                        transaction, i), "/");
+                for (int j = 0; names != null && j < names.length; j++) {
+                    int assigned = getAssignedShard(names[j]);
+                    if (assigned == i) {
+                        continue;
+                    }
+                    if (_shards[assigned].getStoredObject(getTransaction(
+                            transaction, assigned), "/" + names[j]) != null
+                            || _owners.putIfAbsent(names[j], Integer
+                                    .valueOf(i)) != null) {
+                        LOG.warn("ShardedStore: /" + names[j]
+                                + " in shard " + i
+                                + " is hidden by another shard");
+                    } else {
+                        LOG.info("ShardedStore: /" + names[j]
+                                + " is served from shard " + i
+                                + " instead of shard " + assigned);
+                    }
+                }
+            }
+        } finally {
+            rollbackShards(transaction);
+        }
+    }
+
+    /**
+     * moves the top level objects that are in another shard than the one
+     * they are assigned to, e.g. after a shard was added. Must not run
+     * while requests are served.
+     */
+    public void rebalance() {
+        moveOwners();
+    }
+
+    private void moveOwners() {
+        for (Map.Entry<String, Integer> owner : _owners.entrySet()) {
+            String uri = "/" + owner.getKey();
+            int from = owner.getValue().intValue();
+            int to = getAssignedShard(owner.getKey());
+            LOG.info("ShardedStore: moving " + uri + " from shard " + from
+                    + " to shard " + to);
+            ITransaction transaction = beginShards(null);
+            boolean committed = false;
+            try {
+                ITransaction fromTransaction = getTransaction(transaction,
+                        from);
+                StoredObject so = _shards[from].getStoredObject(
+                        fromTransaction, uri);
+                if (so != null) {
+                    copyTree(_shards[from], fromTransaction, uri, _shards[to],
+                            getTransaction(transaction, to), uri, so);
+                    removeTree(_shards[from], fromTransaction, uri);
+                }
+                commitShards(transaction);
+                committed = true;
+            } finally {
+                if (!committed) {
+                    rollbackShards(transaction);
+                }
+            }
+            _owners.remove(owner.getKey());
+        }
+    }
+
+    private static LocalFileSystemStore[] createShards(File root,
+            Properties properties) {
+        List<LocalFileSystemStore> shards = new ArrayList<LocalFileSystemStore>();
+        shards.add(new LocalFileSystemStore(root, properties));
+        StringTokenizer tokenizer = new StringTokenizer(properties
+                .getProperty(SHARD_ROOTS_PARAMETER, ""), ",");
+        while (tokenizer.hasMoreTokens()) {
+            String path = tokenizer.nextToken().trim();
+            if (path.length() > 0) {
+                shards.add(new LocalFileSystemStore(new File(path),
+                        properties));
+            }
+        }
+        return shards.toArray(new LocalFileSystemStore[shards.size()]);
+    }
+
+    private static Map<String, Integer> parseTable(String table) {
+        Map<String, Integer> map = new HashMap<String, Integer>();
+        StringTokenizer tokenizer = new StringTokenizer(table, ",");
+        while (tokenizer.hasMoreTokens()) {
+            String mapping = tokenizer.nextToken().trim();
+            int eq = mapping.indexOf('=');
+            if (eq == -1) {
+                throw new WebdavException("invalid value for "
+                        + SHARD_TABLE_PARAMETER + ": " + mapping);
+            }
+            map.put(mapping.substring(0, eq).trim(), Integer.valueOf(mapping
+                    .substring(eq + 1).trim()));
+        }
+        return map;
+    }
+
+    public void destroy() {
+        for (int i = 0; i < _shards.length; i++) {
+            _shards[i].destroy();
+        }
+    }
+
+    public ITransaction begin(Principal principal) throws WebdavException {
+        LOG.trace("ShardedStore.begin()");
+        return beginShards(principal);
+    }
+
+    /**
+     * begin(), commit() and rollback() that the constructors can use
+     * without calling methods a subclass may override
+     */
+    private ITransaction beginShards(Principal principal) {
+        ITransaction[] transactions = new ITransaction[_shards.length];
+        for (int i = 0; i < _shards.length; i++) {
+            transactions[i] = _shards[i].begin(principal);
+        }
+        return new Transaction(transactions, principal);
+    }
+
+    public void checkAuthentication(ITransaction transaction)
+            throws SecurityException {
+        LOG.trace("ShardedStore.checkAuthentication()");
+        for (int i = 0; i < _shards.length; i++) {
+            _shards[i].checkAuthentication(getTransaction(transaction, i));
+        }
+    }
+
+    public void commit(ITransaction transaction) throws WebdavException {
+        LOG.trace("ShardedStore.commit()");
+        commitShards(transaction);
+    }
+
+    private void commitShards(ITransaction transaction) {
+        for (int i = 0; i < _shards.length; i++) {
+            _shards[i].commit(getTransaction(transaction, i));
+        }
+    }
+
+    public void rollback(ITransaction transaction) throws WebdavException {
+        LOG.trace("ShardedStore.rollback()");
+        rollbackShards(transaction);
+    }
+
+    private void rollbackShards(ITransaction transaction) {
+        for (int i = 0; i < _shards.length; i++) {
+            _shards[i].rollback(getTransaction(transaction, i));
+        }
+    }
+
+    public void createFolder(ITransaction transaction, String uri)
+            throws WebdavException {
+        int shard = getShard(uri);
+        _shards[shard].createFolder(getTransaction(transaction, shard), uri);
+    }
+
+    public void createResource(ITransaction transaction, String uri)
+            throws WebdavException {
+        int shard = getShard(uri);
+        _shards[shard].createResource(getTransaction(transaction, shard), uri);
+    }
+
+    public long setResourceContent(ITransaction transaction, String uri,
+            InputStream is, String contentType, String characterEncoding)
+            throws WebdavException {
+        int shard = getShard(uri);
+        return _shards[shard].setResourceContent(getTransaction(transaction,
+                shard), uri, is, contentType, characterEncoding);
+    }
+
+    public long[][] writeResourceContent(ITransaction transaction,
+            String uri, long offset, long length, long resourceLength,
+            InputStream is) throws WebdavException {
+        int shard = getShard(uri);
+        return _shards[shard].writeResourceContent(getTransaction(
+                transaction, shard), uri, offset, length, resourceLength, is);
+    }
+
+    public InputStream getResourceContent(ITransaction transaction, String uri)
+            throws WebdavException {
+        int shard = getShard(uri);
+        return _shards[shard].getResourceContent(getTransaction(transaction,
+                shard), uri);
+    }
+
+    public InputStream getResourceContent(ITransaction transaction,
+            String uri, long offset, long length) throws WebdavException {
+        int shard = getShard(uri);
+        return _shards[shard].getResourceContent(getTransaction(transaction,
+                shard), uri, offset, length);
+    }
+
+    public long transferResourceContent(ITransaction transaction, String uri,
+            long offset, long length, WritableByteChannel target)
+            throws WebdavException {
+        int shard = getShard(uri);
+        return _shards[shard].transferResourceContent(getTransaction(
+                transaction, shard), uri, offset, length, target);
+    }
+
+    public long getResourceLength(ITransaction transaction, String uri)
+            throws WebdavException {
+        int shard = getShard(uri);
+        return _shards[shard].getResourceLength(getTransaction(transaction,
+                shard), uri);
+    }
+
+    public StoredObject getStoredObject(ITransaction transaction, String uri) {
+        if (getTopLevelName(uri) == null) {
+            return _shards[0].getStoredObject(getTransaction(transaction, 0),
+                    uri);
+        }
+        int shard = getShard(uri);
+        return _shards[shard].getStoredObject(
+                getTransaction(transaction, shard), uri);
+    }
+
+    public void removeObject(ITransaction transaction, String uri)
+            throws WebdavException {
+        int shard = getShard(uri);
+        _shards[shard].removeObject(getTransaction(transaction, shard), uri);
+        removed(uri);
+    }
+
+    /**
+     * a top level object that is gone is created in its assigned shard the
+     * next time
+     */
+    private void removed(String uri) {
+        String path = uri.replace('\\', '/');
+        int end = path.length();
+        while (end > 0 && path.charAt(end - 1) == '/') {
+            end--;
+        }
+        String name = getTopLevelName(path);
+        if (name != null
+                && path.lastIndexOf('/', end - 1) < path.indexOf(name)) {
+            _owners.remove(name);
+        }
+    }
+
+    public String[] getChildrenNames(ITransaction transaction, String uri)
+            throws WebdavException {
+        if (getTopLevelName(uri) != null) {
+            int shard = getShard(uri);
+            return _shards[shard].getChildrenNames(getTransaction(transaction,
+                    shard), uri);
+        }
+        List<String> names = new ArrayList<String>();
+        for (int i = 0; i < _shards.length; i++) {
+            String[] shardNames = _shards[i].getChildrenNames(getTransaction(
+                    transaction, i), uri);
+            if (shardNames != null) {
+                for (int j = 0; j < shardNames.length; j++) {
+                    // leftovers of another shard layout are not shown
+                    if (getShardOfName(shardNames[j]) == i) {
+                        names.add(shardNames[j]);
+                    }
+                }
+            }
+        }
+        return names.toArray(new String[names.size()]);
+    }
+
+    public Map<String, StoredObject> getChildren(ITransaction transaction,
+            String uri) throws WebdavException {
+        if (getTopLevelName(uri) != null) {
+            int shard = getShard(uri);
+            return _shards[shard].getChildren(getTransaction(transaction,
+                    shard), uri);
+        }
+        Map<String, StoredObject> children = new LinkedHashMap<String, StoredObject>();
+        for (int i = 0; i < _shards.length; i++) {
+            Map<String, StoredObject> shardChildren = _shards[i].getChildren(
+                    getTransaction(transaction, i), uri);
+            if (shardChildren != null) {
+                for (Map.Entry<String, StoredObject> child : shardChildren
+                        .entrySet()) {
+                    if (getShardOfName(child.getKey()) == i) {
+                        children.put(child.getKey(), child.getValue());
+                    }
+                }
+            }
+        }
+        return children;
+    }
+
+    public boolean moveObject(ITransaction transaction, String sourceUri,
+            String destinationUri) throws WebdavException {
+        int source = getShard(sourceUri);
+        int destination = getShard(destinationUri);
+        if (source == destination) {
+            boolean moved = _shards[source].moveObject(getTransaction(
+                    transaction, source), sourceUri, destinationUri);
+            if (moved) {
+                removed(sourceUri);
+            }
+            return moved;
+        }
+        LOG.trace("ShardedStore.moveObject(" + sourceUri + ", "
+                + destinationUri + ") moves data from shard " + source
+                + " to shard " + destination);
+        ITransaction sourceTransaction = getTransaction(transaction, source);
+        ITransaction destinationTransaction = getTransaction(transaction,
+                destination);
+        StoredObject so = _shards[source].getStoredObject(sourceTransaction,
+                sourceUri);
+        if (so == null
+                || _shards[destination].getStoredObject(
+                        destinationTransaction, destinationUri) != null) {
+            return false;
+        }
+        boolean copied = false;
+        try {
+            copyTree(_shards[source], sourceTransaction, sourceUri,
+                    _shards[destination], destinationTransaction,
+                    destinationUri, so);
+            copied = true;
+        } finally {
+            if (!copied) {
+                // don't leave half of it behind
+                try {
+                    removeTree(_shards[destination], destinationTransaction,
+                            destinationUri);
+                } catch (WebdavException e) {
+                    LOG.error("ShardedStore: cannot remove incomplete copy "
+                            + destinationUri, e);
+                }
+            }
+        }
+        removeTree(_shards[source], sourceTransaction, sourceUri);
+        removed(sourceUri);
+        return true;
+    }
+
+    public boolean copyResource(ITransaction transaction, String sourceUri,
+            String destinationUri) throws WebdavException {
+        int source = getShard(sourceUri);
+        if (source != getShard(destinationUri)) {
+            // the content has to be streamed anyway
+            return false;
+        }
+        return _shards[source].copyResource(getTransaction(transaction,
+                source), sourceUri, destinationUri);
+    }
+
+    private void copyTree(LocalFileSystemStore from,
+            ITransaction fromTransaction, String fromUri,
+            LocalFileSystemStore to, ITransaction toTransaction, String toUri,
+            StoredObject so) {
+        if (so.isResource()) {
+            to.createResource(toTransaction, toUri);
+            to.setResourceContent(toTransaction, toUri, from
+                    .getResourceContent(fromTransaction, fromUri), null, null);
+            return;
+        }
+        to.createFolder(toTransaction, toUri);
+        Map<String, StoredObject> children = from.getChildren(
+                fromTransaction, fromUri);
+        if (children != null) {
+            for (Map.Entry<String, StoredObject> child : children.entrySet()) {
+                copyTree(from, fromTransaction, fromUri + "/" + child.getKey(),
+                        to, toTransaction, toUri + "/" + child.getKey(), child
+                                .getValue());
+            }
+        }
+    }
+
+    private void removeTree(LocalFileSystemStore store,
+            ITransaction transaction, String uri) {
+        String[] children = store.getChildrenNames(transaction, uri);
+        if (children != null) {
+            for (int i = 0; i < children.length; i++) {
+                removeTree(store, transaction, uri + "/" + children[i]);
+            }
+        }
+        if (store.getStoredObject(transaction, uri) != null) {
+            store.removeObject(transaction, uri);
+        }
+    }
+
+    private ITransaction getTransaction(ITransaction transaction, int shard) {
+        return transaction instanceof Transaction
+                ? ((Transaction) transaction)._transactions[shard] : transaction;
+    }
+
+    /**
+     * @return the shard of an object, the root folder is in shard 0
+     */
+    private int getShard(String uri) {
+        String name = getTopLevelName(uri);
+        return name == null ? 0 : getShardOfName(name);
+    }
+
+    private int getShardOfName(String name) {
+        Integer owner = _owners.get(name);
+        return owner != null ? owner.intValue() : getAssignedShard(name);
+    }
+
+    /**
+     * @return the shard the table or the hash ring assigns a top level name
+     *  to
+     */
+    private int getAssignedShard(String name) {
+        Integer shard = _table.get(name);
+        if (shard != null) {
+            return shard.intValue();
+        }
+        // the next point on the ring
+        SortedMap<Long, Integer> tail = _ring.tailMap(Long
+                .valueOf(hash(name)));
+        return (tail.isEmpty() ? _ring.get(_ring.firstKey()) : tail.get(tail
+                .firstKey())).intValue();
+    }
+
+    /**
+     * @return the first path segment, <code>null</code> for the root
+     */
+    private static String getTopLevelName(String uri) {
+        String path = uri.replace('\\', '/');
+        int start = 0;
+        while (start < path.length() && path.charAt(start) == '/') {
+            start++;
+        }
+        if (start == path.length()) {
+            return null;
+        }
+        int end = path.indexOf('/', start);
+        return end == -1 ? path.substring(start) : path.substring(start, end);
+    }
+
+    private static long hash(String s) {
+        try {
+            byte[] digest = MessageDigest.getInstance("MD5").digest(
+                    s.getBytes("UTF-8"));
+            long hash = 0;
+            for (int i = 0; i < 8; i++) {
+                hash = (hash << 8) | (digest[i] & 0xff);
+            }
+            return hash;
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e.getMessage());
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e.getMessage());
+        }
+    }
+
+    /**
+     * the transactions of the shards
+     */
+    private static class Transaction implements ITransaction {
+
+        final ITransaction[] _transactions;
+
+        private final Principal _principal;
+
+        Transaction(ITransaction[] transactions, Principal principal) {
+            _transactions = transactions;
+            _principal = principal;
+        }
+
+        public Principal getPrincipal() {
+            return _principal;
+        }
+    }
+
+}
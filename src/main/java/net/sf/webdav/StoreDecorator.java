@@ -0,0 +1,390 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package net.sf.webdav;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.security.Principal;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import net.sf.webdav.exceptions.WebdavException;
+
+/**
+ * WebdavStore handing every call to another store, the base class of store
+ * decorators.
+ *
+ * It implements all optional store interfaces. If the decorated store
+ * doesn't, the call is answered with the plain IWebdavStore methods, as the
+ * method executors would do it.
+ *
+ * Decorators are configured in the init-parameter "store-decorators" of
+ * WebdavServlet and need a constructor taking the decorated store and the
+ * init-parameters as Properties.
+ */
+public class StoreDecorator implements IChannelStore, IRandomAccessStore,
+        IChildrenStore, IMoveStore, ICopyStore, ICompressedStore,
+        IPartialUploadStore, IQuotaStore {
+
+    private static int BUF_SIZE = 65536;
+
+    protected final IWebdavStore _store;
+
+    public StoreDecorator(IWebdavStore store) {
+        _store = store;
+    }
+
+    /**
+     * @return the decorated store
+     */
+    public IWebdavStore getStore() {
+        return _store;
+    }
+
+    /**
+     * @return the transaction of the decorated store, decorators that
+     *  return their own transaction from begin() override this
+     */
+    protected ITransaction unwrap(ITransaction transaction) {
+        return transaction;
+    }
+
+    public void destroy() {
+        _store.destroy();
+    }
+
+    public ITransaction begin(Principal principal) {
+        return _store.begin(principal);
+    }
+
+    public void checkAuthentication(ITransaction transaction) {
+        _store.checkAuthentication(unwrap(transaction));
+    }
+
+    public void commit(ITransaction transaction) {
+        _store.commit(unwrap(transaction));
+    }
+
+    public void rollback(ITransaction transaction) {
+        _store.rollback(unwrap(transaction));
+    }
+
+    public void createFolder(ITransaction transaction, String folderUri) {
+        _store.createFolder(unwrap(transaction), folderUri);
+    }
+
+    public void createResource(ITransaction transaction, String resourceUri) {
+        _store.createResource(unwrap(transaction), resourceUri);
+    }
+
+    public InputStream getResourceContent(ITransaction transaction,
+            String resourceUri) {
+        return _store.getResourceContent(unwrap(transaction), resourceUri);
+    }
+
+    public long setResourceContent(ITransaction transaction,
+            String resourceUri, InputStream content, String contentType,
+            String characterEncoding) {
+        return _store.setResourceContent(unwrap(transaction), resourceUri,
+                content, contentType, characterEncoding);
+    }
+
+    public String[] getChildrenNames(ITransaction transaction,
+            String folderUri) {
+        return _store.getChildrenNames(unwrap(transaction), folderUri);
+    }
+
+    public long getResourceLength(ITransaction transaction, String path) {
+        return _store.getResourceLength(unwrap(transaction), path);
+    }
+
+    public void removeObject(ITransaction transaction, String uri) {
+        _store.removeObject(unwrap(transaction), uri);
+    }
+
+    public StoredObject getStoredObject(ITransaction transaction, String uri) {
+        return _store.getStoredObject(unwrap(transaction), uri);
+    }
+
+    public Map<String, StoredObject> getChildren(ITransaction transaction,
+            String folderUri) {
+        return listChildren(_store, unwrap(transaction), folderUri);
+    }
+
+    /**
+     * @return the children of a folder of any store, asked for one by one
+     *  if it isn't an IChildrenStore
+     */
+    protected static Map<String, StoredObject> listChildren(
+            IWebdavStore store, ITransaction transaction, String folderUri) {
+        if (store instanceof IChildrenStore) {
+            return ((IChildrenStore) store).getChildren(transaction,
+                    folderUri);
+        }
+        String[] names = store.getChildrenNames(transaction, folderUri);
+        if (names == null) {
+            return null;
+        }
+        String prefix = folderUri.endsWith("/") ? folderUri : folderUri + "/";
+        Map<String, StoredObject> children = new LinkedHashMap<String, StoredObject>();
+        for (int i = 0; i < names.length; i++) {
+            children.put(names[i], store.getStoredObject(transaction, prefix
+                    + names[i]));
+        }
+        return children;
+    }
+
+    public InputStream getResourceContent(ITransaction transaction,
+            String resourceUri, long offset, long length) {
+        if (_store instanceof IRandomAccessStore) {
+            return ((IRandomAccessStore) _store).getResourceContent(
+                    unwrap(transaction), resourceUri, offset, length);
+        }
+        return range(_store.getResourceContent(unwrap(transaction),
+                resourceUri), offset, length);
+    }
+
+    public long transferResourceContent(ITransaction transaction,
+            String resourceUri, long offset, long length,
+            WritableByteChannel target) {
+        if (_store instanceof IChannelStore) {
+            return ((IChannelStore) _store).transferResourceContent(
+                    unwrap(transaction), resourceUri, offset, length, target);
+        }
+        return transfer(getResourceContent(transaction, resourceUri, offset,
+                length < 0 ? Long.MAX_VALUE : length), target);
+    }
+
+    public boolean moveObject(ITransaction transaction, String sourceUri,
+            String destinationUri) {
+        if (_store instanceof IMoveStore) {
+            return ((IMoveStore) _store).moveObject(unwrap(transaction),
+                    sourceUri, destinationUri);
+        }
+        return false;
+    }
+
+    public boolean copyResource(ITransaction transaction, String sourceUri,
+            String destinationUri) {
+        if (_store instanceof ICopyStore) {
+            return ((ICopyStore) _store).copyResource(unwrap(transaction),
+                    sourceUri, destinationUri);
+        }
+        return false;
+    }
+
+    public long[][] writeResourceContent(ITransaction transaction,
+            String resourceUri, long offset, long length,
+            long resourceLength, InputStream content) {
+        if (_store instanceof IPartialUploadStore) {
+            return ((IPartialUploadStore) _store).writeResourceContent(
+                    unwrap(transaction), resourceUri, offset, length,
+                    resourceLength, content);
+        }
+        return null;
+    }
+
+    public String getContentEncoding(ITransaction transaction,
+            String resourceUri) {
+        if (_store instanceof ICompressedStore) {
+            return ((ICompressedStore) _store).getContentEncoding(
+                    unwrap(transaction), resourceUri);
+        }
+        return null;
+    }
+
+    public long getEncodedResourceLength(ITransaction transaction,
+            String resourceUri) {
+        if (_store instanceof ICompressedStore) {
+            return ((ICompressedStore) _store).getEncodedResourceLength(
+                    unwrap(transaction), resourceUri);
+        }
+        return _store.getResourceLength(unwrap(transaction), resourceUri);
+    }
+
+    public InputStream getEncodedResourceContent(ITransaction transaction,
+            String resourceUri) {
+        if (_store instanceof ICompressedStore) {
+            return ((ICompressedStore) _store).getEncodedResourceContent(
+                    unwrap(transaction), resourceUri);
+        }
+        return _store.getResourceContent(unwrap(transaction), resourceUri);
+    }
+
+    public long getQuotaUsedBytes(ITransaction transaction, String folderUri) {
+        if (_store instanceof IQuotaStore) {
+            return ((IQuotaStore) _store).getQuotaUsedBytes(
+                    unwrap(transaction), folderUri);
+        }
+        return -1;
+    }
+
+    public long getQuotaAvailableBytes(ITransaction transaction,
+            String folderUri) {
+        if (_store instanceof IQuotaStore) {
+            return ((IQuotaStore) _store).getQuotaAvailableBytes(
+                    unwrap(transaction), folderUri);
+        }
+        return -1;
+    }
+
+    /**
+     * skips to the offset of a stream
+     * 
+     * @return the stream, ending after <code>length</code> bytes
+     */
+    protected static InputStream range(InputStream in, long offset,
+            long length) {
+        try {
+            long skipped = 0;
+            while (skipped < offset) {
+                long n = in.skip(offset - skipped);
+                if (n <= 0) {
+                    break;
+                }
+                skipped += n;
+            }
+        } catch (IOException e) {
+            try {
+                in.close();
+            } catch (IOException ignored) {
+            }
+            throw new WebdavException(e);
+        }
+        return new LimitedInputStream(in, length);
+    }
+
+    /**
+     * writes a stream to a channel and closes the stream
+     * 
+     * @return number of bytes written
+     */
+    protected static long transfer(InputStream in, WritableByteChannel target) {
+        try {
+            try {
+                long transferred = 0;
+                byte[] copyBuffer = new byte[BUF_SIZE];
+                int read;
+                while ((read = in.read(copyBuffer)) != -1) {
+                    ByteBuffer buffer = ByteBuffer.wrap(copyBuffer, 0, read);
+                    while (buffer.hasRemaining()) {
+                        target.write(buffer);
+                    }
+                    transferred += read;
+                }
+                return transferred;
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            throw new WebdavException(e);
+        }
+    }
+
+    /**
+     * @return the path with a leading and without a trailing slash, to be
+     *  used as a key
+     */
+    protected static String normalize(String uri) {
+        String path = uri.replace('\\', '/');
+        if (!path.startsWith("/")) {
+            path = "/" + path;
+        }
+        while (path.length() > 1 && path.endsWith("/")) {
+            path = path.substring(0, path.length() - 1);
+        }
+        return path;
+    }
+
+    /**
+     * @return the parent of a normalized path
+     */
+    protected static String getParent(String path) {
+        int slash = path.lastIndexOf('/');
+        return slash <= 0 ? "/" : path.substring(0, slash);
+    }
+
+    /**
+     * @return the normalized path of a child
+     */
+    protected static String getChild(String path, String name) {
+        return path.equals("/") ? "/" + name : path + "/" + name;
+    }
+
+    /**
+     * @return a copy of a StoredObject, for callers that may change it
+     */
+    protected static StoredObject copy(StoredObject so) {
+        StoredObject copy = new StoredObject();
+        // setNullResource() resets the other fields
+        copy.setNullResource(so.isNullResource());
+        copy.setFolder(so.isFolder());
+        copy.setResourceLength(so.getResourceLength());
+        copy.setMimeType(so.getMimeType());
+        copy.setETag(so.getETag());
+        if (so.getLastModified() != null) {
+            copy.setLastModified(new Date(so.getLastModified().getTime()));
+        }
+        if (so.getCreationDate() != null) {
+            copy.setCreationDate(new Date(so.getCreationDate().getTime()));
+        }
+        return copy;
+    }
+
+    /**
+     * reads at most a given number of bytes from another stream
+     */
+    private static class LimitedInputStream extends InputStream {
+
+        private final InputStream _in;
+
+        private long _remaining;
+
+        LimitedInputStream(InputStream in, long length) {
+            _in = in;
+            _remaining = length;
+        }
+
+        public int read() throws IOException {
+            if (_remaining <= 0) {
+                return -1;
+            }
+            int b = _in.read();
+            if (b != -1) {
+                _remaining--;
+            }
+            return b;
+        }
+
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (_remaining <= 0) {
+                return -1;
+            }
+            int read = _in.read(b, off, (int) Math.min(len, _remaining));
+            if (read > 0) {
+                _remaining -= read;
+            }
+            return read;
+        }
+
+        public void close() throws IOException {
+            _in.close();
+        }
+    }
+
+}
@@ -28,6 +28,7 @@ public class StoredObject {
     private Date creationDate;
     private long contentLength;
     private String  mimeType;
+    private String eTag;
 
     private boolean isNullRessource;
 
@@ -139,6 +140,7 @@ public class StoredObject {
         // this.content = null;
         this.contentLength = 0;
         this.mimeType= null;
+        this.eTag = null;
     }
 
     /**
@@ -162,4 +164,26 @@ public class StoredObject {
         this.mimeType = mimeType;
     }
 
+    /**
+     * Retrieve the entity tag of the resource content, if the store knows a
+     * tag that changes whenever the content changes (e.g. a hash, or the
+     * length and modification time of a file).
+     * Returns NULL otherwise, the ETag is then derived from the length and
+     * the modification date
+     *
+     * @return the entity tag, without quotes
+     */
+    public String getETag() {
+        return eTag;
+    }
+
+    /**
+     * Set the entity tag of the resource content
+     *
+     * @param eTag the entity tag, without quotes
+     */
+    public void setETag(String eTag) {
+        this.eTag = eTag;
+    }
+
 }
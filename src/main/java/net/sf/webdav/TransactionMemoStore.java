@@ -0,0 +1,310 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package net.sf.webdav;
+
+import java.io.InputStream;
+import java.security.Principal;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Store decorator remembering the StoredObjects and folder listings a
+ * transaction has read until the transaction ends, the method executors ask
+ * for the same objects several times per request. Every change made through
+ * the transaction forgets what it touches.
+ *
+ * The callers of a transaction share the remembered StoredObjects, what an
+ * executor sets on one (like the null resource flag) is seen by the next
+ * call of the request, as with a store handing out its own objects.
+ *
+ * WebDavServletBean puts it around every store.
+ *
+ * @author re
+ */
+public class TransactionMemoStore extends StoreDecorator {
+
+    public TransactionMemoStore(IWebdavStore store) {
+        super(store);
+    }
+
+    protected ITransaction unwrap(ITransaction transaction) {
+        return transaction instanceof Transaction
+                ? ((Transaction) transaction)._transaction : transaction;
+    }
+
+    public ITransaction begin(Principal principal) {
+        return new Transaction(super.begin(principal), principal);
+    }
+
+    public void commit(ITransaction transaction) {
+        forgetAll(transaction);
+        super.commit(transaction);
+    }
+
+    public void rollback(ITransaction transaction) {
+        forgetAll(transaction);
+        super.rollback(transaction);
+    }
+
+    public void createFolder(ITransaction transaction, String folderUri) {
+        try {
+            super.createFolder(transaction, folderUri);
+        } finally {
+            forget(transaction, folderUri);
+        }
+    }
+
+    public void createResource(ITransaction transaction, String resourceUri) {
+        try {
+            super.createResource(transaction, resourceUri);
+        } finally {
+            forget(transaction, resourceUri);
+        }
+    }
+
+    public long setResourceContent(ITransaction transaction,
+            String resourceUri, InputStream content, String contentType,
+            String characterEncoding) {
+        try {
+            return super.setResourceContent(transaction, resourceUri,
+                    content, contentType, characterEncoding);
+        } finally {
+            forget(transaction, resourceUri);
+        }
+    }
+
+    public long[][] writeResourceContent(ITransaction transaction,
+            String resourceUri, long offset, long length,
+            long resourceLength, InputStream content) {
+        try {
+            return super.writeResourceContent(transaction, resourceUri,
+                    offset, length, resourceLength, content);
+        } finally {
+            forget(transaction, resourceUri);
+        }
+    }
+
+    public void removeObject(ITransaction transaction, String uri) {
+        try {
+            super.removeObject(transaction, uri);
+        } finally {
+            forget(transaction, uri);
+        }
+    }
+
+    public boolean moveObject(ITransaction transaction, String sourceUri,
+            String destinationUri) {
+        try {
+            return super.moveObject(transaction, sourceUri, destinationUri);
+        } finally {
+            forget(transaction, sourceUri);
+            forget(transaction, destinationUri);
+        }
+    }
+
+    public boolean copyResource(ITransaction transaction, String sourceUri,
+            String destinationUri) {
+        try {
+            return super.copyResource(transaction, sourceUri, destinationUri);
+        } finally {
+            forget(transaction, destinationUri);
+        }
+    }
+
+    public StoredObject getStoredObject(ITransaction transaction, String uri) {
+        if (!(transaction instanceof Transaction)) {
+            return super.getStoredObject(transaction, uri);
+        }
+        Transaction memo = (Transaction) transaction;
+        String path = normalize(uri);
+        memo._lock.lock();
+        try {
+            if (memo._objects.containsKey(path)) {
+                return memo._objects.get(path);
+            }
+        } finally {
+            memo._lock.unlock();
+        }
+        StoredObject so = super.getStoredObject(transaction, uri);
+        memo._lock.lock();
+        try {
+            if (memo._objects.containsKey(path)) {
+                // read by another thread of the request meanwhile
+                return memo._objects.get(path);
+            }
+            memo._objects.put(path, so);
+        } finally {
+            memo._lock.unlock();
+        }
+        return so;
+    }
+
+    public long getResourceLength(ITransaction transaction, String path) {
+        if (transaction instanceof Transaction) {
+            Transaction memo = (Transaction) transaction;
+            memo._lock.lock();
+            try {
+                StoredObject so = memo._objects.get(normalize(path));
+                if (so != null) {
+                    return so.getResourceLength();
+                }
+            } finally {
+                memo._lock.unlock();
+            }
+        }
+        return super.getResourceLength(transaction, path);
+    }
+
+    public String[] getChildrenNames(ITransaction transaction,
+            String folderUri) {
+        if (transaction instanceof Transaction) {
+            Transaction memo = (Transaction) transaction;
+            memo._lock.lock();
+            try {
+                Map<String, StoredObject> children = memo._children
+                        .get(normalize(folderUri));
+                if (children != null) {
+                    return children.keySet().toArray(
+                            new String[children.size()]);
+                }
+            } finally {
+                memo._lock.unlock();
+            }
+        }
+        return super.getChildrenNames(transaction, folderUri);
+    }
+
+    public Map<String, StoredObject> getChildren(ITransaction transaction,
+            String folderUri) {
+        if (!(transaction instanceof Transaction)) {
+            return super.getChildren(transaction, folderUri);
+        }
+        Transaction memo = (Transaction) transaction;
+        String path = normalize(folderUri);
+        Map<String, StoredObject> children;
+        memo._lock.lock();
+        try {
+            children = memo._children.get(path);
+        } finally {
+            memo._lock.unlock();
+        }
+        if (children == null) {
+            Map<String, StoredObject> read = super.getChildren(transaction,
+                    folderUri);
+            if (read == null) {
+                return null;
+            }
+            children = new LinkedHashMap<String, StoredObject>();
+            memo._lock.lock();
+            try {
+                for (Map.Entry<String, StoredObject> child : read.entrySet()) {
+                    String childPath = getChild(path, child.getKey());
+                    StoredObject so = child.getValue();
+                    if (memo._objects.containsKey(childPath)) {
+                        // the one the request already has
+                        so = memo._objects.get(childPath);
+                    } else if (so != null) {
+                        memo._objects.put(childPath, so);
+                    }
+                    children.put(child.getKey(), so);
+                }
+                memo._children.put(path, children);
+            } finally {
+                memo._lock.unlock();
+            }
+        }
+        // the listing itself stays as it was read
+        return new LinkedHashMap<String, StoredObject>(children);
+    }
+
+    /**
+     * forgets an object, the objects below it and the listing of its folder
+     */
+    private void forget(ITransaction transaction, String uri) {
+        if (!(transaction instanceof Transaction)) {
+            return;
+        }
+        Transaction memo = (Transaction) transaction;
+        String path = normalize(uri);
+        String parent = getParent(path);
+        String prefix = path.equals("/") ? path : path + "/";
+        memo._lock.lock();
+        try {
+            memo._objects.remove(path);
+            memo._objects.remove(parent);
+            memo._children.remove(path);
+            memo._children.remove(parent);
+            removeBelow(memo._objects, prefix);
+            removeBelow(memo._children, prefix);
+        } finally {
+            memo._lock.unlock();
+        }
+    }
+
+    private void removeBelow(Map<String, ?> map, String prefix) {
+        for (Iterator<String> it = map.keySet().iterator(); it.hasNext();) {
+            if (it.next().startsWith(prefix)) {
+                it.remove();
+            }
+        }
+    }
+
+    private void forgetAll(ITransaction transaction) {
+        if (transaction instanceof Transaction) {
+            Transaction memo = (Transaction) transaction;
+            memo._lock.lock();
+            try {
+                memo._objects.clear();
+                memo._children.clear();
+            } finally {
+                memo._lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * the transaction of the decorated store and what it has read, guarded
+     * by its lock. Not synchronized, the threads of a request may be
+     * virtual ones
+     */
+    private static class Transaction implements ITransaction {
+
+        final ITransaction _transaction;
+
+        private final Principal _principal;
+
+        /**
+         * <code>null</code> values for objects that don't exist
+         */
+        final Map<String, StoredObject> _objects = new HashMap<String, StoredObject>();
+
+        final Map<String, Map<String, StoredObject>> _children = new HashMap<String, Map<String, StoredObject>>();
+
+        final ReentrantLock _lock = new ReentrantLock();
+
+        Transaction(ITransaction transaction, Principal principal) {
+            _transaction = transaction;
+            _principal = principal;
+        }
+
+        public Principal getPrincipal() {
+            return _principal;
+        }
+    }
+
+}
@@ -0,0 +1,656 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package net.sf.webdav;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+/**
+ * Executes requests on threads of its own instead of the threads of the
+ * container, using the async support of Servlet 3.
+ *
+ * On a JVM with virtual threads (Java 21 and later) every request gets a
+ * virtual thread, a request blocking on the store or the client then costs
+ * no platform thread. Older JVMs get a pool of platform threads. A semaphore
+ * bounds the number of requests the store has to serve at the same time,
+ * requests beyond it wait for a permit without holding a platform thread.
+ */
+class VirtualThreadDispatcher {
+
+    private static org.slf4j.Logger LOG = org.slf4j.LoggerFactory
+            .getLogger(VirtualThreadDispatcher.class);
+
+    private final WebDavServletBean _servlet;
+
+    private final ExecutorService _executor;
+
+    /**
+     * <code>null</code> if the number of requests is not bounded
+     */
+    private final Semaphore _permits;
+
+    private final long _timeout;
+
+    /**
+     * @param maxRequests
+     *      number of requests executed at the same time, 0 for no limit
+     * @param timeout
+     *      milliseconds a request may take, 0 for no limit
+     */
+    VirtualThreadDispatcher(WebDavServletBean servlet, int maxRequests,
+            long timeout) {
+        _servlet = servlet;
+        _timeout = timeout;
+        _permits = maxRequests > 0 ? new Semaphore(maxRequests, true) : null;
+        ExecutorService executor = newVirtualThreadExecutor();
+        if (executor != null) {
+            LOG.info("VirtualThreadDispatcher: executing requests on "
+                    + "virtual threads");
+        } else if (maxRequests > 0) {
+            // as many threads as requests may run
+            executor = Executors.newFixedThreadPool(maxRequests,
+                    new DispatcherThreadFactory());
+            LOG.info("VirtualThreadDispatcher: no virtual threads, executing "
+                    + "requests on " + maxRequests + " threads");
+        } else {
+            executor = Executors
+                    .newCachedThreadPool(new DispatcherThreadFactory());
+            LOG.info("VirtualThreadDispatcher: no virtual threads, executing "
+                    + "requests on a thread pool");
+        }
+        _executor = executor;
+    }
+
+    /**
+     * @return an executor starting a virtual thread per task,
+     *  <code>null</code> if the JVM has no virtual threads
+     */
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            Method factory = Executors.class
+                    .getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (NoSuchMethodException e) {
+            return null;
+        } catch (Exception e) {
+            LOG.warn("VirtualThreadDispatcher: cannot create virtual "
+                    + "threads: " + e);
+            return null;
+        }
+    }
+
+    /**
+     * executes the request on a thread of the dispatcher, the call returns
+     * right away
+     */
+    void dispatch(HttpServletRequest req, HttpServletResponse resp)
+            throws IOException {
+        AsyncContext asyncContext = req.startAsync();
+        asyncContext.setTimeout(_timeout);
+        Task task = new Task(req, resp, asyncContext);
+        asyncContext.addListener(task);
+        try {
+            _executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            // shutting down
+            resp.sendError(WebdavStatus.SC_SERVICE_UNAVAILABLE);
+            asyncContext.complete();
+        }
+    }
+
+    private void execute(Task task) {
+        try {
+            if (_permits != null) {
+                _permits.acquire();
+            }
+            try {
+                if (task.start()) {
+                    _servlet.execute(task._req, task._resp);
+                }
+            } finally {
+                if (_permits != null) {
+                    _permits.release();
+                }
+            }
+        } catch (InterruptedException e) {
+            // timed out waiting for a permit, or shutting down
+            Thread.currentThread().interrupt();
+            sendError(task._resp, WebdavStatus.SC_SERVICE_UNAVAILABLE);
+        } catch (Exception e) {
+            LOG.error("VirtualThreadDispatcher: executing "
+                    + task._req.getMethod() + " failed", e);
+            sendError(task._resp, WebdavStatus.SC_INTERNAL_SERVER_ERROR);
+        }
+    }
+
+    private static void sendError(HttpServletResponse resp, int status) {
+        if (!resp.isCommitted()) {
+            try {
+                resp.sendError(status);
+            } catch (IOException e) {
+                LOG.trace("VirtualThreadDispatcher: sending " + status
+                        + " failed: " + e);
+            }
+        }
+    }
+
+    /**
+     * stops taking requests and waits a while for the running ones
+     */
+    void shutdown() {
+        _executor.shutdown();
+        try {
+            if (!_executor.awaitTermination(10, TimeUnit.SECONDS)) {
+                _executor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            _executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * a dispatched request. Once it has timed out it isn't executed any
+     * more, and a running one can't write to the response the container
+     * takes back
+     */
+    private class Task implements Runnable, AsyncListener {
+
+        private final HttpServletRequest _req;
+
+        private final GuardedResponse _resp;
+
+        private final AsyncContext _asyncContext;
+
+        /**
+         * the thread of the task while it waits for a permit, guarded by
+         * the task
+         */
+        private Thread _thread;
+
+        private boolean _started = false;
+
+        private boolean _timedOut = false;
+
+        Task(HttpServletRequest req, HttpServletResponse resp,
+                AsyncContext asyncContext) {
+            _req = req;
+            _resp = new GuardedResponse(resp);
+            _asyncContext = asyncContext;
+        }
+
+        public void run() {
+            synchronized (this) {
+                if (_timedOut) {
+                    return;
+                }
+                _thread = Thread.currentThread();
+            }
+            try {
+                execute(this);
+            } finally {
+                synchronized (this) {
+                    _thread = null;
+                    // the interrupt may come after the permit was acquired
+                    Thread.interrupted();
+                }
+                complete();
+            }
+        }
+
+        /**
+         * @return <code>false</code> if the request timed out before it
+         *  could be executed
+         */
+        synchronized boolean start() {
+            if (_timedOut) {
+                return false;
+            }
+            _started = true;
+            return true;
+        }
+
+        private void complete() {
+            try {
+                _asyncContext.complete();
+            } catch (IllegalStateException e) {
+                // timed out and completed by the container
+                LOG.trace("VirtualThreadDispatcher: already completed");
+            }
+        }
+
+        public void onTimeout(AsyncEvent event) {
+            boolean started;
+            synchronized (this) {
+                _timedOut = true;
+                started = _started;
+                if (!started && _thread != null) {
+                    // stops waiting for a permit
+                    _thread.interrupt();
+                }
+            }
+            LOG.debug("VirtualThreadDispatcher: " + _req.getMethod()
+                    + " timed out " + (started ? "executing" : "waiting"));
+            // the rest of the response is dropped
+            _resp.close(WebdavStatus.SC_SERVICE_UNAVAILABLE);
+            complete();
+        }
+
+        public void onComplete(AsyncEvent event) {
+        }
+
+        public void onError(AsyncEvent event) {
+            onTimeout(event);
+        }
+
+        public void onStartAsync(AsyncEvent event) {
+        }
+    }
+
+    /**
+     * a response that is written no more once it is closed. Writing to the
+     * output stream, flushing or sending an error then throws an
+     * IOException, the writer drops what is written and its checkError()
+     * returns <code>true</code>, the status and the headers are left alone.
+     *
+     * A ReentrantLock rather than synchronized guards the writes, a virtual
+     * thread blocked writing to a slow client then doesn't pin its carrier.
+     */
+    private static class GuardedResponse extends HttpServletResponseWrapper {
+
+        private final ReentrantLock _lock = new ReentrantLock();
+
+        private volatile boolean _closed = false;
+
+        private ServletOutputStream _out;
+
+        private PrintWriter _writer;
+
+        GuardedResponse(HttpServletResponse resp) {
+            super(resp);
+        }
+
+        /**
+         * closes the response and sends the status unless the response is
+         * committed. Doesn't wait for a write in progress, the container
+         * ends that one.
+         */
+        void close(int status) {
+            _closed = true;
+            if (!_lock.tryLock()) {
+                LOG.trace("VirtualThreadDispatcher: closed while writing");
+                return;
+            }
+            try {
+                if (!getResponse().isCommitted()) {
+                    ((HttpServletResponse) getResponse()).sendError(status);
+                }
+            } catch (IOException e) {
+                LOG.trace("VirtualThreadDispatcher: sending " + status
+                        + " failed: " + e);
+            } finally {
+                _lock.unlock();
+            }
+        }
+
+        /**
+         * takes the lock unless the response is closed
+         *
+         * @return <code>false</code> if the response is closed
+         */
+        private boolean lock() {
+            _lock.lock();
+            if (_closed) {
+                _lock.unlock();
+                return false;
+            }
+            return true;
+        }
+
+        /**
+         * takes the lock
+         *
+         * @throws IOException
+         *      if the response is closed
+         */
+        private void lockOpen() throws IOException {
+            if (!lock()) {
+                throw new IOException("request timed out");
+            }
+        }
+
+        public ServletOutputStream getOutputStream() throws IOException {
+            lockOpen();
+            try {
+                if (_out == null) {
+                    _out = new GuardedOutputStream(super.getOutputStream());
+                }
+                return _out;
+            } finally {
+                _lock.unlock();
+            }
+        }
+
+        public PrintWriter getWriter() throws IOException {
+            lockOpen();
+            try {
+                if (_writer == null) {
+                    _writer = new PrintWriter(new GuardedWriter(super
+                            .getWriter()));
+                }
+                return _writer;
+            } finally {
+                _lock.unlock();
+            }
+        }
+
+        public void flushBuffer() throws IOException {
+            lockOpen();
+            try {
+                super.flushBuffer();
+            } finally {
+                _lock.unlock();
+            }
+        }
+
+        public void sendError(int sc) throws IOException {
+            lockOpen();
+            try {
+                super.sendError(sc);
+            } finally {
+                _lock.unlock();
+            }
+        }
+
+        public void sendError(int sc, String msg) throws IOException {
+            lockOpen();
+            try {
+                super.sendError(sc, msg);
+            } finally {
+                _lock.unlock();
+            }
+        }
+
+        public void sendRedirect(String location) throws IOException {
+            lockOpen();
+            try {
+                super.sendRedirect(location);
+            } finally {
+                _lock.unlock();
+            }
+        }
+
+        public void reset() {
+            if (lock()) {
+                try {
+                    super.reset();
+                } finally {
+                    _lock.unlock();
+                }
+            }
+        }
+
+        public void resetBuffer() {
+            if (lock()) {
+                try {
+                    super.resetBuffer();
+                } finally {
+                    _lock.unlock();
+                }
+            }
+        }
+
+        public void setStatus(int sc) {
+            if (lock()) {
+                try {
+                    super.setStatus(sc);
+                } finally {
+                    _lock.unlock();
+                }
+            }
+        }
+
+        public void setHeader(String name, String value) {
+            if (lock()) {
+                try {
+                    super.setHeader(name, value);
+                } finally {
+                    _lock.unlock();
+                }
+            }
+        }
+
+        public void addHeader(String name, String value) {
+            if (lock()) {
+                try {
+                    super.addHeader(name, value);
+                } finally {
+                    _lock.unlock();
+                }
+            }
+        }
+
+        public void setDateHeader(String name, long date) {
+            if (lock()) {
+                try {
+                    super.setDateHeader(name, date);
+                } finally {
+                    _lock.unlock();
+                }
+            }
+        }
+
+        public void addDateHeader(String name, long date) {
+            if (lock()) {
+                try {
+                    super.addDateHeader(name, date);
+                } finally {
+                    _lock.unlock();
+                }
+            }
+        }
+
+        public void setIntHeader(String name, int value) {
+            if (lock()) {
+                try {
+                    super.setIntHeader(name, value);
+                } finally {
+                    _lock.unlock();
+                }
+            }
+        }
+
+        public void addIntHeader(String name, int value) {
+            if (lock()) {
+                try {
+                    super.addIntHeader(name, value);
+                } finally {
+                    _lock.unlock();
+                }
+            }
+        }
+
+        public void setContentType(String type) {
+            if (lock()) {
+                try {
+                    super.setContentType(type);
+                } finally {
+                    _lock.unlock();
+                }
+            }
+        }
+
+        public void setContentLength(int len) {
+            if (lock()) {
+                try {
+                    super.setContentLength(len);
+                } finally {
+                    _lock.unlock();
+                }
+            }
+        }
+
+        public void setContentLengthLong(long len) {
+            if (lock()) {
+                try {
+                    super.setContentLengthLong(len);
+                } finally {
+                    _lock.unlock();
+                }
+            }
+        }
+
+        public void setCharacterEncoding(String charset) {
+            if (lock()) {
+                try {
+                    super.setCharacterEncoding(charset);
+                } finally {
+                    _lock.unlock();
+                }
+            }
+        }
+
+        /**
+         * the body, written while the response is open
+         */
+        private class GuardedOutputStream extends ServletOutputStream {
+
+            private final ServletOutputStream _target;
+
+            GuardedOutputStream(ServletOutputStream target) {
+                _target = target;
+            }
+
+            public void write(int b) throws IOException {
+                lockOpen();
+                try {
+                    _target.write(b);
+                } finally {
+                    _lock.unlock();
+                }
+            }
+
+            public void write(byte[] b, int off, int len) throws IOException {
+                lockOpen();
+                try {
+                    _target.write(b, off, len);
+                } finally {
+                    _lock.unlock();
+                }
+            }
+
+            public void flush() throws IOException {
+                lockOpen();
+                try {
+                    _target.flush();
+                } finally {
+                    _lock.unlock();
+                }
+            }
+
+            public void close() throws IOException {
+                lockOpen();
+                try {
+                    _target.close();
+                } finally {
+                    _lock.unlock();
+                }
+            }
+
+            public boolean isReady() {
+                return _target.isReady();
+            }
+
+            public void setWriteListener(WriteListener listener) {
+                _target.setWriteListener(listener);
+            }
+        }
+
+        /**
+         * the body written as text while the response is open
+         */
+        private class GuardedWriter extends Writer {
+
+            private final PrintWriter _target;
+
+            GuardedWriter(PrintWriter target) {
+                _target = target;
+            }
+
+            public void write(char[] cbuf, int off, int len)
+                    throws IOException {
+                lockOpen();
+                try {
+                    _target.write(cbuf, off, len);
+                } finally {
+                    _lock.unlock();
+                }
+            }
+
+            public void flush() throws IOException {
+                lockOpen();
+                try {
+                    _target.flush();
+                } finally {
+                    _lock.unlock();
+                }
+            }
+
+            public void close() throws IOException {
+                lockOpen();
+                try {
+                    _target.close();
+                } finally {
+                    _lock.unlock();
+                }
+            }
+        }
+    }
+
+    /**
+     * names the platform threads used without virtual threads
+     */
+    private static class DispatcherThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger _count = new AtomicInteger();
+
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "webdav-request-"
+                    + _count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+
+}
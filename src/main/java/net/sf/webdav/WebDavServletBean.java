@@ -1,6 +1,7 @@
 package net.sf.webdav;
 
 import java.io.IOException;
+import java.io.Writer;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.security.Principal;
@@ -12,10 +13,13 @@ import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
+import net.sf.webdav.exceptions.RequestFailedException;
 import net.sf.webdav.exceptions.UnauthenticatedException;
 import net.sf.webdav.exceptions.WebdavException;
 import net.sf.webdav.fromcatalina.MD5Encoder;
 import net.sf.webdav.locking.ResourceLocks;
+import net.sf.webdav.metrics.Metrics;
+import net.sf.webdav.methods.AbstractMethod;
 import net.sf.webdav.methods.DoCopy;
 import net.sf.webdav.methods.DoDelete;
 import net.sf.webdav.methods.DoGet;
@@ -29,6 +33,7 @@ import net.sf.webdav.methods.DoPropfind;
 import net.sf.webdav.methods.DoProppatch;
 import net.sf.webdav.methods.DoPut;
 import net.sf.webdav.methods.DoUnlock;
+import net.sf.webdav.methods.TreeTaskExecutor;
 
 public class WebDavServletBean extends HttpServlet {
 
@@ -48,10 +53,16 @@ public class WebDavServletBean extends HttpServlet {
     private static final boolean READ_ONLY = false;
 	protected ResourceLocks _resLocks;
 	protected IWebdavStore _store;
+    protected TreeTaskExecutor _treeExecutor;
     private HashMap<String, IMethodExecutor> _methodMap = new HashMap<String, IMethodExecutor>();
+    private long _maxUploadSize = -1;
+    private long _asyncTimeout = -1;
+    private VirtualThreadDispatcher _dispatcher;
+    private final Metrics _metrics = new Metrics();
+    private String _metricsPath;
 
     public WebDavServletBean() {
-        _resLocks = new ResourceLocks();
+        _resLocks = new ResourceLocks(_metrics);
 
         try {
             MD5_HELPER = MessageDigest.getInstance("MD5");
@@ -63,8 +74,111 @@ public class WebDavServletBean extends HttpServlet {
     public void init(IWebdavStore store, String dftIndexFile,
             String insteadOf404, int nocontentLenghHeaders,
             boolean lazyFolderCreationOnPut) throws ServletException {
+        init(store, dftIndexFile, insteadOf404, nocontentLenghHeaders,
+                lazyFolderCreationOnPut, 0);
+    }
+
+    /**
+     * @param treeThreads
+     *      number of threads copying and deleting the children of large
+     *      collections in parallel, 0 to do it on the request thread. The
+     *      store must then accept calls from several threads within one
+     *      transaction
+     */
+    public void init(IWebdavStore store, String dftIndexFile,
+            String insteadOf404, int nocontentLenghHeaders,
+            boolean lazyFolderCreationOnPut, int treeThreads)
+            throws ServletException {
+        init(store, dftIndexFile, insteadOf404, nocontentLenghHeaders,
+                lazyFolderCreationOnPut, treeThreads, -1);
+    }
+
+    /**
+     * @param maxUploadSize
+     *      maximum length of the content PUT into a resource, -1 for no
+     *      limit
+     */
+    public void init(IWebdavStore store, String dftIndexFile,
+            String insteadOf404, int nocontentLenghHeaders,
+            boolean lazyFolderCreationOnPut, int treeThreads,
+            long maxUploadSize) throws ServletException {
+        init(store, dftIndexFile, insteadOf404, nocontentLenghHeaders,
+                lazyFolderCreationOnPut, treeThreads, maxUploadSize, -1);
+    }
+
+    /**
+     * @param asyncTimeout
+     *      milliseconds a request may take in async mode, 0 for no limit.
+     *      In async mode the bodies of GET and PUT requests are moved with
+     *      the non-blocking I/O of Servlet 3.1, no thread waits for a slow
+     *      client. The servlet must be deployed with async support. -1 to
+     *      execute every request on the container thread
+     */
+    public void init(IWebdavStore store, String dftIndexFile,
+            String insteadOf404, int nocontentLenghHeaders,
+            boolean lazyFolderCreationOnPut, int treeThreads,
+            long maxUploadSize, long asyncTimeout) throws ServletException {
+        init(store, dftIndexFile, insteadOf404, nocontentLenghHeaders,
+                lazyFolderCreationOnPut, treeThreads, maxUploadSize,
+                asyncTimeout, -1);
+    }
 
+    /**
+     * @param virtualThreads
+     *      number of requests executed at the same time on threads of the
+     *      servlet, 0 for no limit. Every request gets a virtual thread
+     *      where the JVM has them (Java 21), a pool of threads otherwise.
+     *      Blocking on the store or a slow client then costs no platform
+     *      thread, which makes the non-blocking I/O of async mode
+     *      unnecessary. The servlet must be deployed with async support,
+     *      the timeout of async mode applies. -1 to execute requests on the
+     *      container thread
+     */
+    public void init(IWebdavStore store, String dftIndexFile,
+            String insteadOf404, int nocontentLenghHeaders,
+            boolean lazyFolderCreationOnPut, int treeThreads,
+            long maxUploadSize, long asyncTimeout, int virtualThreads)
+            throws ServletException {
+        init(store, dftIndexFile, insteadOf404, nocontentLenghHeaders,
+                lazyFolderCreationOnPut, treeThreads, maxUploadSize,
+                asyncTimeout, virtualThreads, null);
+    }
+
+    /**
+     * @param metricsPath
+     *      path (below the servlet) where GET returns the metrics of the
+     *      servlet as text, in the format of Prometheus, to requests
+     *      the store authenticates. They are always published as MBeans.
+     *      <code>null</code> to serve no metrics
+     */
+    public void init(IWebdavStore store, String dftIndexFile,
+            String insteadOf404, int nocontentLenghHeaders,
+            boolean lazyFolderCreationOnPut, int treeThreads,
+            long maxUploadSize, long asyncTimeout, int virtualThreads,
+            String metricsPath) throws ServletException {
+
+        // MeteredStores among the decorators time the calls where they were
+        // put, otherwise one is put beneath the TransactionMemoStore
+        boolean metered = setMetrics(store, _metrics);
+        // the executors ask the store for the same objects several times per
+        // request
+        if (!(store instanceof TransactionMemoStore)) {
+            store = new TransactionMemoStore(metered ? store
+                    : new MeteredStore(store, _metrics));
+        }
         _store = store;
+        _metricsPath = metricsPath;
+        _metrics.register(getServletConfig() != null ? getServletName()
+                : getClass().getName());
+        _maxUploadSize = maxUploadSize;
+        _asyncTimeout = asyncTimeout;
+        if (virtualThreads >= 0) {
+            _dispatcher = new VirtualThreadDispatcher(this, virtualThreads,
+                    Math.max(0, asyncTimeout));
+        }
+        if (treeThreads > 0) {
+            _treeExecutor = new TreeTaskExecutor(treeThreads);
+        }
 
         IMimeTyper mimeTyper = new IMimeTyper() {
             public String getMimeType(ITransaction transaction, String path) {
@@ -81,33 +195,67 @@ public class WebDavServletBean extends HttpServlet {
         register("HEAD", new DoHead(store, dftIndexFile, insteadOf404,
                 _resLocks, mimeTyper, nocontentLenghHeaders));
         DoDelete doDelete = (DoDelete) register("DELETE", new DoDelete(store,
-                _resLocks, READ_ONLY));
+                _resLocks, READ_ONLY, _treeExecutor));
         DoCopy doCopy = (DoCopy) register("COPY", new DoCopy(store, _resLocks,
-                doDelete, READ_ONLY));
+                doDelete, READ_ONLY, _treeExecutor));
         register("LOCK", new DoLock(store, _resLocks, READ_ONLY));
         register("UNLOCK", new DoUnlock(store, _resLocks, READ_ONLY));
-        register("MOVE", new DoMove(_resLocks, doDelete, doCopy, READ_ONLY));
+        register("MOVE", new DoMove(_resLocks, doCopy, READ_ONLY));
         register("MKCOL", new DoMkcol(store, _resLocks, READ_ONLY));
         register("OPTIONS", new DoOptions(store, _resLocks));
         register("PUT", new DoPut(store, _resLocks, READ_ONLY,
-                lazyFolderCreationOnPut));
+                lazyFolderCreationOnPut, maxUploadSize));
         register("PROPFIND", new DoPropfind(store, _resLocks, mimeTyper));
         register("PROPPATCH", new DoProppatch(store, _resLocks, READ_ONLY));
         register("*NO*IMPL*", new DoNotImplemented(READ_ONLY));
     }
 
+    /**
+     * sets the metrics of every MeteredStore among the decorators of the
+     * store
+     * 
+     * @return <code>false</code> if there is none
+     */
+    private static boolean setMetrics(IWebdavStore store, Metrics metrics) {
+        boolean found = false;
+        while (store instanceof StoreDecorator) {
+            if (store instanceof MeteredStore) {
+                ((MeteredStore) store).setMetrics(metrics);
+                found = true;
+            }
+            store = ((StoreDecorator) store).getStore();
+        }
+        return found;
+    }
+
     @Override
     public void destroy() {
         if(_store != null)
             _store.destroy();
+        _resLocks.destroy();
+        if (_treeExecutor != null)
+            _treeExecutor.shutdown();
+        if (_dispatcher != null)
+            _dispatcher.shutdown();
+        _metrics.unregister();
         super.destroy();
     }
 
     protected IMethodExecutor register(String methodName, IMethodExecutor method) {
         _methodMap.put(methodName, method);
+        if (method instanceof AbstractMethod) {
+            ((AbstractMethod) method).setMetrics(_metrics);
+        }
         return method;
     }
 
+    /**
+     * @return the metrics of this servlet
+     */
+    public Metrics getMetrics() {
+        return _metrics;
+    }
+
     /**
      * Handles the special WebDAV methods.
      */
@@ -116,28 +264,75 @@ public class WebDavServletBean extends HttpServlet {
             throws ServletException, IOException {
 
         String methodName = req.getMethod();
-        ITransaction transaction = null;
-        boolean needRollback = false;
 
         if (LOG.isTraceEnabled())
             debugRequest(methodName, req);
 
+        if (_dispatcher != null && req.isAsyncSupported()) {
+            // blocking costs no platform thread there
+            _dispatcher.dispatch(req, resp);
+            return;
+        }
+        if (_asyncTimeout >= 0 && methodName.equals("PUT")
+                && req.isAsyncSupported()) {
+            // the body is received without blocking a thread and handed to
+            // the method on a worker of the container as it arrives
+            new AsyncUpload(this, req, resp, _maxUploadSize, _asyncTimeout)
+                    .start();
+            return;
+        }
+        execute(req, resp);
+    }
+
+    /**
+     * executes the method of a request within a transaction of the store
+     */
+    protected void execute(HttpServletRequest req, HttpServletResponse resp)
+            throws ServletException, IOException {
+
+        String methodName = req.getMethod();
+        boolean metrics = _metricsPath != null && methodName.equals("GET")
+                && _metricsPath.equals(req.getPathInfo());
+        if (!_methodMap.containsKey(methodName)) {
+            // clients choose the method, only known ones get a histogram
+            methodName = "*NO*IMPL*";
+        }
+        ITransaction transaction = null;
+        boolean needRollback = false;
+        long start = System.nanoTime();
+        Metrics.setCurrentMethod(methodName);
+
         try {
             Principal userPrincipal = getUserPrincipal(req);
             transaction = _store.begin(userPrincipal);
             needRollback = true;
             _store.checkAuthentication(transaction);
+            if (metrics) {
+                // served to those the store lets in, like the resources
+                sendMetrics(resp);
+                return;
+            }
             resp.setStatus(WebdavStatus.SC_OK);
 
             try {
                 IMethodExecutor methodExecutor = (IMethodExecutor) _methodMap
                         .get(methodName);
-                if (methodExecutor == null) {
-                    methodExecutor = (IMethodExecutor) _methodMap
-                            .get("*NO*IMPL*");
-                }
 
-                methodExecutor.execute(transaction, req, resp);
+                if (_asyncTimeout >= 0
+                        && methodExecutor instanceof IAsyncMethodExecutor
+                        && req.isAsyncSupported() && !req.isAsyncStarted()) {
+                    AsyncResponse async = new AsyncResponse(req, resp,
+                            _store, transaction, _asyncTimeout, _metrics);
+                    ((IAsyncMethodExecutor) methodExecutor).execute(
+                            transaction, req, resp, async);
+                    if (async.isStarted()) {
+                        // the transaction ends when the body has been sent
+                        needRollback = false;
+                        return;
+                    }
+                } else {
+                    methodExecutor.execute(transaction, req, resp);
+                }
 
                 _store.commit(transaction);
                 /** Clear not consumed data
@@ -165,6 +360,10 @@ public class WebDavServletBean extends HttpServlet {
 
         } catch (UnauthenticatedException e) {
             resp.sendError(WebdavStatus.SC_FORBIDDEN);
+        } catch (RequestFailedException e) {
+            // rolled back below
+            LOG.debug("request failed: " + e.getMessage());
+            resp.sendError(e.getStatus());
         } catch (WebdavException e) {
             java.io.StringWriter sw = new java.io.StringWriter();
             java.io.PrintWriter pw = new java.io.PrintWriter(sw);
@@ -179,10 +378,25 @@ public class WebDavServletBean extends HttpServlet {
         } finally {
             if (needRollback)
                 _store.rollback(transaction);
+            if (!metrics) {
+                _metrics.getRequestTimes(methodName).recordSince(start);
+            }
+            Metrics.setCurrentMethod(null);
         }
 
     }
 
+    /**
+     * writes the metrics of the servlet as text
+     */
+    protected void sendMetrics(HttpServletResponse resp) throws IOException {
+        resp.setStatus(WebdavStatus.SC_OK);
+        resp.setContentType("text/plain; version=0.0.4; charset=UTF-8");
+        Writer writer = resp.getWriter();
+        _metrics.write(writer);
+        writer.close();
+    }
+
     /**
      * Method that permit to customize the way 
      * user information are extracted from the request, default use JAAS
@@ -18,6 +18,9 @@ package net.sf.webdav;
 
 import java.io.File;
 import java.lang.reflect.Constructor;
+import java.util.Enumeration;
+import java.util.Properties;
+import java.util.StringTokenizer;
 
 import javax.servlet.ServletException;
 
@@ -48,6 +51,8 @@ public class WebdavServlet extends WebDavServletBean {
         File root = getFileRoot();
 
         IWebdavStore webdavStore = constructStore(clazzName, root);
+        webdavStore = decorateStore(webdavStore,
+                getInitParameter("store-decorators"));
 
         boolean lazyFolderCreationOnPut = getInitParameter("lazyFolderCreationOnPut") != null
                 && getInitParameter("lazyFolderCreationOnPut").equals("1");
@@ -57,8 +62,25 @@ public class WebdavServlet extends WebDavServletBean {
 
         int noContentLengthHeader = getIntInitParameter("no-content-length-headers");
 
+        int treeThreads = getIntInitParameter("parallel-tree-threads");
+
+        String maxUploadSize = getInitParameter("maxUploadSize");
+
+        String asyncTimeout = getInitParameter("async-timeout");
+
+        int virtualThreads = getIntInitParameter("virtual-threads");
+
+        String metricsPath = getInitParameter("metrics-path");
+        if (metricsPath != null && metricsPath.trim().length() == 0) {
+            metricsPath = null;
+        }
+
         super.init(webdavStore, dftIndexFile, insteadOf404,
-                noContentLengthHeader, lazyFolderCreationOnPut);
+                noContentLengthHeader, lazyFolderCreationOnPut, Math.max(0,
+                        treeThreads), maxUploadSize == null ? -1 : Long
+                        .parseLong(maxUploadSize.trim()),
+                asyncTimeout == null ? -1 : Long.parseLong(asyncTimeout
+                        .trim()), virtualThreads, metricsPath);
     }
 
     private int getIntInitParameter(String key) {
@@ -72,11 +94,18 @@ public class WebdavServlet extends WebDavServletBean {
             Class<?> clazz = WebdavServlet.class.getClassLoader().loadClass(
                     clazzName);
 
-            Constructor<?> ctor = clazz
-                    .getConstructor(new Class[] { File.class });
-
-            webdavStore = (IWebdavStore) ctor
-                    .newInstance(new Object[] { root });
+            Constructor<?> ctor;
+            try {
+                // stores with settings get all init-parameters
+                ctor = clazz.getConstructor(new Class[] { File.class,
+                        Properties.class });
+                webdavStore = (IWebdavStore) ctor.newInstance(new Object[] {
+                        root, getInitParameters() });
+            } catch (NoSuchMethodException e) {
+                ctor = clazz.getConstructor(new Class[] { File.class });
+                webdavStore = (IWebdavStore) ctor
+                        .newInstance(new Object[] { root });
+            }
         } catch (Exception e) {
             e.printStackTrace();
             throw new RuntimeException("some problem making store component", e);
@@ -84,6 +113,55 @@ public class WebdavServlet extends WebDavServletBean {
         return webdavStore;
     }
 
+    /**
+     * wraps the store into the decorators listed in the init-parameter
+     * "store-decorators", the first one is innermost
+     * 
+     * @param store
+     *      the store
+     * @param decorators
+     *      comma separated class names, may be <code>null</code>
+     * @return the decorated store
+     */
+    protected IWebdavStore decorateStore(IWebdavStore store, String decorators) {
+        if (decorators == null) {
+            return store;
+        }
+        Properties properties = getInitParameters();
+        StringTokenizer tokenizer = new StringTokenizer(decorators, ",");
+        while (tokenizer.hasMoreTokens()) {
+            String clazzName = tokenizer.nextToken().trim();
+            if (clazzName.length() == 0) {
+                continue;
+            }
+            try {
+                Class<?> clazz = WebdavServlet.class.getClassLoader()
+                        .loadClass(clazzName);
+                Constructor<?> ctor = clazz.getConstructor(new Class[] {
+                        IWebdavStore.class, Properties.class });
+                store = (IWebdavStore) ctor.newInstance(new Object[] { store,
+                        properties });
+            } catch (Exception e) {
+                throw new RuntimeException(
+                        "some problem making store decorator " + clazzName, e);
+            }
+        }
+        return store;
+    }
+
+    /**
+     * @return the init-parameters of the servlet
+     */
+    protected Properties getInitParameters() {
+        Properties properties = new Properties();
+        Enumeration<?> names = getInitParameterNames();
+        while (names.hasMoreElements()) {
+            String name = (String) names.nextElement();
+            properties.setProperty(name, getInitParameter(name));
+        }
+        return properties;
+    }
+
     private File getFileRoot() {
         String rootPath = getInitParameter(ROOTPATH_PARAMETER);
         if (rootPath == null) {
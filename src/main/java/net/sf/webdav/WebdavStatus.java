@@ -47,6 +47,12 @@ public class WebdavStatus {
      */
     public static final int SC_NO_CONTENT = HttpServletResponse.SC_NO_CONTENT;
 
+    /**
+     * Status code (206) indicating that the server fulfilled a partial GET
+     * request for the resource.
+     */
+    public static final int SC_PARTIAL_CONTENT = HttpServletResponse.SC_PARTIAL_CONTENT;
+
     /**
      * Status code (301) indicating that the resource has permanently moved to a
      * new location, and that future references should use a new URI with their
@@ -129,6 +135,12 @@ public class WebdavStatus {
      */
     public static final int SC_METHOD_NOT_ALLOWED = 405;
 
+    /**
+     * Status code (408) indicating that the client did not produce a request
+     * within the time that the server was prepared to wait.
+     */
+    public static final int SC_REQUEST_TIMEOUT = 408;
+
     /**
      * Status code (409) indicating that the request could not be completed due
      * to a conflict with the current state of the resource.
@@ -156,6 +168,12 @@ public class WebdavStatus {
      */
     public static final int SC_UNSUPPORTED_MEDIA_TYPE = 415;
 
+    /**
+     * Status code (416) indicating that none of the ranges in the Range header
+     * of the request overlap the current extent of the selected resource.
+     */
+    public static final int SC_REQUESTED_RANGE_NOT_SATISFIABLE = 416;
+
     // -------------------------------------------- Extended WebDav status code
 
     /**
@@ -200,6 +218,13 @@ public class WebdavStatus {
      */
     public static final int SC_LOCKED = 423;
 
+    /**
+     * Status code (507) indicating the method could not be performed on the
+     * resource because the server is unable to store the representation
+     * needed to successfully complete the request (RFC 4918).
+     */
+    public static final int SC_INSUFFICIENT_STORAGE = 507;
+
     // ------------------------------------------------------------ Initializer
 
     static {
@@ -208,6 +233,7 @@ public class WebdavStatus {
         addStatusCodeMap(SC_CREATED, "Created");
         addStatusCodeMap(SC_ACCEPTED, "Accepted");
         addStatusCodeMap(SC_NO_CONTENT, "No Content");
+        addStatusCodeMap(SC_PARTIAL_CONTENT, "Partial Content");
         addStatusCodeMap(SC_MOVED_PERMANENTLY, "Moved Permanently");
         addStatusCodeMap(SC_MOVED_TEMPORARILY, "Moved Temporarily");
         addStatusCodeMap(SC_NOT_MODIFIED, "Not Modified");
@@ -221,10 +247,13 @@ public class WebdavStatus {
         addStatusCodeMap(SC_SERVICE_UNAVAILABLE, "Service Unavailable");
         addStatusCodeMap(SC_CONTINUE, "Continue");
         addStatusCodeMap(SC_METHOD_NOT_ALLOWED, "Method Not Allowed");
+        addStatusCodeMap(SC_REQUEST_TIMEOUT, "Request Timeout");
         addStatusCodeMap(SC_CONFLICT, "Conflict");
         addStatusCodeMap(SC_PRECONDITION_FAILED, "Precondition Failed");
         addStatusCodeMap(SC_REQUEST_TOO_LONG, "Request Too Long");
         addStatusCodeMap(SC_UNSUPPORTED_MEDIA_TYPE, "Unsupported Media Type");
+        addStatusCodeMap(SC_REQUESTED_RANGE_NOT_SATISFIABLE,
+                "Requested Range Not Satisfiable");
         // WebDav Status Codes
         addStatusCodeMap(SC_MULTI_STATUS, "Multi-Status");
         addStatusCodeMap(SC_UNPROCESSABLE_ENTITY, "Unprocessable Entity");
@@ -232,6 +261,7 @@ public class WebdavStatus {
                 "Insufficient Space On Resource");
         addStatusCodeMap(SC_METHOD_FAILURE, "Method Failure");
         addStatusCodeMap(SC_LOCKED, "Locked");
+        addStatusCodeMap(SC_INSUFFICIENT_STORAGE, "Insufficient Storage");
     }
 
     // --------------------------------------------------------- Public Methods
@@ -0,0 +1,36 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package net.sf.webdav.exceptions;
+
+public class QuotaExceededException extends WebdavException {
+
+    private static final long serialVersionUID = 1L;
+
+    public QuotaExceededException() {
+        super();
+    }
+
+    public QuotaExceededException(String message) {
+        super(message);
+    }
+
+    public QuotaExceededException(String message, Throwable cause) {
+        super(message, cause);
+    }
+
+    public QuotaExceededException(Throwable cause) {
+        super(cause);
+    }
+}
@@ -0,0 +1,43 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package net.sf.webdav.exceptions;
+
+/**
+ * Thrown by a method that fails after it changed the store, the servlet
+ * sends the status and rolls the transaction back.
+ */
+public class RequestFailedException extends WebdavException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int _status;
+
+    public RequestFailedException(int status, String message) {
+        super(message);
+        _status = status;
+    }
+
+    public RequestFailedException(int status, String message, Throwable cause) {
+        super(message, cause);
+        _status = status;
+    }
+
+    /**
+     * @return the status the request is answered with
+     */
+    public int getStatus() {
+        return _status;
+    }
+}
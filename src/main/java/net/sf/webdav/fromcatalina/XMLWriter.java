@@ -17,7 +17,10 @@
 package net.sf.webdav.fromcatalina;
 
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.io.Writer;
+import java.nio.charset.Charset;
 import java.util.Iterator;
 import java.util.Map;
 
@@ -45,18 +48,45 @@ public class XMLWriter {
      */
     public static final int NO_CONTENT = 2;
 
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * Number of characters collected before they are handed to the writer.
+     */
+    protected static final int BUFFER_SIZE = 8192;
+
     // ----------------------------------------------------- Instance Variables
 
     /**
-     * Buffer.
+     * Buffer, flushed to the writer whenever it is full.
+     */
+    protected char[] _buffer = new char[BUFFER_SIZE];
+
+    /**
+     * Number of characters in the buffer.
+     */
+    protected int _count = 0;
+
+    /**
+     * Number of characters generated so far.
+     */
+    protected long _length = 0;
+
+    /**
+     * Collects the generated XML if there is no writer.
      */
-    protected StringBuffer _buffer = new StringBuffer();
+    protected StringBuilder _text = null;
 
     /**
      * Writer.
      */
     protected Writer _writer = null;
 
+    /**
+     * First exception thrown by the writer, rethrown by sendData()
+     */
+    protected IOException _writeException = null;
+
     /**
      * Namespaces to be declared in the root element
      */
@@ -70,29 +100,50 @@ public class XMLWriter {
     // ----------------------------------------------------------- Constructors
 
     /**
-     * Constructor.
+     * Constructor. The generated XML is retrieved with toString().
      */
     public XMLWriter(Map<String, String> namespaces) {
+        _text = new StringBuilder();
         _namespaces = namespaces;
     }
 
     /**
-     * Constructor.
+     * Constructor. The generated XML is written to the writer as it is
+     * generated.
      */
     public XMLWriter(Writer writer, Map<String, String> namespaces) {
         _writer = writer;
         _namespaces = namespaces;
     }
 
+    /**
+     * Constructor. The generated XML is written UTF-8 encoded to the stream
+     * as it is generated.
+     */
+    public XMLWriter(OutputStream out, Map<String, String> namespaces) {
+        this(new OutputStreamWriter(out, UTF8), namespaces);
+    }
+
     // --------------------------------------------------------- Public Methods
 
     /**
-     * Retrieve generated XML.
+     * Retrieve generated XML. Only XML that was not yet written to the writer
+     * is returned.
      * 
      * @return String containing the generated XML
      */
     public String toString() {
-        return _buffer.toString();
+        if (_text != null) {
+            return _text.toString();
+        }
+        return new String(_buffer, 0, _count);
+    }
+
+    /**
+     * @return the number of characters generated so far, written or not
+     */
+    public long getLength() {
+        return _length;
     }
 
     /**
@@ -105,7 +156,7 @@ public class XMLWriter {
      */
     public void writeProperty(String name, String value) {
         writeElement(name, OPENING);
-        _buffer.append(value);
+        append(value);
         writeElement(name, CLOSING);
     }
 
@@ -128,48 +179,58 @@ public class XMLWriter {
      *      Element type
      */
     public void writeElement(String name, int type) {
-        StringBuffer nsdecl = new StringBuffer();
+        int pos = name.lastIndexOf(':');
+        if (pos < 0) {
+            throw new IllegalArgumentException(
+                    "All XML elements must have a namespace");
+        }
+
+        if (type == CLOSING) {
+            append('<');
+            append('/');
+        } else {
+            append('<');
+        }
+
+        // lookup prefix for namespace
+        String fullns = name.substring(0, pos);
+        String prefix = (String) _namespaces.get(fullns);
+        if (prefix != null) {
+            append(prefix);
+            append(':');
+        }
+        append(name, pos + 1, name.length());
+
+        if (type == CLOSING) {
+            append('>');
+            append('\n');
+            return;
+        }
 
         if (_isRootElement) {
-            for (Iterator<String> iter = _namespaces.keySet().iterator(); iter
-                    .hasNext();) {
-                String fullName = (String) iter.next();
-                String abbrev = (String) _namespaces.get(fullName);
-                nsdecl.append(" xmlns:").append(abbrev).append("=\"").append(
-                        fullName).append("\"");
+            for (Iterator<Map.Entry<String, String>> iter = _namespaces
+                    .entrySet().iterator(); iter.hasNext();) {
+                Map.Entry<String, String> entry = iter.next();
+                append(" xmlns:");
+                append(entry.getValue());
+                append("=\"");
+                append(entry.getKey());
+                append('"');
             }
             _isRootElement = false;
         }
-
-        int pos = name.lastIndexOf(':');
-        if (pos >= 0) {
-            // lookup prefix for namespace
-            String fullns = name.substring(0, pos);
-            String prefix = (String) _namespaces.get(fullns);
-            if (prefix == null) {
-                // there is no prefix for this namespace
-                name = name.substring(pos + 1);
-                nsdecl.append(" xmlns=\"").append(fullns).append("\"");
-            } else {
-                // there is a prefix
-                name = prefix + ":" + name.substring(pos + 1);
-            }
-        } else {
-            throw new IllegalArgumentException(
-                    "All XML elements must have a namespace");
+        if (prefix == null) {
+            // there is no prefix for this namespace
+            append(" xmlns=\"");
+            append(fullns);
+            append('"');
         }
 
-        switch (type) {
-        case OPENING:
-            _buffer.append("<" + name + nsdecl + ">");
-            break;
-        case CLOSING:
-            _buffer.append("</" + name + ">\n");
-            break;
-        case NO_CONTENT:
-        default:
-            _buffer.append("<" + name + nsdecl + "/>");
-            break;
+        if (type == OPENING) {
+            append('>');
+        } else {
+            append('/');
+            append('>');
         }
     }
 
@@ -180,7 +241,7 @@ public class XMLWriter {
      *      Text to append
      */
     public void writeText(String text) {
-        _buffer.append(text);
+        append(text);
     }
 
     /**
@@ -190,14 +251,16 @@ public class XMLWriter {
      *      Data to append
      */
     public void writeData(String data) {
-        _buffer.append("<![CDATA[" + data + "]]>");
+        append("<![CDATA[");
+        append(data);
+        append("]]>");
     }
 
     /**
      * Write XML Header.
      */
     public void writeXMLHeader() {
-        _buffer.append("<?xml version=\"1.0\" encoding=\"utf-8\" ?>\n");
+        append("<?xml version=\"1.0\" encoding=\"utf-8\" ?>\n");
     }
 
     /**
@@ -205,10 +268,63 @@ public class XMLWriter {
      */
     public void sendData() throws IOException {
         if (_writer != null) {
-            _writer.write(_buffer.toString());
+            flushBuffer();
+            if (_writeException != null) {
+                throw _writeException;
+            }
             _writer.flush();
-            _buffer = new StringBuffer();
         }
     }
 
+    // -------------------------------------------------------- Private Methods
+
+    private void append(String str) {
+        append(str, 0, str.length());
+    }
+
+    private void append(String str, int start, int end) {
+        _length += end - start;
+        if (_text != null) {
+            _text.append(str, start, end);
+            return;
+        }
+        while (start < end) {
+            if (_count == _buffer.length) {
+                flushBuffer();
+            }
+            int len = Math.min(end - start, _buffer.length - _count);
+            str.getChars(start, start + len, _buffer, _count);
+            _count += len;
+            start += len;
+        }
+    }
+
+    private void append(char c) {
+        _length++;
+        if (_text != null) {
+            _text.append(c);
+            return;
+        }
+        if (_count == _buffer.length) {
+            flushBuffer();
+        }
+        _buffer[_count++] = c;
+    }
+
+    /**
+     * Hands the buffered characters to the writer. A failing writer (e.g. the
+     * client went away) is remembered and the rest of the XML is discarded,
+     * the exception is thrown by sendData().
+     */
+    private void flushBuffer() {
+        if (_writeException == null) {
+            try {
+                _writer.write(_buffer, 0, _count);
+            } catch (IOException e) {
+                _writeException = e;
+            }
+        }
+        _count = 0;
+    }
+
 }
@@ -52,6 +52,22 @@ public interface IResourceLocks {
     void unlockTemporaryLockedObjects(ITransaction transaction, String path,
             String owner);
 
+    /**
+     * Checks if the resource at "path" can be read, without locking it.
+     * Reads only conflict with exclusive temporary locks on the resource, on
+     * parents whose lock depth reaches the resource, or on its children up
+     * to "depth". WebDAV write locks don't keep anybody from reading (RFC
+     * 4918, 6.1).
+     * 
+     * @param transaction
+     * @param path
+     *      what resource to read
+     * @param depth
+     *      depth
+     * @return true if no lock forbids reading the resource
+     */
+    boolean checkReadable(ITransaction transaction, String path, int depth);
+
     /**
      * Deletes LockedObjects, where timeout has reached.
      * 
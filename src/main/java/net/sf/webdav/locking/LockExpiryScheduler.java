@@ -0,0 +1,253 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.sf.webdav.locking;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * removes expired LockedObjects of a ResourceLocks in the background, so
+ * request threads don't have to scan the lock tables.
+ *
+ * The LockedObjects are kept in a hashed timing wheel: every slot covers a
+ * tick, the slots whose time has passed are emptied once per tick. Adding a
+ * LockedObject is O(1) and needs no lock. A LockedObject whose timeout was
+ * extended meanwhile is just put back into the slot of its new expiry time.
+ *
+ * The wheels of all ResourceLocks are turned by one daemon thread, which
+ * starts with the first lock. The thread only holds on to a wheel weakly,
+ * a ResourceLocks that was never destroyed doesn't stay in memory.
+ *
+ * @author re
+ */
+class LockExpiryScheduler {
+
+    private static org.slf4j.Logger LOG = org.slf4j.LoggerFactory
+            .getLogger(LockExpiryScheduler.class);
+
+    /**
+     * time covered by one slot of the wheel (ms)
+     */
+    static final long TICK_MILLIS = 500;
+
+    /**
+     * number of slots, must be a power of two. LockedObjects expiring after
+     * one round of the wheel wait in their slot for another round
+     */
+    private static final int WHEEL_SIZE = 512;
+
+    /**
+     * turns the wheels of all ResourceLocks, created with the first lock
+     */
+    private static ScheduledThreadPoolExecutor _timer = null;
+
+    private final ResourceLocks _resourceLocks;
+
+    private final long _tickMillis;
+
+    private final Slot[] _wheel;
+
+    /**
+     * the last tick that was processed
+     */
+    private volatile long _currentTick;
+
+    private volatile ScheduledFuture<?> _future = null;
+
+    private boolean _stopped = false;
+
+    LockExpiryScheduler(ResourceLocks resourceLocks) {
+        this(resourceLocks, TICK_MILLIS);
+    }
+
+    /**
+     * @param tickMillis
+     *      time covered by one slot of the wheel (ms)
+     */
+    LockExpiryScheduler(ResourceLocks resourceLocks, long tickMillis) {
+        _resourceLocks = resourceLocks;
+        _tickMillis = tickMillis;
+        _wheel = new Slot[WHEEL_SIZE];
+        for (int i = 0; i < WHEEL_SIZE; i++) {
+            _wheel[i] = new Slot();
+        }
+        _currentTick = System.currentTimeMillis() / tickMillis;
+    }
+
+    /**
+     * makes sure the LockedObject is looked at once its timeout has passed.
+     * does nothing if the LockedObject is already in the wheel for that time
+     * or an earlier one
+     *
+     * @param lo
+     *      the LockedObject
+     */
+    void schedule(LockedObject lo) {
+        Entry current = lo._expiryEntry;
+        long expiresAt = lo._expiresAt;
+        if (current == null || expiresAt < current._expiresAt) {
+            if (_future == null) {
+                start();
+            }
+            add(lo, expiresAt);
+        }
+    }
+
+    /**
+     * puts a LockedObject that was already looked at back into the wheel
+     *
+     * @param lo
+     *      the LockedObject
+     * @param expiresAt
+     *      when to look at it again
+     */
+    void reschedule(LockedObject lo, long expiresAt) {
+        add(lo, expiresAt);
+    }
+
+    private void add(LockedObject lo, long expiresAt) {
+        Entry entry = new Entry(lo, expiresAt);
+        // an older entry for the LockedObject will be ignored
+        lo._expiryEntry = entry;
+        // never put it into a slot that was already processed in this round
+        long tick = Math.max(expiresAt / _tickMillis, _currentTick + 1);
+        _wheel[(int) (tick & (WHEEL_SIZE - 1))].add(entry);
+    }
+
+    private synchronized void start() {
+        if (_future == null && !_stopped) {
+            Turn turn = new Turn(this);
+            _future = timer().scheduleAtFixedRate(turn, _tickMillis,
+                    _tickMillis, TimeUnit.MILLISECONDS);
+            turn._future = _future;
+        }
+    }
+
+    private static synchronized ScheduledThreadPoolExecutor timer() {
+        if (_timer == null) {
+            _timer = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "webdav-lock-expiry");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            // stopped wheels don't wait in the queue
+            _timer.setRemoveOnCancelPolicy(true);
+        }
+        return _timer;
+    }
+
+    /**
+     * stops turning the wheel
+     */
+    synchronized void stop() {
+        _stopped = true;
+        if (_future != null) {
+            _future.cancel(false);
+        }
+    }
+
+    /**
+     * empties the slots whose expiry times have all passed
+     */
+    void tick() {
+        List<Entry> later = new ArrayList<Entry>();
+        long now = System.currentTimeMillis();
+        long tick;
+        while ((tick = _currentTick + 1) < now / _tickMillis) {
+            Slot slot = _wheel[(int) (tick & (WHEEL_SIZE - 1))];
+            Entry entry;
+            while ((entry = slot.poll()) != null) {
+                if (entry._lockedObject._expiryEntry != entry) {
+                    // the LockedObject was scheduled again meanwhile
+                    continue;
+                }
+                if (entry._expiresAt / _tickMillis > tick) {
+                    // due in a later round of the wheel
+                    later.add(entry);
+                } else {
+                    try {
+                        _resourceLocks.expire(entry._lockedObject);
+                    } catch (RuntimeException e) {
+                        LOG.error("Removing expired locks failed", e);
+                    }
+                }
+            }
+            _currentTick = tick;
+            for (Entry laterEntry : later) {
+                long laterTick = laterEntry._expiresAt / _tickMillis;
+                _wheel[(int) (laterTick & (WHEEL_SIZE - 1))].add(laterEntry);
+            }
+            later.clear();
+        }
+    }
+
+    /**
+     * turns a wheel on the timer thread as long as the wheel is in use
+     */
+    private static class Turn implements Runnable {
+
+        private final WeakReference<LockExpiryScheduler> _scheduler;
+
+        volatile ScheduledFuture<?> _future;
+
+        Turn(LockExpiryScheduler scheduler) {
+            _scheduler = new WeakReference<LockExpiryScheduler>(scheduler);
+        }
+
+        public void run() {
+            LockExpiryScheduler scheduler = _scheduler.get();
+            if (scheduler != null) {
+                scheduler.tick();
+            } else if (_future != null) {
+                // the ResourceLocks is gone
+                _future.cancel(false);
+            }
+        }
+    }
+
+    /**
+     * one slot of the wheel, a named type because there are no arrays of
+     * generic types
+     */
+    private static class Slot extends ConcurrentLinkedQueue<Entry> {
+
+        private static final long serialVersionUID = 1L;
+
+    }
+
+    /**
+     * a LockedObject waiting in the wheel
+     */
+    static class Entry {
+
+        final LockedObject _lockedObject;
+
+        final long _expiresAt;
+
+        Entry(LockedObject lockedObject, long expiresAt) {
+            _lockedObject = lockedObject;
+            _expiresAt = expiresAt;
+        }
+    }
+
+}
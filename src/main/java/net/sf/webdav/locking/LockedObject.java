@@ -25,19 +25,20 @@ public class LockedObject {
     /**
      * Describing the timeout of a locked object (ms)
      */
-    protected long _expiresAt;
+    protected volatile long _expiresAt;
 
     /**
      * owner of the lock. shared locks can have multiple owners. is null if no
      * owner is present
      */
     // protected String[] _owner = null;
-    protected String[] _owner = null;
+    protected volatile String[] _owner = null;
 
     /**
-     * children of that lock
+     * children of that lock. the array is replaced, never changed, when a
+     * child is added or removed
      */
-    protected LockedObject[] _children = null;
+    protected volatile LockedObject[] _children = null;
 
     protected LockedObject _parent = null;
 
@@ -52,6 +53,17 @@ public class LockedObject {
      */
     protected String _type = null;
 
+    /**
+     * weather the LockedObject is stored with the temporary locks
+     */
+    protected final boolean _temporary;
+
+    /**
+     * the entry of the LockedObject in the LockExpiryScheduler, null if it
+     * isn't waiting for its expiry
+     */
+    protected volatile LockExpiryScheduler.Entry _expiryEntry = null;
+
     /**
      * @param _resourceLocks
      *      the resourceLocks where locks are stored
@@ -64,6 +76,7 @@ public class LockedObject {
         _path = path;
         _id = UUID.randomUUID().toString();
         _resourceLocks = resLocks;
+        _temporary = temporary;
 
         if (!temporary) {
             _resourceLocks._locks.put(path, this);
@@ -72,7 +85,7 @@ public class LockedObject {
             _resourceLocks._tempLocks.put(path, this);
             _resourceLocks._tempLocksByID.put(_id, this);
         }
-        _resourceLocks._cleanupCounter++;
+        _resourceLocks._cleanupCounter.incrementAndGet();
     }
 
     /**
@@ -151,17 +164,49 @@ public class LockedObject {
      * @param newChild
      *      new child
      */
-    public void addChild(LockedObject newChild) {
-        if (_children == null) {
-            _children = new LockedObject[0];
+    public synchronized void addChild(LockedObject newChild) {
+        LockedObject[] children = _children;
+        if (children == null) {
+            children = new LockedObject[0];
         }
-        int size = _children.length;
+        int size = children.length;
         LockedObject[] newChildren = new LockedObject[size + 1];
-        System.arraycopy(_children, 0, newChildren, 0, size);
+        System.arraycopy(children, 0, newChildren, 0, size);
         newChildren[size] = newChild;
         _children = newChildren;
     }
 
+    /**
+     * removes a child lock from this lock
+     * 
+     * @param child
+     *      the child to remove
+     */
+    private synchronized void removeChild(LockedObject child) {
+        if (_children == null) {
+            return;
+        }
+        int size = _children.length;
+        for (int i = 0; i < size; i++) {
+            if (_children[i].equals(child)) {
+                LockedObject[] newChildren = new LockedObject[size - 1];
+                for (int i2 = 0; i2 < (size - 1); i2++) {
+                    if (i2 < i) {
+                        newChildren[i2] = _children[i2];
+                    } else {
+                        newChildren[i2] = _children[i2 + 1];
+                    }
+                }
+                if (newChildren.length != 0) {
+                    _children = newChildren;
+                } else {
+                    _children = null;
+                }
+                break;
+            }
+        }
+    }
+
     /**
      * deletes this Lock object. assumes that it has no children and no owners
      * (does not check this itself)
@@ -170,25 +215,7 @@ public class LockedObject {
     public void removeLockedObject() {
         if (this != _resourceLocks._root && !this.getPath().equals("/")) {
 
-            int size = _parent._children.length;
-            for (int i = 0; i < size; i++) {
-                if (_parent._children[i].equals(this)) {
-                    LockedObject[] newChildren = new LockedObject[size - 1];
-                    for (int i2 = 0; i2 < (size - 1); i2++) {
-                        if (i2 < i) {
-                            newChildren[i2] = _parent._children[i2];
-                        } else {
-                            newChildren[i2] = _parent._children[i2 + 1];
-                        }
-                    }
-                    if (newChildren.length != 0) {
-                        _parent._children = newChildren;
-                    } else {
-                        _parent._children = null;
-                    }
-                    break;
-                }
-            }
+            _parent.removeChild(this);
 
             // removing from hashtable
             _resourceLocks._locksByID.remove(getID());
@@ -207,25 +234,7 @@ public class LockedObject {
         if (this != _resourceLocks._tempRoot) {
             // removing from tree
             if (_parent != null && _parent._children != null) {
-                int size = _parent._children.length;
-                for (int i = 0; i < size; i++) {
-                    if (_parent._children[i].equals(this)) {
-                        LockedObject[] newChildren = new LockedObject[size - 1];
-                        for (int i2 = 0; i2 < (size - 1); i2++) {
-                            if (i2 < i) {
-                                newChildren[i2] = _parent._children[i2];
-                            } else {
-                                newChildren[i2] = _parent._children[i2 + 1];
-                            }
-                        }
-                        if (newChildren.length != 0) {
-                            _parent._children = newChildren;
-                        } else {
-                            _parent._children = null;
-                        }
-                        break;
-                    }
-                }
+                _parent.removeChild(this);
 
                 // removing from hashtable
                 _resourceLocks._tempLocksByID.remove(getID());
@@ -262,7 +271,8 @@ public class LockedObject {
      */
     private boolean checkParents(boolean exclusive) {
         if (_path.equals("/")) {
-            return true;
+            // a lock on the root covers everything below it
+            return _owner == null || !(_exclusive || exclusive);
         } else {
             if (_owner == null) {
                 // no owner, checking parents
@@ -323,6 +333,7 @@ public class LockedObject {
      */
     public void refreshTimeout(int timeout) {
         _expiresAt = System.currentTimeMillis() + (timeout * 1000);
+        _resourceLocks.scheduleExpiry(this);
     }
 
     /**
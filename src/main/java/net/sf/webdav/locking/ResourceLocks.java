@@ -16,11 +16,15 @@
 
 package net.sf.webdav.locking;
 
-import java.util.Enumeration;
-import java.util.Hashtable;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
 
 import net.sf.webdav.ITransaction;
 import net.sf.webdav.exceptions.LockFailedException;
+import net.sf.webdav.metrics.Metrics;
 
 /**
  * simple locking management for concurrent data access, NOT the webdav locking.
@@ -28,6 +32,10 @@ import net.sf.webdav.exceptions.LockFailedException;
  * 
  * IT IS ACTUALLY USED FOR DOLOCK
  * 
+ * Requests on different top level folders don't block each other: the lock
+ * trees are guarded by striped locks, the stripe is chosen by the first
+ * segment of the path. Locking the root takes all stripes of the tree.
+ * 
  * @author re
  */
 public class ResourceLocks implements IResourceLocks {
@@ -41,27 +49,47 @@ public class ResourceLocks implements IResourceLocks {
      */
     private final int _cleanupLimit = 100000;
 
-    protected int _cleanupCounter = 0;
+    protected AtomicInteger _cleanupCounter = new AtomicInteger();
+
+    /**
+     * number of stripes guarding each lock tree, must be a power of two
+     */
+    private static final int STRIPES = 64;
+
+    /**
+     * lock depth covering all descendants, the INFINITY of the methods
+     */
+    private static final int INFINITY = 3;
 
     /**
      * keys: path value: LockedObject from that path
      */
-    protected Hashtable<String, LockedObject> _locks = new Hashtable<String, LockedObject>();
+    protected Map<String, LockedObject> _locks = new ConcurrentHashMap<String, LockedObject>();
 
     /**
      * keys: id value: LockedObject from that id
      */
-    protected Hashtable<String, LockedObject> _locksByID = new Hashtable<String, LockedObject>();
+    protected Map<String, LockedObject> _locksByID = new ConcurrentHashMap<String, LockedObject>();
 
     /**
      * keys: path value: Temporary LockedObject from that path
      */
-    protected Hashtable<String, LockedObject> _tempLocks = new Hashtable<String, LockedObject>();
+    protected Map<String, LockedObject> _tempLocks = new ConcurrentHashMap<String, LockedObject>();
 
     /**
      * keys: id value: Temporary LockedObject from that id
      */
-    protected Hashtable<String, LockedObject> _tempLocksByID = new Hashtable<String, LockedObject>();
+    protected Map<String, LockedObject> _tempLocksByID = new ConcurrentHashMap<String, LockedObject>();
+
+    /**
+     * stripes guarding the tree of real locks
+     */
+    private final ReentrantLock[] _stripes = newStripes();
+
+    /**
+     * stripes guarding the tree of temporary locks
+     */
+    private final ReentrantLock[] _tempStripes = newStripes();
 
     // REMEMBER TO REMOVE UNUSED LOCKS FROM THE HASHTABLE AS WELL
 
@@ -71,14 +99,52 @@ public class ResourceLocks implements IResourceLocks {
 
     private boolean _temporary = true;
 
+    /**
+     * removes expired LockedObjects in the background
+     */
+    private final LockExpiryScheduler _expiryScheduler = new LockExpiryScheduler(
+            this);
+
+    /**
+     * records the time spent waiting for a stripe
+     */
+    private final Metrics _metrics;
+
     public ResourceLocks() {
+        this(Metrics.NONE);
+    }
+
+    public ResourceLocks(Metrics metrics) {
+        _metrics = metrics;
         _root = new LockedObject(this, "/", true);
         _tempRoot = new LockedObject(this, "/", false);
     }
 
-    public synchronized boolean lock(ITransaction transaction, String path,
+    /**
+     * stops removing expired locks in the background. Should be called when
+     * the ResourceLocks are no longer used
+     */
+    public void destroy() {
+        _expiryScheduler.stop();
+    }
+
+    public boolean lock(ITransaction transaction, String path, String owner,
+            boolean exclusive, int depth, int timeout, boolean temporary)
+            throws LockFailedException {
+
+        ReentrantLock[] stripes = temporary ? _tempStripes : _stripes;
+        acquire(stripes, path);
+        try {
+            return lockInStripe(transaction, path, owner, exclusive, depth,
+                    timeout, temporary);
+        } finally {
+            release(stripes, path);
+        }
+    }
+
+    private boolean lockInStripe(ITransaction transaction, String path,
             String owner, boolean exclusive, int depth, int timeout,
-            boolean temporary) throws LockFailedException {
+            boolean temporary) {
 
         LockedObject lo = null;
 
@@ -90,6 +156,10 @@ public class ResourceLocks implements IResourceLocks {
             lo._type = "write";
         }
 
+        // the LockedObject is looked at once it expired, if it couldn't be
+        // locked that removes it right away
+        scheduleExpiry(lo);
+
         if (lo.checkLocks(exclusive, depth)) {
 
             lo._exclusive = exclusive;
@@ -122,17 +192,46 @@ public class ResourceLocks implements IResourceLocks {
         }
     }
 
-    public synchronized boolean unlock(ITransaction transaction, String id,
-            String owner) {
+    public boolean unlock(ITransaction transaction, String id, String owner) {
 
-        if (_locksByID.containsKey(id)) {
-            String path = _locksByID.get(id).getPath();
-            if (_locks.containsKey(path)) {
+        LockedObject loByID = _locksByID.get(id);
+        if (loByID != null) {
+            String path = loByID.getPath();
+            acquire(_stripes, path);
+            try {
                 LockedObject lo = _locks.get(path);
-                lo.removeLockedObjectOwner(owner);
+                if (lo != null) {
+                    lo.removeLockedObjectOwner(owner);
 
-                if (lo._children == null && lo._owner == null)
-                    lo.removeLockedObject();
+                    if (lo._children == null && lo._owner == null)
+                        lo.removeLockedObject();
+
+                } else {
+                    // there is no lock at that path. someone tried to unlock
+                    // it anyway. could point to a problem
+                    LOG
+                            .trace("net.sf.webdav.locking.ResourceLocks.unlock(): no lock for path "
+                                    + path);
+                    return false;
+                }
+            } finally {
+                release(_stripes, path);
+            }
+
+            cleanupIfNeeded(transaction, !_temporary);
+        }
+
+        return true;
+
+    }
+
+    public void unlockTemporaryLockedObjects(ITransaction transaction,
+            String path, String owner) {
+        acquire(_tempStripes, path);
+        try {
+            LockedObject lo = _tempLocks.get(path);
+            if (lo != null) {
+                lo.removeLockedObjectOwner(owner);
 
             } else {
                 // there is no lock at that path. someone tried to unlock it
@@ -140,60 +239,180 @@ public class ResourceLocks implements IResourceLocks {
                 LOG
                         .trace("net.sf.webdav.locking.ResourceLocks.unlock(): no lock for path "
                                 + path);
-                return false;
-            }
-
-            if (_cleanupCounter > _cleanupLimit) {
-                _cleanupCounter = 0;
-                cleanLockedObjects(transaction, _root, !_temporary);
             }
+        } finally {
+            release(_tempStripes, path);
         }
-        checkTimeouts(transaction, !_temporary);
 
-        return true;
+        cleanupIfNeeded(transaction, _temporary);
 
     }
 
-    public synchronized void unlockTemporaryLockedObjects(
-            ITransaction transaction, String path, String owner) {
-        if (_tempLocks.containsKey(path)) {
-            LockedObject lo = _tempLocks.get(path);
-            lo.removeLockedObjectOwner(owner);
-
+    public boolean checkReadable(ITransaction transaction, String path,
+            int depth) {
+        // walk the existing temporary LockedObjects without creating any.
+        // readers don't register themselves, so this never blocks and never
+        // allocates a LockedObject or a lock id
+        LockedObject lo = _tempLocks.get(path);
+        // how many levels lo lies above path
+        int distance = 0;
+        if (lo != null) {
+            if (!checkReadableChildren(lo, depth)) {
+                return false;
+            }
         } else {
-            // there is no lock at that path. someone tried to unlock it
-            // anyway. could point to a problem
-            LOG
-                    .trace("net.sf.webdav.locking.ResourceLocks.unlock(): no lock for path "
-                            + path);
+            // find the nearest parent that has a LockedObject
+            String parentPath = getParentPath(path);
+            distance++;
+            while (parentPath != null
+                    && (lo = _tempLocks.get(parentPath)) == null) {
+                parentPath = getParentPath(parentPath);
+                distance++;
+            }
         }
-
-        if (_cleanupCounter > _cleanupLimit) {
-            _cleanupCounter = 0;
-            cleanLockedObjects(transaction, _tempRoot, _temporary);
+        while (lo != null) {
+            // the lock of a parent only covers path if it is deep enough
+            if (lo._owner != null && lo._exclusive
+                    && (distance <= lo._lockDepth
+                            || lo._lockDepth >= INFINITY)) {
+                return false;
+            }
+            lo = lo._parent;
+            distance++;
         }
+        return true;
+    }
 
-        checkTimeouts(transaction, _temporary);
+    /**
+     * helper of checkReadable(). looks for exclusive locks on the children
+     * 
+     * @param lo
+     *      LockedObject whose children are checked
+     * @param depth
+     *      depth to which should be checked
+     * @return true if no child is locked exclusively
+     */
+    private boolean checkReadableChildren(LockedObject lo, int depth) {
+        if (depth == 0) {
+            return true;
+        }
+        LockedObject[] children = lo._children;
+        if (children != null) {
+            for (int i = 0; i < children.length; i++) {
+                LockedObject child = children[i];
+                if ((child._owner != null && child._exclusive)
+                        || !checkReadableChildren(child, depth - 1)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
 
+    /**
+     * deletes unused LockedObjects of one tree once the cleanup limit is
+     * reached. must not be called while holding a stripe of that tree
+     */
+    private void cleanupIfNeeded(ITransaction transaction, boolean temporary) {
+        int counter = _cleanupCounter.get();
+        if (counter > _cleanupLimit
+                && _cleanupCounter.compareAndSet(counter, 0)) {
+            ReentrantLock[] stripes = temporary ? _tempStripes : _stripes;
+            acquireAll(stripes);
+            try {
+                cleanLockedObjects(transaction, temporary ? _tempRoot : _root,
+                        temporary);
+            } finally {
+                releaseAll(stripes);
+            }
+        }
     }
 
-    public void checkTimeouts(ITransaction transaction, boolean temporary) {
-        if (!temporary) {
-            Enumeration<LockedObject> lockedObjects = _locks.elements();
-            while (lockedObjects.hasMoreElements()) {
-                LockedObject currentLockedObject = lockedObjects.nextElement();
+    /**
+     * makes sure the LockedObject is removed once its timeout has passed
+     * 
+     * @param lo
+     *      the LockedObject
+     */
+    void scheduleExpiry(LockedObject lo) {
+        _expiryScheduler.schedule(lo);
+    }
 
-                if (currentLockedObject._expiresAt < System.currentTimeMillis()) {
-                    currentLockedObject.removeLockedObject();
+    /**
+     * called by the LockExpiryScheduler when the timeout of a LockedObject
+     * has passed. Removes the owners of the LockedObject and deletes it and
+     * its parents as long as they have no children and no owners left
+     * 
+     * @param lo
+     *      the LockedObject
+     */
+    void expire(LockedObject lo) {
+        Map<String, LockedObject> locks = lo._temporary ? _tempLocks : _locks;
+        ReentrantLock[] stripes = lo._temporary ? _tempStripes : _stripes;
+        String path = lo.getPath();
+
+        acquire(stripes, path);
+        try {
+            if (locks.get(path) != lo) {
+                // already removed
+                lo._expiryEntry = null;
+                return;
+            }
+            long expiresAt = lo._expiresAt;
+            if (expiresAt >= System.currentTimeMillis()) {
+                // the timeout was refreshed
+                _expiryScheduler.reschedule(lo, expiresAt);
+                return;
+            }
+            lo._expiryEntry = null;
+            lo._owner = null;
+
+            LockedObject current = lo;
+            while (current._parent != null && !current.getPath().equals("/")
+                    && current._children == null && current._owner == null) {
+                LockedObject parent = current._parent;
+                if (current._temporary) {
+                    current.removeTempLockedObject();
+                } else {
+                    current.removeLockedObject();
                 }
+                current = parent;
             }
-        } else {
-            Enumeration<LockedObject> lockedObjects = _tempLocks.elements();
-            while (lockedObjects.hasMoreElements()) {
-                LockedObject currentLockedObject = lockedObjects.nextElement();
+        } finally {
+            release(stripes, path);
+        }
+    }
 
-                if (currentLockedObject._expiresAt < System.currentTimeMillis()) {
-                    currentLockedObject.removeTempLockedObject();
+    public void checkTimeouts(ITransaction transaction, boolean temporary) {
+        Map<String, LockedObject> locks = temporary ? _tempLocks : _locks;
+        ReentrantLock[] stripes = temporary ? _tempStripes : _stripes;
+
+        Iterator<LockedObject> lockedObjects = locks.values().iterator();
+        while (lockedObjects.hasNext()) {
+            LockedObject currentLockedObject = lockedObjects.next();
+
+            if (currentLockedObject._expiresAt < System.currentTimeMillis()) {
+                String path = currentLockedObject.getPath();
+                if (stripeFor(path) == -1) {
+                    // the root is never removed, don't block every stripe
+                    // for nothing
+                    continue;
+                }
+                acquire(stripes, path);
+                try {
+                    // check again, the lock could have been refreshed or
+                    // removed while we were waiting for the stripe
+                    if (locks.get(path) == currentLockedObject
+                            && currentLockedObject._expiresAt < System
+                                    .currentTimeMillis()) {
+                        if (temporary) {
+                            currentLockedObject.removeTempLockedObject();
+                        } else {
+                            currentLockedObject.removeLockedObject();
+                        }
+                    }
+                } finally {
+                    release(stripes, path);
                 }
             }
         }
@@ -211,38 +430,22 @@ public class ResourceLocks implements IResourceLocks {
     }
 
     public LockedObject getLockedObjectByID(ITransaction transaction, String id) {
-        if (_locksByID.containsKey(id)) {
-            return _locksByID.get(id);
-        } else {
-            return null;
-        }
+        return _locksByID.get(id);
     }
 
     public LockedObject getLockedObjectByPath(ITransaction transaction,
             String path) {
-        if (_locks.containsKey(path)) {
-            return (LockedObject) this._locks.get(path);
-        } else {
-            return null;
-        }
+        return _locks.get(path);
     }
 
     public LockedObject getTempLockedObjectByID(ITransaction transaction,
             String id) {
-        if (_tempLocksByID.containsKey(id)) {
-            return _tempLocksByID.get(id);
-        } else {
-            return null;
-        }
+        return _tempLocksByID.get(id);
     }
 
     public LockedObject getTempLockedObjectByPath(ITransaction transaction,
             String path) {
-        if (_tempLocks.containsKey(path)) {
-            return (LockedObject) this._tempLocks.get(path);
-        } else {
-            return null;
-        }
+        return _tempLocks.get(path);
     }
 
     /**
@@ -359,6 +562,85 @@ public class ResourceLocks implements IResourceLocks {
         }
     }
 
+    private static ReentrantLock[] newStripes() {
+        ReentrantLock[] stripes = new ReentrantLock[STRIPES];
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new ReentrantLock();
+        }
+        return stripes;
+    }
+
+    /**
+     * gets the stripe for the given path, -1 for the root which needs all
+     * stripes. paths below the same top level folder share a stripe, so
+     * everything a lock has to check (its subtree and its parents below the
+     * root) is guarded by it
+     * 
+     * @param path
+     *      the path
+     * @return index of the stripe or -1
+     */
+    private int stripeFor(String path) {
+        int start = path.startsWith("/") ? 1 : 0;
+        if (start == path.length()) {
+            return -1;
+        }
+        int end = path.indexOf('/', start);
+        if (end == -1) {
+            end = path.length();
+        }
+        int hash = 0;
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + path.charAt(i);
+        }
+        hash ^= (hash >>> 16);
+        return hash & (STRIPES - 1);
+    }
+
+    private void acquire(ReentrantLock[] stripes, String path) {
+        int stripe = stripeFor(path);
+        if (stripe == -1) {
+            acquireAll(stripes);
+        } else {
+            acquire(stripes[stripe]);
+        }
+    }
+
+    /**
+     * takes a stripe, the time is only measured if another request holds it
+     */
+    private void acquire(ReentrantLock stripe) {
+        if (!stripe.tryLock()) {
+            long start = System.nanoTime();
+            stripe.lock();
+            _metrics.getLockWaits().recordSince(start);
+        }
+    }
+
+    private void release(ReentrantLock[] stripes, String path) {
+        int stripe = stripeFor(path);
+        if (stripe == -1) {
+            releaseAll(stripes);
+        } else {
+            stripes[stripe].unlock();
+        }
+    }
+
+    /**
+     * takes all stripes, always in the same order to avoid deadlocks
+     */
+    private void acquireAll(ReentrantLock[] stripes) {
+        for (int i = 0; i < stripes.length; i++) {
+            acquire(stripes[i]);
+        }
+    }
+
+    private void releaseAll(ReentrantLock[] stripes) {
+        for (int i = stripes.length - 1; i >= 0; i--) {
+            stripes[i].unlock();
+        }
+    }
+
     /**
      * creates the parent path from the given path by removing the last '/' and
      * everything after that
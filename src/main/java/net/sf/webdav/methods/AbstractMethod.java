@@ -24,7 +24,9 @@ import java.util.Date;
 import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.Hashtable;
+import java.util.LinkedHashMap;
 import java.util.Locale;
+import java.util.Map;
 import java.util.TimeZone;
 
 import javax.servlet.ServletException;
@@ -34,8 +36,10 @@ import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
 
+import net.sf.webdav.IChildrenStore;
 import net.sf.webdav.IMethodExecutor;
 import net.sf.webdav.ITransaction;
+import net.sf.webdav.IWebdavStore;
 import net.sf.webdav.StoredObject;
 import net.sf.webdav.WebdavStatus;
 import net.sf.webdav.exceptions.LockFailedException;
@@ -43,6 +47,7 @@ import net.sf.webdav.fromcatalina.URLEncoder;
 import net.sf.webdav.fromcatalina.XMLWriter;
 import net.sf.webdav.locking.IResourceLocks;
 import net.sf.webdav.locking.LockedObject;
+import net.sf.webdav.metrics.Metrics;
 
 public abstract class AbstractMethod implements IMethodExecutor {
 
@@ -111,6 +116,20 @@ public abstract class AbstractMethod implements IMethodExecutor {
      */
     protected static final int TEMP_TIMEOUT = 10;
 
+    /**
+     * metrics of the servlet, replaced by {@link #setMetrics(Metrics)}
+     */
+    protected Metrics _metrics = Metrics.NONE;
+
+    /**
+     * @param metrics
+     *      where the method records the bytes it moves and the size of the
+     *      multistatus responses it sends
+     */
+    public void setMetrics(Metrics metrics) {
+        _metrics = metrics;
+    }
+
     
     public static String lastModifiedDateFormat(final Date date) {
         DateFormat df = thLastmodifiedDateFormat.get();
@@ -249,6 +268,43 @@ public abstract class AbstractMethod implements IMethodExecutor {
         return URL_ENCODER.encode(path);
     }
 
+    /**
+     * Lists the children of a folder. If the store implements
+     * {@link IChildrenStore} the StoredObjects of the children are read in the
+     * same pass, else the map only holds the names and <code>null</code>
+     * values, the caller has to get the StoredObjects itself.
+     * 
+     * @param store
+     *      the store to list the folder from
+     * @param transaction
+     *      indicates that the method is within the scope of a WebDAV
+     *      transaction
+     * @param folderPath
+     *      path of the folder
+     * @return the child names mapped to their StoredObjects (or
+     *  <code>null</code>), never <code>null</code> itself
+     */
+    protected Map<String, StoredObject> getChildren(IWebdavStore store,
+            ITransaction transaction, String folderPath) {
+        Map<String, StoredObject> children = null;
+        if (store instanceof IChildrenStore) {
+            children = ((IChildrenStore) store).getChildren(transaction,
+                    folderPath);
+        } else {
+            String[] names = store.getChildrenNames(transaction, folderPath);
+            if (names != null) {
+                children = new LinkedHashMap<String, StoredObject>();
+                for (String name : names) {
+                    children.put(name, null);
+                }
+            }
+        }
+        if (children == null) {
+            children = new LinkedHashMap<String, StoredObject>();
+        }
+        return children;
+    }
+
     /**
      * Get the ETag associated with a file.
      * 
@@ -262,6 +318,11 @@ public abstract class AbstractMethod implements IMethodExecutor {
         String resourceLength = "";
         String lastModified = "";
 
+        if (so != null && so.isResource() && so.getETag() != null) {
+            // the store knows a strong one
+            return "\"" + so.getETag() + "\"";
+        }
+
         if (so != null && so.isResource()) {
             resourceLength = new Long(so.getResourceLength()).toString();
             lastModified = new Long(so.getLastModified().getTime()).toString();
@@ -450,6 +511,7 @@ public abstract class AbstractMethod implements IMethodExecutor {
             Writer writer = resp.getWriter();
             writer.write(generatedXML.toString());
             writer.close();
+            _metrics.getMultistatusSizes().record(generatedXML.getLength());
         }
     }
 
@@ -16,11 +16,16 @@
 package net.sf.webdav.methods;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Hashtable;
+import java.util.List;
+import java.util.Map;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
+import net.sf.webdav.ICopyStore;
+import net.sf.webdav.IMoveStore;
 import net.sf.webdav.ITransaction;
 import net.sf.webdav.IWebdavStore;
 import net.sf.webdav.StoredObject;
@@ -29,9 +34,10 @@ import net.sf.webdav.exceptions.AccessDeniedException;
 import net.sf.webdav.exceptions.LockFailedException;
 import net.sf.webdav.exceptions.ObjectAlreadyExistsException;
 import net.sf.webdav.exceptions.ObjectNotFoundException;
+import net.sf.webdav.exceptions.QuotaExceededException;
 import net.sf.webdav.exceptions.WebdavException;
 import net.sf.webdav.fromcatalina.RequestUtil;
-import net.sf.webdav.locking.ResourceLocks;
+import net.sf.webdav.locking.IResourceLocks;
 
 public class DoCopy extends AbstractMethod {
 
@@ -39,16 +45,28 @@ public class DoCopy extends AbstractMethod {
             .getLogger(DoCopy.class);
 
     private IWebdavStore _store;
-    private ResourceLocks _resourceLocks;
+    private IResourceLocks _resourceLocks;
     private DoDelete _doDelete;
     private boolean _readOnly;
+    private TreeTaskExecutor _treeExecutor;
 
-    public DoCopy(IWebdavStore store, ResourceLocks resourceLocks,
+    public DoCopy(IWebdavStore store, IResourceLocks resourceLocks,
             DoDelete doDelete, boolean readOnly) {
+        this(store, resourceLocks, doDelete, readOnly, null);
+    }
+
+    /**
+     * @param treeExecutor
+     *      copies the children of folders in parallel, <code>null</code> to
+     *      copy them one after the other on the request thread
+     */
+    public DoCopy(IWebdavStore store, IResourceLocks resourceLocks,
+            DoDelete doDelete, boolean readOnly, TreeTaskExecutor treeExecutor) {
         _store = store;
         _resourceLocks = resourceLocks;
         _doDelete = doDelete;
         _readOnly = readOnly;
+        _treeExecutor = treeExecutor;
     }
 
     public void execute(ITransaction transaction, HttpServletRequest req,
@@ -73,6 +91,8 @@ public class DoCopy extends AbstractMethod {
                 } catch (ObjectNotFoundException e) {
                     resp.sendError(WebdavStatus.SC_NOT_FOUND, req
                             .getRequestURI());
+                } catch (QuotaExceededException e) {
+                    resp.sendError(WebdavStatus.SC_INSUFFICIENT_STORAGE);
                 } catch (WebdavException e) {
                     resp.sendError(WebdavStatus.SC_INTERNAL_SERVER_ERROR);
                 } finally {
@@ -109,6 +129,37 @@ public class DoCopy extends AbstractMethod {
     public boolean copyResource(ITransaction transaction,
             HttpServletRequest req, HttpServletResponse resp)
             throws WebdavException, IOException, LockFailedException {
+        return copyResource(transaction, req, resp, false);
+    }
+
+    /**
+     * Move a resource. The store moves it if it implements
+     * {@link IMoveStore}, else (or if the store can't move it) the resource
+     * is copied and the source is deleted.
+     * 
+     * @param transaction
+     *      indicates that the method is within the scope of a WebDAV
+     *      transaction
+     * @param req
+     *      Servlet request
+     * @param resp
+     *      Servlet response
+     * @return true if the move is successful
+     * @throws WebdavException
+     *      if an error in the underlying store occurs
+     * @throws IOException
+     *      when an error occurs while sending the response
+     * @throws LockFailedException
+     */
+    public boolean moveResource(ITransaction transaction,
+            HttpServletRequest req, HttpServletResponse resp)
+            throws WebdavException, IOException, LockFailedException {
+        return copyResource(transaction, req, resp, true);
+    }
+
+    private boolean copyResource(ITransaction transaction,
+            HttpServletRequest req, HttpServletResponse resp, boolean move)
+            throws WebdavException, IOException, LockFailedException {
 
         // Parsing destination header
         String destinationPath = parseDestinationHeader(req, resp);
@@ -195,6 +246,13 @@ public class DoCopy extends AbstractMethod {
                     }
 
                 }
+                if (move && _store instanceof IMoveStore
+                        && ((IMoveStore) _store).moveObject(transaction, path,
+                                destinationPath)) {
+                    // moved without copying anything
+                    return true;
+                }
+
                 copy(transaction, path, destinationPath, errorList, req, resp);
 
                 if (!errorList.isEmpty()) {
@@ -209,6 +267,14 @@ public class DoCopy extends AbstractMethod {
             resp.sendError(WebdavStatus.SC_INTERNAL_SERVER_ERROR);
             return false;
         }
+
+        if (move) {
+            errorList = new Hashtable<String, Integer>();
+            _doDelete.deleteResource(transaction, path, errorList, req, resp);
+            if (!errorList.isEmpty()) {
+                sendReport(req, resp, errorList);
+            }
+        }
         return true;
 
     }
@@ -241,16 +307,7 @@ public class DoCopy extends AbstractMethod {
 
         StoredObject sourceSo = _store.getStoredObject(transaction, sourcePath);
         if (sourceSo.isResource()) {
-            _store.createResource(transaction, destinationPath);
-            long resourceLength = _store.setResourceContent(transaction,
-                    destinationPath, _store.getResourceContent(transaction,
-                            sourcePath), null, null);
-
-            if (resourceLength != -1) {
-                StoredObject destinationSo = _store.getStoredObject(
-                        transaction, destinationPath);
-                destinationSo.setResourceLength(resourceLength);
-            }
+            copyContent(transaction, sourcePath, destinationPath);
 
         } else {
 
@@ -263,6 +320,42 @@ public class DoCopy extends AbstractMethod {
         }
     }
 
+    /**
+     * creates the resource at destination path with the content of the
+     * resource at source path. lets the store copy the content if it
+     * implements {@link ICopyStore}
+     * 
+     * @param transaction
+     *      indicates that the method is within the scope of a WebDAV
+     *      transaction
+     * @param sourcePath
+     *      where to read
+     * @param destinationPath
+     *      where to write
+     * @throws WebdavException
+     *      if an error in the underlying store occurs
+     */
+    private void copyContent(ITransaction transaction, String sourcePath,
+            String destinationPath) throws WebdavException {
+
+        if (_store instanceof ICopyStore
+                && ((ICopyStore) _store).copyResource(transaction,
+                        sourcePath, destinationPath)) {
+            return;
+        }
+
+        _store.createResource(transaction, destinationPath);
+        long resourceLength = _store.setResourceContent(transaction,
+                destinationPath, _store.getResourceContent(transaction,
+                        sourcePath), null, null);
+
+        if (resourceLength != -1) {
+            StoredObject destinationSo = _store.getStoredObject(transaction,
+                    destinationPath);
+            destinationSo.setResourceLength(resourceLength);
+        }
+    }
+
     /**
      * helper method of copy() recursively copies the FOLDER at source path to
      * destination path
@@ -297,50 +390,107 @@ public class DoCopy extends AbstractMethod {
             }
         }
         if (infiniteDepth) {
-            String[] children = _store
-                    .getChildrenNames(transaction, sourcePath);
-            children = children == null ? new String[] {} : children;
+            copyChildren(transaction, sourcePath, destinationPath, errorList);
+        }
+    }
 
-            StoredObject childSo;
-            for (int i = children.length - 1; i >= 0; i--) {
-                children[i] = "/" + children[i];
-                try {
-                    childSo = _store.getStoredObject(transaction,
-                            (sourcePath + children[i]));
-                    if (childSo.isResource()) {
-                        _store.createResource(transaction, destinationPath
-                                + children[i]);
-                        long resourceLength = _store.setResourceContent(
-                                transaction, destinationPath + children[i],
-                                _store.getResourceContent(transaction,
-                                        sourcePath + children[i]), null, null);
-
-                        if (resourceLength != -1) {
-                            StoredObject destinationSo = _store
-                                    .getStoredObject(transaction,
-                                            destinationPath + children[i]);
-                            destinationSo.setResourceLength(resourceLength);
-                        }
+    /**
+     * helper method of copyFolder() copies the children of the folder at
+     * source path into the (existing) folder at destination path, in
+     * parallel if there is a TreeTaskExecutor
+     * 
+     * @param transaction
+     *      indicates that the method is within the scope of a WebDAV
+     *      transaction
+     * @param sourcePath
+     *      where to read
+     * @param destinationPath
+     *      where to write
+     * @param errorList
+     *      all errors that ocurred
+     * @throws WebdavException
+     *      if an error in the underlying store occurs
+     */
+    private void copyChildren(final ITransaction transaction,
+            String sourcePath, String destinationPath,
+            final Hashtable<String, Integer> errorList) throws WebdavException {
 
-                    } else {
-                        copyFolder(transaction, sourcePath + children[i],
-                                destinationPath + children[i], errorList, req,
-                                resp);
+        Map<String, StoredObject> childObjects = getChildren(_store,
+                transaction, sourcePath);
+        String[] children = childObjects.keySet().toArray(
+                new String[childObjects.size()]);
+
+        if (_treeExecutor != null && children.length > 1) {
+            List<Runnable> tasks = new ArrayList<Runnable>(children.length);
+            for (int i = children.length - 1; i >= 0; i--) {
+                final String childSourcePath = sourcePath + "/" + children[i];
+                final String childDestinationPath = destinationPath + "/"
+                        + children[i];
+                final StoredObject childSo = childObjects.get(children[i]);
+                tasks.add(new Runnable() {
+                    public void run() {
+                        copyChild(transaction, childSourcePath,
+                                childDestinationPath, childSo, errorList);
                     }
-                } catch (AccessDeniedException e) {
-                    errorList.put(destinationPath + children[i], new Integer(
-                            WebdavStatus.SC_FORBIDDEN));
-                } catch (ObjectNotFoundException e) {
-                    errorList.put(destinationPath + children[i], new Integer(
-                            WebdavStatus.SC_NOT_FOUND));
-                } catch (ObjectAlreadyExistsException e) {
-                    errorList.put(destinationPath + children[i], new Integer(
-                            WebdavStatus.SC_CONFLICT));
-                } catch (WebdavException e) {
-                    errorList.put(destinationPath + children[i], new Integer(
-                            WebdavStatus.SC_INTERNAL_SERVER_ERROR));
-                }
+                });
+            }
+            _treeExecutor.invokeAll(tasks);
+        } else {
+            for (int i = children.length - 1; i >= 0; i--) {
+                copyChild(transaction, sourcePath + "/" + children[i],
+                        destinationPath + "/" + children[i], childObjects
+                                .get(children[i]), errorList);
+            }
+        }
+    }
+
+    /**
+     * helper method of copyChildren() copies one child and, if it is a
+     * folder, everything below it
+     * 
+     * @param transaction
+     *      indicates that the method is within the scope of a WebDAV
+     *      transaction
+     * @param sourcePath
+     *      where to read
+     * @param destinationPath
+     *      where to write
+     * @param childSo
+     *      StoredObject of the child, <code>null</code> if it still has to
+     *      be read from the store
+     * @param errorList
+     *      all errors that ocurred
+     */
+    private void copyChild(ITransaction transaction, String sourcePath,
+            String destinationPath, StoredObject childSo,
+            Hashtable<String, Integer> errorList) {
+        try {
+            if (childSo == null) {
+                childSo = _store.getStoredObject(transaction, sourcePath);
+            }
+            if (childSo.isResource()) {
+                copyContent(transaction, sourcePath, destinationPath);
+
+            } else {
+                _store.createFolder(transaction, destinationPath);
+                copyChildren(transaction, sourcePath, destinationPath,
+                        errorList);
             }
+        } catch (AccessDeniedException e) {
+            errorList.put(destinationPath, new Integer(
+                    WebdavStatus.SC_FORBIDDEN));
+        } catch (ObjectNotFoundException e) {
+            errorList.put(destinationPath, new Integer(
+                    WebdavStatus.SC_NOT_FOUND));
+        } catch (ObjectAlreadyExistsException e) {
+            errorList.put(destinationPath, new Integer(
+                    WebdavStatus.SC_CONFLICT));
+        } catch (QuotaExceededException e) {
+            errorList.put(destinationPath, new Integer(
+                    WebdavStatus.SC_INSUFFICIENT_STORAGE));
+        } catch (WebdavException e) {
+            errorList.put(destinationPath, new Integer(
+                    WebdavStatus.SC_INTERNAL_SERVER_ERROR));
         }
     }
 
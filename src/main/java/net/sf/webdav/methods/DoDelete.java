@@ -16,7 +16,10 @@
 package net.sf.webdav.methods;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Hashtable;
+import java.util.List;
+import java.util.Map;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -30,7 +33,7 @@ import net.sf.webdav.exceptions.LockFailedException;
 import net.sf.webdav.exceptions.ObjectAlreadyExistsException;
 import net.sf.webdav.exceptions.ObjectNotFoundException;
 import net.sf.webdav.exceptions.WebdavException;
-import net.sf.webdav.locking.ResourceLocks;
+import net.sf.webdav.locking.IResourceLocks;
 
 public class DoDelete extends AbstractMethod {
 
@@ -38,14 +41,26 @@ public class DoDelete extends AbstractMethod {
             .getLogger(DoDelete.class);
 
     private IWebdavStore _store;
-    private ResourceLocks _resourceLocks;
+    private IResourceLocks _resourceLocks;
     private boolean _readOnly;
+    private TreeTaskExecutor _treeExecutor;
 
-    public DoDelete(IWebdavStore store, ResourceLocks resourceLocks,
+    public DoDelete(IWebdavStore store, IResourceLocks resourceLocks,
             boolean readOnly) {
+        this(store, resourceLocks, readOnly, null);
+    }
+
+    /**
+     * @param treeExecutor
+     *      deletes the children of folders in parallel, <code>null</code>
+     *      to delete them one after the other on the request thread
+     */
+    public DoDelete(IWebdavStore store, IResourceLocks resourceLocks,
+            boolean readOnly, TreeTaskExecutor treeExecutor) {
         _store = store;
         _resourceLocks = resourceLocks;
         _readOnly = readOnly;
+        _treeExecutor = treeExecutor;
     }
 
     public void execute(ITransaction transaction, HttpServletRequest req,
@@ -167,40 +182,83 @@ public class DoDelete extends AbstractMethod {
      * @throws WebdavException
      *      if an error in the underlying store occurs
      */
-    private void deleteFolder(ITransaction transaction, String path,
-            Hashtable<String, Integer> errorList, HttpServletRequest req,
-            HttpServletResponse resp) throws WebdavException {
-
-        String[] children = _store.getChildrenNames(transaction, path);
-        children = children == null ? new String[] {} : children;
-        StoredObject so = null;
-        for (int i = children.length - 1; i >= 0; i--) {
-            children[i] = "/" + children[i];
-            try {
-                so = _store.getStoredObject(transaction, path + children[i]);
-                if (so.isResource()) {
-                    _store.removeObject(transaction, path + children[i]);
-
-                } else {
-                    deleteFolder(transaction, path + children[i], errorList,
-                            req, resp);
+    private void deleteFolder(final ITransaction transaction,
+            final String path, final Hashtable<String, Integer> errorList,
+            final HttpServletRequest req, final HttpServletResponse resp)
+            throws WebdavException {
 
-                    _store.removeObject(transaction, path + children[i]);
+        Map<String, StoredObject> childObjects = getChildren(_store,
+                transaction, path);
+        String[] children = childObjects.keySet().toArray(
+                new String[childObjects.size()]);
 
-                }
-            } catch (AccessDeniedException e) {
-                errorList.put(path + children[i], new Integer(
-                        WebdavStatus.SC_FORBIDDEN));
-            } catch (ObjectNotFoundException e) {
-                errorList.put(path + children[i], new Integer(
-                        WebdavStatus.SC_NOT_FOUND));
-            } catch (WebdavException e) {
-                errorList.put(path + children[i], new Integer(
-                        WebdavStatus.SC_INTERNAL_SERVER_ERROR));
+        if (_treeExecutor != null && children.length > 1) {
+            // the folder itself is removed by the caller, after all tasks
+            // are done
+            List<Runnable> tasks = new ArrayList<Runnable>(children.length);
+            for (int i = children.length - 1; i >= 0; i--) {
+                final String childPath = path + "/" + children[i];
+                final StoredObject childSo = childObjects.get(children[i]);
+                tasks.add(new Runnable() {
+                    public void run() {
+                        deleteChild(transaction, childPath, childSo,
+                                errorList, req, resp);
+                    }
+                });
+            }
+            _treeExecutor.invokeAll(tasks);
+        } else {
+            for (int i = children.length - 1; i >= 0; i--) {
+                deleteChild(transaction, path + "/" + children[i],
+                        childObjects.get(children[i]), errorList, req, resp);
             }
         }
-        so = null;
 
     }
 
+    /**
+     * helper method of deleteFolder(), deletes one child of the folder and,
+     * if it is a folder, everything below it
+     * 
+     * @param transaction
+     *      indicates that the method is within the scope of a WebDAV
+     *      transaction
+     * @param path
+     *      the child to be deleted
+     * @param so
+     *      StoredObject of the child, <code>null</code> if it still has to
+     *      be read from the store
+     * @param errorList
+     *      all errors that ocurred
+     * @param req
+     *      HttpServletRequest
+     * @param resp
+     *      HttpServletResponse
+     */
+    private void deleteChild(ITransaction transaction, String path,
+            StoredObject so, Hashtable<String, Integer> errorList,
+            HttpServletRequest req, HttpServletResponse resp) {
+        try {
+            if (so == null) {
+                so = _store.getStoredObject(transaction, path);
+            }
+            if (so.isResource()) {
+                _store.removeObject(transaction, path);
+
+            } else {
+                deleteFolder(transaction, path, errorList, req, resp);
+
+                _store.removeObject(transaction, path);
+
+            }
+        } catch (AccessDeniedException e) {
+            errorList.put(path, new Integer(WebdavStatus.SC_FORBIDDEN));
+        } catch (ObjectNotFoundException e) {
+            errorList.put(path, new Integer(WebdavStatus.SC_NOT_FOUND));
+        } catch (WebdavException e) {
+            errorList.put(path, new Integer(
+                    WebdavStatus.SC_INTERNAL_SERVER_ERROR));
+        }
+    }
+
 }
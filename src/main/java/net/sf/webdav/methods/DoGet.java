@@ -18,28 +18,38 @@ package net.sf.webdav.methods;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.Arrays;
 import java.util.Locale;
+import java.util.Map;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
+import net.sf.webdav.AsyncResponse;
+import net.sf.webdav.IAsyncMethodExecutor;
+import net.sf.webdav.IChannelStore;
+import net.sf.webdav.ICompressedStore;
 import net.sf.webdav.IMimeTyper;
+import net.sf.webdav.IRandomAccessStore;
 import net.sf.webdav.ITransaction;
 import net.sf.webdav.IWebdavStore;
 import net.sf.webdav.StoredObject;
 import net.sf.webdav.WebdavStatus;
-import net.sf.webdav.locking.ResourceLocks;
+import net.sf.webdav.locking.IResourceLocks;
 
-public class DoGet extends DoHead {
+public class DoGet extends DoHead implements IAsyncMethodExecutor {
 
     private static org.slf4j.Logger LOG = org.slf4j.LoggerFactory
             .getLogger(DoGet.class);
 
     public DoGet(IWebdavStore store, String dftIndexFile, String insteadOf404,
-            ResourceLocks resourceLocks, IMimeTyper mimeTyper,
+            IResourceLocks resourceLocks, IMimeTyper mimeTyper,
             int contentLengthHeader) {
         super(store, dftIndexFile, insteadOf404, resourceLocks, mimeTyper,
                 contentLengthHeader);
@@ -59,17 +69,53 @@ public class DoGet extends DoHead {
                 return;
             }
             OutputStream out = resp.getOutputStream();
-            InputStream in = _store.getResourceContent(transaction, path);
+            try {
+                if (_store instanceof IChannelStore) {
+                    // let the store write straight into the response
+                    WritableByteChannel channel;
+                    if (out instanceof WritableByteChannel) {
+                        channel = (WritableByteChannel) out;
+                    } else {
+                        channel = Channels.newChannel(out);
+                    }
+                    _metrics.addBytesOut(((IChannelStore) _store)
+                            .transferResourceContent(transaction, path, 0, -1,
+                                    channel));
+                } else {
+                    copyResourceContent(transaction, path, out);
+                }
+            } finally {
+                // flushing causes a IOE if a file is opened on the webserver
+                // client disconnected before server finished sending response
+                try {
+                    out.flush();
+                    out.close();
+                } catch (Exception e) {
+                    LOG.warn("Flushing OutputStream causes Exception!\n"
+                            + e.toString());
+                }
+            }
+        } catch (Exception e) {
+            LOG.trace(e.toString());
+        }
+    }
+
+    protected void doEncodedBody(ITransaction transaction,
+            HttpServletResponse resp, String path) {
+
+        try {
+            InputStream in = ((ICompressedStore) _store)
+                    .getEncodedResourceContent(transaction, path);
+            OutputStream out = resp.getOutputStream();
             try {
                 int read = -1;
                 byte[] copyBuffer = new byte[BUF_SIZE];
 
                 while ((read = in.read(copyBuffer, 0, copyBuffer.length)) != -1) {
                     out.write(copyBuffer, 0, read);
+                    _metrics.addBytesOut(read);
                 }
             } finally {
-                // flushing causes a IOE if a file is opened on the webserver
-                // client disconnected before server finished sending response
                 try {
                     in.close();
                 } catch (Exception e) {
@@ -89,6 +135,155 @@ public class DoGet extends DoHead {
         }
     }
 
+    protected void doRangeBody(ITransaction transaction,
+            HttpServletResponse resp, String path, long[][] ranges,
+            long resourceLength, String mimeType) {
+
+        try {
+            OutputStream out = resp.getOutputStream();
+            try {
+                if (ranges.length == 1) {
+                    long[] range = ranges[0];
+                    writeRange(transaction, path, range[0], range[1]
+                            - range[0] + 1, out);
+                } else {
+                    for (int i = 0; i < ranges.length; i++) {
+                        long[] range = ranges[i];
+                        StringBuffer partHeader = new StringBuffer();
+                        partHeader.append("\r\n--").append(MIME_BOUNDARY)
+                                .append("\r\n");
+                        if (mimeType != null) {
+                            partHeader.append("Content-Type: ").append(
+                                    mimeType).append("\r\n");
+                        }
+                        partHeader.append("Content-Range: ").append(
+                                getContentRange(range, resourceLength))
+                                .append("\r\n\r\n");
+                        out.write(partHeader.toString().getBytes("ISO-8859-1"));
+                        writeRange(transaction, path, range[0], range[1]
+                                - range[0] + 1, out);
+                    }
+                    out.write(("\r\n--" + MIME_BOUNDARY + "--\r\n")
+                            .getBytes("ISO-8859-1"));
+                }
+            } finally {
+                try {
+                    out.flush();
+                    out.close();
+                } catch (Exception e) {
+                    LOG.warn("Flushing OutputStream causes Exception!\n"
+                            + e.toString());
+                }
+            }
+        } catch (Exception e) {
+            LOG.trace(e.toString());
+        }
+    }
+
+    protected boolean doAsyncBody(ITransaction transaction,
+            HttpServletResponse resp, String path, boolean encoded,
+            long offset, long length, AsyncResponse async) throws IOException {
+        ReadableByteChannel content;
+        if (encoded) {
+            content = Channels.newChannel(((ICompressedStore) _store)
+                    .getEncodedResourceContent(transaction, path));
+        } else if (_store instanceof IChannelStore) {
+            content = new StoreChannel((IChannelStore) _store, transaction,
+                    path, offset, length);
+        } else {
+            return false;
+        }
+        async.send(content);
+        return true;
+    }
+
+    /**
+     * writes <code>length</code> bytes of the resource at path, starting at
+     * <code>offset</code>, into the output stream
+     */
+    private void writeRange(ITransaction transaction, String path,
+            long offset, long length, OutputStream out) throws IOException {
+        if (_store instanceof IChannelStore) {
+            WritableByteChannel channel;
+            if (out instanceof WritableByteChannel) {
+                channel = (WritableByteChannel) out;
+            } else {
+                channel = Channels.newChannel(out);
+            }
+            _metrics.addBytesOut(((IChannelStore) _store)
+                    .transferResourceContent(transaction, path, offset,
+                            length, channel));
+            return;
+        }
+
+        InputStream in;
+        if (_store instanceof IRandomAccessStore) {
+            in = ((IRandomAccessStore) _store).getResourceContent(
+                    transaction, path, offset, length);
+        } else {
+            // the store can only give us the whole content, skip what
+            // the client didn't ask for
+            in = _store.getResourceContent(transaction, path);
+            long toSkip = offset;
+            while (toSkip > 0) {
+                long skipped = in.skip(toSkip);
+                if (skipped <= 0) {
+                    if (in.read() == -1) {
+                        break;
+                    }
+                    skipped = 1;
+                }
+                toSkip -= skipped;
+            }
+        }
+        try {
+            byte[] copyBuffer = new byte[BUF_SIZE];
+            long remaining = length;
+            while (remaining > 0) {
+                int read = in.read(copyBuffer, 0, (int) Math.min(
+                        copyBuffer.length, remaining));
+                if (read == -1) {
+                    break;
+                }
+                out.write(copyBuffer, 0, read);
+                _metrics.addBytesOut(read);
+                remaining -= read;
+            }
+        } finally {
+            try {
+                in.close();
+            } catch (Exception e) {
+                LOG.warn("Closing InputStream causes Exception!\n"
+                        + e.toString());
+            }
+        }
+    }
+
+    /**
+     * copies the content of the resource at path into the output stream, used
+     * for stores that can't transfer their content to a channel
+     */
+    private void copyResourceContent(ITransaction transaction, String path,
+            OutputStream out) throws IOException {
+        InputStream in = _store.getResourceContent(transaction, path);
+        try {
+            int read = -1;
+            byte[] copyBuffer = new byte[BUF_SIZE];
+
+            while ((read = in.read(copyBuffer, 0, copyBuffer.length)) != -1) {
+                out.write(copyBuffer, 0, read);
+                _metrics.addBytesOut(read);
+            }
+        } finally {
+            try {
+                in.close();
+            } catch (Exception e) {
+                LOG.warn("Closing InputStream causes Exception!\n"
+                        + e.toString());
+            }
+        }
+    }
+
     protected void folderBody(ITransaction transaction, String path,
             HttpServletResponse resp, HttpServletRequest req)
             throws IOException {
@@ -115,9 +310,10 @@ public class DoGet extends DoHead {
                 resp.setContentType("text/html");
                 resp.setCharacterEncoding("UTF8");
                 OutputStream out = resp.getOutputStream();
-                String[] children = _store.getChildrenNames(transaction, path);
-                // Make sure it's not null
-                children = children == null ? new String[] {} : children;
+                Map<String, StoredObject> childObjects = getChildren(_store,
+                        transaction, path);
+                String[] children = childObjects.keySet().toArray(
+                        new String[childObjects.size()]);
                 // Sort by name
                 Arrays.sort(children);
                 StringBuilder childrenTemp = new StringBuilder();
@@ -142,7 +338,11 @@ public class DoGet extends DoHead {
                     childrenTemp.append("<td>");
                     childrenTemp.append("<a href=\"");
                     childrenTemp.append(child);
-                    StoredObject obj= _store.getStoredObject(transaction, path+"/"+child);
+                    StoredObject obj= childObjects.get(child);
+                    if (obj == null)
+                    {
+                        obj= _store.getStoredObject(transaction, path+"/"+child);
+                    }
                     if (obj == null)
                     {
                         LOG.error("Should not return null for "+path+"/"+child);
@@ -304,4 +504,74 @@ public class DoGet extends DoHead {
     {
         return SimpleDateFormat.getDateTimeInstance(SimpleDateFormat.SHORT, SimpleDateFormat.MEDIUM, browserLocale);
     }
- }
+
+    /**
+     * reads the content of a resource piece by piece, each read lets the
+     * store transfer as much as fits into the buffer
+     */
+    private static class StoreChannel implements ReadableByteChannel {
+
+        private final IChannelStore _store;
+
+        private final ITransaction _transaction;
+
+        private final String _path;
+
+        private long _position;
+
+        private long _remaining;
+
+        private boolean _open = true;
+
+        StoreChannel(IChannelStore store, ITransaction transaction,
+                String path, long offset, long length) {
+            _store = store;
+            _transaction = transaction;
+            _path = path;
+            _position = offset;
+            _remaining = length < 0 ? Long.MAX_VALUE : length;
+        }
+
+        public int read(final ByteBuffer dst) throws IOException {
+            if (_remaining == 0) {
+                return -1;
+            }
+            long transferred = _store.transferResourceContent(_transaction,
+                    _path, _position, Math.min(dst.remaining(), _remaining),
+                    new WritableByteChannel() {
+
+                        public int write(ByteBuffer src) {
+                            int n = Math.min(src.remaining(), dst
+                                    .remaining());
+                            ByteBuffer part = src.duplicate();
+                            part.limit(part.position() + n);
+                            dst.put(part);
+                            src.position(src.position() + n);
+                            return n;
+                        }
+
+                        public boolean isOpen() {
+                            return true;
+                        }
+
+                        public void close() {
+                        }
+                    });
+            if (transferred <= 0) {
+                _remaining = 0;
+                return -1;
+            }
+            _position += transferred;
+            _remaining -= transferred;
+            return (int) transferred;
+        }
+
+        public boolean isOpen() {
+            return _open;
+        }
+
+        public void close() {
+            _open = false;
+        }
+    }
+}
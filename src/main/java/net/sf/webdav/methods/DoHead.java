@@ -17,10 +17,23 @@ implied.
 package net.sf.webdav.methods;
 
 import java.io.IOException;
+import java.text.DateFormat;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.StringTokenizer;
+import java.util.TimeZone;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
+import net.sf.webdav.AsyncResponse;
+import net.sf.webdav.ICompressedStore;
 import net.sf.webdav.IMimeTyper;
 import net.sf.webdav.StoredObject;
 import net.sf.webdav.ITransaction;
@@ -30,22 +43,32 @@ import net.sf.webdav.exceptions.AccessDeniedException;
 import net.sf.webdav.exceptions.LockFailedException;
 import net.sf.webdav.exceptions.ObjectAlreadyExistsException;
 import net.sf.webdav.exceptions.WebdavException;
-import net.sf.webdav.locking.ResourceLocks;
+import net.sf.webdav.locking.IResourceLocks;
 
 public class DoHead extends AbstractMethod {
 
     protected String _dftIndexFile;
     protected IWebdavStore _store;
     protected String _insteadOf404;
-    protected ResourceLocks _resourceLocks;
+    protected IResourceLocks _resourceLocks;
     protected IMimeTyper _mimeTyper;
     protected int _contentLength;
 
+    /**
+     * separates the parts of a multipart/byteranges response
+     */
+    protected static final String MIME_BOUNDARY = "WEBDAV_SERVLET_MIME_BOUNDARY";
+
+    /**
+     * requests asking for more ranges get the whole resource
+     */
+    protected static final int MAX_RANGES = 64;
+
     private static org.slf4j.Logger LOG = org.slf4j.LoggerFactory
             .getLogger(DoHead.class);
 
     public DoHead(IWebdavStore store, String dftIndexFile, String insteadOf404,
-            ResourceLocks resourceLocks, IMimeTyper mimeTyper,
+            IResourceLocks resourceLocks, IMimeTyper mimeTyper,
             int contentLengthHeader) {
         _store = store;
         _dftIndexFile = dftIndexFile;
@@ -57,6 +80,17 @@ public class DoHead extends AbstractMethod {
 
     public void execute(ITransaction transaction, HttpServletRequest req,
             HttpServletResponse resp) throws IOException, LockFailedException {
+        execute(transaction, req, resp, null);
+    }
+
+    /**
+     * @param async
+     *      sends the body without blocking, <code>null</code> to write it
+     *      right away
+     */
+    public void execute(ITransaction transaction, HttpServletRequest req,
+            HttpServletResponse resp, AsyncResponse async) throws IOException,
+            LockFailedException {
 
         // determines if the uri exists.
 
@@ -79,6 +113,10 @@ public class DoHead extends AbstractMethod {
             resp.sendError(WebdavStatus.SC_FORBIDDEN);
             return;
         }
+        if (!bUriExists) {
+            // the status is set after the body has been written
+            async = null;
+        }
 
         if (so != null) {
             if (so.isFolder()) {
@@ -96,16 +134,22 @@ public class DoHead extends AbstractMethod {
                 return;
             }
 
-            String tempLockOwner = "doGet" + System.currentTimeMillis()
-                    + req.toString();
-
-            if (_resourceLocks.lock(transaction, path, tempLockOwner, false, 0,
-                    TEMP_TIMEOUT, TEMPORARY)) {
+            // reading needs no temporary lock, it only must not run into an
+            // exclusive one
+            if (_resourceLocks.checkReadable(transaction, path, 0)) {
                 try {
 
                     String eTagMatch = req.getHeader("If-None-Match");
                     if (eTagMatch != null) {
-                        if (eTagMatch.equals(getETag(so))) {
+                        String encoding = so.isResource() ? getStoredEncoding(
+                                transaction, path) : null;
+                        if (encoding != null && !isAccepted(req, encoding)) {
+                            encoding = null;
+                        }
+                        if (eTagMatch.equals(getETag(so))
+                                || (encoding != null && eTagMatch
+                                        .equals(getEncodedETag(getETag(so),
+                                                encoding)))) {
                             resp.setStatus(WebdavStatus.SC_NOT_MODIFIED);
                             return;
                         }
@@ -123,37 +167,95 @@ public class DoHead extends AbstractMethod {
                             resp.setDateHeader("last-modified", lastModified);
 
                             String eTag = getETag(so);
-                            resp.addHeader("ETag", eTag);
+                            resp.addHeader("Accept-Ranges", "bytes");
 
                             long resourceLength = so.getResourceLength();
 
-                            if (_contentLength == 1) {
-                                if (resourceLength > 0) {
-                                    if (resourceLength <= Integer.MAX_VALUE) {
-                                        resp
-                                                .setContentLength((int) resourceLength);
-                                    } else {
-                                        resp.setHeader("content-length", ""
-                                                + resourceLength);
-                                        // is "content-length" the right header?
-                                        // is long a valid format?
-                                    }
-                                }
-                            }
-
                             String mimeType = _mimeTyper.getMimeType(transaction, path);
-                            if (mimeType != null) {
-                                resp.setContentType(mimeType);
-                            } else {
+                            if (mimeType == null) {
                                 int lastSlash = path.replace('\\', '/')
                                         .lastIndexOf('/');
                                 int lastDot = path.indexOf(".", lastSlash);
                                 if (lastDot == -1) {
-                                    resp.setContentType("text/html");
+                                    mimeType = "text/html";
+                                }
+                            }
+
+                            long[][] ranges = getRanges(req, so, eTag);
+                            String encoding = null;
+                            if (ranges == null) {
+                                encoding = getStoredEncoding(transaction,
+                                        path);
+                                if (encoding != null) {
+                                    resp.addHeader("Vary", "Accept-Encoding");
+                                    if (!isAccepted(req, encoding)) {
+                                        encoding = null;
+                                    }
                                 }
                             }
+                            // the encoded representation has an ETag of its
+                            // own, ranges are of the identity one
+                            resp.addHeader("ETag", encoding == null ? eTag
+                                    : getEncodedETag(eTag, encoding));
+                            if (ranges == null) {
+                                if (encoding != null) {
+                                    // the stored bytes are sent as they are
+                                    resp.setHeader("Content-Encoding",
+                                            encoding);
+                                    setContentLength(resp,
+                                            ((ICompressedStore) _store)
+                                                    .getEncodedResourceLength(
+                                                            transaction, path));
+                                } else {
+                                    setContentLength(resp, resourceLength);
+                                }
+                                if (mimeType != null) {
+                                    resp.setContentType(mimeType);
+                                }
+
+                                if (async != null
+                                        && doAsyncBody(transaction, resp,
+                                                path, encoding != null, 0, -1,
+                                                async)) {
+                                    // sent when the client can take it
+                                } else if (encoding != null) {
+                                    doEncodedBody(transaction, resp, path);
+                                } else {
+                                    doBody(transaction, resp, path);
+                                }
+                            } else if (ranges.length == 0) {
+                                resp.setHeader("Content-Range", "bytes */"
+                                        + resourceLength);
+                                resp.sendError(WebdavStatus.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+                            } else {
+                                resp.setStatus(WebdavStatus.SC_PARTIAL_CONTENT);
+                                if (ranges.length == 1) {
+                                    long[] range = ranges[0];
+                                    resp.setHeader("Content-Range",
+                                            getContentRange(range,
+                                                    resourceLength));
+                                    setContentLength(resp, range[1]
+                                            - range[0] + 1);
+                                    if (mimeType != null) {
+                                        resp.setContentType(mimeType);
+                                    }
+                                } else {
+                                    resp.setContentType("multipart/byteranges; boundary="
+                                            + MIME_BOUNDARY);
+                                }
 
-                            doBody(transaction, resp, path);
+                                if (ranges.length == 1
+                                        && async != null
+                                        && doAsyncBody(transaction, resp,
+                                                path, false, ranges[0][0],
+                                                ranges[0][1] - ranges[0][0]
+                                                        + 1, async)) {
+                                    // sent when the client can take it
+                                } else {
+                                    doRangeBody(transaction, resp, path,
+                                            ranges, resourceLength, mimeType);
+                                }
+                            }
                         }
                     } else {
                         folderBody(transaction, path, resp, req);
@@ -165,9 +267,6 @@ public class DoHead extends AbstractMethod {
                             .getRequestURI());
                 } catch (WebdavException e) {
                     resp.sendError(WebdavStatus.SC_INTERNAL_SERVER_ERROR);
-                } finally {
-                    _resourceLocks.unlockTemporaryLockedObjects(transaction,
-                            path, tempLockOwner);
                 }
             } else {
                 resp.sendError(WebdavStatus.SC_INTERNAL_SERVER_ERROR);
@@ -181,6 +280,219 @@ public class DoHead extends AbstractMethod {
 
     }
 
+    /**
+     * sets the content-length header, unless content-length headers are
+     * switched off
+     */
+    private void setContentLength(HttpServletResponse resp, long length) {
+        if (_contentLength == 1) {
+            if (length > 0) {
+                if (length <= Integer.MAX_VALUE) {
+                    resp.setContentLength((int) length);
+                } else {
+                    resp.setHeader("content-length", "" + length);
+                    // is "content-length" the right header?
+                    // is long a valid format?
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the content coding the resource is stored with,
+     *  <code>null</code> if it is stored as it is
+     */
+    private String getStoredEncoding(ITransaction transaction, String path) {
+        if (_store instanceof ICompressedStore) {
+            return ((ICompressedStore) _store).getContentEncoding(
+                    transaction, path);
+        }
+        return null;
+    }
+
+    /**
+     * @return the ETag of the resource sent with a content coding, it must
+     *  not match the one of the resource sent as it is
+     */
+    protected static String getEncodedETag(String eTag, String encoding) {
+        return eTag.substring(0, eTag.length() - 1) + "-" + encoding + "\"";
+    }
+
+    /**
+     * @return <code>true</code> if the Accept-Encoding header of the request
+     *  accepts the content coding
+     */
+    protected boolean isAccepted(HttpServletRequest req, String encoding) {
+        String acceptEncoding = req.getHeader("Accept-Encoding");
+        if (acceptEncoding == null) {
+            return false;
+        }
+        StringTokenizer tokenizer = new StringTokenizer(acceptEncoding, ",");
+        while (tokenizer.hasMoreTokens()) {
+            String coding = tokenizer.nextToken().trim();
+            String quality = null;
+            int semicolon = coding.indexOf(';');
+            if (semicolon != -1) {
+                quality = coding.substring(semicolon + 1).trim();
+                coding = coding.substring(0, semicolon).trim();
+            }
+            if (!coding.equalsIgnoreCase(encoding)
+                    && !coding.equalsIgnoreCase("x-" + encoding)) {
+                continue;
+            }
+            if (quality != null && quality.startsWith("q=")) {
+                try {
+                    return Float.parseFloat(quality.substring(2).trim()) > 0;
+                } catch (NumberFormatException e) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Parses the Range header of the request.
+     * 
+     * @param req
+     *      Servlet request
+     * @param so
+     *      the requested resource
+     * @param eTag
+     *      ETag of the resource, checked against the If-Range header
+     * @return <code>null</code> if the whole resource has to be sent, an
+     *  empty array if no range can be satisfied, else the ranges sorted by
+     *  their first byte with overlapping ranges joined. Each range is an
+     *  array of the first and the last byte position (inclusive).
+     */
+    protected long[][] getRanges(HttpServletRequest req, StoredObject so,
+            String eTag) {
+
+        String rangeHeader = req.getHeader("Range");
+        if (rangeHeader == null) {
+            return null;
+        }
+
+        String ifRange = req.getHeader("If-Range");
+        if (ifRange != null) {
+            ifRange = ifRange.trim();
+            if (ifRange.endsWith("\"")) {
+                // the client only wants the range if the resource did not
+                // change. If-Range needs the strong comparison (RFC 7233),
+                // a weak ETag never matches
+                if (ifRange.startsWith("W/") || eTag.startsWith("W/")
+                        || !ifRange.equals(eTag)) {
+                    return null;
+                }
+            } else {
+                long ifRangeDate = parseDate(ifRange);
+                Date lastModified = so.getLastModified();
+                if (ifRangeDate == -1 || lastModified == null
+                        || lastModified.getTime() / 1000 != ifRangeDate
+                                / 1000) {
+                    return null;
+                }
+            }
+        }
+
+        rangeHeader = rangeHeader.trim();
+        if (!rangeHeader.startsWith("bytes=")) {
+            return null;
+        }
+
+        long length = so.getResourceLength();
+        List<long[]> ranges = new ArrayList<long[]>();
+        StringTokenizer tokenizer = new StringTokenizer(rangeHeader
+                .substring(6), ",");
+        if (tokenizer.countTokens() > MAX_RANGES) {
+            return null;
+        }
+        while (tokenizer.hasMoreTokens()) {
+            String rangeSpec = tokenizer.nextToken().trim();
+            int dash = rangeSpec.indexOf('-');
+            if (dash == -1) {
+                return null;
+            }
+            long first;
+            long last;
+            try {
+                if (dash == 0) {
+                    // suffix range: the last n bytes
+                    long suffixLength = Long.parseLong(rangeSpec.substring(1)
+                            .trim());
+                    if (suffixLength <= 0) {
+                        continue;
+                    }
+                    first = Math.max(0, length - suffixLength);
+                    last = length - 1;
+                } else {
+                    first = Long.parseLong(rangeSpec.substring(0, dash)
+                            .trim());
+                    String lastStr = rangeSpec.substring(dash + 1).trim();
+                    if (lastStr.length() == 0) {
+                        last = length - 1;
+                    } else {
+                        last = Long.parseLong(lastStr);
+                        if (last < first) {
+                            return null;
+                        }
+                        last = Math.min(last, length - 1);
+                    }
+                }
+            } catch (NumberFormatException e) {
+                // invalid range header is ignored
+                return null;
+            }
+            if (first < length && first <= last) {
+                ranges.add(new long[] { first, last });
+            }
+        }
+
+        // joining overlapping ranges keeps clients from asking for the same
+        // bytes over and over again
+        Collections.sort(ranges, new Comparator<long[]>() {
+            public int compare(long[] r1, long[] r2) {
+                return r1[0] < r2[0] ? -1 : (r1[0] == r2[0] ? 0 : 1);
+            }
+        });
+        List<long[]> joined = new ArrayList<long[]>();
+        for (long[] range : ranges) {
+            if (!joined.isEmpty()) {
+                long[] previous = joined.get(joined.size() - 1);
+                if (range[0] <= previous[1] + 1) {
+                    previous[1] = Math.max(previous[1], range[1]);
+                    continue;
+                }
+            }
+            joined.add(range);
+        }
+        return joined.toArray(new long[joined.size()][]);
+    }
+
+    /**
+     * @return the value of a Content-Range header for the given range
+     */
+    protected String getContentRange(long[] range, long resourceLength) {
+        return "bytes " + range[0] + "-" + range[1] + "/" + resourceLength;
+    }
+
+    /**
+     * parses a HTTP date as sent in the If-Range header
+     * 
+     * @return the date in milliseconds or -1 if the date can't be parsed
+     */
+    private long parseDate(String date) {
+        DateFormat df = new SimpleDateFormat(LAST_MODIFIED_DATE_FORMAT,
+                Locale.US);
+        df.setTimeZone(TimeZone.getTimeZone("GMT"));
+        try {
+            return df.parse(date).getTime();
+        } catch (ParseException e) {
+            return -1;
+        }
+    }
+
     protected void folderBody(ITransaction transaction, String path,
             HttpServletResponse resp, HttpServletRequest req)
             throws IOException {
@@ -191,4 +503,35 @@ public class DoHead extends AbstractMethod {
             String path) throws IOException {
         // no body for HEAD
     }
+
+    /**
+     * sends the content as it is stored, with the content coding of the
+     * store
+     */
+    protected void doEncodedBody(ITransaction transaction,
+            HttpServletResponse resp, String path) throws IOException {
+        // no body for HEAD
+    }
+
+    protected void doRangeBody(ITransaction transaction,
+            HttpServletResponse resp, String path, long[][] ranges,
+            long resourceLength, String mimeType) throws IOException {
+        // no body for HEAD
+    }
+
+    /**
+     * hands the content, or a range of it, to the AsyncResponse
+     * 
+     * @param encoded
+     *      <code>true</code> to send the content as it is stored
+     * @param length
+     *      number of bytes to send, -1 for all from the offset on
+     * @return <code>false</code> if the body has to be written right away
+     */
+    protected boolean doAsyncBody(ITransaction transaction,
+            HttpServletResponse resp, String path, boolean encoded,
+            long offset, long length, AsyncResponse async) throws IOException {
+        // no body for HEAD
+        return false;
+    }
 }
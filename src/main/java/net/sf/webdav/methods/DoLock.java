@@ -51,17 +51,6 @@ public class DoLock extends AbstractMethod {
     private IResourceLocks _resourceLocks;
     private boolean _readOnly;
 
-    private boolean _macLockRequest = false;
-
-    private boolean _exclusive = false;
-    private String _type = null;
-    private String _lockOwner = null;
-
-    private String _path = null;
-    private String _parentPath = null;
-
-    private String _userAgent = null;
-
     public DoLock(IWebdavStore store, IResourceLocks resourceLocks,
             boolean readOnly) {
         _store = store;
@@ -77,127 +66,112 @@ public class DoLock extends AbstractMethod {
             resp.sendError(WebdavStatus.SC_FORBIDDEN);
             return;
         } else {
-            _path = getRelativePath(req);
-            _parentPath = getParentPath(getCleanPath(_path));
-
-            Hashtable<String, Integer> errorList = new Hashtable<String, Integer>();
+            String path = getRelativePath(req);
+            String parentPath = getParentPath(getCleanPath(path));
 
-            if (!checkLocks(transaction, req, resp, _resourceLocks, _path)) {
+            if (!checkLocks(transaction, req, resp, _resourceLocks, path)) {
                 resp.setStatus(WebdavStatus.SC_LOCKED);
                 return; // resource is locked
             }
 
-            if (!checkLocks(transaction, req, resp, _resourceLocks, _parentPath)) {
+            if (!checkLocks(transaction, req, resp, _resourceLocks, parentPath)) {
                 resp.setStatus(WebdavStatus.SC_LOCKED);
                 return; // parent is locked
             }
 
-            // Mac OS Finder (whether 10.4.x or 10.5) can't store files
-            // because executing a LOCK without lock information causes a
-            // SC_BAD_REQUEST
-            _userAgent = req.getHeader("User-Agent");
-            if (_userAgent != null && _userAgent.indexOf("Darwin") != -1) {
-                _macLockRequest = true;
-
-                String timeString = new Long(System.currentTimeMillis())
-                        .toString();
-                _lockOwner = _userAgent.concat(timeString);
-            }
+            LockRequest request = new LockRequest(path, parentPath, req
+                    .getHeader("User-Agent"));
 
             String tempLockOwner = "doLock" + System.currentTimeMillis()
                     + req.toString();
-            if (_resourceLocks.lock(transaction, _path, tempLockOwner, false,
+            if (_resourceLocks.lock(transaction, path, tempLockOwner, false,
                     0, TEMP_TIMEOUT, TEMPORARY)) {
                 try {
                     if (req.getHeader("If") != null) {
                         doRefreshLock(transaction, req, resp);
                     } else {
-                        doLock(transaction, req, resp);
+                        doLock(transaction, req, resp, request);
                     }
                 } catch (LockFailedException e) {
                     resp.sendError(WebdavStatus.SC_LOCKED);
                     LOG.error("Lockfailed exception", e);
                 } finally {
                     _resourceLocks.unlockTemporaryLockedObjects(transaction,
-                            _path, tempLockOwner);
+                            path, tempLockOwner);
                 }
             }
         }
     }
 
     private void doLock(ITransaction transaction, HttpServletRequest req,
-            HttpServletResponse resp) throws IOException, LockFailedException {
+            HttpServletResponse resp, LockRequest request) throws IOException,
+            LockFailedException {
 
-        StoredObject so = _store.getStoredObject(transaction, _path);
+        StoredObject so = _store.getStoredObject(transaction, request._path);
 
         if (so != null) {
-            doLocking(transaction, req, resp);
+            doLocking(transaction, req, resp, request);
         } else {
             // resource doesn't exist, null-resource lock
-            doNullResourceLock(transaction, req, resp);
+            doNullResourceLock(transaction, req, resp, request);
         }
-
-        so = null;
-        _exclusive = false;
-        _type = null;
-        _lockOwner = null;
-
     }
 
     private void doLocking(ITransaction transaction, HttpServletRequest req,
-            HttpServletResponse resp) throws IOException {
+            HttpServletResponse resp, LockRequest request) throws IOException {
 
         // Tests if LockObject on requested path exists, and if so, tests
         // exclusivity
         LockedObject lo = _resourceLocks.getLockedObjectByPath(transaction,
-                _path);
+                request._path);
         if (lo != null) {
             if (lo.isExclusive()) {
-                sendLockFailError(transaction, req, resp);
+                sendLockFailError(transaction, req, resp, request._path);
                 return;
             }
         }
         try {
             // Thats the locking itself
-            executeLock(transaction, req, resp);
+            executeLock(transaction, req, resp, request);
 
         } catch (ServletException e) {
             resp.sendError(WebdavStatus.SC_INTERNAL_SERVER_ERROR);
             LOG.trace(e.toString());
         } catch (LockFailedException e) {
-            sendLockFailError(transaction, req, resp);
-        } finally {
-            lo = null;
+            sendLockFailError(transaction, req, resp, request._path);
         }
 
     }
 
     private void doNullResourceLock(ITransaction transaction,
-            HttpServletRequest req, HttpServletResponse resp)
-            throws IOException {
+            HttpServletRequest req, HttpServletResponse resp,
+            LockRequest request) throws IOException {
 
         StoredObject parentSo, nullSo = null;
+        String path = request._path;
+        String parentPath = request._parentPath;
+        String userAgent = request._userAgent;
 
         try {
-            parentSo = _store.getStoredObject(transaction, _parentPath);
-            if (_parentPath != null && parentSo == null) {
-                _store.createFolder(transaction, _parentPath);
-            } else if (_parentPath != null && parentSo != null
+            parentSo = _store.getStoredObject(transaction, parentPath);
+            if (parentPath != null && parentSo == null) {
+                _store.createFolder(transaction, parentPath);
+            } else if (parentPath != null && parentSo != null
                     && parentSo.isResource()) {
                 resp.sendError(WebdavStatus.SC_PRECONDITION_FAILED);
                 return;
             }
 
-            nullSo = _store.getStoredObject(transaction, _path);
+            nullSo = _store.getStoredObject(transaction, path);
             if (nullSo == null) {
                 // resource doesn't exist
-                _store.createResource(transaction, _path);
+                _store.createResource(transaction, path);
 
                 // Transmit expects 204 response-code, not 201
-                if (_userAgent != null && _userAgent.indexOf("Transmit") != -1) {
+                if (userAgent != null && userAgent.indexOf("Transmit") != -1) {
                     LOG
                             .trace("DoLock.execute() : do workaround for user agent '"
-                                    + _userAgent + "'");
+                                    + userAgent + "'");
                     resp.setStatus(WebdavStatus.SC_NO_CONTENT);
                 } else {
                     resp.setStatus(WebdavStatus.SC_CREATED);
@@ -205,27 +179,24 @@ public class DoLock extends AbstractMethod {
 
             } else {
                 // resource already exists, could not execute null-resource lock
-                sendLockFailError(transaction, req, resp);
+                sendLockFailError(transaction, req, resp, path);
                 return;
             }
-            nullSo = _store.getStoredObject(transaction, _path);
+            nullSo = _store.getStoredObject(transaction, path);
             // define the newly created resource as null-resource
             nullSo.setNullResource(true);
 
             // Thats the locking itself
-            executeLock(transaction, req, resp);
+            executeLock(transaction, req, resp, request);
 
         } catch (LockFailedException e) {
-            sendLockFailError(transaction, req, resp);
+            sendLockFailError(transaction, req, resp, path);
         } catch (WebdavException e) {
             resp.sendError(WebdavStatus.SC_INTERNAL_SERVER_ERROR);
             LOG.error("Webdav exception", e);
         } catch (ServletException e) {
             resp.sendError(WebdavStatus.SC_INTERNAL_SERVER_ERROR);
             LOG.error("Servlet exception", e);
-        } finally {
-            parentSo = null;
-            nullSo = null;
         }
     }
 
@@ -246,10 +217,13 @@ public class DoLock extends AbstractMethod {
                 int timeout = getTimeout(transaction, req);
 
                 refreshLo.refreshTimeout(timeout);
-                // sending success response
-                generateXMLReport(transaction, resp, refreshLo);
-
-                refreshLo = null;
+                // sending success response, the lock is described as it
+                // was requested
+                String[] owners = refreshLo.getOwner();
+                generateXMLReport(transaction, resp, refreshLo, new LockInfo(
+                        refreshLo.isExclusive(), refreshLo.getType(),
+                        owners != null && owners.length > 0 ? owners[0]
+                                : null));
             } else {
                 // no LockObject to given lockToken
                 resp.sendError(WebdavStatus.SC_PRECONDITION_FAILED);
@@ -266,41 +240,42 @@ public class DoLock extends AbstractMethod {
      * Executes the LOCK
      */
     private void executeLock(ITransaction transaction, HttpServletRequest req,
-            HttpServletResponse resp) throws LockFailedException, IOException,
-            ServletException {
+            HttpServletResponse resp, LockRequest request)
+            throws LockFailedException, IOException, ServletException {
 
         // Mac OS lock request workaround
-        if (_macLockRequest) {
+        if (request._macLockOwner != null) {
             LOG.trace("DoLock.execute() : do workaround for user agent '"
-                    + _userAgent + "'");
+                    + request._userAgent + "'");
 
-            doMacLockRequestWorkaround(transaction, req, resp);
+            doMacLockRequestWorkaround(transaction, req, resp, request);
         } else {
             // Getting LockInformation from request
-            if (getLockInformation(transaction, req, resp)) {
+            LockInfo info = getLockInformation(transaction, req, resp);
+            if (info != null) {
                 int depth = getDepth(req);
                 int lockDuration = getTimeout(transaction, req);
 
                 boolean lockSuccess = false;
-                if (_exclusive) {
+                if (info._exclusive) {
                     lockSuccess = _resourceLocks.exclusiveLock(transaction,
-                            _path, _lockOwner, depth, lockDuration);
+                            request._path, info._owner, depth, lockDuration);
                 } else {
-                    lockSuccess = _resourceLocks.sharedLock(transaction, _path,
-                            _lockOwner, depth, lockDuration);
+                    lockSuccess = _resourceLocks.sharedLock(transaction,
+                            request._path, info._owner, depth, lockDuration);
                 }
 
                 if (lockSuccess) {
                     // Locks successfully placed - return information about
                     LockedObject lo = _resourceLocks.getLockedObjectByPath(
-                            transaction, _path);
+                            transaction, request._path);
                     if (lo != null) {
-                        generateXMLReport(transaction, resp, lo);
+                        generateXMLReport(transaction, resp, lo, info);
                     } else {
                         resp.sendError(WebdavStatus.SC_INTERNAL_SERVER_ERROR);
                     }
                 } else {
-                    sendLockFailError(transaction, req, resp);
+                    sendLockFailError(transaction, req, resp, request._path);
 
                     throw new LockFailedException();
                 }
@@ -314,11 +289,18 @@ public class DoLock extends AbstractMethod {
 
     /**
      * Tries to get the LockInformation from LOCK request
+     * 
+     * @return the lock information, <code>null</code> if it could not be
+     *  read
      */
-    private boolean getLockInformation(ITransaction transaction,
+    private LockInfo getLockInformation(ITransaction transaction,
             HttpServletRequest req, HttpServletResponse resp)
             throws ServletException, IOException {
 
+        boolean exclusive = false;
+        String type = null;
+        String lockOwner = null;
+
         Node lockInfoNode = null;
         DocumentBuilder documentBuilder = null;
 
@@ -359,7 +341,7 @@ public class DoLock extends AbstractMethod {
                             lockOwnerNode = currentNode;
                         }
                     } else {
-                        return false;
+                        return null;
                     }
                 }
 
@@ -373,18 +355,18 @@ public class DoLock extends AbstractMethod {
                             scope = currentNode.getNodeName();
 
                             if (scope.endsWith("exclusive")) {
-                                _exclusive = true;
+                                exclusive = true;
                             } else if (scope.equals("shared")) {
-                                _exclusive = false;
+                                exclusive = false;
                             }
                         }
                     }
                     if (scope == null) {
-                        return false;
+                        return null;
                     }
 
                 } else {
-                    return false;
+                    return null;
                 }
 
                 if (lockTypeNode != null) {
@@ -393,20 +375,20 @@ public class DoLock extends AbstractMethod {
                         currentNode = childList.item(i);
 
                         if (currentNode.getNodeType() == Node.ELEMENT_NODE) {
-                            _type = currentNode.getNodeName();
+                            type = currentNode.getNodeName();
 
-                            if (_type.endsWith("write")) {
-                                _type = "write";
-                            } else if (_type.equals("read")) {
-                                _type = "read";
+                            if (type.endsWith("write")) {
+                                type = "write";
+                            } else if (type.equals("read")) {
+                                type = "read";
                             }
                         }
                     }
-                    if (_type == null) {
-                        return false;
+                    if (type == null) {
+                        return null;
                     }
                 } else {
-                    return false;
+                    return null;
                 }
 
                 if (lockOwnerNode != null) {
@@ -416,29 +398,29 @@ public class DoLock extends AbstractMethod {
 
                         if (currentNode.getNodeType() == Node.ELEMENT_NODE
 							 || currentNode.getNodeType() == Node.TEXT_NODE) {
-							_lockOwner = currentNode.getFirstChild()
+							lockOwner = currentNode.getFirstChild()
 									.getNodeValue();
                         }
                     }
                 }
-                if (_lockOwner == null) {
-                    return false;
+                if (lockOwner == null) {
+                    return null;
                 }
             } else {
-                return false;
+                return null;
             }
 
         } catch (DOMException e) {
             resp.sendError(WebdavStatus.SC_INTERNAL_SERVER_ERROR);
             LOG.error("DOM exception", e);
-            return false;
+            return null;
         } catch (SAXException e) {
             resp.sendError(WebdavStatus.SC_INTERNAL_SERVER_ERROR);
             LOG.error("SAX exception", e);
-            return false;
+            return null;
         }
 
-        return true;
+        return new LockInfo(exclusive, type, lockOwner);
     }
 
     /**
@@ -485,7 +467,8 @@ public class DoLock extends AbstractMethod {
      * Generates the response XML with all lock information
      */
     private void generateXMLReport(ITransaction transaction,
-            HttpServletResponse resp, LockedObject lo) throws IOException {
+            HttpServletResponse resp, LockedObject lo, LockInfo info)
+            throws IOException {
 
         HashMap<String, String> namespaces = new HashMap<String, String>();
         namespaces.put("DAV:", "D");
@@ -500,11 +483,11 @@ public class DoLock extends AbstractMethod {
         generatedXML.writeElement("DAV::activelock", XMLWriter.OPENING);
 
         generatedXML.writeElement("DAV::locktype", XMLWriter.OPENING);
-        generatedXML.writeProperty("DAV::" + _type);
+        generatedXML.writeProperty("DAV::" + info._type);
         generatedXML.writeElement("DAV::locktype", XMLWriter.CLOSING);
 
         generatedXML.writeElement("DAV::lockscope", XMLWriter.OPENING);
-        if (_exclusive) {
+        if (info._exclusive) {
             generatedXML.writeProperty("DAV::exclusive");
         } else {
             generatedXML.writeProperty("DAV::shared");
@@ -523,7 +506,7 @@ public class DoLock extends AbstractMethod {
 
         generatedXML.writeElement("DAV::owner", XMLWriter.OPENING);
         generatedXML.writeElement("DAV::href", XMLWriter.OPENING);
-        generatedXML.writeText(_lockOwner);
+        generatedXML.writeText(info._owner);
         generatedXML.writeElement("DAV::href", XMLWriter.CLOSING);
         generatedXML.writeElement("DAV::owner", XMLWriter.CLOSING);
 
@@ -553,8 +536,8 @@ public class DoLock extends AbstractMethod {
      * Executes the lock for a Mac OS Finder client
      */
     private void doMacLockRequestWorkaround(ITransaction transaction,
-            HttpServletRequest req, HttpServletResponse resp)
-            throws LockFailedException, IOException {
+            HttpServletRequest req, HttpServletResponse resp,
+            LockRequest request) throws LockFailedException, IOException {
         LockedObject lo;
         int depth = getDepth(req);
         int lockDuration = getTimeout(transaction, req);
@@ -562,20 +545,22 @@ public class DoLock extends AbstractMethod {
             lockDuration = DEFAULT_TIMEOUT;
 
         boolean lockSuccess = false;
-        lockSuccess = _resourceLocks.exclusiveLock(transaction, _path,
-                _lockOwner, depth, lockDuration);
+        lockSuccess = _resourceLocks.exclusiveLock(transaction,
+                request._path, request._macLockOwner, depth, lockDuration);
 
         if (lockSuccess) {
             // Locks successfully placed - return information about
-            lo = _resourceLocks.getLockedObjectByPath(transaction, _path);
+            lo = _resourceLocks.getLockedObjectByPath(transaction,
+                    request._path);
             if (lo != null) {
-                generateXMLReport(transaction, resp, lo);
+                generateXMLReport(transaction, resp, lo, new LockInfo(true,
+                        "write", request._macLockOwner));
             } else {
                 resp.sendError(WebdavStatus.SC_INTERNAL_SERVER_ERROR);
             }
         } else {
             // Locking was not successful
-            sendLockFailError(transaction, req, resp);
+            sendLockFailError(transaction, req, resp, request._path);
         }
     }
 
@@ -583,11 +568,64 @@ public class DoLock extends AbstractMethod {
      * Sends an error report to the client
      */
     private void sendLockFailError(ITransaction transaction,
-            HttpServletRequest req, HttpServletResponse resp)
+            HttpServletRequest req, HttpServletResponse resp, String path)
             throws IOException {
         Hashtable<String, Integer> errorList = new Hashtable<String, Integer>();
-        errorList.put(_path, WebdavStatus.SC_LOCKED);
+        errorList.put(path, WebdavStatus.SC_LOCKED);
         sendReport(req, resp, errorList);
     }
 
+    /**
+     * the resource a LOCK request is for. The executor is shared by all
+     * requests, what belongs to one request is kept here instead of in
+     * fields.
+     */
+    private static class LockRequest {
+
+        final String _path;
+
+        final String _parentPath;
+
+        final String _userAgent;
+
+        /**
+         * owner of the lock of a Mac OS Finder request, <code>null</code>
+         * for other clients
+         */
+        final String _macLockOwner;
+
+        LockRequest(String path, String parentPath, String userAgent) {
+            _path = path;
+            _parentPath = parentPath;
+            _userAgent = userAgent;
+            // Mac OS Finder (whether 10.4.x or 10.5) can't store files
+            // because executing a LOCK without lock information causes a
+            // SC_BAD_REQUEST
+            if (userAgent != null && userAgent.indexOf("Darwin") != -1) {
+                _macLockOwner = userAgent.concat(String.valueOf(System
+                        .currentTimeMillis()));
+            } else {
+                _macLockOwner = null;
+            }
+        }
+    }
+
+    /**
+     * the lock information of a LOCK request
+     */
+    private static class LockInfo {
+
+        final boolean _exclusive;
+
+        final String _type;
+
+        final String _owner;
+
+        LockInfo(boolean exclusive, String type, String owner) {
+            _exclusive = exclusive;
+            _type = type;
+            _owner = owner;
+        }
+    }
+
 }
@@ -27,22 +27,20 @@ import net.sf.webdav.exceptions.AccessDeniedException;
 import net.sf.webdav.exceptions.LockFailedException;
 import net.sf.webdav.exceptions.ObjectAlreadyExistsException;
 import net.sf.webdav.exceptions.WebdavException;
-import net.sf.webdav.locking.ResourceLocks;
+import net.sf.webdav.locking.IResourceLocks;
 
 public class DoMove extends AbstractMethod {
 
     private static org.slf4j.Logger LOG = org.slf4j.LoggerFactory
             .getLogger(DoMove.class);
 
-    private ResourceLocks _resourceLocks;
-    private DoDelete _doDelete;
+    private IResourceLocks _resourceLocks;
     private DoCopy _doCopy;
     private boolean _readOnly;
 
-    public DoMove(ResourceLocks resourceLocks, DoDelete doDelete,
-            DoCopy doCopy, boolean readOnly) {
+    public DoMove(IResourceLocks resourceLocks, DoCopy doCopy,
+            boolean readOnly) {
         _resourceLocks = resourceLocks;
-        _doDelete = doDelete;
         _doCopy = doCopy;
         _readOnly = readOnly;
     }
@@ -80,15 +78,7 @@ public class DoMove extends AbstractMethod {
                     false, 0, TEMP_TIMEOUT, TEMPORARY)) {
                 try {
 
-                    if (_doCopy.copyResource(transaction, req, resp)) {
-
-                        errorList = new Hashtable<String, Integer>();
-                        _doDelete.deleteResource(transaction, sourcePath,
-                                errorList, req, resp);
-                        if (!errorList.isEmpty()) {
-                            sendReport(req, resp, errorList);
-                        }
-                    }
+                    _doCopy.moveResource(transaction, req, resp);
 
                 } catch (AccessDeniedException e) {
                     resp.sendError(WebdavStatus.SC_FORBIDDEN);
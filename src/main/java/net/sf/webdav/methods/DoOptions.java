@@ -27,7 +27,7 @@ import net.sf.webdav.IWebdavStore;
 import net.sf.webdav.exceptions.AccessDeniedException;
 import net.sf.webdav.exceptions.LockFailedException;
 import net.sf.webdav.exceptions.WebdavException;
-import net.sf.webdav.locking.ResourceLocks;
+import net.sf.webdav.locking.IResourceLocks;
 
 public class DoOptions extends DeterminableMethod {
 
@@ -35,9 +35,9 @@ public class DoOptions extends DeterminableMethod {
             .getLogger(DoOptions.class);
 
     private IWebdavStore _store;
-    private ResourceLocks _resourceLocks;
+    private IResourceLocks _resourceLocks;
 
-    public DoOptions(IWebdavStore store, ResourceLocks resLocks) {
+    public DoOptions(IWebdavStore store, IResourceLocks resLocks) {
         _store = store;
         _resourceLocks = resLocks;
     }
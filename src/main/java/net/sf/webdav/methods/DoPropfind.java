@@ -19,6 +19,7 @@ import java.io.IOException;
 import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.Hashtable;
+import java.util.Map;
 import java.util.Vector;
 
 import javax.servlet.ServletException;
@@ -27,6 +28,7 @@ import javax.servlet.http.HttpServletResponse;
 import javax.xml.parsers.DocumentBuilder;
 
 import net.sf.webdav.IMimeTyper;
+import net.sf.webdav.IQuotaStore;
 import net.sf.webdav.ITransaction;
 import net.sf.webdav.IWebdavStore;
 import net.sf.webdav.StoredObject;
@@ -37,8 +39,8 @@ import net.sf.webdav.exceptions.WebdavException;
 import net.sf.webdav.fromcatalina.URLEncoder;
 import net.sf.webdav.fromcatalina.XMLHelper;
 import net.sf.webdav.fromcatalina.XMLWriter;
+import net.sf.webdav.locking.IResourceLocks;
 import net.sf.webdav.locking.LockedObject;
-import net.sf.webdav.locking.ResourceLocks;
 
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
@@ -71,12 +73,10 @@ public class DoPropfind extends AbstractMethod {
     private static final int FIND_PROPERTY_NAMES = 2;
 
     private IWebdavStore _store;
-    private ResourceLocks _resourceLocks;
+    private IResourceLocks _resourceLocks;
     private IMimeTyper _mimeTyper;
 
-    private int _depth;
-
-    public DoPropfind(IWebdavStore store, ResourceLocks resLocks,
+    public DoPropfind(IWebdavStore store, IResourceLocks resLocks,
             IMimeTyper mimeTyper) {
         _store = store;
         _resourceLocks = resLocks;
@@ -89,12 +89,11 @@ public class DoPropfind extends AbstractMethod {
 
         // Retrieve the resources
         String path = getCleanPath(getRelativePath(req));
-        String tempLockOwner = "doPropfind" + System.currentTimeMillis()
-                + req.toString();
-        _depth = getDepth(req);
+        int depth = getDepth(req);
 
-        if (_resourceLocks.lock(transaction, path, tempLockOwner, false,
-                _depth, TEMP_TIMEOUT, TEMPORARY)) {
+        // reading needs no temporary lock, it only must not run into an
+        // exclusive one
+        if (_resourceLocks.checkReadable(transaction, path, depth)) {
 
             StoredObject so = null;
             try {
@@ -157,19 +156,20 @@ public class DoPropfind extends AbstractMethod {
                 generatedXML.writeXMLHeader();
                 generatedXML
                         .writeElement("DAV::multistatus", XMLWriter.OPENING);
-                if (_depth == 0) {
+                if (depth == 0) {
                     parseProperties(transaction, req, generatedXML, path,
-                            propertyFindType, properties, _mimeTyper
+                            null, propertyFindType, properties, _mimeTyper
                                     .getMimeType(transaction, path));
                 } else {
-                    recursiveParseProperties(transaction, path, req,
-                            generatedXML, propertyFindType, properties, _depth,
+                    recursiveParseProperties(transaction, path, null, req,
+                            generatedXML, propertyFindType, properties, depth,
                             _mimeTyper.getMimeType(transaction, path));
                 }
                 generatedXML
                         .writeElement("DAV::multistatus", XMLWriter.CLOSING);
 
                 generatedXML.sendData();
+                _metrics.getMultistatusSizes().record(generatedXML.getLength());
             } catch (AccessDeniedException e) {
                 resp.sendError(WebdavStatus.SC_FORBIDDEN);
             } catch (WebdavException e) {
@@ -178,9 +178,6 @@ public class DoPropfind extends AbstractMethod {
             } catch (ServletException e) {
                 e.printStackTrace(); // To change body of catch statement use
                 // File | Settings | File Templates.
-            } finally {
-                _resourceLocks.unlockTemporaryLockedObjects(transaction, path,
-                        tempLockOwner);
             }
         } else {
             Hashtable<String, Integer> errorList = new Hashtable<String, Integer>();
@@ -194,6 +191,9 @@ public class DoPropfind extends AbstractMethod {
      * 
      * @param currentPath
      *      the current path
+     * @param so
+     *      StoredObject of the current path, <code>null</code> if it still
+     *      has to be read from the store
      * @param req
      *      HttpServletRequest
      * @param generatedXML
@@ -205,28 +205,29 @@ public class DoPropfind extends AbstractMethod {
      *      if an error in the underlying store occurs
      */
     private void recursiveParseProperties(ITransaction transaction,
-            String currentPath, HttpServletRequest req, XMLWriter generatedXML,
-            int propertyFindType, Vector<String> properties, int depth,
-            String mimeType) throws WebdavException {
+            String currentPath, StoredObject so, HttpServletRequest req,
+            XMLWriter generatedXML, int propertyFindType,
+            Vector<String> properties, int depth, String mimeType)
+            throws WebdavException {
 
-        parseProperties(transaction, req, generatedXML, currentPath,
+        parseProperties(transaction, req, generatedXML, currentPath, so,
                 propertyFindType, properties, mimeType);
 
         if (depth > 0) {
             // no need to get name if depth is already zero
-            String[] names = _store.getChildrenNames(transaction, currentPath);
-            names = names == null ? new String[] {} : names;
+            Map<String, StoredObject> children = getChildren(_store,
+                    transaction, currentPath);
             String newPath = null;
 
-            for (String name : names) {
+            for (Map.Entry<String, StoredObject> child : children.entrySet()) {
                 newPath = currentPath;
                 if (!(newPath.endsWith("/"))) {
                     newPath += "/";
                 }
-                newPath += name;
-                recursiveParseProperties(transaction, newPath, req,
-                        generatedXML, propertyFindType, properties, depth - 1,
-                        mimeType);
+                newPath += child.getKey();
+                recursiveParseProperties(transaction, newPath, child
+                        .getValue(), req, generatedXML, propertyFindType,
+                        properties, depth - 1, mimeType);
             }
         }
     }
@@ -240,6 +241,9 @@ public class DoPropfind extends AbstractMethod {
      *      XML response to the Propfind request
      * @param path
      *      Path of the current resource
+     * @param so
+     *      StoredObject of the current resource, <code>null</code> if it
+     *      still has to be read from the store
      * @param type
      *      Propfind type
      * @param propertiesVector
@@ -248,10 +252,12 @@ public class DoPropfind extends AbstractMethod {
      */
     private void parseProperties(ITransaction transaction,
             HttpServletRequest req, XMLWriter generatedXML, String path,
-            int type, Vector<String> propertiesVector, String mimeType)
-            throws WebdavException {
+            StoredObject so, int type, Vector<String> propertiesVector,
+            String mimeType) throws WebdavException {
 
-        StoredObject so = _store.getStoredObject(transaction, path);
+        if (so == null) {
+            so = _store.getStoredObject(transaction, path);
+        }
 
         boolean isFolder = so.isFolder();
         final String creationdate = creationDateFormat(so.getCreationDate());
@@ -450,6 +456,24 @@ public class DoPropfind extends AbstractMethod {
 
                     writeLockDiscoveryElements(transaction, generatedXML, path);
 
+                } else if (property.equals("DAV::quota-available-bytes")
+                        || property.equals("DAV::quota-used-bytes")) {
+                    // RFC 4331, only asked for by name
+                    long bytes = -1;
+                    if (isFolder && _store instanceof IQuotaStore) {
+                        IQuotaStore quotaStore = (IQuotaStore) _store;
+                        bytes = property.equals("DAV::quota-used-bytes")
+                                ? quotaStore.getQuotaUsedBytes(transaction,
+                                        path) : quotaStore
+                                        .getQuotaAvailableBytes(transaction,
+                                                path);
+                    }
+                    if (bytes < 0) {
+                        propertiesNotFound.addElement(property);
+                    } else {
+                        generatedXML.writeProperty(property, String
+                                .valueOf(bytes));
+                    }
                 } else {
                     propertiesNotFound.addElement(property);
                 }
@@ -579,10 +603,12 @@ public class DoPropfind extends AbstractMethod {
             generatedXML.writeElement("DAV::lockscope", XMLWriter.CLOSING);
 
             generatedXML.writeElement("DAV::depth", XMLWriter.OPENING);
-            if (_depth == INFINITY) {
+            // the depth of the lock, not the one of this request
+            int depth = lo.getLockDepth();
+            if (depth == INFINITY) {
                 generatedXML.writeText("Infinity");
             } else {
-                generatedXML.writeText(String.valueOf(_depth));
+                generatedXML.writeText(String.valueOf(depth));
             }
             generatedXML.writeElement("DAV::depth", XMLWriter.CLOSING);
 
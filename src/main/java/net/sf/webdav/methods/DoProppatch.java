@@ -21,8 +21,8 @@ import net.sf.webdav.exceptions.LockFailedException;
 import net.sf.webdav.exceptions.WebdavException;
 import net.sf.webdav.fromcatalina.XMLHelper;
 import net.sf.webdav.fromcatalina.XMLWriter;
+import net.sf.webdav.locking.IResourceLocks;
 import net.sf.webdav.locking.LockedObject;
-import net.sf.webdav.locking.ResourceLocks;
 
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
@@ -36,9 +36,9 @@ public class DoProppatch extends AbstractMethod {
 
     private boolean _readOnly;
     private IWebdavStore _store;
-    private ResourceLocks _resourceLocks;
+    private IResourceLocks _resourceLocks;
 
-    public DoProppatch(IWebdavStore store, ResourceLocks resLocks,
+    public DoProppatch(IWebdavStore store, IResourceLocks resLocks,
             boolean readOnly) {
         _readOnly = readOnly;
         _store = store;
@@ -210,6 +210,7 @@ public class DoProppatch extends AbstractMethod {
                         .writeElement("DAV::multistatus", XMLWriter.CLOSING);
 
                 generatedXML.sendData();
+                _metrics.getMultistatusSizes().record(generatedXML.getLength());
             } catch (AccessDeniedException e) {
                 resp.sendError(WebdavStatus.SC_FORBIDDEN);
             } catch (WebdavException e) {
@@ -16,17 +16,21 @@
 package net.sf.webdav.methods;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.Hashtable;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
+import net.sf.webdav.IPartialUploadStore;
 import net.sf.webdav.ITransaction;
 import net.sf.webdav.IWebdavStore;
 import net.sf.webdav.StoredObject;
 import net.sf.webdav.WebdavStatus;
 import net.sf.webdav.exceptions.AccessDeniedException;
 import net.sf.webdav.exceptions.LockFailedException;
+import net.sf.webdav.exceptions.QuotaExceededException;
+import net.sf.webdav.exceptions.RequestFailedException;
 import net.sf.webdav.exceptions.WebdavException;
 import net.sf.webdav.locking.IResourceLocks;
 import net.sf.webdav.locking.LockedObject;
@@ -40,15 +44,24 @@ public class DoPut extends AbstractMethod {
     private IResourceLocks _resourceLocks;
     private boolean _readOnly;
     private boolean _lazyFolderCreationOnPut;
-
-    private String _userAgent;
+    private long _maxUploadSize;
 
     public DoPut(IWebdavStore store, IResourceLocks resLocks, boolean readOnly,
             boolean lazyFolderCreationOnPut) {
+        this(store, resLocks, readOnly, lazyFolderCreationOnPut, -1);
+    }
+
+    /**
+     * @param maxUploadSize
+     *      maximum length of the content of a resource, -1 for no limit
+     */
+    public DoPut(IWebdavStore store, IResourceLocks resLocks, boolean readOnly,
+            boolean lazyFolderCreationOnPut, long maxUploadSize) {
         _store = store;
         _resourceLocks = resLocks;
         _readOnly = readOnly;
         _lazyFolderCreationOnPut = lazyFolderCreationOnPut;
+        _maxUploadSize = maxUploadSize;
     }
 
     public void execute(ITransaction transaction, HttpServletRequest req,
@@ -59,7 +72,29 @@ public class DoPut extends AbstractMethod {
             String path = getRelativePath(req);
             String parentPath = getParentPath(path);
 
-            _userAgent = req.getHeader("User-Agent");
+            String userAgent = req.getHeader("User-Agent");
+
+            long[] contentRange = null;
+            String contentRangeHeader = req.getHeader("Content-Range");
+            if (contentRangeHeader != null) {
+                contentRange = parseContentRange(contentRangeHeader);
+                if (contentRange == null
+                        || !(_store instanceof IPartialUploadStore)) {
+                    // a part must not be taken for the whole content
+                    resp.sendError(WebdavStatus.SC_BAD_REQUEST);
+                    return;
+                }
+            }
+
+            if (_maxUploadSize >= 0) {
+                // refuse what is too large before reading any of it
+                long contentLength = contentRange != null ? contentRange[2]
+                        : getContentLength(req);
+                if (contentLength > _maxUploadSize) {
+                    resp.sendError(WebdavStatus.SC_REQUEST_TOO_LONG);
+                    return;
+                }
+            }
 
             Hashtable<String, Integer> errorList = new Hashtable<String, Integer>();
 
@@ -99,7 +134,11 @@ public class DoPut extends AbstractMethod {
                     so = _store.getStoredObject(transaction, path);
 
                     if (so == null) {
-                        _store.createResource(transaction, path);
+                        if (contentRange == null) {
+                            // a partial upload creates the resource when
+                            // it is complete
+                            _store.createResource(transaction, path);
+                        }
                         // resp.setStatus(WebdavStatus.SC_CREATED);
                     } else {
                         // This has already been created, just update the data
@@ -144,20 +183,51 @@ public class DoPut extends AbstractMethod {
                         }
                     }
                     // User-Agent workarounds
-                    doUserAgentWorkaround(resp);
+                    doUserAgentWorkaround(resp, userAgent);
+
+                    if (contentRange != null) {
+                        writePart(transaction, req, resp, path, contentRange);
+                        return;
+                    }
 
                     // setting resourceContent
-                    long resourceLength = _store
-                            .setResourceContent(transaction, path, req
-                                    .getInputStream(), null, null);
+                    InputStream content = req.getInputStream();
+                    if (_maxUploadSize >= 0) {
+                        // Content-Length may be missing (chunked) or wrong
+                        content = new UploadInputStream(content,
+                                _maxUploadSize);
+                    }
+                    long resourceLength;
+                    try {
+                        resourceLength = _store.setResourceContent(
+                                transaction, path, content, null, null);
+                    } catch (WebdavException e) {
+                        if (content instanceof UploadInputStream
+                                && ((UploadInputStream) content)._exceeded) {
+                            // what was read of it must not stay
+                            throw new RequestFailedException(
+                                    WebdavStatus.SC_REQUEST_TOO_LONG,
+                                    "maximum upload size exceeded: " + path,
+                                    e);
+                        }
+                        throw e;
+                    }
 
                     so = _store.getStoredObject(transaction, path);
-                    if (resourceLength != -1)
+                    if (resourceLength != -1) {
                         so.setResourceLength(resourceLength);
+                        _metrics.addBytesIn(resourceLength);
+                    }
                     // Now lets report back what was actually saved
 
                 } catch (AccessDeniedException e) {
                     resp.sendError(WebdavStatus.SC_FORBIDDEN);
+                } catch (QuotaExceededException e) {
+                    throw new RequestFailedException(
+                            WebdavStatus.SC_INSUFFICIENT_STORAGE,
+                            "quota exceeded: " + path, e);
+                } catch (RequestFailedException e) {
+                    throw e;
                 } catch (WebdavException e) {
                     resp.sendError(WebdavStatus.SC_INTERNAL_SERVER_ERROR);
                 } finally {
@@ -173,23 +243,162 @@ public class DoPut extends AbstractMethod {
 
     }
 
+    /**
+     * writes the part of a partial upload, answers with 202 (Accepted) and
+     * the ranges received so far until the upload is complete
+     */
+    private void writePart(ITransaction transaction, HttpServletRequest req,
+            HttpServletResponse resp, String path, long[] contentRange)
+            throws IOException {
+        long first = contentRange[0];
+        long last = contentRange[1];
+        long resourceLength = contentRange[2];
+        long[][] received = ((IPartialUploadStore) _store)
+                .writeResourceContent(transaction, path, first, last - first
+                        + 1, resourceLength, req.getInputStream());
+        if (received == null) {
+            resp.sendError(WebdavStatus.SC_BAD_REQUEST);
+            return;
+        }
+        _metrics.addBytesIn(last - first + 1);
+        if (received.length == 1 && received[0][0] == 0
+                && received[0][1] == resourceLength - 1) {
+            return;
+        }
+        resp.setStatus(WebdavStatus.SC_ACCEPTED);
+        StringBuffer range = new StringBuffer("bytes=");
+        for (int i = 0; i < received.length; i++) {
+            if (i > 0) {
+                range.append(',');
+            }
+            range.append(received[i][0]).append('-').append(received[i][1]);
+        }
+        if (received.length > 0) {
+            resp.setHeader("Range", range.toString());
+        }
+    }
+
+    /**
+     * @return the Content-Length of the request, -1 if it isn't known
+     */
+    private long getContentLength(HttpServletRequest req) {
+        // getContentLength() can't return more than 2 GB
+        String contentLength = req.getHeader("Content-Length");
+        if (contentLength == null) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(contentLength.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Parses the Content-Range header of a PUT request, "bytes
+     * first-last/length".
+     * 
+     * @return the first and last byte position (inclusive) and the length
+     *  of the resource, <code>null</code> if the header is invalid or the
+     *  length is unknown
+     */
+    protected long[] parseContentRange(String contentRange) {
+        contentRange = contentRange.trim();
+        if (!contentRange.startsWith("bytes ")) {
+            return null;
+        }
+        String rangeSpec = contentRange.substring(6).trim();
+        int dash = rangeSpec.indexOf('-');
+        int slash = rangeSpec.indexOf('/');
+        if (dash == -1 || slash < dash) {
+            return null;
+        }
+        try {
+            long first = Long.parseLong(rangeSpec.substring(0, dash).trim());
+            long last = Long.parseLong(rangeSpec.substring(dash + 1, slash)
+                    .trim());
+            long length = Long.parseLong(rangeSpec.substring(slash + 1)
+                    .trim());
+            if (first < 0 || last < first || last >= length) {
+                return null;
+            }
+            return new long[] { first, last, length };
+        } catch (NumberFormatException e) {
+            // "*" for an unknown length, the upload could never complete
+            return null;
+        }
+    }
+
     /**
      * @param resp
+     * @param userAgent
+     *      the User-Agent header of the request
      */
-    private void doUserAgentWorkaround(HttpServletResponse resp) {
-        if (_userAgent != null && _userAgent.indexOf("WebDAVFS") != -1
-                && _userAgent.indexOf("Transmit") == -1) {
+    private void doUserAgentWorkaround(HttpServletResponse resp,
+            String userAgent) {
+        if (userAgent != null && userAgent.indexOf("WebDAVFS") != -1
+                && userAgent.indexOf("Transmit") == -1) {
             LOG.trace("DoPut.execute() : do workaround for user agent '"
-                    + _userAgent + "'");
+                    + userAgent + "'");
             resp.setStatus(WebdavStatus.SC_CREATED);
-        } else if (_userAgent != null && _userAgent.indexOf("Transmit") != -1) {
+        } else if (userAgent != null && userAgent.indexOf("Transmit") != -1) {
             // Transmit also uses WEBDAVFS 1.x.x but crashes
             // with SC_CREATED response
             LOG.trace("DoPut.execute() : do workaround for user agent '"
-                    + _userAgent + "'");
+                    + userAgent + "'");
             resp.setStatus(WebdavStatus.SC_NO_CONTENT);
         } else {
             resp.setStatus(WebdavStatus.SC_CREATED);
         }
     }
+
+    /**
+     * reads the content of a request and fails as soon as it is longer than
+     * the maximum upload size
+     */
+    private static class UploadInputStream extends InputStream {
+
+        private final InputStream _in;
+
+        private long _remaining;
+
+        boolean _exceeded = false;
+
+        UploadInputStream(InputStream in, long maxUploadSize) {
+            _in = in;
+            _remaining = maxUploadSize;
+        }
+
+        public int read() throws IOException {
+            int b = _in.read();
+            if (b != -1) {
+                count(1);
+            }
+            return b;
+        }
+
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = _in.read(b, off, len);
+            if (read > 0) {
+                count(read);
+            }
+            return read;
+        }
+
+        private void count(int bytes) throws IOException {
+            _remaining -= bytes;
+            if (_remaining < 0) {
+                _exceeded = true;
+                throw new IOException("maximum upload size exceeded");
+            }
+        }
+
+        public int available() throws IOException {
+            return _in.available();
+        }
+
+        public void close() throws IOException {
+            _in.close();
+        }
+    }
 }
@@ -0,0 +1,119 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.webdav.methods;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the work on the children of a folder (COPY, DELETE) in parallel on a
+ * bounded number of threads.
+ *
+ * A task is handed to a pool thread only if one is idle, else the calling
+ * thread runs it itself. Nothing ever waits in a queue, so a task waiting for
+ * its subtasks can't block the threads those subtasks need, however deep the
+ * tree is.
+ */
+public class TreeTaskExecutor {
+
+    private static org.slf4j.Logger LOG = org.slf4j.LoggerFactory
+            .getLogger(TreeTaskExecutor.class);
+
+    private final ThreadPoolExecutor _pool;
+
+    /**
+     * @param threads
+     *      maximum number of threads working on the tree besides the
+     *      request thread
+     */
+    public TreeTaskExecutor(int threads) {
+        _pool = new ThreadPoolExecutor(0, threads, 60L, TimeUnit.SECONDS,
+                new SynchronousQueue<Runnable>(), new ThreadFactory() {
+                    private final AtomicInteger _count = new AtomicInteger();
+
+                    public Thread newThread(Runnable r) {
+                        Thread thread = new Thread(r, "webdav-tree-"
+                                + _count.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+    }
+
+    /**
+     * runs all tasks and returns when all of them are done
+     *
+     * @param tasks
+     *      the tasks
+     * @throws RuntimeException
+     *      the first exception thrown by a task
+     */
+    public void invokeAll(List<Runnable> tasks) {
+        List<Future<Object>> futures = new ArrayList<Future<Object>>(tasks
+                .size());
+        for (Runnable task : tasks) {
+            FutureTask<Object> future = new FutureTask<Object>(task, null);
+            try {
+                _pool.execute(future);
+            } catch (RejectedExecutionException e) {
+                // all threads are busy
+                future.run();
+            }
+            futures.add(future);
+        }
+
+        RuntimeException failure = null;
+        for (Future<Object> future : futures) {
+            try {
+                future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException(
+                        "interrupted while waiting for tree tasks");
+            } catch (ExecutionException e) {
+                if (failure == null) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof RuntimeException) {
+                        failure = (RuntimeException) cause;
+                    } else if (cause instanceof Error) {
+                        throw (Error) cause;
+                    } else {
+                        failure = new RuntimeException(cause);
+                    }
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * stops the threads
+     */
+    public void shutdown() {
+        LOG.trace("TreeTaskExecutor.shutdown()");
+        _pool.shutdown();
+    }
+
+}
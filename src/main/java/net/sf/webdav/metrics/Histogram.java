@@ -0,0 +1,168 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package net.sf.webdav.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Distribution of recorded values, like the HdrHistogram.
+ *
+ * Values are counted in buckets growing with the value: every power of two
+ * is split into 8 buckets, so a percentile is off by at most 12.5%.
+ * Recording only increments counters, it neither allocates nor locks and
+ * may be called from any number of threads.
+ */
+public class Histogram implements HistogramMBean {
+
+    /**
+     * each power of two is split into 2^SUB_BITS buckets
+     */
+    private static final int SUB_BITS = 3;
+
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+
+    /**
+     * enough buckets for Long.MAX_VALUE
+     */
+    private static final int BUCKETS = (64 - SUB_BITS) * SUB_COUNT;
+
+    private final AtomicLongArray _buckets = new AtomicLongArray(BUCKETS);
+
+    private final AtomicLong _count = new AtomicLong();
+
+    private final AtomicLong _sum = new AtomicLong();
+
+    private final AtomicLong _max = new AtomicLong();
+
+    private final double _scale;
+
+    /**
+     * @param scale
+     *      factor turning recorded values into the reported unit, e.g. 1e-9
+     *      to report nanoseconds as seconds
+     */
+    public Histogram(double scale) {
+        _scale = scale;
+    }
+
+    /**
+     * records a value, negative values count as 0
+     */
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        _buckets.incrementAndGet(bucketOf(value));
+        _count.incrementAndGet();
+        _sum.addAndGet(value);
+        long max = _max.get();
+        while (value > max && !_max.compareAndSet(max, value)) {
+            max = _max.get();
+        }
+    }
+
+    /**
+     * records the nanoseconds passed since a start taken with
+     * System.nanoTime()
+     */
+    public void recordSince(long start) {
+        record(System.nanoTime() - start);
+    }
+
+    public long getCount() {
+        return _count.get();
+    }
+
+    /**
+     * @return sum of the recorded values in the reported unit
+     */
+    public double getSum() {
+        return _sum.get() * _scale;
+    }
+
+    public double getMean() {
+        long count = _count.get();
+        return count == 0 ? 0 : getSum() / count;
+    }
+
+    public double getMax() {
+        return _max.get() * _scale;
+    }
+
+    public double getPercentile50() {
+        return getPercentile(50);
+    }
+
+    public double getPercentile90() {
+        return getPercentile(90);
+    }
+
+    public double getPercentile99() {
+        return getPercentile(99);
+    }
+
+    public double getPercentile999() {
+        return getPercentile(99.9);
+    }
+
+    /**
+     * @param percentile
+     *      between 0 and 100
+     * @return the value below which the given percentage of the recorded
+     *  values lie, in the reported unit. 0 if nothing has been recorded
+     */
+    public double getPercentile(double percentile) {
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            total += _buckets.get(i);
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(total * percentile / 100));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += _buckets.get(i);
+            if (seen >= rank) {
+                return Math.min(highestOf(i), _max.get()) * _scale;
+            }
+        }
+        return getMax();
+    }
+
+    private static int bucketOf(long value) {
+        if (value < SUB_COUNT) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int shift = exponent - SUB_BITS;
+        int sub = (int) (value >>> shift) & (SUB_COUNT - 1);
+        return (shift + 1) * SUB_COUNT + sub;
+    }
+
+    /**
+     * @return the highest value counted in a bucket
+     */
+    private static long highestOf(int bucket) {
+        if (bucket < SUB_COUNT) {
+            return bucket;
+        }
+        int shift = bucket / SUB_COUNT - 1;
+        long lowest = (long) (SUB_COUNT + bucket % SUB_COUNT) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+
+}
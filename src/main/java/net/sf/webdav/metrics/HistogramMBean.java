@@ -0,0 +1,38 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package net.sf.webdav.metrics;
+
+/**
+ * JMX view of a {@link Histogram}. Times are reported in seconds.
+ */
+public interface HistogramMBean {
+
+    long getCount();
+
+    double getSum();
+
+    double getMean();
+
+    double getMax();
+
+    double getPercentile50();
+
+    double getPercentile90();
+
+    double getPercentile99();
+
+    double getPercentile999();
+
+}
@@ -0,0 +1,190 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package net.sf.webdav.metrics;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Keys (e.g. paths) with the highest total weight (e.g. time), found with
+ * the Space-Saving algorithm of Metwally, Agrawal and El Abbadi in a fixed
+ * number of counters.
+ *
+ * When all counters are taken, a new key replaces the lightest one and
+ * inherits its weight as error. Any key heavier than total weight /
+ * capacity is guaranteed to be kept, its weight is overestimated by at most
+ * its error.
+ *
+ * Recording a new key reuses the counter it replaces. Every sample is
+ * counted, records of several threads wait for each other, so the
+ * counters always add up to the total weight recorded.
+ */
+public class HotSpots implements HotSpotsMBean {
+
+    private final int _capacity;
+
+    private final double _scale;
+
+    private final HashMap<String, Counter> _counters;
+
+    private final ReentrantLock _lock = new ReentrantLock();
+
+    /**
+     * @param capacity
+     *      number of keys kept
+     * @param scale
+     *      factor turning weights into the reported unit
+     */
+    public HotSpots(int capacity, double scale) {
+        _capacity = capacity;
+        _scale = scale;
+        _counters = new HashMap<String, Counter>(capacity * 2);
+    }
+
+    public int getCapacity() {
+        return _capacity;
+    }
+
+    /**
+     * adds weight to a key
+     */
+    public void record(String key, long weight) {
+        if (_capacity <= 0) {
+            return;
+        }
+        _lock.lock();
+        try {
+            Counter counter = _counters.get(key);
+            if (counter == null) {
+                if (_counters.size() < _capacity) {
+                    counter = new Counter();
+                } else {
+                    counter = lightest();
+                    _counters.remove(counter._key);
+                    counter._error = counter._weight;
+                    counter._count = 0;
+                }
+                counter._key = key;
+                _counters.put(key, counter);
+            }
+            counter._weight += weight;
+            counter._count++;
+        } finally {
+            _lock.unlock();
+        }
+    }
+
+    private Counter lightest() {
+        Counter lightest = null;
+        for (Counter counter : _counters.values()) {
+            if (lightest == null || counter._weight < lightest._weight) {
+                lightest = counter;
+            }
+        }
+        return lightest;
+    }
+
+    /**
+     * @return the kept keys, heaviest first
+     */
+    public List<Entry> getEntries() {
+        List<Entry> entries = new ArrayList<Entry>();
+        _lock.lock();
+        try {
+            for (Counter counter : _counters.values()) {
+                entries.add(new Entry(counter._key, counter._weight * _scale,
+                        counter._error * _scale, counter._count));
+            }
+        } finally {
+            _lock.unlock();
+        }
+        Collections.sort(entries, new Comparator<Entry>() {
+            public int compare(Entry e1, Entry e2) {
+                return Double.compare(e2._weight, e1._weight);
+            }
+        });
+        return entries;
+    }
+
+    public String[] getTop() {
+        List<Entry> entries = getEntries();
+        String[] top = new String[entries.size()];
+        for (int i = 0; i < top.length; i++) {
+            Entry entry = entries.get(i);
+            top[i] = entry._key + " weight=" + entry._weight + " error="
+                    + entry._error + " count=" + entry._count;
+        }
+        return top;
+    }
+
+    private static class Counter {
+
+        String _key;
+
+        long _weight;
+
+        long _error;
+
+        long _count;
+    }
+
+    /**
+     * a kept key, weights in the reported unit
+     */
+    public static class Entry {
+
+        private final String _key;
+
+        private final double _weight;
+
+        private final double _error;
+
+        private final long _count;
+
+        Entry(String key, double weight, double error, long count) {
+            _key = key;
+            _weight = weight;
+            _error = error;
+            _count = count;
+        }
+
+        public String getKey() {
+            return _key;
+        }
+
+        /**
+         * @return the total weight, overestimated by at most the error
+         */
+        public double getWeight() {
+            return _weight;
+        }
+
+        public double getError() {
+            return _error;
+        }
+
+        /**
+         * @return the number of records since the key was last taken in
+         */
+        public long getCount() {
+            return _count;
+        }
+    }
+
+}
@@ -0,0 +1,33 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package net.sf.webdav.metrics;
+
+/**
+ * JMX view of {@link HotSpots}.
+ */
+public interface HotSpotsMBean {
+
+    /**
+     * @return the number of keys kept
+     */
+    int getCapacity();
+
+    /**
+     * @return the keys with the highest weight, heaviest first, one line
+     *  each
+     */
+    String[] getTop();
+
+}
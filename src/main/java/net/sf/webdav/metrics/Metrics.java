@@ -0,0 +1,375 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package net.sf.webdav.metrics;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Metrics of a WebDavServletBean: the time taken by each HTTP method and
+ * each store operation, the time spent waiting for the locks of
+ * ResourceLocks, the size of multistatus responses and the bytes of content
+ * moved. With an InstrumentedStore also the store calls slower than its
+ * threshold and the paths the store spends the most time on.
+ *
+ * Histograms are created the first time a method or operation is seen,
+ * after that recording neither allocates nor locks. They are published as
+ * MBeans once {@link #register(String)} has been called, and as text by
+ * {@link #write(Writer)}.
+ */
+public class Metrics implements MetricsMBean {
+
+    private static org.slf4j.Logger LOG = org.slf4j.LoggerFactory
+            .getLogger(Metrics.class);
+
+    /**
+     * JMX domain of the MBeans
+     */
+    public static final String DOMAIN = "net.sf.webdav";
+
+    /**
+     * scale of histograms recording nanoseconds, reported as seconds
+     */
+    public static final double NANOS = 1e-9;
+
+    /**
+     * shared by the executors and stores whose metrics have not been set
+     * yet, it is never registered
+     */
+    public static final Metrics NONE = new Metrics();
+
+    private static final double[] QUANTILES = { 0.5, 0.9, 0.99, 0.999 };
+
+    private final ConcurrentHashMap<String, Histogram> _requests = new ConcurrentHashMap<String, Histogram>();
+
+    private final ConcurrentHashMap<String, Histogram> _storeCalls = new ConcurrentHashMap<String, Histogram>();
+
+    private final Histogram _lockWaits = new Histogram(NANOS);
+
+    private final Histogram _multistatusSizes = new Histogram(1);
+
+    private final AtomicLong _bytesIn = new AtomicLong();
+
+    private final AtomicLong _bytesOut = new AtomicLong();
+
+    private final AtomicLong _slowStoreCalls = new AtomicLong();
+
+    private HotSpots _storeHotSpots;
+
+    /**
+     * the HTTP method executed by the current thread
+     */
+    private static final ThreadLocal<String> CURRENT_METHOD = new ThreadLocal<String>();
+
+    /**
+     * guards the registration of MBeans
+     */
+    private final ReentrantLock _lock = new ReentrantLock();
+
+    private MBeanServer _server;
+
+    private String _name;
+
+    private final List<ObjectName> _registered = new ArrayList<ObjectName>();
+
+    /**
+     * @return the time taken by the requests of an HTTP method, in
+     *  nanoseconds
+     */
+    public Histogram getRequestTimes(String method) {
+        return getHistogram(_requests, "Request", method);
+    }
+
+    /**
+     * @return the time taken by an operation of the store, in nanoseconds
+     */
+    public Histogram getStoreTimes(String operation) {
+        return getHistogram(_storeCalls, "StoreCall", operation);
+    }
+
+    /**
+     * @return the time spent waiting for a lock held by another request, in
+     *  nanoseconds. Locks taken without waiting are not recorded
+     */
+    public Histogram getLockWaits() {
+        return _lockWaits;
+    }
+
+    /**
+     * @return the number of characters of multistatus responses
+     */
+    public Histogram getMultistatusSizes() {
+        return _multistatusSizes;
+    }
+
+    public void addBytesIn(long bytes) {
+        _bytesIn.addAndGet(bytes);
+    }
+
+    public void addBytesOut(long bytes) {
+        _bytesOut.addAndGet(bytes);
+    }
+
+    public long getBytesIn() {
+        return _bytesIn.get();
+    }
+
+    public long getBytesOut() {
+        return _bytesOut.get();
+    }
+
+    public void addSlowStoreCall() {
+        _slowStoreCalls.incrementAndGet();
+    }
+
+    public long getSlowStoreCalls() {
+        return _slowStoreCalls.get();
+    }
+
+    /**
+     * @param hotSpots
+     *      the time the store spends on each path, reported in seconds
+     */
+    public void setStoreHotSpots(HotSpots hotSpots) {
+        _lock.lock();
+        try {
+            _storeHotSpots = hotSpots;
+            if (_server != null) {
+                registerMBean(hotSpots, "StoreHotSpots", null);
+            }
+        } finally {
+            _lock.unlock();
+        }
+    }
+
+    /**
+     * @return the time the store spends on each path, <code>null</code>
+     *  without an InstrumentedStore
+     */
+    public HotSpots getStoreHotSpots() {
+        _lock.lock();
+        try {
+            return _storeHotSpots;
+        } finally {
+            _lock.unlock();
+        }
+    }
+
+    /**
+     * remembers the HTTP method executed by the current thread, for the
+     * calls it makes to the store
+     * 
+     * @param method
+     *      the method, <code>null</code> when the request is done
+     */
+    public static void setCurrentMethod(String method) {
+        if (method == null) {
+            CURRENT_METHOD.remove();
+        } else {
+            CURRENT_METHOD.set(method);
+        }
+    }
+
+    /**
+     * @return the HTTP method executed by the current thread,
+     *  <code>null</code> if not known (e.g. threads sending bodies in async
+     *  mode)
+     */
+    public static String getCurrentMethod() {
+        return CURRENT_METHOD.get();
+    }
+
+    private Histogram getHistogram(ConcurrentHashMap<String, Histogram> map,
+            String type, String key) {
+        Histogram histogram = map.get(key);
+        if (histogram == null) {
+            _lock.lock();
+            try {
+                histogram = map.get(key);
+                if (histogram == null) {
+                    histogram = new Histogram(NANOS);
+                    map.put(key, histogram);
+                    if (_server != null) {
+                        registerMBean(histogram, type, key);
+                    }
+                }
+            } finally {
+                _lock.unlock();
+            }
+        }
+        return histogram;
+    }
+
+    /**
+     * publishes the metrics as MBeans of the platform MBeanServer
+     * 
+     * @param name
+     *      name of the servlet, part of the names of the MBeans
+     */
+    public void register(String name) {
+        _lock.lock();
+        try {
+            if (_server != null) {
+                return;
+            }
+            _server = ManagementFactory.getPlatformMBeanServer();
+            _name = name;
+            registerMBean(this, "Metrics", null);
+            registerMBean(_lockWaits, "LockWait", null);
+            registerMBean(_multistatusSizes, "MultistatusSize", null);
+            if (_storeHotSpots != null) {
+                registerMBean(_storeHotSpots, "StoreHotSpots", null);
+            }
+            for (Map.Entry<String, Histogram> entry : _requests.entrySet()) {
+                registerMBean(entry.getValue(), "Request", entry.getKey());
+            }
+            for (Map.Entry<String, Histogram> entry : _storeCalls.entrySet()) {
+                registerMBean(entry.getValue(), "StoreCall", entry.getKey());
+            }
+        } finally {
+            _lock.unlock();
+        }
+    }
+
+    /**
+     * removes the MBeans published by {@link #register(String)}
+     */
+    public void unregister() {
+        _lock.lock();
+        try {
+            if (_server == null) {
+                return;
+            }
+            for (ObjectName objectName : _registered) {
+                try {
+                    _server.unregisterMBean(objectName);
+                } catch (JMException e) {
+                    LOG.warn("Metrics: unregistering " + objectName
+                            + " failed: " + e);
+                }
+            }
+            _registered.clear();
+            _server = null;
+        } finally {
+            _lock.unlock();
+        }
+    }
+
+    private void registerMBean(Object mbean, String type, String key) {
+        try {
+            String objectName = DOMAIN + ":servlet="
+                    + ObjectName.quote(_name) + ",type=" + type;
+            if (key != null) {
+                objectName += ",name=" + ObjectName.quote(key);
+            }
+            ObjectName registered = _server.registerMBean(mbean,
+                    new ObjectName(objectName)).getObjectName();
+            _registered.add(registered);
+        } catch (JMException e) {
+            // e.g. two servlets of the same name in one JVM
+            LOG.warn("Metrics: registering " + type + " " + key + " failed: "
+                    + e);
+        }
+    }
+
+    public String getReport() {
+        StringWriter writer = new StringWriter();
+        try {
+            write(writer);
+        } catch (IOException e) {
+            // not thrown by a StringWriter
+        }
+        return writer.toString();
+    }
+
+    /**
+     * writes all metrics in the text format of Prometheus
+     */
+    public void write(Writer writer) throws IOException {
+        writeSummaries(writer, "webdav_request_seconds", "method", _requests);
+        writeSummaries(writer, "webdav_store_call_seconds", "operation",
+                _storeCalls);
+        writer.write("# TYPE webdav_lock_wait_seconds summary\n");
+        writeSummary(writer, "webdav_lock_wait_seconds", "", _lockWaits);
+        writer.write("# TYPE webdav_multistatus_characters summary\n");
+        writeSummary(writer, "webdav_multistatus_characters", "",
+                _multistatusSizes);
+        writer.write("# TYPE webdav_received_bytes_total counter\n");
+        writer.write("webdav_received_bytes_total " + getBytesIn() + "\n");
+        writer.write("# TYPE webdav_sent_bytes_total counter\n");
+        writer.write("webdav_sent_bytes_total " + getBytesOut() + "\n");
+        HotSpots hotSpots = getStoreHotSpots();
+        if (hotSpots != null) {
+            writer.write("# TYPE webdav_slow_store_calls_total counter\n");
+            writer.write("webdav_slow_store_calls_total "
+                    + getSlowStoreCalls() + "\n");
+            writer.write("# TYPE webdav_store_path_seconds gauge\n");
+            for (HotSpots.Entry entry : hotSpots.getEntries()) {
+                writer.write("webdav_store_path_seconds{path=\""
+                        + escape(entry.getKey()) + "\"} "
+                        + entry.getWeight() + "\n");
+            }
+        }
+    }
+
+    /**
+     * escapes a label value of the text format
+     */
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"")
+                .replace("\n", "\\n");
+    }
+
+    private static void writeSummaries(Writer writer, String metric,
+            String label, Map<String, Histogram> histograms)
+            throws IOException {
+        writer.write("# TYPE " + metric + " summary\n");
+        Map<String, Histogram> sorted = new TreeMap<String, Histogram>(
+                histograms);
+        for (Map.Entry<String, Histogram> entry : sorted.entrySet()) {
+            writeSummary(writer, metric, label + "=\"" + entry.getKey()
+                    + "\"", entry.getValue());
+        }
+    }
+
+    private static void writeSummary(Writer writer, String metric,
+            String labels, Histogram histogram) throws IOException {
+        String separator = labels.length() == 0 ? "" : ",";
+        for (int i = 0; i < QUANTILES.length; i++) {
+            writer.write(metric + "{" + labels + separator + "quantile=\""
+                    + QUANTILES[i] + "\"} "
+                    + histogram.getPercentile(QUANTILES[i] * 100) + "\n");
+        }
+        String braces = labels.length() == 0 ? "" : "{" + labels + "}";
+        writer.write(metric + "_sum" + braces + " " + histogram.getSum()
+                + "\n");
+        writer.write(metric + "_count" + braces + " "
+                + histogram.getCount() + "\n");
+    }
+
+}
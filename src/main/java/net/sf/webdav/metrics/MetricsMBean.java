@@ -0,0 +1,38 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package net.sf.webdav.metrics;
+
+/**
+ * JMX view of the {@link Metrics} of a servlet. The histograms are
+ * registered as MBeans of their own.
+ */
+public interface MetricsMBean {
+
+    /**
+     * @return bytes of content received by PUT
+     */
+    long getBytesIn();
+
+    /**
+     * @return bytes of content sent by GET
+     */
+    long getBytesOut();
+
+    /**
+     * @return all metrics in the text format of the servlet endpoint
+     */
+    String getReport();
+
+}
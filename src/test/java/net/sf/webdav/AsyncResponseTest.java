@@ -0,0 +1,170 @@
+package net.sf.webdav;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Arrays;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import junit.framework.Assert;
+import net.sf.webdav.methods.TestingOutputStream;
+import net.sf.webdav.metrics.Metrics;
+import net.sf.webdav.testutil.MockAsyncContext;
+
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.mock.web.MockServletConfig;
+import org.springframework.mock.web.MockServletContext;
+
+public class AsyncResponseTest extends Assert {
+
+    @Test
+    public void testBodyIsSentWhenTheClientTakesIt() throws Exception {
+
+        EndingStore store = new EndingStore();
+        TestingOutputStream out = new TestingOutputStream();
+        HttpServletResponse resp = MockAsyncContext.response(
+                new MockHttpServletResponse(), out);
+        HttpServletRequest req = MockAsyncContext.asyncRequest(
+                new MockHttpServletRequest(), resp, null);
+        Metrics metrics = new Metrics();
+        byte[] content = MemoryStoreTest.content(200000);
+        ClosingChannel channel = new ClosingChannel(content);
+
+        AsyncResponse async = new AsyncResponse(req, resp, store, store
+                .begin(null), 1000, metrics);
+        async.send(channel);
+
+        assertTrue(async.isStarted());
+        assertNotNull(out.getWriteListener());
+        // the client takes one buffer, then one more
+        out.writePossible(1);
+        assertEquals(65536, out.toByteArray().length);
+        out.writePossible(1);
+        assertEquals(131072, out.toByteArray().length);
+        assertEquals(0, store._commits);
+        out.writePossible(-1);
+
+        assertTrue(Arrays.equals(content, out.toByteArray()));
+        assertEquals(content.length, metrics.getBytesOut());
+        assertTrue(channel._closed);
+        assertEquals(1, store._commits);
+        assertEquals(0, store._rollbacks);
+        assertEquals(1, MockAsyncContext.of(req).getCompleted());
+    }
+
+    @Test
+    public void testTimeoutRollsBack() throws Exception {
+
+        EndingStore store = new EndingStore();
+        TestingOutputStream out = new TestingOutputStream();
+        HttpServletResponse resp = MockAsyncContext.response(
+                new MockHttpServletResponse(), out);
+        HttpServletRequest req = MockAsyncContext.asyncRequest(
+                new MockHttpServletRequest(), resp, null);
+        ClosingChannel channel = new ClosingChannel(MemoryStoreTest
+                .content(200000));
+
+        AsyncResponse async = new AsyncResponse(req, resp, store, store
+                .begin(null), 1000, new Metrics());
+        async.send(channel);
+        out.writePossible(1);
+        MockAsyncContext.of(req).timeOut();
+
+        assertTrue(channel._closed);
+        assertEquals(0, store._commits);
+        assertEquals(1, store._rollbacks);
+        assertEquals(1, MockAsyncContext.of(req).getCompleted());
+
+        // the pump is done
+        out.getWriteListener().onError(new Exception("gone"));
+        assertEquals(1, store._rollbacks);
+        assertEquals(1, MockAsyncContext.of(req).getCompleted());
+    }
+
+    @Test
+    public void testGetSendsTheBodyAsync() throws Exception {
+
+        MemoryStore store = new MemoryStore();
+        byte[] content = MemoryStoreTest.content(100000);
+        ITransaction transaction = store.begin(null);
+        store.createResource(transaction, "/file");
+        store.setResourceContent(transaction, "/file",
+                new ByteArrayInputStream(content), null, null);
+        WebDavServletBean servlet = new WebDavServletBean();
+        servlet.init(store, null, null, -1, true, 0, -1, 1000, -1, null);
+        // the mime types come from the context
+        servlet.init(new MockServletConfig(new MockServletContext() {
+            public String getMimeType(String file) {
+                return null;
+            }
+        }));
+        try {
+            MockHttpServletRequest mockReq = new MockHttpServletRequest(
+                    "GET", "/file");
+            mockReq.setPathInfo("/file");
+            TestingOutputStream out = new TestingOutputStream();
+            HttpServletResponse resp = MockAsyncContext.response(
+                    new MockHttpServletResponse(), out);
+            HttpServletRequest req = MockAsyncContext.asyncRequest(mockReq,
+                    resp, null);
+
+            servlet.service(req, resp);
+
+            // the request thread left before the body was sent
+            assertEquals(0, out.toByteArray().length);
+            out.writePossible(-1);
+            assertTrue(Arrays.equals(content, out.toByteArray()));
+            assertEquals(1, MockAsyncContext.of(req).getCompleted());
+            assertEquals(content.length, servlet.getMetrics().getBytesOut());
+        } finally {
+            servlet.destroy();
+        }
+    }
+
+    /**
+     * counts how the transactions ended
+     */
+    private static class EndingStore extends MemoryStore {
+
+        int _commits = 0;
+
+        int _rollbacks = 0;
+
+        public void commit(ITransaction transaction) {
+            _commits++;
+        }
+
+        public void rollback(ITransaction transaction) {
+            _rollbacks++;
+        }
+    }
+
+    private static class ClosingChannel implements ReadableByteChannel {
+
+        private final ReadableByteChannel _channel;
+
+        boolean _closed = false;
+
+        ClosingChannel(byte[] content) {
+            _channel = Channels.newChannel(new ByteArrayInputStream(content));
+        }
+
+        public int read(ByteBuffer dst) throws IOException {
+            return _channel.read(dst);
+        }
+
+        public boolean isOpen() {
+            return !_closed;
+        }
+
+        public void close() {
+            _closed = true;
+        }
+    }
+}
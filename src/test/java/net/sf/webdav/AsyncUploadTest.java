@@ -0,0 +1,184 @@
+package net.sf.webdav;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.LinkedList;
+
+import javax.servlet.ReadListener;
+import javax.servlet.ServletInputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import junit.framework.Assert;
+import net.sf.webdav.testutil.MockAsyncContext;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+public class AsyncUploadTest extends Assert {
+
+    private MemoryStore _store;
+
+    private WebDavServletBean _servlet;
+
+    @Before
+    public void setUp() throws Exception {
+        _store = new MemoryStore();
+        _servlet = new WebDavServletBean();
+        _servlet.init(_store, null, null, -1, true, 0, 300000, 1000, -1,
+                null);
+    }
+
+    @After
+    public void tearDown() {
+        _servlet.destroy();
+    }
+
+    @Test
+    public void testLargeBodyIsStoredAsItArrives() throws Exception {
+
+        Upload upload = new Upload("/big", null);
+        byte[] content = MemoryStoreTest.content(200000);
+        for (int offset = 0; offset < content.length; offset += 10000) {
+            upload.feed(Arrays.copyOfRange(content, offset, offset + 10000));
+        }
+        // the method was started before the end of the body
+        assertFalse(upload._context.getCompleted() > 0);
+        upload.end();
+        upload._context.join();
+
+        assertEquals(201, upload._mockResp.getStatus());
+        assertEquals(1, upload._context.getCompleted());
+        assertTrue(Arrays.equals(content, MemoryStoreTest.read(_store
+                .getResourceContent(null, "/big"))));
+    }
+
+    @Test
+    public void testSmallBodyIsReceivedFirst() throws Exception {
+
+        Upload upload = new Upload("/small", null);
+        upload.feed(new byte[100]);
+        upload._context.join();
+        assertEquals(0, upload._context.getCompleted());
+        upload.end();
+        upload._context.join();
+
+        assertEquals(201, upload._mockResp.getStatus());
+        assertEquals(100, _store.getResourceLength(null, "/small"));
+    }
+
+    @Test
+    public void testTooLongContentLengthIsRefusedUpFront() throws Exception {
+
+        Upload upload = new Upload("/refused", "400000");
+
+        assertEquals(413, upload._mockResp.getStatus());
+        assertNull(upload._in._listener);
+        assertNull(_store.getStoredObject(null, "/refused"));
+    }
+
+    @Test
+    public void testTooLongBodyIsRolledBack() throws Exception {
+
+        Upload upload = new Upload("/over", null);
+        for (int i = 0; i < 40; i++) {
+            upload.feed(new byte[10000]);
+        }
+        upload.end();
+        upload._context.join();
+
+        assertEquals(413, upload._mockResp.getStatus());
+        assertEquals(1, upload._context.getCompleted());
+        // the content wasn't taken
+        assertEquals(0, _store.getResourceLength(null, "/over"));
+    }
+
+    @Test
+    public void testTimeoutWaitsForTheMethod() throws Exception {
+
+        Upload upload = new Upload("/slow", null);
+        for (int i = 0; i < 10; i++) {
+            upload.feed(new byte[10000]);
+        }
+        upload._context.timeOut();
+
+        // completed by the method, not under it
+        assertEquals(408, upload._mockResp.getStatus());
+        assertEquals(1, upload._context.getCompleted());
+        upload._context.join();
+        assertEquals(1, upload._context.getCompleted());
+    }
+
+    /**
+     * a PUT whose body the test hands over piece by piece
+     */
+    private class Upload {
+
+        final MockHttpServletResponse _mockResp = new MockHttpServletResponse();
+
+        final FeedingInputStream _in = new FeedingInputStream();
+
+        final MockAsyncContext _context;
+
+        Upload(String path, String contentLength) throws IOException {
+            MockHttpServletRequest mockReq = new MockHttpServletRequest(
+                    "PUT", path);
+            mockReq.setPathInfo(path);
+            if (contentLength != null) {
+                mockReq.addHeader("Content-Length", contentLength);
+            }
+            HttpServletResponse resp = _mockResp;
+            HttpServletRequest req = MockAsyncContext.asyncRequest(mockReq,
+                    resp, _in);
+            _context = MockAsyncContext.of(req);
+            new AsyncUpload(_servlet, req, resp, 300000, 1000).start();
+        }
+
+        void feed(byte[] chunk) throws IOException {
+            _in._chunks.add(chunk);
+            _in._listener.onDataAvailable();
+        }
+
+        void end() throws IOException {
+            _in._ended = true;
+            _in._listener.onAllDataRead();
+        }
+    }
+
+    private static class FeedingInputStream extends ServletInputStream {
+
+        final LinkedList<byte[]> _chunks = new LinkedList<byte[]>();
+
+        boolean _ended = false;
+
+        ReadListener _listener;
+
+        public int read() {
+            throw new UnsupportedOperationException();
+        }
+
+        public int read(byte[] b) {
+            if (_chunks.isEmpty()) {
+                return _ended ? -1 : 0;
+            }
+            byte[] chunk = _chunks.removeFirst();
+            System.arraycopy(chunk, 0, b, 0, chunk.length);
+            return chunk.length;
+        }
+
+        public boolean isReady() {
+            return !_chunks.isEmpty();
+        }
+
+        public boolean isFinished() {
+            return _ended && _chunks.isEmpty();
+        }
+
+        public void setReadListener(ReadListener listener) {
+            _listener = listener;
+        }
+    }
+}
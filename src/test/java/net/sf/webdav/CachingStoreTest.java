@@ -0,0 +1,192 @@
+package net.sf.webdav;
+
+import junit.framework.Assert;
+import net.sf.webdav.testutil.CountingStore;
+
+import org.junit.Test;
+
+public class CachingStoreTest extends Assert {
+
+    @Test
+    public void testCachedObjectsAreReadOnce() throws Exception {
+
+        CountingStore counting = new CountingStore(new MemoryStore());
+        CachingStore store = new CachingStore(counting, 100, 60000);
+        create(store, "/file");
+
+        ITransaction transaction = store.begin(null);
+        for (int i = 0; i < 5; i++) {
+            assertTrue(store.getStoredObject(transaction, "/file")
+                    .isResource());
+        }
+        store.commit(transaction);
+
+        assertEquals(1, counting.count("/file"));
+    }
+
+    @Test
+    public void testChangesDropTheEntries() throws Exception {
+
+        CountingStore counting = new CountingStore(new MemoryStore());
+        CachingStore store = new CachingStore(counting, 100, 60000);
+        create(store, "/file");
+
+        ITransaction transaction = store.begin(null);
+        assertNotNull(store.getStoredObject(transaction, "/file"));
+        store.commit(transaction);
+
+        transaction = store.begin(null);
+        store.removeObject(transaction, "/file");
+        store.commit(transaction);
+
+        transaction = store.begin(null);
+        assertNull(store.getStoredObject(transaction, "/file"));
+        store.commit(transaction);
+    }
+
+    @Test
+    public void testEvictionDropsLeastRecentlyUsedEntries() throws Exception {
+
+        CountingStore counting = new CountingStore(new MemoryStore());
+        CachingStore store = new CachingStore(counting, 8, 60000);
+        for (int i = 0; i < 16; i++) {
+            create(store, "/file" + i);
+        }
+
+        ITransaction transaction = store.begin(null);
+        for (int i = 0; i < 8; i++) {
+            store.getStoredObject(transaction, "/file" + i);
+        }
+        // file0 and file1 are used all the time
+        for (int i = 8; i < 16; i++) {
+            Thread.sleep(1);
+            store.getStoredObject(transaction, "/file0");
+            store.getStoredObject(transaction, "/file1");
+            store.getStoredObject(transaction, "/file" + i);
+        }
+        store.getStoredObject(transaction, "/file0");
+        store.getStoredObject(transaction, "/file1");
+        store.commit(transaction);
+
+        assertEquals(1, counting.count("/file0"));
+        assertEquals(1, counting.count("/file1"));
+        // the most recently read entry survived too
+        assertEquals(1, counting.count("/file15"));
+    }
+
+    @Test
+    public void testMissingObjectsAreRemembered() throws Exception {
+
+        CountingStore counting = new CountingStore(new MemoryStore());
+        CachingStore store = new CachingStore(counting, 100, 60000, 60000,
+                new String[0]);
+
+        ITransaction transaction = store.begin(null);
+        for (int i = 0; i < 5; i++) {
+            assertNull(store.getStoredObject(transaction, "/missing"));
+        }
+        store.commit(transaction);
+        assertEquals(1, counting.count("/missing"));
+
+        create(store, "/missing");
+
+        transaction = store.begin(null);
+        assertNotNull(store.getStoredObject(transaction, "/missing"));
+        store.commit(transaction);
+    }
+
+    @Test
+    public void testJunkNamesAreAnsweredFromTheNamesOfTheFolder()
+            throws Exception {
+
+        CountingStore counting = new CountingStore(new MemoryStore());
+        CachingStore store = new CachingStore(counting, 100, 60000, 0,
+                new String[] { "desktop.ini", "._*", ".DS_Store" });
+        ITransaction transaction = store.begin(null);
+        store.createFolder(transaction, "/folder");
+        store.createResource(transaction, "/folder/file");
+        store.createResource(transaction, "/folder/._file");
+        store.commit(transaction);
+
+        transaction = store.begin(null);
+        for (int i = 0; i < 5; i++) {
+            assertNull(store.getStoredObject(transaction,
+                    "/folder/desktop.ini"));
+            assertNull(store.getStoredObject(transaction,
+                    "/folder/.DS_Store"));
+            assertNull(store.getStoredObject(transaction, "/folder/._other"));
+        }
+        assertNotNull(store.getStoredObject(transaction, "/folder/._file"));
+        store.commit(transaction);
+
+        // only the names were read, once, and none of the junk
+        assertEquals(1, counting._named.size());
+        assertEquals(0, counting._listed.size());
+        assertEquals(0, counting.count("/folder/desktop.ini"));
+        assertEquals(0, counting.count("/folder/.DS_Store"));
+        assertEquals(0, counting.count("/folder/._other"));
+
+        // the names are read again once the folder changed
+        create(store, "/folder/desktop.ini");
+
+        transaction = store.begin(null);
+        assertNotNull(store.getStoredObject(transaction,
+                "/folder/desktop.ini"));
+        store.commit(transaction);
+        assertEquals(2, counting._named.size());
+    }
+
+    @Test
+    public void testJunkNamesInMissingFolders() throws Exception {
+
+        CountingStore counting = new CountingStore(new MemoryStore());
+        CachingStore store = new CachingStore(counting, 100, 60000, 0,
+                new String[] { "desktop.ini" });
+
+        ITransaction transaction = store.begin(null);
+        assertNull(store.getStoredObject(transaction, "/missing/desktop.ini"));
+        store.commit(transaction);
+
+        assertEquals(0, counting.count("/missing/desktop.ini"));
+    }
+
+    @Test
+    public void testChangesOnlyDropTheEntriesBelow() throws Exception {
+
+        CountingStore counting = new CountingStore(new MemoryStore());
+        CachingStore store = new CachingStore(counting, 100, 60000);
+        ITransaction transaction = store.begin(null);
+        store.createFolder(transaction, "/a");
+        store.createFolder(transaction, "/a/sub");
+        store.createFolder(transaction, "/ab");
+        store.commit(transaction);
+        create(store, "/a/sub/file");
+        create(store, "/ab/file");
+
+        String[] paths = new String[] { "/a/sub/file", "/ab/file" };
+        transaction = store.begin(null);
+        for (int i = 0; i < paths.length; i++) {
+            assertNotNull(store.getStoredObject(transaction, paths[i]));
+        }
+        store.commit(transaction);
+
+        // /ab is no folder below /a
+        transaction = store.begin(null);
+        store.moveObject(transaction, "/a", "/moved");
+        store.commit(transaction);
+
+        transaction = store.begin(null);
+        assertNull(store.getStoredObject(transaction, "/a/sub/file"));
+        assertNotNull(store.getStoredObject(transaction, "/moved/sub/file"));
+        assertNotNull(store.getStoredObject(transaction, "/ab/file"));
+        store.commit(transaction);
+        assertEquals(2, counting.count("/a/sub/file"));
+        assertEquals(1, counting.count("/ab/file"));
+    }
+
+    static void create(IWebdavStore store, String path) {
+        ITransaction transaction = store.begin(null);
+        store.createResource(transaction, path);
+        store.commit(transaction);
+    }
+}
@@ -0,0 +1,152 @@
+package net.sf.webdav;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.util.Arrays;
+
+import junit.framework.Assert;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CompressingStoreTest extends Assert {
+
+    private File _indexFile;
+
+    private MemoryStore _memoryStore;
+
+    private CompressingStore _store;
+
+    @Before
+    public void setUp() {
+        _indexFile = new File(System.getProperty("java.io.tmpdir"),
+                "webdav-compression-test-" + System.nanoTime());
+        _memoryStore = new MemoryStore();
+        _store = new CompressingStore(_memoryStore, new String[] { "txt" },
+                _indexFile);
+    }
+
+    @After
+    public void tearDown() {
+        _store.destroy();
+        _indexFile.delete();
+    }
+
+    @Test
+    public void testCompressibleResourcesAreStoredCompressed()
+            throws Exception {
+
+        byte[] content = text(100000);
+        ITransaction transaction = _store.begin(null);
+        _store.createResource(transaction, "/file.txt");
+        assertEquals(content.length, _store.setResourceContent(transaction,
+                "/file.txt", new ByteArrayInputStream(content), null, null));
+        _store.commit(transaction);
+
+        transaction = _store.begin(null);
+        assertTrue(_memoryStore.getResourceLength(null, "/file.txt")
+                < content.length / 10);
+        assertEquals(content.length, _store.getResourceLength(transaction,
+                "/file.txt"));
+        assertEquals(content.length, _store.getStoredObject(transaction,
+                "/file.txt").getResourceLength());
+        assertEquals("gzip", _store.getContentEncoding(transaction,
+                "/file.txt"));
+        assertTrue(Arrays.equals(content, MemoryStoreTest.read(_store
+                .getResourceContent(transaction, "/file.txt"))));
+        byte[] range = new byte[100];
+        System.arraycopy(content, 5000, range, 0, range.length);
+        assertTrue(Arrays.equals(range, MemoryStoreTest.read(_store
+                .getResourceContent(transaction, "/file.txt", 5000, 100))));
+        byte[] encoded = MemoryStoreTest.read(_store
+                .getEncodedResourceContent(transaction, "/file.txt"));
+        assertEquals(0x1f, encoded[0] & 0xff);
+        assertEquals(0x8b, encoded[1] & 0xff);
+        _store.commit(transaction);
+    }
+
+    @Test
+    public void testOtherResourcesAreStoredAsTheyAre() throws Exception {
+
+        byte[] content = text(1000);
+        ITransaction transaction = _store.begin(null);
+        _store.createResource(transaction, "/file.bin");
+        _store.setResourceContent(transaction, "/file.bin",
+                new ByteArrayInputStream(content), null, null);
+        _store.commit(transaction);
+
+        transaction = _store.begin(null);
+        assertNull(_store.getContentEncoding(transaction, "/file.bin"));
+        assertTrue(Arrays.equals(content, MemoryStoreTest.read(_memoryStore
+                .getResourceContent(null, "/file.bin"))));
+        assertTrue(Arrays.equals(content, MemoryStoreTest.read(_store
+                .getResourceContent(transaction, "/file.bin"))));
+        _store.commit(transaction);
+    }
+
+    @Test
+    public void testContentIsReadBeforeTheIndexKnowsIt() throws Exception {
+
+        byte[] content = text(5000);
+        ITransaction writer = _store.begin(null);
+        _store.createResource(writer, "/file.txt");
+        _store.setResourceContent(writer, "/file.txt",
+                new ByteArrayInputStream(content), null, null);
+
+        // the decorated store shows the content, the index is written at
+        // the commit
+        ITransaction reader = _store.begin(null);
+        assertEquals("gzip", _store.getContentEncoding(reader, "/file.txt"));
+        assertTrue(Arrays.equals(content, MemoryStoreTest.read(_store
+                .getResourceContent(reader, "/file.txt"))));
+        byte[] range = new byte[10];
+        System.arraycopy(content, 20, range, 0, range.length);
+        assertTrue(Arrays.equals(range, MemoryStoreTest.read(_store
+                .getResourceContent(reader, "/file.txt", 20, 10))));
+        _store.commit(reader);
+        _store.commit(writer);
+    }
+
+    @Test
+    public void testIndexIsKeptAcrossRestarts() throws Exception {
+
+        File root = new File(System.getProperty("java.io.tmpdir"),
+                "webdav-compression-root-" + System.nanoTime());
+        CompressingStore store = new CompressingStore(
+                new LocalFileSystemStore(root), new String[] { "txt" },
+                _indexFile);
+        try {
+            byte[] content = text(3000);
+            ITransaction transaction = store.begin(null);
+            store.createFolder(transaction, "/folder");
+            store.createResource(transaction, "/folder/file.txt");
+            store.setResourceContent(transaction, "/folder/file.txt",
+                    new ByteArrayInputStream(content), null, null);
+            assertTrue(store.moveObject(transaction, "/folder", "/moved"));
+            store.commit(transaction);
+            store.destroy();
+
+            store = new CompressingStore(new LocalFileSystemStore(root),
+                    new String[] { "txt" }, _indexFile);
+
+            transaction = store.begin(null);
+            assertEquals(content.length, store.getStoredObject(transaction,
+                    "/moved/file.txt").getResourceLength());
+            assertTrue(Arrays.equals(content, MemoryStoreTest.read(store
+                    .getResourceContent(transaction, "/moved/file.txt"))));
+            store.commit(transaction);
+        } finally {
+            store.destroy();
+            MemoryStoreTest.delete(root);
+        }
+    }
+
+    private static byte[] text(int length) {
+        byte[] text = new byte[length];
+        for (int i = 0; i < length; i++) {
+            text[i] = (byte) ('a' + i % 7);
+        }
+        return text;
+    }
+}
@@ -0,0 +1,192 @@
+package net.sf.webdav;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.Assert;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ContentAddressedStoreTest extends Assert {
+
+    private File _root;
+
+    private ContentAddressedStore _store;
+
+    @Before
+    public void setUp() {
+        _root = new File(System.getProperty("java.io.tmpdir"),
+                "webdav-cas-test-" + System.nanoTime());
+        _store = new ContentAddressedStore(_root);
+    }
+
+    @After
+    public void tearDown() {
+        _store.destroy();
+        MemoryStoreTest.delete(_root);
+    }
+
+    @Test
+    public void testSameContentIsStoredOnce() throws Exception {
+
+        ITransaction transaction = _store.begin(null);
+        _store.createResource(transaction, "/a");
+        _store.createResource(transaction, "/b");
+        byte[] content = MemoryStoreTest.content(100000);
+        write("/a", content);
+        write("/b", content);
+
+        assertEquals(1, blobs().size());
+        assertEquals(_store.getStoredObject(transaction, "/a").getETag(),
+                _store.getStoredObject(transaction, "/b").getETag());
+        assertTrue(Arrays.equals(content, MemoryStoreTest.read(_store
+                .getResourceContent(transaction, "/b"))));
+    }
+
+    @Test
+    public void testBlobIsDeletedWithItsLastReference() throws Exception {
+
+        ITransaction transaction = _store.begin(null);
+        _store.createResource(transaction, "/a");
+        write("/a", MemoryStoreTest.content(1000));
+        assertTrue(_store.copyResource(transaction, "/a", "/copy"));
+        _store.createResource(transaction, "/b");
+        write("/b", MemoryStoreTest.content(1000));
+        assertEquals(1, blobs().size());
+
+        _store.removeObject(transaction, "/a");
+        assertEquals(1, blobs().size());
+        // new content for /b drops its reference
+        write("/b", MemoryStoreTest.content(10));
+        assertEquals(2, blobs().size());
+        _store.removeObject(transaction, "/copy");
+        assertEquals(1, blobs().size());
+        _store.removeObject(transaction, "/b");
+        assertEquals(0, blobs().size());
+    }
+
+    @Test
+    public void testLogIsReplayedAtStartup() throws Exception {
+
+        ITransaction transaction = _store.begin(null);
+        _store.createFolder(transaction, "/folder");
+        _store.createResource(transaction, "/folder/a\tb");
+        byte[] content = MemoryStoreTest.content(5000);
+        write("/folder/a\tb", content);
+        _store.createResource(transaction, "/gone");
+        write("/gone", MemoryStoreTest.content(7));
+        _store.removeObject(transaction, "/gone");
+        assertTrue(_store.moveObject(transaction, "/folder", "/moved"));
+
+        reopen();
+
+        transaction = _store.begin(null);
+        assertNull(_store.getStoredObject(transaction, "/folder"));
+        assertNull(_store.getStoredObject(transaction, "/gone"));
+        assertTrue(_store.getStoredObject(transaction, "/moved").isFolder());
+        assertEquals(content.length, _store.getStoredObject(transaction,
+                "/moved/a\tb").getResourceLength());
+        assertTrue(Arrays.equals(content, MemoryStoreTest.read(_store
+                .getResourceContent(transaction, "/moved/a\tb"))));
+        assertEquals(1, blobs().size());
+    }
+
+    @Test
+    public void testCompactedLogKeepsTheIndex() throws Exception {
+
+        ITransaction transaction = _store.begin(null);
+        _store.createResource(transaction, "/file");
+        // enough changes to compact the log several times
+        for (int i = 0; i < 3000; i++) {
+            write("/file", new byte[] { (byte) i });
+        }
+        File logFile = new File(_root, "index.log");
+        assertTrue(countLines(logFile) < 1100);
+
+        reopen();
+
+        transaction = _store.begin(null);
+        assertTrue(Arrays.equals(new byte[] { (byte) 2999 },
+                MemoryStoreTest.read(_store.getResourceContent(transaction,
+                        "/file"))));
+        assertEquals(1, blobs().size());
+        assertEquals(1, countLines(logFile));
+    }
+
+    @Test
+    public void testCompactedLogIsRecoveredIfTheLogIsMissing()
+            throws Exception {
+
+        ITransaction transaction = _store.begin(null);
+        _store.createResource(transaction, "/file");
+        byte[] content = MemoryStoreTest.content(300);
+        write("/file", content);
+        _store.destroy();
+
+        // as if compact() was cut off between deleting the log and
+        // renaming the compacted one
+        File logFile = new File(_root, "index.log");
+        assertTrue(logFile.renameTo(new File(_root, "index.log.tmp")));
+
+        _store = new ContentAddressedStore(_root);
+
+        transaction = _store.begin(null);
+        assertTrue(Arrays.equals(content, MemoryStoreTest.read(_store
+                .getResourceContent(transaction, "/file"))));
+        assertEquals(1, blobs().size());
+        assertTrue(logFile.exists());
+    }
+
+    @Test
+    public void testBlobsAreKeptWithoutALog() throws Exception {
+
+        ITransaction transaction = _store.begin(null);
+        _store.createResource(transaction, "/file");
+        write("/file", MemoryStoreTest.content(300));
+        _store.destroy();
+        assertTrue(new File(_root, "index.log").delete());
+
+        _store = new ContentAddressedStore(_root);
+
+        assertEquals(1, blobs().size());
+    }
+
+    private void write(String path, byte[] content) {
+        ITransaction transaction = _store.begin(null);
+        _store.setResourceContent(transaction, path,
+                new ByteArrayInputStream(content), null, null);
+    }
+
+    private void reopen() {
+        _store.destroy();
+        _store = new ContentAddressedStore(_root);
+    }
+
+    private List<File> blobs() {
+        List<File> blobs = new ArrayList<File>();
+        File[] folders = new File(_root, "blobs").listFiles();
+        for (int i = 0; i < folders.length; i++) {
+            if (folders[i].isDirectory()) {
+                blobs.addAll(Arrays.asList(folders[i].listFiles()));
+            }
+        }
+        return blobs;
+    }
+
+    private static int countLines(File file) throws Exception {
+        byte[] content = MemoryStoreTest.read(new FileInputStream(file));
+        int lines = 0;
+        for (int i = 0; i < content.length; i++) {
+            if (content[i] == '\n') {
+                lines++;
+            }
+        }
+        return lines;
+    }
+}
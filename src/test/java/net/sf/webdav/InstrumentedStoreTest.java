@@ -0,0 +1,125 @@
+package net.sf.webdav;
+
+import java.util.List;
+import java.util.Properties;
+
+import junit.framework.Assert;
+import net.sf.webdav.metrics.HotSpots;
+import net.sf.webdav.metrics.Metrics;
+
+import org.junit.Test;
+
+public class InstrumentedStoreTest extends Assert {
+
+    @Test
+    public void testSlowCallsAreCounted() throws Exception {
+
+        Metrics metrics = new Metrics();
+        InstrumentedStore store = new InstrumentedStore(new SlowStore(),
+                metrics, 20, 10);
+        ITransaction transaction = store.begin(null);
+        store.createResource(transaction, "/fast");
+        store.createResource(transaction, "/slow");
+
+        store.getStoredObject(transaction, "/fast");
+        store.getStoredObject(transaction, "/slow");
+        store.commit(transaction);
+
+        assertEquals(1, metrics.getSlowStoreCalls());
+        assertEquals(2, metrics.getStoreTimes("getStoredObject").getCount());
+        assertEquals(1, metrics.getStoreTimes("commit").getCount());
+    }
+
+    @Test
+    public void testPathsAreRankedByTime() throws Exception {
+
+        Metrics metrics = new Metrics();
+        InstrumentedStore store = new InstrumentedStore(new SlowStore(),
+                metrics, -1, 10);
+        ITransaction transaction = store.begin(null);
+        store.createResource(transaction, "/fast");
+        store.createResource(transaction, "/slow");
+        for (int i = 0; i < 3; i++) {
+            store.getStoredObject(transaction, "/fast");
+        }
+        store.getStoredObject(transaction, "/slow");
+        store.commit(transaction);
+
+        assertEquals(0, metrics.getSlowStoreCalls());
+        assertSame(store.getHotPaths(), metrics.getStoreHotSpots());
+        // calls without a path, like begin and commit, are left out
+        List<HotSpots.Entry> entries = store.getHotPaths().getEntries();
+        assertEquals(2, entries.size());
+        assertEquals("/slow", entries.get(0).getKey());
+        assertTrue(entries.get(0).getWeight() >= 0.03);
+        assertEquals("/fast", entries.get(1).getKey());
+        assertEquals(4, entries.get(1).getCount());
+        assertTrue(metrics.getReport().contains(
+                "webdav_store_path_seconds{path=\"/slow\"} "));
+    }
+
+    @Test
+    public void testServletPublishesTheHotPaths() throws Exception {
+
+        InstrumentedStore store = new InstrumentedStore(new MemoryStore(),
+                new Properties());
+        assertEquals(20, store.getHotPaths().getCapacity());
+
+        WebDavServletBean servlet = new WebDavServletBean();
+        servlet.init(store, null, null, -1, true, 0, -1, -1, -1, null);
+        try {
+            assertSame(store.getHotPaths(), servlet.getMetrics()
+                    .getStoreHotSpots());
+            ITransaction transaction = store.begin(null);
+            store.getStoredObject(transaction, "/");
+            store.commit(transaction);
+            assertEquals(1, servlet.getMetrics().getStoreTimes(
+                    "getStoredObject").getCount());
+        } finally {
+            servlet.destroy();
+        }
+    }
+
+    @Test
+    public void testServletWiresEveryMeteredStore() throws Exception {
+
+        InstrumentedStore inner = new InstrumentedStore(new MemoryStore(),
+                new Properties());
+        MeteredStore outer = new MeteredStore(inner, Metrics.NONE);
+
+        WebDavServletBean servlet = new WebDavServletBean();
+        servlet.init(outer, null, null, -1, true, 0, -1, -1, -1, null);
+        try {
+            assertSame(inner.getHotPaths(), servlet.getMetrics()
+                    .getStoreHotSpots());
+            assertNull(Metrics.NONE.getStoreHotSpots());
+            ITransaction transaction = outer.begin(null);
+            outer.getStoredObject(transaction, "/");
+            outer.commit(transaction);
+            // timed by both of them
+            assertEquals(2, servlet.getMetrics().getStoreTimes(
+                    "getStoredObject").getCount());
+            assertEquals(1, inner.getHotPaths().getEntries().size());
+        } finally {
+            servlet.destroy();
+        }
+    }
+
+    /**
+     * takes its time for /slow
+     */
+    private static class SlowStore extends MemoryStore {
+
+        public StoredObject getStoredObject(ITransaction transaction,
+                String uri) {
+            if (uri.equals("/slow")) {
+                try {
+                    Thread.sleep(30);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            return super.getStoredObject(transaction, uri);
+        }
+    }
+}
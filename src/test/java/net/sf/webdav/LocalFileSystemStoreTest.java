@@ -0,0 +1,463 @@
+package net.sf.webdav;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.security.Principal;
+import java.util.Arrays;
+import java.util.Properties;
+
+import javax.servlet.http.HttpServletResponse;
+
+import junit.framework.Assert;
+import net.sf.webdav.exceptions.AccessDeniedException;
+import net.sf.webdav.methods.TestingOutputStream;
+import net.sf.webdav.testutil.MockAsyncContext;
+import net.sf.webdav.testutil.MockPrincipal;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.mock.web.MockServletConfig;
+import org.springframework.mock.web.MockServletContext;
+
+public class LocalFileSystemStoreTest extends Assert {
+
+    private File _root;
+
+    @Before
+    public void setUp() {
+        _root = new File(System.getProperty("java.io.tmpdir"),
+                "webdav-local-test-" + System.nanoTime());
+    }
+
+    @After
+    public void tearDown() {
+        MemoryStoreTest.delete(_root);
+    }
+
+    @Test
+    public void testPartsBecomeTheContent() throws Exception {
+
+        LocalFileSystemStore store = open("60");
+        byte[] content = MemoryStoreTest.content(1000);
+        ITransaction transaction = store.begin(null);
+        store.createResource(transaction, "/file");
+
+        long[][] received = write(store, "/file", content, 600, 400);
+        assertEquals(1, received.length);
+        assertEquals(600, received[0][0]);
+        assertEquals(0, store.getResourceLength(transaction, "/file"));
+
+        received = write(store, "/file", content, 0, 600);
+        assertEquals(1, received.length);
+        assertEquals(0, received[0][0]);
+        assertEquals(999, received[0][1]);
+        assertTrue(Arrays.equals(content, MemoryStoreTest.read(store
+                .getResourceContent(transaction, "/file"))));
+        assertEquals(0, staged().length);
+    }
+
+    @Test
+    public void testStaleUploadsExpire() throws Exception {
+
+        LocalFileSystemStore store = open("60");
+        byte[] content = MemoryStoreTest.content(1000);
+        ITransaction transaction = store.begin(null);
+        store.createResource(transaction, "/stale");
+        store.createResource(transaction, "/fresh");
+        write(store, "/stale", content, 0, 500);
+        File[] staged = staged();
+        assertEquals(2, staged.length);
+
+        // nothing was received for longer than the expiry
+        long past = System.currentTimeMillis() - 120000;
+        for (int i = 0; i < staged.length; i++) {
+            assertTrue(staged[i].setLastModified(past));
+        }
+
+        // the next start looks for expired uploads at the first part
+        store = open("60");
+        write(store, "/fresh", content, 0, 10);
+
+        assertEquals(2, staged().length);
+        long[][] received = write(store, "/stale", content, 500, 500);
+        assertEquals(1, received.length);
+        assertEquals(500, received[0][0]);
+        assertEquals(0, store.getResourceLength(transaction, "/stale"));
+    }
+
+    @Test
+    public void testUploadsAreKeptWithoutExpiry() throws Exception {
+
+        LocalFileSystemStore store = open("0");
+        byte[] content = MemoryStoreTest.content(1000);
+        ITransaction transaction = store.begin(null);
+        store.createResource(transaction, "/file");
+        store.createResource(transaction, "/other");
+        write(store, "/file", content, 0, 500);
+        File[] staged = staged();
+        long past = System.currentTimeMillis() - 120000;
+        for (int i = 0; i < staged.length; i++) {
+            assertTrue(staged[i].setLastModified(past));
+        }
+
+        store = open("0");
+        write(store, "/other", content, 0, 10);
+        write(store, "/file", content, 500, 500);
+
+        assertTrue(Arrays.equals(content, MemoryStoreTest.read(store
+                .getResourceContent(transaction, "/file"))));
+    }
+
+    @Test
+    public void testCopyIsStagedUntilCommit() throws Exception {
+
+        Properties properties = new Properties();
+        properties.setProperty(LocalFileSystemStore.ATOMIC_WRITES_PARAMETER,
+                "1");
+        properties.setProperty(LocalFileSystemStore.FSYNC_PARAMETER, "file");
+        LocalFileSystemStore store = new LocalFileSystemStore(_root,
+                properties);
+        byte[] content = MemoryStoreTest.content(1000);
+        ITransaction transaction = store.begin(null);
+        store.createResource(transaction, "/source");
+        store.setResourceContent(transaction, "/source",
+                new ByteArrayInputStream(content), null, null);
+        store.createResource(transaction, "/old");
+        store.setResourceContent(transaction, "/old",
+                new ByteArrayInputStream(new byte[10]), null, null);
+        store.commit(transaction);
+
+        transaction = store.begin(null);
+        store.copyResource(transaction, "/source", "/old");
+        store.createResource(transaction, "/new");
+        store.copyResource(transaction, "/source", "/new");
+        // only the transaction sees the copies
+        assertTrue(Arrays.equals(content, MemoryStoreTest.read(store
+                .getResourceContent(transaction, "/old"))));
+        assertEquals(10, new File(_root, "old").length());
+        assertFalse(new File(_root, "new").exists());
+        store.rollback(transaction);
+        assertEquals(10, new File(_root, "old").length());
+        assertFalse(new File(_root, "new").exists());
+        assertEquals(0, temps().length);
+
+        transaction = store.begin(null);
+        store.copyResource(transaction, "/source", "/old");
+        store.createResource(transaction, "/new");
+        store.copyResource(transaction, "/source", "/new");
+        store.commit(transaction);
+        transaction = store.begin(null);
+        assertTrue(Arrays.equals(content, MemoryStoreTest.read(store
+                .getResourceContent(transaction, "/old"))));
+        assertTrue(Arrays.equals(content, MemoryStoreTest.read(store
+                .getResourceContent(transaction, "/new"))));
+        assertEquals(0, temps().length);
+    }
+
+    @Test
+    public void testReservedNamesCantBeReached() throws Exception {
+
+        Properties properties = new Properties();
+        properties.setProperty(LocalFileSystemStore.ATOMIC_WRITES_PARAMETER,
+                "1");
+        LocalFileSystemStore store = new LocalFileSystemStore(_root,
+                properties);
+        ITransaction transaction = store.begin(null);
+        store.createFolder(transaction, "/folder");
+        store.createResource(transaction, "/folder/file");
+        store.commit(transaction);
+        write(store, "/folder/file", MemoryStoreTest.content(100), 0, 50);
+        String part = "/.webdav-put-uploads/" + staged()[0].getName();
+        // a staged new resource, not yet renamed
+        transaction = store.begin(null);
+        store.createResource(transaction, "/folder/new");
+        String[] temps = new File(_root, "folder").list();
+        String temp = null;
+        for (int i = 0; i < temps.length; i++) {
+            if (temps[i].startsWith(".webdav-put-")) {
+                temp = "/folder/" + temps[i];
+            }
+        }
+        assertNotNull(temp);
+
+        assertNull(store.getStoredObject(transaction, "/.webdav-put-uploads"));
+        assertNull(store.getStoredObject(transaction, part));
+        assertNull(store.getStoredObject(transaction, temp));
+        assertDenied(store, transaction, part);
+        assertDenied(store, transaction, temp);
+        assertDenied(store, transaction, "/folder/.webdav-put-x");
+        assertDenied(store, transaction, "/.webdav-put-x/file");
+        try {
+            store.createFolder(transaction, "/.webdav-put-uploads/folder");
+            fail("a folder was created in the upload folder");
+        } catch (AccessDeniedException e) {
+            // expected
+        }
+        try {
+            store.getChildrenNames(transaction, "/.webdav-put-uploads");
+            fail("the upload folder was listed");
+        } catch (AccessDeniedException e) {
+            // expected
+        }
+        store.rollback(transaction);
+        assertTrue(new File(_root, part).exists());
+    }
+
+    @Test
+    public void testUploadsBelongToWhoStartedThem() throws Exception {
+
+        LocalFileSystemStore store = open("60");
+        byte[] content = MemoryStoreTest.content(1000);
+        ITransaction transaction = store.begin(null);
+        store.createResource(transaction, "/file");
+        store.commit(transaction);
+        write(store, new MockPrincipal("alice"), "/file", content, 0, 500);
+
+        try {
+            write(store, new MockPrincipal("bob"), "/file", content, 500, 500);
+            fail("another principal completed the upload");
+        } catch (AccessDeniedException e) {
+            // expected
+        }
+        try {
+            write(store, null, "/file", content, 500, 500);
+            fail("an anonymous request completed the upload");
+        } catch (AccessDeniedException e) {
+            // expected
+        }
+
+        // the owner is kept over a restart
+        store = open("60");
+        try {
+            write(store, new MockPrincipal("bob"), "/file", content, 500, 500);
+            fail("another principal completed the upload");
+        } catch (AccessDeniedException e) {
+            // expected
+        }
+        write(store, new MockPrincipal("alice"), "/file", content, 500, 500);
+        transaction = store.begin(null);
+        assertTrue(Arrays.equals(content, MemoryStoreTest.read(store
+                .getResourceContent(transaction, "/file"))));
+    }
+
+    @Test
+    public void testUploadFolderCantBeReachedOverHttp() throws Exception {
+
+        LocalFileSystemStore store = open("60");
+        ITransaction transaction = store.begin(null);
+        store.createResource(transaction, "/file");
+        store.commit(transaction);
+        write(store, "/file", MemoryStoreTest.content(100), 0, 50);
+        File[] staged = staged();
+        String part = null;
+        for (int i = 0; i < staged.length; i++) {
+            if (staged[i].getName().endsWith(".part")) {
+                part = "/.webdav-put-uploads/" + staged[i].getName();
+            }
+        }
+        assertNotNull(part);
+
+        WebDavServletBean servlet = new WebDavServletBean();
+        servlet.init(store, null, null, -1, true, 0, -1, -1, -1, null);
+        servlet.init(new MockServletConfig(new MockServletContext() {
+            public String getMimeType(String file) {
+                return null;
+            }
+        }));
+        try {
+            assertEquals(HttpServletResponse.SC_NOT_FOUND, service(servlet,
+                    "GET", part));
+            assertEquals(HttpServletResponse.SC_NOT_FOUND, service(servlet,
+                    "GET", "/.webdav-put-uploads"));
+            assertEquals(HttpServletResponse.SC_FORBIDDEN, service(servlet,
+                    "PUT", part));
+            assertEquals(HttpServletResponse.SC_FORBIDDEN, service(servlet,
+                    "PUT", "/.webdav-put-uploads/other"));
+        } finally {
+            servlet.destroy();
+        }
+        assertEquals(50, new File(_root, part).length());
+    }
+
+    @Test
+    public void testSettledFilesHaveAStrongETag() throws Exception {
+
+        LocalFileSystemStore store = new LocalFileSystemStore(_root);
+        ITransaction transaction = store.begin(null);
+        store.createResource(transaction, "/file");
+        store.setResourceContent(transaction, "/file",
+                new ByteArrayInputStream(MemoryStoreTest.content(100)), null,
+                null);
+        store.commit(transaction);
+        // just written, another change could keep the modification time
+        assertNull(store.getStoredObject(null, "/file").getETag());
+
+        File file = new File(_root, "file");
+        assertTrue(file.setLastModified(System.currentTimeMillis() - 10000));
+        String eTag = store.getStoredObject(null, "/file").getETag();
+        assertNotNull(eTag);
+        assertEquals(eTag, store.getStoredObject(null, "/file").getETag());
+        assertEquals(eTag, store.getChildren(null, "/").get("file")
+                .getETag());
+
+        transaction = store.begin(null);
+        store.setResourceContent(transaction, "/file",
+                new ByteArrayInputStream(new byte[100]), null, null);
+        store.commit(transaction);
+        assertTrue(file.setLastModified(System.currentTimeMillis() - 5000));
+        String changed = store.getStoredObject(null, "/file").getETag();
+        assertNotNull(changed);
+        assertFalse(eTag.equals(changed));
+        assertNull(store.getStoredObject(null, "/").getETag());
+    }
+
+    @Test
+    public void testIfRangeMatchesTheStrongETag() throws Exception {
+
+        LocalFileSystemStore store = new LocalFileSystemStore(_root);
+        ITransaction transaction = store.begin(null);
+        store.createResource(transaction, "/file");
+        store.setResourceContent(transaction, "/file",
+                new ByteArrayInputStream(MemoryStoreTest.content(100)), null,
+                null);
+        store.commit(transaction);
+        assertTrue(new File(_root, "file").setLastModified(System
+                .currentTimeMillis() - 10000));
+
+        WebDavServletBean servlet = new WebDavServletBean();
+        servlet.init(store, null, null, -1, true, 0, -1, -1, -1, null);
+        servlet.init(new MockServletConfig(new MockServletContext() {
+            public String getMimeType(String file) {
+                return null;
+            }
+        }));
+        try {
+            MockHttpServletResponse resp = get(servlet, "/file", null);
+            String eTag = (String) resp.getHeader("ETag");
+            assertFalse(eTag, eTag.startsWith("W/"));
+
+            resp = get(servlet, "/file", eTag);
+            assertEquals(HttpServletResponse.SC_PARTIAL_CONTENT, resp
+                    .getStatus());
+            assertEquals("bytes 0-9/100", resp.getHeader("Content-Range"));
+            // another version of the file gets all of it
+            resp = get(servlet, "/file", "\"other\"");
+            assertEquals(HttpServletResponse.SC_OK, resp.getStatus());
+        } finally {
+            servlet.destroy();
+        }
+    }
+
+    /**
+     * @return the response to a GET of the first ten bytes
+     */
+    private static MockHttpServletResponse get(WebDavServletBean servlet,
+            String path, String ifRange) throws Exception {
+        MockHttpServletRequest mockReq = new MockHttpServletRequest("GET",
+                path);
+        mockReq.setPathInfo(path);
+        mockReq.addHeader("Range", "bytes=0-9");
+        if (ifRange != null) {
+            mockReq.addHeader("If-Range", ifRange);
+        }
+        MockHttpServletResponse mockResp = new MockHttpServletResponse();
+        HttpServletResponse resp = MockAsyncContext.response(mockResp,
+                new TestingOutputStream());
+        servlet.service(MockAsyncContext.asyncRequest(mockReq, resp, null),
+                resp);
+        return mockResp;
+    }
+
+    /**
+     * @return the status of a request without a body
+     */
+    private static int service(WebDavServletBean servlet, String method,
+            String path) throws Exception {
+        MockHttpServletRequest mockReq = new MockHttpServletRequest(method,
+                path);
+        mockReq.setPathInfo(path);
+        mockReq.setContent(new byte[1]);
+        MockHttpServletResponse mockResp = new MockHttpServletResponse();
+        HttpServletResponse resp = MockAsyncContext.response(mockResp,
+                new TestingOutputStream());
+        servlet.service(MockAsyncContext.asyncRequest(mockReq, resp, null),
+                resp);
+        return mockResp.getStatus();
+    }
+
+    private static void assertDenied(LocalFileSystemStore store,
+            ITransaction transaction, String path) {
+        try {
+            store.getResourceContent(transaction, path);
+            fail(path + " was read");
+        } catch (AccessDeniedException e) {
+            // expected
+        }
+        try {
+            store.setResourceContent(transaction, path,
+                    new ByteArrayInputStream(new byte[1]), null, null);
+            fail(path + " was written");
+        } catch (AccessDeniedException e) {
+            // expected
+        }
+        try {
+            store.createResource(transaction, path);
+            fail(path + " was created");
+        } catch (AccessDeniedException e) {
+            // expected
+        }
+        try {
+            store.removeObject(transaction, path);
+            fail(path + " was removed");
+        } catch (AccessDeniedException e) {
+            // expected
+        }
+    }
+
+    private LocalFileSystemStore open(String uploadExpiry) {
+        Properties properties = new Properties();
+        properties.setProperty(LocalFileSystemStore.UPLOAD_EXPIRY_PARAMETER,
+                uploadExpiry);
+        return new LocalFileSystemStore(_root, properties);
+    }
+
+    private static long[][] write(LocalFileSystemStore store, String path,
+            byte[] content, int offset, int length) {
+        return write(store, null, path, content, offset, length);
+    }
+
+    private static long[][] write(LocalFileSystemStore store,
+            Principal principal, String path, byte[] content, int offset,
+            int length) {
+        ITransaction transaction = store.begin(principal);
+        long[][] received = store.writeResourceContent(transaction, path,
+                offset, length, content.length, new ByteArrayInputStream(
+                        content, offset, length));
+        store.commit(transaction);
+        return received;
+    }
+
+    /**
+     * @return the temporary files in the root folder
+     */
+    private String[] temps() {
+        return _root.list(new FilenameFilter() {
+            public boolean accept(File dir, String name) {
+                return name.startsWith(".webdav-put-") && !name.equals(
+                        ".webdav-put-uploads");
+            }
+        });
+    }
+
+    /**
+     * @return the files of the partial uploads in progress
+     */
+    private File[] staged() {
+        File[] files = new File(_root, ".webdav-put-uploads").listFiles();
+        return files == null ? new File[0] : files;
+    }
+}
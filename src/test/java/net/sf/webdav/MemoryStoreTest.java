@@ -0,0 +1,223 @@
+package net.sf.webdav;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Map;
+
+import junit.framework.Assert;
+import net.sf.webdav.exceptions.WebdavException;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class MemoryStoreTest extends Assert {
+
+    static final int CHUNK_SIZE = 65536;
+
+    private File _backingRoot = null;
+
+    @After
+    public void tearDown() {
+        if (_backingRoot != null) {
+            delete(_backingRoot);
+        }
+    }
+
+    @Test
+    public void testCreateWriteAndReadResource() throws Exception {
+
+        MemoryStore store = new MemoryStore();
+        ITransaction transaction = store.begin(null);
+        store.createFolder(transaction, "/folder");
+        store.createResource(transaction, "/folder/file");
+        byte[] content = content(3 * CHUNK_SIZE + 17);
+
+        long length = store.setResourceContent(transaction, "/folder/file",
+                new ByteArrayInputStream(content), null, null);
+
+        assertEquals(content.length, length);
+        StoredObject so = store.getStoredObject(transaction, "/folder/file");
+        assertTrue(so.isResource());
+        assertEquals(content.length, so.getResourceLength());
+        assertTrue(Arrays.equals(content, read(store.getResourceContent(
+                transaction, "/folder/file"))));
+
+        byte[] range = read(store.getResourceContent(transaction,
+                "/folder/file", CHUNK_SIZE - 5, 10));
+        byte[] expected = new byte[10];
+        System.arraycopy(content, CHUNK_SIZE - 5, expected, 0, 10);
+        assertTrue(Arrays.equals(expected, range));
+
+        Map<String, StoredObject> children = store.getChildren(transaction,
+                "/folder");
+        assertEquals(1, children.size());
+        assertEquals(content.length, children.get("file")
+                .getResourceLength());
+    }
+
+    @Test
+    public void testMoveAndCopyKeepTheContent() throws Exception {
+
+        MemoryStore store = new MemoryStore();
+        ITransaction transaction = store.begin(null);
+        store.createFolder(transaction, "/a");
+        store.createResource(transaction, "/a/file");
+        byte[] content = content(1000);
+        store.setResourceContent(transaction, "/a/file",
+                new ByteArrayInputStream(content), null, null);
+
+        assertTrue(store.moveObject(transaction, "/a", "/b"));
+        assertNull(store.getStoredObject(transaction, "/a/file"));
+        assertTrue(store.copyResource(transaction, "/b/file", "/b/copy"));
+        store.setResourceContent(transaction, "/b/file",
+                new ByteArrayInputStream(content(10)), null, null);
+
+        assertTrue(Arrays.equals(content, read(store.getResourceContent(
+                transaction, "/b/copy"))));
+        assertEquals(10, store.getResourceLength(transaction, "/b/file"));
+    }
+
+    @Test
+    public void testBudgetWithoutBackingStoreStopsReadingTheBody()
+            throws Exception {
+
+        MemoryStore store = new MemoryStore(3 * CHUNK_SIZE, null, false);
+        ITransaction transaction = store.begin(null);
+        store.createResource(transaction, "/big");
+        CountingInputStream body = new CountingInputStream(
+                new ByteArrayInputStream(content(100 * CHUNK_SIZE)));
+
+        try {
+            store.setResourceContent(transaction, "/big", body, null, null);
+            fail("content over the budget was taken");
+        } catch (WebdavException e) {
+            // expected
+        }
+
+        // the body is refused as soon as it doesn't fit
+        assertTrue(body._count <= 4 * CHUNK_SIZE);
+        assertEquals(0, store.getResourceLength(transaction, "/big"));
+
+        // the chunks of the refused body are free again
+        byte[] content = content(3 * CHUNK_SIZE);
+        store.setResourceContent(transaction, "/big",
+                new ByteArrayInputStream(content), null, null);
+        assertTrue(Arrays.equals(content, read(store.getResourceContent(
+                transaction, "/big"))));
+    }
+
+    @Test
+    public void testBudgetMovesLeastRecentlyUsedContentToBackingStore()
+            throws Exception {
+
+        _backingRoot = new File(System.getProperty("java.io.tmpdir"),
+                "webdav-memory-test-" + System.nanoTime());
+        LocalFileSystemStore backingStore = new LocalFileSystemStore(
+                _backingRoot);
+        MemoryStore store = new MemoryStore(2 * CHUNK_SIZE, backingStore,
+                false);
+        ITransaction transaction = store.begin(null);
+        byte[][] contents = new byte[4][];
+        for (int i = 0; i < contents.length; i++) {
+            contents[i] = content(CHUNK_SIZE - i);
+            store.createResource(transaction, "/file" + i);
+            store.setResourceContent(transaction, "/file" + i,
+                    new ByteArrayInputStream(contents[i]), null, null);
+        }
+
+        // only the most recently used content is still in memory
+        assertTrue(_backingRoot.list().length >= 2);
+
+        for (int i = 0; i < contents.length; i++) {
+            assertTrue(Arrays.equals(contents[i], read(store
+                    .getResourceContent(transaction, "/file" + i))));
+            assertEquals(contents[i].length, store.getStoredObject(
+                    transaction, "/file" + i).getResourceLength());
+        }
+    }
+
+    @Test
+    public void testRemoveObjectRefusesFoldersWithChildren()
+            throws Exception {
+
+        MemoryStore store = new MemoryStore();
+        ITransaction transaction = store.begin(null);
+        store.createFolder(transaction, "/folder");
+        store.createResource(transaction, "/folder/file");
+
+        try {
+            store.removeObject(transaction, "/folder");
+            fail("a folder with children was removed");
+        } catch (WebdavException e) {
+            // expected
+        }
+        store.removeObject(transaction, "/folder/file");
+        store.removeObject(transaction, "/folder");
+
+        assertNull(store.getStoredObject(transaction, "/folder"));
+        assertEquals(0, store.getChildrenNames(transaction, "/").length);
+    }
+
+    static byte[] content(int length) {
+        byte[] content = new byte[length];
+        for (int i = 0; i < length; i++) {
+            content[i] = (byte) (i * 31 + i / 251);
+        }
+        return content;
+    }
+
+    static byte[] read(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+        } finally {
+            in.close();
+        }
+        return out.toByteArray();
+    }
+
+    static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (int i = 0; i < children.length; i++) {
+                delete(children[i]);
+            }
+        }
+        file.delete();
+    }
+
+    static class CountingInputStream extends InputStream {
+
+        private final InputStream _in;
+
+        long _count = 0;
+
+        CountingInputStream(InputStream in) {
+            _in = in;
+        }
+
+        public int read() throws IOException {
+            int b = _in.read();
+            if (b != -1) {
+                _count++;
+            }
+            return b;
+        }
+
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = _in.read(b, off, len);
+            if (read > 0) {
+                _count += read;
+            }
+            return read;
+        }
+    }
+}
@@ -0,0 +1,319 @@
+package net.sf.webdav;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import junit.framework.Assert;
+import net.sf.webdav.exceptions.QuotaExceededException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class QuotaStoreTest extends Assert {
+
+    private File _root;
+
+    @Before
+    public void setUp() {
+        _root = new File(System.getProperty("java.io.tmpdir"),
+                "webdav-quota-test-" + System.nanoTime());
+    }
+
+    @After
+    public void tearDown() {
+        MemoryStoreTest.delete(_root);
+    }
+
+    @Test
+    public void testStagedPartsCountWhenTheyAreWritten() throws Exception {
+
+        QuotaStore store = new QuotaStore(new LocalFileSystemStore(_root),
+                1000, -1);
+        byte[] content = MemoryStoreTest.content(800);
+        create(store, "/file");
+
+        write(store, "/file", content, 0, 500);
+        assertEquals(500, used(store));
+
+        // the staged bytes leave no room for other content
+        ITransaction transaction = store.begin(null);
+        store.createResource(transaction, "/other");
+        try {
+            store.setResourceContent(transaction, "/other",
+                    new ByteArrayInputStream(new byte[600]), null, null);
+            fail("the staged parts weren't counted");
+        } catch (QuotaExceededException e) {
+            // expected
+        }
+        store.rollback(transaction);
+
+        write(store, "/file", content, 500, 300);
+        assertEquals(800, used(store));
+    }
+
+    @Test
+    public void testPartsSentAgainCountOnceTheUploadIsComplete()
+            throws Exception {
+
+        QuotaStore store = new QuotaStore(new LocalFileSystemStore(_root),
+                -1, -1);
+        byte[] content = MemoryStoreTest.content(800);
+        create(store, "/file");
+
+        write(store, "/file", content, 0, 500);
+        write(store, "/file", content, 200, 300);
+        assertEquals(800, used(store));
+        write(store, "/file", content, 400, 400);
+        assertEquals(800, used(store));
+    }
+
+    @Test
+    public void testDiscardedUploadsAreReleased() throws Exception {
+
+        QuotaStore store = new QuotaStore(new LocalFileSystemStore(_root),
+                -1, -1);
+        byte[] content = MemoryStoreTest.content(800);
+        create(store, "/replaced");
+        create(store, "/removed");
+        create(store, "/restarted");
+        write(store, "/replaced", content, 0, 500);
+        write(store, "/removed", content, 0, 500);
+        write(store, "/restarted", content, 0, 500);
+        assertEquals(1500, used(store));
+
+        ITransaction transaction = store.begin(null);
+        store.setResourceContent(transaction, "/replaced",
+                new ByteArrayInputStream(new byte[100]), null, null);
+        store.removeObject(transaction, "/removed");
+        store.commit(transaction);
+        assertEquals(600, used(store));
+
+        // another length starts the upload over
+        transaction = store.begin(null);
+        store.writeResourceContent(transaction, "/restarted", 0, 10, 900,
+                new ByteArrayInputStream(new byte[10]));
+        store.commit(transaction);
+        assertEquals(110, used(store));
+    }
+
+    @Test
+    public void testExpiredUploadsAreReleased() throws Exception {
+
+        QuotaStore store = new QuotaStore(new LocalFileSystemStore(_root),
+                -1, -1, 50);
+        byte[] content = MemoryStoreTest.content(800);
+        create(store, "/stale");
+        create(store, "/fresh");
+        write(store, "/stale", content, 0, 500);
+        assertEquals(500, used(store));
+
+        Thread.sleep(100);
+        write(store, "/fresh", content, 0, 10);
+
+        assertEquals(10, used(store));
+    }
+
+    @Test
+    public void testRollbackReleasesWhatTheStoreThrewAway() throws Exception {
+
+        QuotaStore store = new QuotaStore(atomicStore(), 1000, -1);
+        create(store, "/kept");
+
+        ITransaction transaction = store.begin(null);
+        store.setResourceContent(transaction, "/kept",
+                new ByteArrayInputStream(new byte[300]), null, null);
+        store.commit(transaction);
+        assertEquals(300, used(store));
+
+        transaction = store.begin(null);
+        store.setResourceContent(transaction, "/kept",
+                new ByteArrayInputStream(new byte[200]), null, null);
+        store.createResource(transaction, "/new");
+        store.setResourceContent(transaction, "/new",
+                new ByteArrayInputStream(new byte[400]), null, null);
+        assertEquals(600, used(store));
+        store.rollback(transaction);
+
+        assertEquals(300, used(store));
+    }
+
+    @Test
+    public void testRollbackAfterExceedingTheQuota() throws Exception {
+
+        QuotaStore store = new QuotaStore(atomicStore(), 1000, -1);
+
+        ITransaction transaction = store.begin(null);
+        store.createResource(transaction, "/file");
+        try {
+            store.setResourceContent(transaction, "/file",
+                    new ByteArrayInputStream(new byte[1500]), null, null);
+            fail("the quota was exceeded");
+        } catch (QuotaExceededException e) {
+            // expected
+        }
+        store.rollback(transaction);
+
+        assertEquals(0, used(store));
+    }
+
+    @Test
+    public void testRollbackKeepsWhatTheStoreKept() throws Exception {
+
+        // without atomic writes the content stays
+        QuotaStore store = new QuotaStore(new LocalFileSystemStore(_root),
+                -1, -1);
+        create(store, "/file");
+
+        ITransaction transaction = store.begin(null);
+        store.setResourceContent(transaction, "/file",
+                new ByteArrayInputStream(new byte[700]), null, null);
+        store.rollback(transaction);
+
+        assertEquals(700, used(store));
+        assertEquals(700, used(new QuotaStore(new LocalFileSystemStore(
+                _root), -1, -1)));
+    }
+
+    @Test
+    public void testRollbackLeavesLaterChangesAlone() throws Exception {
+
+        QuotaStore store = new QuotaStore(new LocalFileSystemStore(_root),
+                -1, -1);
+        create(store, "/file");
+
+        ITransaction first = store.begin(null);
+        store.setResourceContent(first, "/file", new ByteArrayInputStream(
+                new byte[700]), null, null);
+        // found the content of the first one
+        ITransaction second = store.begin(null);
+        store.setResourceContent(second, "/file", new ByteArrayInputStream(
+                new byte[200]), null, null);
+        store.commit(second);
+        assertEquals(200, used(store));
+
+        store.rollback(first);
+        assertEquals(200, used(store));
+    }
+
+    @Test
+    public void testChangesWaitForTheRollbackToBeCorrected()
+            throws Exception {
+
+        final CountDownLatch rollingBack = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicBoolean block = new AtomicBoolean();
+        Properties properties = new Properties();
+        properties.setProperty(LocalFileSystemStore.ATOMIC_WRITES_PARAMETER,
+                "1");
+        final QuotaStore store = new QuotaStore(new LocalFileSystemStore(
+                _root, properties) {
+            public void rollback(ITransaction transaction) {
+                if (block.getAndSet(false)) {
+                    rollingBack.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                super.rollback(transaction);
+            }
+        }, -1, -1);
+        create(store, "/file");
+        ITransaction transaction = store.begin(null);
+        store.setResourceContent(transaction, "/file",
+                new ByteArrayInputStream(new byte[300]), null, null);
+        store.commit(transaction);
+
+        final ITransaction rolledBack = store.begin(null);
+        store.setResourceContent(rolledBack, "/file",
+                new ByteArrayInputStream(new byte[700]), null, null);
+        block.set(true);
+        Thread rollback = new Thread() {
+            public void run() {
+                store.rollback(rolledBack);
+            }
+        };
+        rollback.start();
+        final CountDownLatch written = new CountDownLatch(1);
+        Thread writer = new Thread() {
+            public void run() {
+                ITransaction transaction = store.begin(null);
+                store.setResourceContent(transaction, "/file",
+                        new ByteArrayInputStream(new byte[200]), null, null);
+                store.commit(transaction);
+                written.countDown();
+            }
+        };
+        try {
+            assertTrue(rollingBack.await(10, TimeUnit.SECONDS));
+            writer.start();
+            assertFalse(written.await(200, TimeUnit.MILLISECONDS));
+        } finally {
+            release.countDown();
+        }
+        rollback.join();
+        writer.join();
+        assertEquals(0, written.getCount());
+        assertEquals(200, used(store));
+    }
+
+    @Test
+    public void testRemovalIsReleased() throws Exception {
+
+        QuotaStore store = new QuotaStore(new LocalFileSystemStore(_root),
+                -1, 1000);
+        ITransaction transaction = store.begin(null);
+        store.createFolder(transaction, "/home");
+        store.createResource(transaction, "/home/file");
+        store.setResourceContent(transaction, "/home/file",
+                new ByteArrayInputStream(new byte[800]), null, null);
+        store.commit(transaction);
+        assertEquals(800, store.getQuotaUsedBytes(store.begin(null),
+                "/home"));
+        assertEquals(200, store.getQuotaAvailableBytes(store.begin(null),
+                "/home"));
+
+        transaction = store.begin(null);
+        store.removeObject(transaction, "/home/file");
+        store.commit(transaction);
+
+        assertEquals(0, used(store));
+        assertEquals(1000, store.getQuotaAvailableBytes(store.begin(null),
+                "/home"));
+    }
+
+    private LocalFileSystemStore atomicStore() {
+        Properties properties = new Properties();
+        properties.setProperty(LocalFileSystemStore.ATOMIC_WRITES_PARAMETER,
+                "1");
+        return new LocalFileSystemStore(_root, properties);
+    }
+
+    static void create(IWebdavStore store, String path) {
+        ITransaction transaction = store.begin(null);
+        store.createResource(transaction, path);
+        store.commit(transaction);
+    }
+
+    static long used(QuotaStore store) {
+        ITransaction transaction = store.begin(null);
+        long used = store.getQuotaUsedBytes(transaction, "/");
+        store.commit(transaction);
+        return used;
+    }
+
+    private static void write(QuotaStore store, String path, byte[] content,
+            int offset, int length) {
+        ITransaction transaction = store.begin(null);
+        store.writeResourceContent(transaction, path, offset, length,
+                content.length, new ByteArrayInputStream(content, offset,
+                        length));
+        store.commit(transaction);
+    }
+}
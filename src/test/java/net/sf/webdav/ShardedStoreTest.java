@@ -0,0 +1,248 @@
+package net.sf.webdav;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+import junit.framework.Assert;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ShardedStoreTest extends Assert {
+
+    private File[] _roots;
+
+    @Before
+    public void setUp() {
+        _roots = new File[2];
+        for (int i = 0; i < _roots.length; i++) {
+            _roots[i] = new File(System.getProperty("java.io.tmpdir"),
+                    "webdav-shard-test-" + System.nanoTime() + "-" + i);
+        }
+    }
+
+    @After
+    public void tearDown() {
+        for (int i = 0; i < _roots.length; i++) {
+            MemoryStoreTest.delete(_roots[i]);
+        }
+    }
+
+    @Test
+    public void testTableAssignsTheShard() throws Exception {
+
+        Map<String, Integer> table = new HashMap<String, Integer>();
+        table.put("zero", Integer.valueOf(0));
+        table.put("one", Integer.valueOf(1));
+        ShardedStore store = open(2, table);
+        ITransaction transaction = store.begin(null);
+        store.createFolder(transaction, "/zero");
+        store.createFolder(transaction, "/one");
+        store.createResource(transaction, "/one/file");
+        store.commit(transaction);
+
+        assertTrue(new File(_roots[0], "zero").isDirectory());
+        assertTrue(new File(_roots[1], "one/file").isFile());
+        transaction = store.begin(null);
+        assertEquals(set("zero", "one"), set(store.getChildrenNames(
+                transaction, "/")));
+        assertEquals(2, store.getChildren(transaction, "/").size());
+        store.commit(transaction);
+    }
+
+    @Test
+    public void testMoveBetweenShardsCopiesTheTree() throws Exception {
+
+        Map<String, Integer> table = new HashMap<String, Integer>();
+        table.put("from", Integer.valueOf(0));
+        table.put("to", Integer.valueOf(1));
+        ShardedStore store = open(2, table);
+        byte[] content = MemoryStoreTest.content(10000);
+        ITransaction transaction = store.begin(null);
+        store.createFolder(transaction, "/from");
+        store.createFolder(transaction, "/from/sub");
+        store.createResource(transaction, "/from/sub/file");
+        store.setResourceContent(transaction, "/from/sub/file",
+                new ByteArrayInputStream(content), null, null);
+        store.createResource(transaction, "/from/empty");
+
+        assertTrue(store.moveObject(transaction, "/from", "/to"));
+        store.commit(transaction);
+
+        assertFalse(new File(_roots[0], "from").exists());
+        assertTrue(new File(_roots[1], "to/sub/file").isFile());
+        transaction = store.begin(null);
+        assertNull(store.getStoredObject(transaction, "/from"));
+        assertTrue(store.getStoredObject(transaction, "/to/sub").isFolder());
+        assertEquals(0, store.getResourceLength(transaction, "/to/empty"));
+        assertTrue(Arrays.equals(content, MemoryStoreTest.read(store
+                .getResourceContent(transaction, "/to/sub/file"))));
+        assertEquals(set("to"), set(store.getChildrenNames(transaction, "/")));
+        store.commit(transaction);
+    }
+
+    @Test
+    public void testObjectsStayVisibleWhenAShardIsAdded() throws Exception {
+
+        ShardedStore store = open(1, new HashMap<String, Integer>());
+        ITransaction transaction = store.begin(null);
+        for (int i = 0; i < 20; i++) {
+            store.createFolder(transaction, "/folder" + i);
+            store.createResource(transaction, "/folder" + i + "/file");
+            store.setResourceContent(transaction, "/folder" + i + "/file",
+                    new ByteArrayInputStream(MemoryStoreTest.content(i)),
+                    null, null);
+        }
+        store.commit(transaction);
+
+        // all of them are in shard 0, some are assigned to shard 1 now
+        store = open(2, new HashMap<String, Integer>());
+        transaction = store.begin(null);
+        assertEquals(20, store.getChildrenNames(transaction, "/").length);
+        assertEquals(20, store.getChildren(transaction, "/").size());
+        for (int i = 0; i < 20; i++) {
+            assertEquals(i, store.getResourceLength(transaction, "/folder"
+                    + i + "/file"));
+        }
+        store.commit(transaction);
+        assertEquals(0, list(1).size());
+
+        store.rebalance();
+
+        assertFalse(list(1).isEmpty());
+        assertEquals(20, list(0).size() + list(1).size());
+        transaction = store.begin(null);
+        assertEquals(20, store.getChildrenNames(transaction, "/").length);
+        for (int i = 0; i < 20; i++) {
+            assertTrue(Arrays.equals(MemoryStoreTest.content(i),
+                    MemoryStoreTest.read(store.getResourceContent(transaction,
+                            "/folder" + i + "/file"))));
+        }
+        store.commit(transaction);
+
+        // the layout is kept at the next start
+        store = open(2, new HashMap<String, Integer>());
+        transaction = store.begin(null);
+        assertEquals(20, store.getChildren(transaction, "/").size());
+        store.commit(transaction);
+    }
+
+    @Test
+    public void testRemovedObjectsAreCreatedInTheirShard() throws Exception {
+
+        ShardedStore store = open(1, new HashMap<String, Integer>());
+        ITransaction transaction = store.begin(null);
+        for (int i = 0; i < 20; i++) {
+            store.createResource(transaction, "/file" + i);
+        }
+        store.commit(transaction);
+
+        store = open(2, new HashMap<String, Integer>());
+        transaction = store.begin(null);
+        for (int i = 0; i < 20; i++) {
+            store.removeObject(transaction, "/file" + i);
+            assertNull(store.getStoredObject(transaction, "/file" + i));
+            store.createResource(transaction, "/file" + i);
+        }
+        store.commit(transaction);
+
+        assertFalse(list(1).isEmpty());
+        assertEquals(20, list(0).size() + list(1).size());
+        transaction = store.begin(null);
+        assertEquals(20, store.getChildren(transaction, "/").size());
+        store.commit(transaction);
+    }
+
+    @Test
+    public void testRebalanceMovesObjectsToTheirShard() throws Exception {
+
+        Map<String, Integer> table = new HashMap<String, Integer>();
+        table.put("photos", Integer.valueOf(0));
+        table.put("music", Integer.valueOf(0));
+        ShardedStore store = open(2, table);
+        byte[] content = MemoryStoreTest.content(5000);
+        ITransaction transaction = store.begin(null);
+        store.createFolder(transaction, "/photos");
+        store.createFolder(transaction, "/photos/2020");
+        store.createResource(transaction, "/photos/2020/file");
+        store.setResourceContent(transaction, "/photos/2020/file",
+                new ByteArrayInputStream(content), null, null);
+        store.createFolder(transaction, "/music");
+        store.commit(transaction);
+
+        // photos is assigned to shard 1 now, music stays
+        table.put("photos", Integer.valueOf(1));
+        store = open(2, table);
+        assertEquals(set("photos", "music"), list(0));
+        store.rebalance();
+
+        assertEquals(set("music"), list(0));
+        assertEquals(set("photos"), list(1));
+        transaction = store.begin(null);
+        assertTrue(Arrays.equals(content, MemoryStoreTest.read(store
+                .getResourceContent(transaction, "/photos/2020/file"))));
+        assertEquals(set("photos", "music"), set(store.getChildrenNames(
+                transaction, "/")));
+        store.commit(transaction);
+
+        // nothing is left to move
+        store.rebalance();
+        assertEquals(set("photos"), list(1));
+    }
+
+    @Test
+    public void testRebalanceAtStartup() throws Exception {
+
+        Map<String, Integer> table = new HashMap<String, Integer>();
+        table.put("photos", Integer.valueOf(0));
+        ShardedStore store = open(2, table);
+        ITransaction transaction = store.begin(null);
+        store.createFolder(transaction, "/photos");
+        store.createResource(transaction, "/photos/file");
+        store.commit(transaction);
+
+        Properties properties = new Properties();
+        properties.setProperty(ShardedStore.SHARD_ROOTS_PARAMETER, _roots[1]
+                .getPath());
+        properties.setProperty(ShardedStore.SHARD_TABLE_PARAMETER,
+                "photos=1");
+        properties.setProperty(ShardedStore.SHARD_REBALANCE_PARAMETER, "1");
+        store = new ShardedStore(_roots[0], properties);
+
+        assertTrue(list(0).isEmpty());
+        assertTrue(new File(_roots[1], "photos/file").isFile());
+        transaction = store.begin(null);
+        assertNotNull(store.getStoredObject(transaction, "/photos/file"));
+        store.commit(transaction);
+    }
+
+    private ShardedStore open(int shards, Map<String, Integer> table) {
+        LocalFileSystemStore[] stores = new LocalFileSystemStore[shards];
+        for (int i = 0; i < shards; i++) {
+            stores[i] = new LocalFileSystemStore(_roots[i]);
+        }
+        return new ShardedStore(stores, table);
+    }
+
+    private Set<String> list(int shard) {
+        Set<String> names = new HashSet<String>();
+        String[] files = _roots[shard].list();
+        for (int i = 0; files != null && i < files.length; i++) {
+            if (!files[i].startsWith(".")) {
+                names.add(files[i]);
+            }
+        }
+        return names;
+    }
+
+    private static Set<String> set(String... names) {
+        return new HashSet<String>(Arrays.asList(names));
+    }
+}
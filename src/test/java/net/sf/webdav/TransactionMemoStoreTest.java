@@ -0,0 +1,142 @@
+package net.sf.webdav;
+
+import java.io.ByteArrayInputStream;
+import java.util.Map;
+
+import junit.framework.Assert;
+import net.sf.webdav.testutil.CountingStore;
+
+import org.junit.Test;
+
+public class TransactionMemoStoreTest extends Assert {
+
+    @Test
+    public void testObjectsAreReadOncePerTransaction() throws Exception {
+
+        CountingStore counting = new CountingStore(new MemoryStore());
+        TransactionMemoStore store = new TransactionMemoStore(counting);
+        ITransaction transaction = store.begin(null);
+        store.createResource(transaction, "/file");
+        store.commit(transaction);
+
+        transaction = store.begin(null);
+        for (int i = 0; i < 3; i++) {
+            assertNotNull(store.getStoredObject(transaction, "/file"));
+            assertNull(store.getStoredObject(transaction, "/missing"));
+        }
+        store.commit(transaction);
+        assertEquals(1, counting.count("/file"));
+        assertEquals(1, counting.count("/missing"));
+
+        // nothing is remembered across transactions
+        transaction = store.begin(null);
+        assertNotNull(store.getStoredObject(transaction, "/file"));
+        store.commit(transaction);
+        assertEquals(2, counting.count("/file"));
+    }
+
+    @Test
+    public void testListingRemembersTheChildren() throws Exception {
+
+        CountingStore counting = new CountingStore(new MemoryStore());
+        TransactionMemoStore store = new TransactionMemoStore(counting);
+        ITransaction transaction = store.begin(null);
+        store.createFolder(transaction, "/folder");
+        store.createResource(transaction, "/folder/a");
+        store.createResource(transaction, "/folder/b");
+        store.commit(transaction);
+
+        transaction = store.begin(null);
+        Map<String, StoredObject> children = store.getChildren(transaction,
+                "/folder");
+        assertEquals(2, children.size());
+        assertEquals(2, store.getChildrenNames(transaction, "/folder").length);
+        assertNotNull(store.getStoredObject(transaction, "/folder/a"));
+        assertEquals(2, store.getChildren(transaction, "/folder").size());
+        store.commit(transaction);
+
+        assertEquals(1, counting._listed.size());
+        assertEquals(0, counting._named.size());
+        assertEquals(0, counting.count("/folder/a"));
+    }
+
+    @Test
+    public void testChangesForgetWhatTheyTouch() throws Exception {
+
+        MemoryStore memoryStore = new MemoryStore();
+        TransactionMemoStore store = new TransactionMemoStore(memoryStore);
+        ITransaction transaction = store.begin(null);
+        store.createFolder(transaction, "/a");
+        store.createFolder(transaction, "/a/sub");
+        store.createResource(transaction, "/a/sub/file");
+        assertEquals(1, store.getChildren(transaction, "/a").size());
+        assertNotNull(store.getStoredObject(transaction, "/a/sub/file"));
+
+        store.createResource(transaction, "/a/other");
+        assertEquals(2, store.getChildren(transaction, "/a").size());
+
+        store.setResourceContent(transaction, "/a/other",
+                new ByteArrayInputStream(new byte[7]), null, null);
+        assertEquals(7, store.getStoredObject(transaction, "/a/other")
+                .getResourceLength());
+        assertEquals(7, store.getResourceLength(transaction, "/a/other"));
+
+        // moving forgets everything below the source
+        assertTrue(store.moveObject(transaction, "/a/sub", "/b"));
+        assertNull(store.getStoredObject(transaction, "/a/sub/file"));
+        assertNotNull(store.getStoredObject(transaction, "/b/file"));
+        assertEquals(1, store.getChildren(transaction, "/a").size());
+
+        store.removeObject(transaction, "/b/file");
+        assertNull(store.getStoredObject(transaction, "/b/file"));
+        assertEquals(0, store.getChildren(transaction, "/b").size());
+        store.commit(transaction);
+    }
+
+    @Test
+    public void testCallersShareTheRememberedObjects() throws Exception {
+
+        TransactionMemoStore store = new TransactionMemoStore(
+                new MemoryStore());
+        ITransaction transaction = store.begin(null);
+        store.createResource(transaction, "/file");
+        store.commit(transaction);
+
+        transaction = store.begin(null);
+        // like DoLock marking a lock-null resource
+        StoredObject so = store.getStoredObject(transaction, "/file");
+        so.setNullResource(true);
+        assertSame(so, store.getStoredObject(transaction, "/file"));
+        assertTrue(store.getStoredObject(transaction, "/file")
+                .isNullResource());
+
+        Map<String, StoredObject> children = store.getChildren(transaction,
+                "/");
+        assertSame(so, children.get("file"));
+        // the listing is the caller's own
+        children.remove("file");
+        assertEquals(1, store.getChildren(transaction, "/").size());
+        store.commit(transaction);
+
+        // the next transaction reads the store again
+        transaction = store.begin(null);
+        assertNotSame(so, store.getStoredObject(transaction, "/file"));
+        store.commit(transaction);
+    }
+
+    @Test
+    public void testListedObjectsAreTheRememberedOnes() throws Exception {
+
+        TransactionMemoStore store = new TransactionMemoStore(
+                new MemoryStore());
+        ITransaction transaction = store.begin(null);
+        store.createFolder(transaction, "/folder");
+        store.createResource(transaction, "/folder/file");
+        store.commit(transaction);
+
+        transaction = store.begin(null);
+        StoredObject so = store.getStoredObject(transaction, "/folder/file");
+        assertSame(so, store.getChildren(transaction, "/folder").get("file"));
+        store.commit(transaction);
+    }
+}
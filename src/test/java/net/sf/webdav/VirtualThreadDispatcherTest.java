@@ -0,0 +1,207 @@
+package net.sf.webdav;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import junit.framework.Assert;
+import net.sf.webdav.testutil.MockAsyncContext;
+
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+public class VirtualThreadDispatcherTest extends Assert {
+
+    @Test
+    public void testTimeoutDoesntWaitForAWrite() throws Exception {
+
+        final BlockingOutputStream out = new BlockingOutputStream();
+        final IOException[] failed = new IOException[1];
+        final CountDownLatch done = new CountDownLatch(1);
+        VirtualThreadDispatcher dispatcher = new VirtualThreadDispatcher(
+                new WebDavServletBean() {
+                    protected void execute(HttpServletRequest req,
+                            HttpServletResponse resp) throws IOException {
+                        ServletOutputStream body = resp.getOutputStream();
+                        body.write(1);
+                        body.write(2);
+                        try {
+                            body.write(3);
+                        } catch (IOException e) {
+                            failed[0] = e;
+                        }
+                        done.countDown();
+                    }
+                }, 1, 0);
+        try {
+            MockHttpServletResponse mockResp = new MockHttpServletResponse();
+            HttpServletResponse resp = MockAsyncContext.response(mockResp,
+                    out);
+            HttpServletRequest req = MockAsyncContext.asyncRequest(
+                    new MockHttpServletRequest("GET", "/"), resp, null);
+            dispatcher.dispatch(req, resp);
+            assertTrue(out._writing.await(10, TimeUnit.SECONDS));
+
+            // the write still blocks
+            MockAsyncContext.of(req).timeOut();
+            assertEquals(1, MockAsyncContext.of(req).getCompleted());
+
+            out._release.countDown();
+            assertTrue(done.await(10, TimeUnit.SECONDS));
+            // the write in progress ended, the next one failed
+            assertNotNull(failed[0]);
+            assertEquals(2, out._written);
+        } finally {
+            out._release.countDown();
+            dispatcher.shutdown();
+        }
+    }
+
+    @Test
+    public void testResponseIsLeftAloneAfterTimeout() throws Exception {
+
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch timedOut = new CountDownLatch(1);
+        final boolean[] checks = new boolean[3];
+        final CountDownLatch done = new CountDownLatch(1);
+        VirtualThreadDispatcher dispatcher = new VirtualThreadDispatcher(
+                new WebDavServletBean() {
+                    protected void execute(HttpServletRequest req,
+                            HttpServletResponse resp) throws IOException {
+                        PrintWriter writer = resp.getWriter();
+                        started.countDown();
+                        try {
+                            timedOut.await();
+                        } catch (InterruptedException e) {
+                            return;
+                        }
+                        resp.setStatus(HttpServletResponse.SC_OK);
+                        resp.setContentLengthLong(10);
+                        resp.resetBuffer();
+                        resp.reset();
+                        writer.print("dropped");
+                        writer.flush();
+                        checks[0] = writer.checkError();
+                        try {
+                            resp.flushBuffer();
+                        } catch (IOException e) {
+                            checks[1] = true;
+                        }
+                        try {
+                            resp.getOutputStream();
+                        } catch (IOException e) {
+                            checks[2] = true;
+                        }
+                        done.countDown();
+                    }
+                }, 0, 0);
+        try {
+            MockHttpServletResponse resp = new MockHttpServletResponse();
+            HttpServletRequest req = MockAsyncContext.asyncRequest(
+                    new MockHttpServletRequest("GET", "/"), resp, null);
+            dispatcher.dispatch(req, resp);
+            assertTrue(started.await(10, TimeUnit.SECONDS));
+
+            MockAsyncContext.of(req).timeOut();
+            timedOut.countDown();
+            assertTrue(done.await(10, TimeUnit.SECONDS));
+
+            assertEquals(WebdavStatus.SC_SERVICE_UNAVAILABLE, resp
+                    .getStatus());
+            assertEquals(0, resp.getContentLength());
+            assertEquals("", resp.getContentAsString());
+            assertTrue("the writer didn't report an error", checks[0]);
+            assertTrue("the buffer was flushed", checks[1]);
+            assertTrue("the output stream was handed out", checks[2]);
+        } finally {
+            timedOut.countDown();
+            dispatcher.shutdown();
+        }
+    }
+
+    @Test
+    public void testRequestWaitingForAPermitIsNotExecuted() throws Exception {
+
+        final CountDownLatch running = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final int[] executed = new int[1];
+        VirtualThreadDispatcher dispatcher = new VirtualThreadDispatcher(
+                new WebDavServletBean() {
+                    protected void execute(HttpServletRequest req,
+                            HttpServletResponse resp) throws IOException {
+                        synchronized (executed) {
+                            executed[0]++;
+                        }
+                        running.countDown();
+                        try {
+                            release.await();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                    }
+                }, 1, 0);
+        try {
+            MockHttpServletResponse resp1 = new MockHttpServletResponse();
+            HttpServletRequest req1 = MockAsyncContext.asyncRequest(
+                    new MockHttpServletRequest("GET", "/"), resp1, null);
+            dispatcher.dispatch(req1, resp1);
+            assertTrue(running.await(10, TimeUnit.SECONDS));
+
+            MockHttpServletResponse resp2 = new MockHttpServletResponse();
+            HttpServletRequest req2 = MockAsyncContext.asyncRequest(
+                    new MockHttpServletRequest("GET", "/"), resp2, null);
+            dispatcher.dispatch(req2, resp2);
+            MockAsyncContext.of(req2).timeOut();
+            assertEquals(WebdavStatus.SC_SERVICE_UNAVAILABLE, resp2
+                    .getStatus());
+
+            release.countDown();
+            dispatcher.shutdown();
+            assertEquals(1, executed[0]);
+            assertEquals(HttpServletResponse.SC_OK, resp1.getStatus());
+        } finally {
+            release.countDown();
+            dispatcher.shutdown();
+        }
+    }
+
+    /**
+     * takes the first byte, then blocks writing until it is released
+     */
+    private static class BlockingOutputStream extends ServletOutputStream {
+
+        final CountDownLatch _writing = new CountDownLatch(1);
+
+        final CountDownLatch _release = new CountDownLatch(1);
+
+        volatile int _written = 0;
+
+        public void write(int b) throws IOException {
+            if (_written == 0) {
+                _written++;
+                return;
+            }
+            _writing.countDown();
+            try {
+                _release.await();
+            } catch (InterruptedException e) {
+                throw new IOException("interrupted");
+            }
+            _written++;
+        }
+
+        public boolean isReady() {
+            return true;
+        }
+
+        public void setWriteListener(WriteListener listener) {
+        }
+    }
+}
@@ -1,8 +1,12 @@
 package net.sf.webdav;
 
+import java.util.Arrays;
+import java.util.Vector;
+
 import javax.servlet.ServletConfig;
 import javax.servlet.ServletContext;
 
+import net.sf.webdav.exceptions.UnauthenticatedException;
 import net.sf.webdav.testutil.MockPrincipal;
 import net.sf.webdav.testutil.MockTest;
 
@@ -83,26 +87,41 @@ public class WebdavServletTest extends MockTest {
 
                 allowing(servletContext).log("webdav-servlet: init");
 
-                one(servletConfig).getInitParameter(
+                // stores with settings get all init-parameters
+                one(servletConfig).getInitParameterNames();
+                will(returnValue(new Vector<String>(Arrays.asList(
+                        "ResourceHandlerImplementation", "rootpath",
+                        "lazyFolderCreationOnPut", "default-index-file",
+                        "instead-of-404", "no-content-length-headers"))
+                        .elements()));
+
+                exactly(2).of(servletConfig).getInitParameter(
                         "ResourceHandlerImplementation");
                 will(returnValue(""));
 
-                one(servletConfig).getInitParameter("rootpath");
+                exactly(2).of(servletConfig).getInitParameter("rootpath");
                 will(returnValue("./target/tmpTestData/"));
 
-                exactly(2).of(servletConfig).getInitParameter(
+                exactly(3).of(servletConfig).getInitParameter(
                         "lazyFolderCreationOnPut");
                 will(returnValue("1"));
 
-                one(servletConfig).getInitParameter("default-index-file");
+                exactly(2).of(servletConfig).getInitParameter(
+                        "default-index-file");
                 will(returnValue("index.html"));
 
-                one(servletConfig).getInitParameter("instead-of-404");
+                exactly(2).of(servletConfig).getInitParameter(
+                        "instead-of-404");
                 will(returnValue(""));
 
-                exactly(2).of(servletConfig).getInitParameter(
+                exactly(3).of(servletConfig).getInitParameter(
                         "no-content-length-headers");
                 will(returnValue("0"));
+
+                // the optional parameters are not set
+                allowing(servletConfig).getInitParameter(
+                        with(any(String.class)));
+                will(returnValue(null));
             }
         });
 
@@ -158,4 +177,53 @@ public class WebdavServletTest extends MockTest {
 
         _mockery.assertIsSatisfied();
     }
+
+    @Test
+    public void testMetricsAreServedAtTheirPath() throws Exception {
+
+        WebDavServletBean servlet = new WebDavServletBean();
+        servlet.init(new MemoryStore(), null, null, -1, true, 0, -1, -1, -1,
+                "/.metrics");
+        try {
+            MockHttpServletRequest req = new MockHttpServletRequest("GET",
+                    "/.metrics");
+            req.setPathInfo("/.metrics");
+            MockHttpServletResponse resp = new MockHttpServletResponse();
+
+            servlet.service(req, resp);
+
+            assertEquals(200, resp.getStatus());
+            assertTrue(resp.getContentAsString().contains(
+                    "# TYPE webdav_request_seconds summary"));
+            // the scrapes aren't counted as GETs
+            assertEquals(0, servlet.getMetrics().getRequestTimes("GET")
+                    .getCount());
+        } finally {
+            servlet.destroy();
+        }
+    }
+
+    @Test
+    public void testMetricsNeedAuthentication() throws Exception {
+
+        WebDavServletBean servlet = new WebDavServletBean();
+        servlet.init(new MemoryStore() {
+            public void checkAuthentication(ITransaction transaction) {
+                throw new UnauthenticatedException();
+            }
+        }, null, null, -1, true, 0, -1, -1, -1, "/.metrics");
+        try {
+            MockHttpServletRequest req = new MockHttpServletRequest("GET",
+                    "/.metrics");
+            req.setPathInfo("/.metrics");
+            MockHttpServletResponse resp = new MockHttpServletResponse();
+
+            servlet.service(req, resp);
+
+            assertEquals(403, resp.getStatus());
+            assertFalse(resp.getContentAsString().contains("webdav_"));
+        } finally {
+            servlet.destroy();
+        }
+    }
 }
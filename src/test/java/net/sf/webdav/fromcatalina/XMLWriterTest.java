@@ -0,0 +1,159 @@
+package net.sf.webdav.fromcatalina;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.HashMap;
+import java.util.Map;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+public class XMLWriterTest extends Assert {
+
+    @Test
+    public void testFullBufferIsHandedToTheWriter() throws Exception {
+
+        CountingWriter writer = new CountingWriter();
+        XMLWriter generatedXML = new XMLWriter(writer, namespaces());
+        String text = text(XMLWriter.BUFFER_SIZE * 2 + 100);
+        generatedXML.writeElement("DAV::prop", XMLWriter.OPENING);
+        generatedXML.writeText(text);
+
+        // only full buffers were written, nothing was flushed yet
+        assertEquals(2, writer._writes);
+        assertEquals(XMLWriter.BUFFER_SIZE * 2, writer.toString().length());
+        assertEquals(0, writer._flushes);
+        assertEquals(writer.toString().length()
+                + generatedXML.toString().length(), generatedXML.getLength());
+
+        generatedXML.writeElement("DAV::prop", XMLWriter.CLOSING);
+        generatedXML.sendData();
+
+        assertEquals("<D:prop xmlns:D=\"DAV:\">" + text + "</D:prop>\n",
+                writer.toString());
+        assertEquals(writer.toString().length(), generatedXML.getLength());
+        assertEquals(1, writer._flushes);
+        assertEquals("", generatedXML.toString());
+    }
+
+    @Test
+    public void testStreamGetsUtf8() throws Exception {
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        XMLWriter generatedXML = new XMLWriter(out, namespaces());
+        generatedXML.writeProperty("DAV::displayname", "\u00e4\u20ac");
+        generatedXML.sendData();
+
+        assertEquals("<D:displayname xmlns:D=\"DAV:\">\u00e4\u20ac"
+                + "</D:displayname>\n", out.toString("UTF-8"));
+    }
+
+    @Test
+    public void testWithoutWriterTheXmlIsKept() throws Exception {
+
+        XMLWriter generatedXML = new XMLWriter(namespaces());
+        String text = text(XMLWriter.BUFFER_SIZE + 100);
+        generatedXML.writeXMLHeader();
+        generatedXML.writeElement("DAV::multistatus", XMLWriter.OPENING);
+        generatedXML.writeElement("http://example.com/ns:custom",
+                XMLWriter.NO_CONTENT);
+        generatedXML.writeData(text);
+        generatedXML.writeElement("DAV::multistatus", XMLWriter.CLOSING);
+        // there is nothing to send to
+        generatedXML.sendData();
+
+        String expected = "<?xml version=\"1.0\" encoding=\"utf-8\" ?>\n"
+                + "<D:multistatus xmlns:D=\"DAV:\">"
+                + "<custom xmlns=\"http://example.com/ns\"/>"
+                + "<![CDATA[" + text + "]]>" + "</D:multistatus>\n";
+        assertEquals(expected, generatedXML.toString());
+        assertEquals(expected.length(), generatedXML.getLength());
+    }
+
+    @Test
+    public void testFailingWriterIsReportedBySendData() throws Exception {
+
+        FailingWriter writer = new FailingWriter();
+        XMLWriter generatedXML = new XMLWriter(writer, namespaces());
+        generatedXML.writeElement("DAV::prop", XMLWriter.OPENING);
+        // the failure isn't thrown while the XML is generated
+        generatedXML.writeText(text(XMLWriter.BUFFER_SIZE * 3));
+        generatedXML.writeElement("DAV::prop", XMLWriter.CLOSING);
+        assertEquals(1, writer._writes);
+
+        try {
+            generatedXML.sendData();
+            fail("the failure of the writer wasn't reported");
+        } catch (IOException e) {
+            assertSame(writer._failure, e);
+        }
+        // the rest was discarded, the writer was neither tried again nor
+        // flushed
+        assertEquals(1, writer._writes);
+        assertEquals(0, writer._flushes);
+        assertEquals("<D:prop xmlns:D=\"DAV:\">".length()
+                + XMLWriter.BUFFER_SIZE * 3 + "</D:prop>\n".length(),
+                generatedXML.getLength());
+    }
+
+    private static Map<String, String> namespaces() {
+        Map<String, String> namespaces = new HashMap<String, String>();
+        namespaces.put("DAV:", "D");
+        return namespaces;
+    }
+
+    private static String text(int length) {
+        StringBuilder text = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            text.append((char) ('a' + i % 26));
+        }
+        return text.toString();
+    }
+
+    /**
+     * counts the calls it gets
+     */
+    private static class CountingWriter extends StringWriter {
+
+        int _writes = 0;
+
+        int _flushes = 0;
+
+        public void write(char[] cbuf, int off, int len) {
+            _writes++;
+            super.write(cbuf, off, len);
+        }
+
+        public void flush() {
+            _flushes++;
+            super.flush();
+        }
+    }
+
+    /**
+     * fails like the connection of a client that went away
+     */
+    private static class FailingWriter extends Writer {
+
+        final IOException _failure = new IOException("connection reset");
+
+        int _writes = 0;
+
+        int _flushes = 0;
+
+        public void write(char[] cbuf, int off, int len) throws IOException {
+            _writes++;
+            throw _failure;
+        }
+
+        public void flush() {
+            _flushes++;
+        }
+
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package net.sf.webdav.locking;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+public class LockExpirySchedulerTest extends Assert {
+
+    @Test
+    public void testLockedObjectsExpireAfterTheirTimeout() throws Exception {
+
+        ExpiringLocks locks = new ExpiringLocks();
+        LockExpiryScheduler scheduler = new LockExpiryScheduler(locks, 10);
+        locks._scheduler = scheduler;
+        try {
+            LockedObject first = schedule(locks, scheduler, "/first", 50);
+            LockedObject second = schedule(locks, scheduler, "/second", 150);
+
+            locks.await(first);
+            assertFalse(locks.expired().contains(second));
+            locks.await(second);
+            assertEquals(2, locks.expired().size());
+        } finally {
+            scheduler.stop();
+        }
+    }
+
+    @Test
+    public void testRefreshedLockedObjectIsRescheduled() throws Exception {
+
+        ExpiringLocks locks = new ExpiringLocks();
+        LockExpiryScheduler scheduler = new LockExpiryScheduler(locks, 10);
+        locks._scheduler = scheduler;
+        try {
+            LockedObject refreshed = schedule(locks, scheduler, "/refreshed",
+                    50);
+            // like a refresh of the lock, the earlier entry stays
+            refreshed._expiresAt = System.currentTimeMillis() + 300;
+            scheduler.schedule(refreshed);
+            LockedObject other = schedule(locks, scheduler, "/other", 100);
+
+            locks.await(other);
+            assertFalse(locks.expired().contains(refreshed));
+            locks.await(refreshed);
+            assertTrue(locks._rescheduled > 0);
+        } finally {
+            scheduler.stop();
+        }
+    }
+
+    @Test
+    public void testStoppedSchedulerExpiresNothing() throws Exception {
+
+        ExpiringLocks locks = new ExpiringLocks();
+        LockExpiryScheduler scheduler = new LockExpiryScheduler(locks, 10);
+        locks._scheduler = scheduler;
+        schedule(locks, scheduler, "/file", 30);
+        scheduler.stop();
+
+        Thread.sleep(200);
+        assertTrue(locks.expired().isEmpty());
+    }
+
+    @Test
+    public void testResourceLocksRemoveExpiredLocks() throws Exception {
+
+        ResourceLocks locks = new ResourceLocks();
+        try {
+            assertTrue(locks.lock(null, "/folder/file", "owner", true, 0, 1,
+                    false));
+            assertNotNull(locks.getLockedObjectByPath(null, "/folder/file"));
+
+            long end = System.currentTimeMillis() + 10000;
+            while (locks.getLockedObjectByPath(null, "/folder/file") != null
+                    && System.currentTimeMillis() < end) {
+                Thread.sleep(50);
+            }
+            assertNull(locks.getLockedObjectByPath(null, "/folder/file"));
+            assertNull(locks.getLockedObjectByPath(null, "/folder"));
+        } finally {
+            locks.destroy();
+        }
+    }
+
+    private static LockedObject schedule(ResourceLocks locks,
+            LockExpiryScheduler scheduler, String path, long timeout) {
+        LockedObject lo = new LockedObject(locks, path, false);
+        lo._expiresAt = System.currentTimeMillis() + timeout;
+        scheduler.schedule(lo);
+        return lo;
+    }
+
+    /**
+     * remembers what expired, puts refreshed LockedObjects back like
+     * ResourceLocks does
+     */
+    private static class ExpiringLocks extends ResourceLocks {
+
+        LockExpiryScheduler _scheduler;
+
+        private final List<LockedObject> _expired =
+                new ArrayList<LockedObject>();
+
+        volatile int _rescheduled = 0;
+
+        synchronized void expire(LockedObject lo) {
+            long now = System.currentTimeMillis();
+            if (lo._expiresAt >= now) {
+                _rescheduled++;
+                _scheduler.reschedule(lo, lo._expiresAt);
+                return;
+            }
+            lo._expiryEntry = null;
+            _expired.add(lo);
+            notifyAll();
+        }
+
+        synchronized List<LockedObject> expired() {
+            return new ArrayList<LockedObject>(_expired);
+        }
+
+        synchronized void await(LockedObject lo) throws InterruptedException {
+            long end = System.currentTimeMillis() + 10000;
+            while (!_expired.contains(lo) && System.currentTimeMillis() < end) {
+                wait(end - System.currentTimeMillis());
+            }
+            assertTrue(lo.getPath() + " didn't expire", _expired.contains(lo));
+        }
+    }
+}
@@ -0,0 +1,180 @@
+package net.sf.webdav.locking;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.Assert;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ResourceLocksTest extends Assert {
+
+    private ResourceLocks _locks;
+
+    @Before
+    public void setUp() {
+        _locks = new ResourceLocks();
+    }
+
+    @After
+    public void tearDown() {
+        _locks.destroy();
+    }
+
+    @Test
+    public void testReadsHonourTheDepthOfAParentLock() throws Exception {
+
+        // LockedObjects of their own below the locks
+        assertTrue(_locks.lock(null, "/flat/locked", "other", false, 0, 60,
+                true));
+        assertTrue(_locks.lock(null, "/one/folder/locked", "other", false, 0,
+                60, true));
+        assertTrue(_locks.lock(null, "/flat", "owner", true, 0, 60, true));
+        assertTrue(_locks.lock(null, "/one", "owner", true, 1, 60, true));
+        assertTrue(_locks.lock(null, "/deep", "owner", true, 3, 60, true));
+
+        assertFalse(_locks.checkReadable(null, "/flat", 0));
+        assertTrue(_locks.checkReadable(null, "/flat/file", 0));
+        assertTrue(_locks.checkReadable(null, "/flat/locked", 0));
+        assertFalse(_locks.checkReadable(null, "/one/file", 0));
+        assertFalse(_locks.checkReadable(null, "/one/folder", 0));
+        assertTrue(_locks.checkReadable(null, "/one/folder/file", 0));
+        assertTrue(_locks.checkReadable(null, "/one/folder/locked", 0));
+        assertFalse(_locks.checkReadable(null, "/deep/a/b/c/d/file", 0));
+    }
+
+    @Test
+    public void testSharedLocksDontKeepAnybodyFromReading() throws Exception {
+
+        // a PUT takes a shared temporary lock
+        assertTrue(_locks.lock(null, "/folder/file", "put", false, 0, 60,
+                true));
+
+        assertTrue(_locks.checkReadable(null, "/folder/file", 0));
+        assertTrue(_locks.checkReadable(null, "/folder", 1));
+
+        assertTrue(_locks.lock(null, "/folder/other", "delete", true, 0, 60,
+                true));
+        assertFalse(_locks.checkReadable(null, "/folder", 1));
+        assertTrue(_locks.checkReadable(null, "/folder", 0));
+    }
+
+    @Test
+    public void testConcurrentLocksExcludeEachOther() throws Exception {
+
+        // folders in different stripes, each path wanted by two threads
+        final String[] paths = new String[] { "/a/file", "/b/file",
+                "/c/folder/file", "/d/file" };
+        final AtomicInteger[] holders = new AtomicInteger[paths.length];
+        for (int i = 0; i < holders.length; i++) {
+            holders[i] = new AtomicInteger();
+        }
+        final List<String> failures = new ArrayList<String>();
+        Thread[] threads = new Thread[paths.length * 2];
+        for (int i = 0; i < threads.length; i++) {
+            final int thread = i;
+            threads[i] = new Thread() {
+                public void run() {
+                    int p = thread % paths.length;
+                    String owner = "owner" + thread;
+                    // a thread may lose every race while the other one runs
+                    int taken = 0;
+                    while (taken < 2000) {
+                        if (!_locks.lock(null, paths[p], owner, true, 0, 60,
+                                true)) {
+                            continue;
+                        }
+                        taken++;
+                        if (holders[p].incrementAndGet() != 1) {
+                            record(failures, paths[p] + " held twice");
+                        }
+                        holders[p].decrementAndGet();
+                        _locks.unlockTemporaryLockedObjects(null, paths[p],
+                                owner);
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (int i = 0; i < threads.length; i++) {
+            threads[i].join();
+        }
+
+        assertEquals(new ArrayList<String>(), failures);
+        // nothing was left locked
+        for (int i = 0; i < paths.length; i++) {
+            assertTrue(paths[i], _locks.lock(null, paths[i], "last", true, 0,
+                    60, true));
+        }
+    }
+
+    @Test
+    public void testRootLockCoversEverything() throws Exception {
+
+        assertTrue(_locks.lock(null, "/", "owner", true, 3, 60, true));
+        assertFalse(_locks.lock(null, "/a/file", "other", false, 0, 60, true));
+        assertFalse(_locks.lock(null, "/b", "other", true, 0, 60, true));
+        _locks.unlockTemporaryLockedObjects(null, "/", "owner");
+        assertTrue(_locks.lock(null, "/a/file", "other", false, 0, 60, true));
+    }
+
+    @Test
+    public void testRootLockSpansTheStripesOfItsChildren() throws Exception {
+
+        final AtomicInteger rootHolders = new AtomicInteger();
+        final AtomicInteger childHolders = new AtomicInteger();
+        final List<String> failures = new ArrayList<String>();
+        Thread[] threads = new Thread[3];
+        // the root lock takes all stripes, the children each their own
+        final String[] paths = new String[] { "/", "/a/file", "/b/file" };
+        for (int i = 0; i < threads.length; i++) {
+            final int thread = i;
+            threads[i] = new Thread() {
+                public void run() {
+                    String owner = "owner" + thread;
+                    boolean root = thread == 0;
+                    int taken = 0;
+                    while (taken < 2000) {
+                        if (!_locks.lock(null, paths[thread], owner, root, 3,
+                                60, true)) {
+                            continue;
+                        }
+                        taken++;
+                        if (root) {
+                            rootHolders.incrementAndGet();
+                            if (childHolders.get() != 0) {
+                                record(failures, "/ locked with a child");
+                            }
+                            rootHolders.decrementAndGet();
+                        } else {
+                            childHolders.incrementAndGet();
+                            if (rootHolders.get() != 0) {
+                                record(failures, paths[thread]
+                                        + " locked with /");
+                            }
+                            childHolders.decrementAndGet();
+                        }
+                        _locks.unlockTemporaryLockedObjects(null,
+                                paths[thread], owner);
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (int i = 0; i < threads.length; i++) {
+            threads[i].join();
+        }
+
+        assertEquals(new ArrayList<String>(), failures);
+        assertTrue(_locks.lock(null, "/", "last", true, 3, 60, true));
+    }
+
+    private static void record(List<String> failures, String failure) {
+        synchronized (failures) {
+            failures.add(failure);
+        }
+    }
+}
@@ -1,10 +1,13 @@
 package net.sf.webdav.methods;
 
 import java.io.PrintWriter;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
+import net.sf.webdav.IChildrenStore;
 import net.sf.webdav.ITransaction;
 import net.sf.webdav.IWebdavStore;
 import net.sf.webdav.StoredObject;
@@ -175,6 +178,53 @@ public class DoDeleteTest extends MockTest {
         _mockery.assertIsSatisfied();
     }
 
+    @Test
+    public void testDeleteFolderReadsChildrenFromChildrenStore()
+            throws Exception {
+
+        final IChildrenStore mockChildrenStore = _mockery
+                .mock(IChildrenStore.class);
+
+        _mockery.checking(new Expectations() {
+            {
+                one(mockReq).getAttribute("javax.servlet.include.request_uri");
+                will(returnValue(null));
+
+                one(mockReq).getPathInfo();
+                will(returnValue(sourceCollectionPath));
+
+                one(mockRes).setStatus(WebdavStatus.SC_NO_CONTENT);
+
+                StoredObject folderSo = initFolderStoredObject();
+
+                one(mockChildrenStore).getStoredObject(mockTransaction,
+                        sourceCollectionPath);
+                will(returnValue(folderSo));
+
+                Map<String, StoredObject> children = new LinkedHashMap<String, StoredObject>();
+                children.put("sourceFile",
+                        initFileStoredObject(resourceContent));
+
+                one(mockChildrenStore).getChildren(mockTransaction,
+                        sourceCollectionPath);
+                will(returnValue(children));
+
+                one(mockChildrenStore).removeObject(mockTransaction,
+                        sourceFilePath);
+
+                one(mockChildrenStore).removeObject(mockTransaction,
+                        sourceCollectionPath);
+            }
+        });
+
+        DoDelete doDelete = new DoDelete(mockChildrenStore,
+                new ResourceLocks(), !readOnly);
+
+        doDelete.execute(mockTransaction, mockReq, mockRes);
+
+        _mockery.assertIsSatisfied();
+    }
+
     @Test
     public void testDeleteFolderIfObjectNotExists() throws Exception {
 
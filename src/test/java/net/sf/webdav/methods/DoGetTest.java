@@ -1,11 +1,13 @@
 package net.sf.webdav.methods;
 
 import java.io.ByteArrayInputStream;
+import java.nio.channels.WritableByteChannel;
 import java.util.Locale;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
+import net.sf.webdav.IChannelStore;
 import net.sf.webdav.IMimeTyper;
 import net.sf.webdav.ITransaction;
 import net.sf.webdav.IWebdavStore;
@@ -99,10 +101,13 @@ public class DoGetTest extends MockTest {
                 one(mockRes).setDateHeader("last-modified",
                         indexSo.getLastModified().getTime());
 
-                one(mockRes).addHeader(with(any(String.class)),
+                exactly(2).of(mockRes).addHeader(with(any(String.class)),
                         with(any(String.class)));
 
-                one(mockMimeTyper).getMimeType("/index.html");
+                one(mockReq).getHeader("Range");
+                will(returnValue(null));
+
+                one(mockMimeTyper).getMimeType(mockTransaction, "/index.html");
                 will(returnValue("text/foo"));
 
                 one(mockRes).setContentType("text/foo");
@@ -112,12 +117,14 @@ public class DoGetTest extends MockTest {
                 one(mockStore).getStoredObject(mockTransaction, "/index.html");
                 will(returnValue(so));
 
+                tos = new TestingOutputStream();
+
                 one(mockRes).getOutputStream();
                 will(returnValue(tos));
 
                 one(mockStore).getResourceContent(mockTransaction,
                         "/index.html");
-                will(returnValue(dsis));
+                will(returnValue(new ByteArrayInputStream(resourceContent)));
             }
         });
 
@@ -131,6 +138,244 @@ public class DoGetTest extends MockTest {
         _mockery.assertIsSatisfied();
     }
 
+    @Test
+    public void testAccessOfaPageTransfersContentFromChannelStore()
+            throws Exception {
+
+        final IChannelStore mockChannelStore = _mockery
+                .mock(IChannelStore.class);
+
+        _mockery.checking(new Expectations() {
+            {
+                one(mockReq).getAttribute("javax.servlet.include.request_uri");
+                will(returnValue(null));
+
+                one(mockReq).getPathInfo();
+                will(returnValue("/index.html"));
+
+                StoredObject indexSo = initFileStoredObject(resourceContent);
+
+                one(mockChannelStore).getStoredObject(mockTransaction,
+                        "/index.html");
+                will(returnValue(indexSo));
+
+                one(mockReq).getHeader("If-None-Match");
+                will(returnValue(null));
+
+                one(mockRes).setDateHeader("last-modified",
+                        indexSo.getLastModified().getTime());
+
+                exactly(2).of(mockRes).addHeader(with(any(String.class)),
+                        with(any(String.class)));
+
+                one(mockReq).getHeader("Range");
+                will(returnValue(null));
+
+                one(mockMimeTyper).getMimeType(mockTransaction, "/index.html");
+                will(returnValue("text/foo"));
+
+                one(mockRes).setContentType("text/foo");
+
+                StoredObject so = initFileStoredObject(resourceContent);
+
+                one(mockChannelStore).getStoredObject(mockTransaction,
+                        "/index.html");
+                will(returnValue(so));
+
+                one(mockRes).getOutputStream();
+                will(returnValue(tos));
+
+                one(mockChannelStore).transferResourceContent(
+                        with(same(mockTransaction)), with(equal("/index.html")),
+                        with(equal(0L)), with(equal(-1L)),
+                        with(any(WritableByteChannel.class)));
+                will(returnValue(resourceLength));
+            }
+        });
+
+        DoGet doGet = new DoGet(mockChannelStore, null, null,
+                new ResourceLocks(), mockMimeTyper, 0);
+
+        doGet.execute(mockTransaction, mockReq, mockRes);
+
+        _mockery.assertIsSatisfied();
+    }
+
+    @Test
+    public void testAccessOfaPageWithRangeResultsInPartialContent()
+            throws Exception {
+
+        final TestingOutputStream rangeTos = new TestingOutputStream();
+
+        _mockery.checking(new Expectations() {
+            {
+                one(mockReq).getAttribute("javax.servlet.include.request_uri");
+                will(returnValue(null));
+
+                one(mockReq).getPathInfo();
+                will(returnValue("/index.html"));
+
+                StoredObject indexSo = initFileStoredObject(resourceContent);
+
+                one(mockStore).getStoredObject(mockTransaction, "/index.html");
+                will(returnValue(indexSo));
+
+                one(mockReq).getHeader("If-None-Match");
+                will(returnValue(null));
+
+                one(mockRes).setDateHeader("last-modified",
+                        indexSo.getLastModified().getTime());
+
+                exactly(2).of(mockRes).addHeader(with(any(String.class)),
+                        with(any(String.class)));
+
+                one(mockMimeTyper).getMimeType(mockTransaction, "/index.html");
+                will(returnValue("text/foo"));
+
+                one(mockReq).getHeader("Range");
+                will(returnValue("bytes=1-3"));
+
+                one(mockReq).getHeader("If-Range");
+                will(returnValue(null));
+
+                one(mockRes).setStatus(WebdavStatus.SC_PARTIAL_CONTENT);
+
+                one(mockRes).setHeader("Content-Range", "bytes 1-3/8");
+
+                one(mockRes).setContentType("text/foo");
+
+                one(mockRes).getOutputStream();
+                will(returnValue(rangeTos));
+
+                one(mockStore).getResourceContent(mockTransaction,
+                        "/index.html");
+                will(returnValue(new ByteArrayInputStream(resourceContent)));
+            }
+        });
+
+        DoGet doGet = new DoGet(mockStore, null, null, new ResourceLocks(),
+                mockMimeTyper, 0);
+
+        doGet.execute(mockTransaction, mockReq, mockRes);
+
+        assertEquals("hel", rangeTos.toString());
+
+        _mockery.assertIsSatisfied();
+    }
+
+    @Test
+    public void testAccessOfaPageWithWeakIfRangeResultsInWholePage()
+            throws Exception {
+
+        final TestingOutputStream wholeTos = new TestingOutputStream();
+
+        _mockery.checking(new Expectations() {
+            {
+                one(mockReq).getAttribute("javax.servlet.include.request_uri");
+                will(returnValue(null));
+
+                one(mockReq).getPathInfo();
+                will(returnValue("/index.html"));
+
+                StoredObject indexSo = initFileStoredObject(resourceContent);
+
+                one(mockStore).getStoredObject(mockTransaction, "/index.html");
+                will(returnValue(indexSo));
+
+                one(mockReq).getHeader("If-None-Match");
+                will(returnValue(null));
+
+                one(mockRes).setDateHeader("last-modified",
+                        indexSo.getLastModified().getTime());
+
+                exactly(2).of(mockRes).addHeader(with(any(String.class)),
+                        with(any(String.class)));
+
+                one(mockMimeTyper).getMimeType(mockTransaction, "/index.html");
+                will(returnValue("text/foo"));
+
+                one(mockReq).getHeader("Range");
+                will(returnValue("bytes=1-3"));
+
+                // the ETag the servlet sends for this resource, weak
+                one(mockReq).getHeader("If-Range");
+                will(returnValue("W/\"8-"
+                        + indexSo.getLastModified().getTime() + "\""));
+
+                one(mockRes).setContentType("text/foo");
+
+                one(mockStore).getStoredObject(mockTransaction, "/index.html");
+                will(returnValue(indexSo));
+
+                one(mockRes).getOutputStream();
+                will(returnValue(wholeTos));
+
+                one(mockStore).getResourceContent(mockTransaction,
+                        "/index.html");
+                will(returnValue(new ByteArrayInputStream(resourceContent)));
+            }
+        });
+
+        DoGet doGet = new DoGet(mockStore, null, null, new ResourceLocks(),
+                mockMimeTyper, 0);
+
+        doGet.execute(mockTransaction, mockReq, mockRes);
+
+        assertEquals("<hello/>", wholeTos.toString());
+
+        _mockery.assertIsSatisfied();
+    }
+
+    @Test
+    public void testAccessOfaPageWithUnsatisfiableRangeResultsIn416()
+            throws Exception {
+
+        _mockery.checking(new Expectations() {
+            {
+                one(mockReq).getAttribute("javax.servlet.include.request_uri");
+                will(returnValue(null));
+
+                one(mockReq).getPathInfo();
+                will(returnValue("/index.html"));
+
+                StoredObject indexSo = initFileStoredObject(resourceContent);
+
+                one(mockStore).getStoredObject(mockTransaction, "/index.html");
+                will(returnValue(indexSo));
+
+                one(mockReq).getHeader("If-None-Match");
+                will(returnValue(null));
+
+                one(mockRes).setDateHeader("last-modified",
+                        indexSo.getLastModified().getTime());
+
+                exactly(2).of(mockRes).addHeader(with(any(String.class)),
+                        with(any(String.class)));
+
+                one(mockMimeTyper).getMimeType(mockTransaction, "/index.html");
+                will(returnValue("text/foo"));
+
+                one(mockReq).getHeader("Range");
+                will(returnValue("bytes=100-"));
+
+                one(mockReq).getHeader("If-Range");
+                will(returnValue(null));
+
+                one(mockRes).setHeader("Content-Range", "bytes */8");
+
+                one(mockRes).sendError(
+                        WebdavStatus.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+            }
+        });
+
+        DoGet doGet = new DoGet(mockStore, null, null, new ResourceLocks(),
+                mockMimeTyper, 0);
+
+        doGet.execute(mockTransaction, mockReq, mockRes);
+
+        _mockery.assertIsSatisfied();
+    }
+
     @Test
     public void testAccessOfaDirectoryResultsInRudimentaryChildList()
             throws Exception {
@@ -251,10 +496,13 @@ public class DoGetTest extends MockTest {
                 one(mockRes).setDateHeader("last-modified",
                         alternativeSo.getLastModified().getTime());
 
-                one(mockRes).addHeader(with(any(String.class)),
+                exactly(2).of(mockRes).addHeader(with(any(String.class)),
                         with(any(String.class)));
 
-                one(mockMimeTyper).getMimeType("/alternative");
+                one(mockReq).getHeader("Range");
+                will(returnValue(null));
+
+                one(mockMimeTyper).getMimeType(mockTransaction, "/alternative");
                 will(returnValue("text/foo"));
 
                 one(mockRes).setContentType("text/foo");
@@ -263,14 +511,13 @@ public class DoGetTest extends MockTest {
                 will(returnValue(alternativeSo));
 
                 tos = new TestingOutputStream();
-                tos.write(resourceContent);
 
                 one(mockRes).getOutputStream();
                 will(returnValue(tos));
 
                 one(mockStore).getResourceContent(mockTransaction,
                         "/alternative");
-                will(returnValue(dsis));
+                will(returnValue(new ByteArrayInputStream(resourceContent)));
 
                 one(mockRes).setStatus(WebdavStatus.SC_NOT_FOUND);
             }
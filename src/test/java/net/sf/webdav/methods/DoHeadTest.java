@@ -1,11 +1,16 @@
 package net.sf.webdav.methods;
 
+import java.io.ByteArrayInputStream;
+import java.io.File;
+
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
+import net.sf.webdav.CompressingStore;
 import net.sf.webdav.IMimeTyper;
 import net.sf.webdav.ITransaction;
 import net.sf.webdav.IWebdavStore;
+import net.sf.webdav.MemoryStore;
 import net.sf.webdav.StoredObject;
 import net.sf.webdav.WebdavStatus;
 import net.sf.webdav.locking.ResourceLocks;
@@ -14,6 +19,8 @@ import net.sf.webdav.testutil.MockTest;
 import org.jmock.Expectations;
 import org.junit.BeforeClass;
 import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
 
 public class DoHeadTest extends MockTest {
 
@@ -85,10 +92,13 @@ public class DoHeadTest extends MockTest {
                 one(mockRes).setDateHeader("last-modified",
                         indexSo.getLastModified().getTime());
 
-                one(mockRes).addHeader(with(any(String.class)),
+                exactly(2).of(mockRes).addHeader(with(any(String.class)),
                         with(any(String.class)));
 
-                one(mockMimeTyper).getMimeType("/index.html");
+                one(mockReq).getHeader("Range");
+                will(returnValue(null));
+
+                one(mockMimeTyper).getMimeType(mockTransaction, "/index.html");
                 will(returnValue("text/foo"));
 
                 one(mockRes).setContentType("text/foo");
@@ -103,6 +113,132 @@ public class DoHeadTest extends MockTest {
         _mockery.assertIsSatisfied();
     }
 
+    @Test
+    public void testAccessOfaPageWithStoreETagResultsInStrongETag()
+            throws Exception {
+
+        _mockery.checking(new Expectations() {
+            {
+                one(mockReq).getAttribute("javax.servlet.include.request_uri");
+                will(returnValue(null));
+
+                one(mockReq).getPathInfo();
+                will(returnValue("/index.html"));
+
+                StoredObject indexSo = initFileStoredObject(resourceContent);
+                indexSo.setETag("0123abcd");
+
+                one(mockStore).getStoredObject(mockTransaction, "/index.html");
+                will(returnValue(indexSo));
+
+                one(mockReq).getHeader("If-None-Match");
+                will(returnValue(null));
+
+                one(mockRes).setDateHeader("last-modified",
+                        indexSo.getLastModified().getTime());
+
+                one(mockRes).addHeader("ETag", "\"0123abcd\"");
+
+                one(mockRes).addHeader("Accept-Ranges", "bytes");
+
+                one(mockReq).getHeader("Range");
+                will(returnValue(null));
+
+                one(mockMimeTyper).getMimeType(mockTransaction, "/index.html");
+                will(returnValue("text/foo"));
+
+                one(mockRes).setContentType("text/foo");
+            }
+        });
+
+        DoHead doHead = new DoHead(mockStore, null, null, new ResourceLocks(),
+                mockMimeTyper, 0);
+
+        doHead.execute(mockTransaction, mockReq, mockRes);
+
+        _mockery.assertIsSatisfied();
+    }
+
+    @Test
+    public void testAccessOfaPageWithWriteLockResultsInPage() throws Exception {
+
+        ResourceLocks resLocks = new ResourceLocks();
+        resLocks.exclusiveLock(mockTransaction, "/index.html", "I'm the owner",
+                0, 60);
+
+        _mockery.checking(new Expectations() {
+            {
+                one(mockReq).getAttribute("javax.servlet.include.request_uri");
+                will(returnValue(null));
+
+                one(mockReq).getPathInfo();
+                will(returnValue("/index.html"));
+
+                StoredObject indexSo = initFileStoredObject(resourceContent);
+
+                one(mockStore).getStoredObject(mockTransaction, "/index.html");
+                will(returnValue(indexSo));
+
+                one(mockReq).getHeader("If-None-Match");
+                will(returnValue(null));
+
+                one(mockRes).setDateHeader("last-modified",
+                        indexSo.getLastModified().getTime());
+
+                exactly(2).of(mockRes).addHeader(with(any(String.class)),
+                        with(any(String.class)));
+
+                one(mockReq).getHeader("Range");
+                will(returnValue(null));
+
+                one(mockMimeTyper).getMimeType(mockTransaction, "/index.html");
+                will(returnValue("text/foo"));
+
+                one(mockRes).setContentType("text/foo");
+            }
+        });
+
+        DoHead doHead = new DoHead(mockStore, null, null, resLocks,
+                mockMimeTyper, 0);
+
+        doHead.execute(mockTransaction, mockReq, mockRes);
+
+        _mockery.assertIsSatisfied();
+    }
+
+    @Test
+    public void testAccessOfaPageWithExclusiveTemporaryLockResultsIn500()
+            throws Exception {
+
+        ResourceLocks resLocks = new ResourceLocks();
+        resLocks.lock(mockTransaction, "/index.html", "I'm the owner", true, 0,
+                60, true);
+
+        _mockery.checking(new Expectations() {
+            {
+                one(mockReq).getAttribute("javax.servlet.include.request_uri");
+                will(returnValue(null));
+
+                one(mockReq).getPathInfo();
+                will(returnValue("/index.html"));
+
+                StoredObject indexSo = initFileStoredObject(resourceContent);
+
+                one(mockStore).getStoredObject(mockTransaction, "/index.html");
+                will(returnValue(indexSo));
+
+                one(mockRes).sendError(WebdavStatus.SC_INTERNAL_SERVER_ERROR);
+            }
+        });
+
+        DoHead doHead = new DoHead(mockStore, null, null, resLocks,
+                mockMimeTyper, 0);
+
+        doHead.execute(mockTransaction, mockReq, mockRes);
+
+        _mockery.assertIsSatisfied();
+    }
+
     @Test
     public void testAccessOfaDirectoryResultsInRedirectIfDefaultIndexFilePresent()
             throws Exception {
@@ -137,4 +273,69 @@ public class DoHeadTest extends MockTest {
         _mockery.assertIsSatisfied();
     }
 
+    @Test
+    public void testCompressedResourceHasAnETagPerContentCoding()
+            throws Exception {
+
+        File indexFile = new File(System.getProperty("java.io.tmpdir"),
+                "webdav-head-test-" + System.nanoTime());
+        CompressingStore store = new CompressingStore(new MemoryStore(),
+                new String[] { "txt" }, indexFile);
+        try {
+            ITransaction transaction = store.begin(null);
+            store.createResource(transaction, "/file.txt");
+            store.setResourceContent(transaction, "/file.txt",
+                    new ByteArrayInputStream(new byte[1000]), null, null);
+            store.commit(transaction);
+            IMimeTyper mimeTyper = new IMimeTyper() {
+                public String getMimeType(ITransaction transaction,
+                        String path) {
+                    return "text/plain";
+                }
+            };
+            DoHead doHead = new DoHead(store, null, null, new ResourceLocks(),
+                    mimeTyper, 1);
+
+            MockHttpServletResponse identity = head(doHead, store, null, null);
+            MockHttpServletResponse gzip = head(doHead, store, "gzip", null);
+
+            assertEquals(null, identity.getHeader("Content-Encoding"));
+            assertEquals("gzip", gzip.getHeader("Content-Encoding"));
+            String identityETag = (String) identity.getHeader("ETag");
+            String gzipETag = (String) gzip.getHeader("ETag");
+            assertNotNull(identityETag);
+            assertFalse(identityETag.equals(gzipETag));
+
+            // each ETag matches the representation it was sent with
+            assertEquals(WebdavStatus.SC_NOT_MODIFIED, head(doHead, store,
+                    "gzip", gzipETag).getStatus());
+            assertEquals(WebdavStatus.SC_OK, head(doHead, store, null,
+                    gzipETag).getStatus());
+            assertEquals(WebdavStatus.SC_NOT_MODIFIED, head(doHead, store,
+                    null, identityETag).getStatus());
+        } finally {
+            store.destroy();
+            indexFile.delete();
+        }
+    }
+
+    private static MockHttpServletResponse head(DoHead doHead,
+            IWebdavStore store, String acceptEncoding, String ifNoneMatch)
+            throws Exception {
+        MockHttpServletRequest req = new MockHttpServletRequest("HEAD",
+                "/file.txt");
+        req.setPathInfo("/file.txt");
+        if (acceptEncoding != null) {
+            req.addHeader("Accept-Encoding", acceptEncoding);
+        }
+        if (ifNoneMatch != null) {
+            req.addHeader("If-None-Match", ifNoneMatch);
+        }
+        MockHttpServletResponse resp = new MockHttpServletResponse();
+        ITransaction transaction = store.begin(null);
+        doHead.execute(transaction, req, resp);
+        store.commit(transaction);
+        return resp;
+    }
+
 }
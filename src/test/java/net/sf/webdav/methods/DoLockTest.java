@@ -2,12 +2,16 @@ package net.sf.webdav.methods;
 
 import java.io.ByteArrayInputStream;
 import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
+import net.sf.webdav.IMimeTyper;
 import net.sf.webdav.ITransaction;
 import net.sf.webdav.IWebdavStore;
+import net.sf.webdav.MemoryStore;
 import net.sf.webdav.StoredObject;
 import net.sf.webdav.WebdavStatus;
 import net.sf.webdav.locking.IResourceLocks;
@@ -19,6 +23,8 @@ import org.jmock.Expectations;
 import org.junit.BeforeClass;
 import org.junit.Test;
 import org.springframework.mock.web.DelegatingServletInputStream;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
 
 public class DoLockTest extends MockTest {
 
@@ -475,4 +481,113 @@ public class DoLockTest extends MockTest {
         _mockery.assertIsSatisfied();
 
     }
+
+    @Test
+    public void testConcurrentRequestsKeepTheirOwnState() throws Exception {
+
+        final MemoryStore store = new MemoryStore();
+        ResourceLocks resourceLocks = new ResourceLocks();
+        // one executor each, shared by all requests like in the servlet
+        final DoLock doLock = new DoLock(store, resourceLocks, !readOnly);
+        final DoPropfind doPropfind = new DoPropfind(store, resourceLocks,
+                new IMimeTyper() {
+                    public String getMimeType(ITransaction transaction,
+                            String path) {
+                        return "text/plain";
+                    }
+                });
+        final List<String> failures = new ArrayList<String>();
+        Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; i++) {
+            final int thread = i;
+            ITransaction transaction = store.begin(null);
+            store.createFolder(transaction, "/folder" + thread);
+            store.commit(transaction);
+            threads[i] = new Thread() {
+                public void run() {
+                    try {
+                        for (int j = 0; j < 100; j++) {
+                            lockAndFind(j);
+                        }
+                    } catch (Exception e) {
+                        record(failures, e.toString());
+                    }
+                }
+
+                private void lockAndFind(int j) throws Exception {
+                    String owner = "owner-" + thread + "-";
+                    String scope = thread % 2 == 0 ? "exclusive" : "shared";
+                    String folder = "/folder" + thread;
+
+                    MockHttpServletRequest req = request("LOCK", folder
+                            + "/file" + j);
+                    req.addHeader("Depth", "0");
+                    req.setContent(("<?xml version=\"1.0\" encoding=\"utf-8\" ?>"
+                            + "<D:lockinfo xmlns:D='DAV:'>"
+                            + "<D:lockscope><D:" + scope + "/></D:lockscope>"
+                            + "<D:locktype><D:write/></D:locktype>"
+                            + "<D:owner><D:href>" + owner + "</D:href></D:owner>"
+                            + "</D:lockinfo>").getBytes("UTF-8"));
+                    String lock = execute(doLock, req);
+                    if (lock.indexOf(owner) == -1
+                            || lock.indexOf(scope) == -1) {
+                        record(failures, "LOCK of " + owner + ": " + lock);
+                    }
+
+                    // the folder itself isn't locked, its files are
+                    int depth = thread % 2;
+                    req = request("PROPFIND", folder);
+                    req.addHeader("Depth", String.valueOf(depth));
+                    req.setContent(("<?xml version=\"1.0\" encoding=\"utf-8\" ?>"
+                            + "<D:propfind xmlns:D='DAV:'><D:prop>"
+                            + "<D:lockdiscovery/></D:prop></D:propfind>")
+                            .getBytes("UTF-8"));
+                    String propfind = execute(doPropfind, req);
+                    int owners = count(propfind, owner);
+                    if (owners != (depth == 0 ? 0 : j + 1)
+                            || count(propfind, "owner-") != owners) {
+                        record(failures, "PROPFIND of " + owner + " depth "
+                                + depth + ": " + propfind);
+                    }
+                }
+
+                private String execute(AbstractMethod method,
+                        MockHttpServletRequest req) throws Exception {
+                    MockHttpServletResponse resp = new MockHttpServletResponse();
+                    ITransaction transaction = store.begin(null);
+                    method.execute(transaction, req, resp);
+                    store.commit(transaction);
+                    return resp.getContentAsString();
+                }
+            };
+        }
+        for (int i = 0; i < threads.length; i++) {
+            threads[i].start();
+        }
+        for (int i = 0; i < threads.length; i++) {
+            threads[i].join();
+        }
+
+        assertEquals(new ArrayList<String>(), failures);
+    }
+
+    private static MockHttpServletRequest request(String method, String path) {
+        MockHttpServletRequest req = new MockHttpServletRequest(method, path);
+        req.setPathInfo(path);
+        return req;
+    }
+
+    private static int count(String s, String part) {
+        int count = 0;
+        for (int i = s.indexOf(part); i != -1; i = s.indexOf(part, i + 1)) {
+            count++;
+        }
+        return count;
+    }
+
+    private static void record(List<String> failures, String failure) {
+        synchronized (failures) {
+            failures.add(failure);
+        }
+    }
 }
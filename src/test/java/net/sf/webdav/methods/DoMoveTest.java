@@ -5,6 +5,7 @@ import java.io.ByteArrayInputStream;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
+import net.sf.webdav.IMoveStore;
 import net.sf.webdav.ITransaction;
 import net.sf.webdav.IWebdavStore;
 import net.sf.webdav.StoredObject;
@@ -60,7 +61,7 @@ public class DoMoveTest extends MockTest {
         DoDelete doDelete = new DoDelete(mockStore, resLocks, readOnly);
         DoCopy doCopy = new DoCopy(mockStore, resLocks, doDelete, readOnly);
 
-        DoMove doMove = new DoMove(resLocks, doDelete, doCopy, readOnly);
+        DoMove doMove = new DoMove(resLocks, doCopy, readOnly);
 
         doMove.execute(mockTransaction, mockReq, mockRes);
 
@@ -145,7 +146,76 @@ public class DoMoveTest extends MockTest {
         DoDelete doDelete = new DoDelete(mockStore, resLocks, !readOnly);
         DoCopy doCopy = new DoCopy(mockStore, resLocks, doDelete, !readOnly);
 
-        DoMove doMove = new DoMove(resLocks, doDelete, doCopy, !readOnly);
+        DoMove doMove = new DoMove(resLocks, doCopy, !readOnly);
+
+        doMove.execute(mockTransaction, mockReq, mockRes);
+
+        _mockery.assertIsSatisfied();
+    }
+
+    @Test
+    public void testMovingOfaFileIsDoneByMoveStore() throws Exception {
+
+        final IMoveStore mockMoveStore = _mockery.mock(IMoveStore.class);
+
+        _mockery.checking(new Expectations() {
+            {
+                one(mockReq).getAttribute("javax.servlet.include.request_uri");
+                will(returnValue(null));
+
+                one(mockReq).getPathInfo();
+                will(returnValue(sourceFilePath));
+
+                exactly(2).of(mockReq).getHeader("Destination");
+                will(returnValue(destFilePath));
+
+                one(mockReq).getServerName();
+                will(returnValue("serverName"));
+
+                one(mockReq).getContextPath();
+                will(returnValue(""));
+
+                one(mockReq).getPathInfo();
+                will(returnValue(destFilePath));
+
+                one(mockReq).getServletPath();
+                will(returnValue("/servletPath"));
+
+                one(mockReq).getAttribute("javax.servlet.include.request_uri");
+                will(returnValue(null));
+
+                one(mockReq).getPathInfo();
+                will(returnValue(sourceFilePath));
+
+                one(mockReq).getHeader("Overwrite");
+                will(returnValue("F"));
+
+                StoredObject sourceFileSo = initFileStoredObject(resourceContent);
+
+                one(mockMoveStore).getStoredObject(mockTransaction,
+                        sourceFilePath);
+                will(returnValue(sourceFileSo));
+
+                StoredObject destFileSo = null;
+
+                one(mockMoveStore)
+                        .getStoredObject(mockTransaction, destFilePath);
+                will(returnValue(destFileSo));
+
+                one(mockRes).setStatus(WebdavStatus.SC_CREATED);
+
+                one(mockMoveStore).moveObject(mockTransaction, sourceFilePath,
+                        destFilePath);
+                will(returnValue(true));
+            }
+        });
+
+        ResourceLocks resLocks = new ResourceLocks();
+        DoDelete doDelete = new DoDelete(mockMoveStore, resLocks, !readOnly);
+        DoCopy doCopy = new DoCopy(mockMoveStore, resLocks, doDelete,
+                !readOnly);
+
+        DoMove doMove = new DoMove(resLocks, doCopy, !readOnly);
 
         doMove.execute(mockTransaction, mockReq, mockRes);
 
@@ -207,7 +277,7 @@ public class DoMoveTest extends MockTest {
         DoDelete doDelete = new DoDelete(mockStore, resLocks, !readOnly);
         DoCopy doCopy = new DoCopy(mockStore, resLocks, doDelete, !readOnly);
 
-        DoMove doMove = new DoMove(resLocks, doDelete, doCopy, !readOnly);
+        DoMove doMove = new DoMove(resLocks, doCopy, !readOnly);
 
         doMove.execute(mockTransaction, mockReq, mockRes);
 
@@ -296,7 +366,7 @@ public class DoMoveTest extends MockTest {
         DoDelete doDelete = new DoDelete(mockStore, resLocks, !readOnly);
         DoCopy doCopy = new DoCopy(mockStore, resLocks, doDelete, !readOnly);
 
-        DoMove doMove = new DoMove(resLocks, doDelete, doCopy, !readOnly);
+        DoMove doMove = new DoMove(resLocks, doCopy, !readOnly);
 
         doMove.execute(mockTransaction, mockReq, mockRes);
 
@@ -351,7 +421,7 @@ public class DoMoveTest extends MockTest {
         DoDelete doDelete = new DoDelete(mockStore, resLocks, !readOnly);
         DoCopy doCopy = new DoCopy(mockStore, resLocks, doDelete, !readOnly);
 
-        DoMove doMove = new DoMove(resLocks, doDelete, doCopy, !readOnly);
+        DoMove doMove = new DoMove(resLocks, doCopy, !readOnly);
 
         doMove.execute(mockTransaction, mockReq, mockRes);
 
@@ -398,7 +468,7 @@ public class DoMoveTest extends MockTest {
         DoDelete doDelete = new DoDelete(mockStore, resLocks, !readOnly);
         DoCopy doCopy = new DoCopy(mockStore, resLocks, doDelete, !readOnly);
 
-        DoMove doMove = new DoMove(resLocks, doDelete, doCopy, !readOnly);
+        DoMove doMove = new DoMove(resLocks, doCopy, !readOnly);
 
         doMove.execute(mockTransaction, mockReq, mockRes);
 
@@ -520,7 +590,7 @@ public class DoMoveTest extends MockTest {
         DoDelete doDelete = new DoDelete(mockStore, resLocks, !readOnly);
         DoCopy doCopy = new DoCopy(mockStore, resLocks, doDelete, !readOnly);
 
-        DoMove doMove = new DoMove(resLocks, doDelete, doCopy, !readOnly);
+        DoMove doMove = new DoMove(resLocks, doCopy, !readOnly);
 
         doMove.execute(mockTransaction, mockReq, mockRes);
 
@@ -583,7 +653,7 @@ public class DoMoveTest extends MockTest {
         DoDelete doDelete = new DoDelete(mockStore, resLocks, !readOnly);
         DoCopy doCopy = new DoCopy(mockStore, resLocks, doDelete, !readOnly);
 
-        DoMove doMove = new DoMove(resLocks, doDelete, doCopy, !readOnly);
+        DoMove doMove = new DoMove(resLocks, doCopy, !readOnly);
 
         doMove.execute(mockTransaction, mockReq, mockRes);
 
@@ -716,7 +786,7 @@ public class DoMoveTest extends MockTest {
         DoDelete doDelete = new DoDelete(mockStore, resLocks, !readOnly);
         DoCopy doCopy = new DoCopy(mockStore, resLocks, doDelete, !readOnly);
 
-        DoMove doMove = new DoMove(resLocks, doDelete, doCopy, !readOnly);
+        DoMove doMove = new DoMove(resLocks, doCopy, !readOnly);
 
         doMove.execute(mockTransaction, mockReq, mockRes);
 
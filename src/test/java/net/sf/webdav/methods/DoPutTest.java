@@ -5,10 +5,13 @@ import java.io.PrintWriter;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
+import net.sf.webdav.IPartialUploadStore;
 import net.sf.webdav.ITransaction;
 import net.sf.webdav.IWebdavStore;
+import net.sf.webdav.MemoryStore;
 import net.sf.webdav.StoredObject;
 import net.sf.webdav.WebdavStatus;
+import net.sf.webdav.exceptions.RequestFailedException;
 import net.sf.webdav.locking.IResourceLocks;
 import net.sf.webdav.locking.LockedObject;
 import net.sf.webdav.locking.ResourceLocks;
@@ -17,9 +20,12 @@ import net.sf.webdav.testutil.MockTest;
 import org.jmock.Expectations;
 import org.junit.BeforeClass;
 import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
 
 public class DoPutTest extends MockTest {
     static IWebdavStore mockStore;
+    static IPartialUploadStore mockPartialStore;
     static HttpServletRequest mockReq;
     static HttpServletResponse mockRes;
     static IResourceLocks mockResourceLocks;
@@ -33,6 +39,7 @@ public class DoPutTest extends MockTest {
     @BeforeClass
     public static void setUp() throws Exception {
         mockStore = _mockery.mock(IWebdavStore.class);
+        mockPartialStore = _mockery.mock(IPartialUploadStore.class);
         mockReq = _mockery.mock(HttpServletRequest.class);
         mockRes = _mockery.mock(HttpServletResponse.class);
         mockResourceLocks = _mockery.mock(IResourceLocks.class);
@@ -69,6 +76,9 @@ public class DoPutTest extends MockTest {
                 one(mockReq).getHeader("User-Agent");
                 will(returnValue("Goliath agent"));
 
+                one(mockReq).getHeader("Content-Range");
+                will(returnValue(null));
+
                 StoredObject parentSo = initFolderStoredObject();
 
                 one(mockStore).getStoredObject(mockTransaction, parentPath);
@@ -107,6 +117,141 @@ public class DoPutTest extends MockTest {
         _mockery.assertIsSatisfied();
     }
 
+    @Test
+    public void testDoPutIfContentLengthExceedsMaxUploadSize()
+            throws Exception {
+
+        _mockery.checking(new Expectations() {
+            {
+                one(mockReq).getAttribute("javax.servlet.include.request_uri");
+                will(returnValue(null));
+
+                one(mockReq).getPathInfo();
+                will(returnValue(path));
+
+                one(mockReq).getHeader("User-Agent");
+                will(returnValue("Goliath agent"));
+
+                one(mockReq).getHeader("Content-Range");
+                will(returnValue(null));
+
+                one(mockReq).getHeader("Content-Length");
+                will(returnValue("3000000000"));
+
+                one(mockRes).sendError(WebdavStatus.SC_REQUEST_TOO_LONG);
+            }
+        });
+
+        DoPut doPut = new DoPut(mockStore, new ResourceLocks(), !readOnly,
+                lazyFolderCreationOnPut, 2000000000L);
+        doPut.execute(mockTransaction, mockReq, mockRes);
+
+        _mockery.assertIsSatisfied();
+    }
+
+    @Test
+    public void testDoPutIfContentExceedsMaxUploadSizeRollsBack()
+            throws Exception {
+
+        MemoryStore store = new MemoryStore();
+        MockHttpServletRequest req = new MockHttpServletRequest("PUT",
+                "/file");
+        req.setPathInfo("/file");
+        // no Content-Length, the body is found too large while it is read
+        req.setContent(new byte[1000]);
+        MockHttpServletResponse resp = new MockHttpServletResponse();
+
+        DoPut doPut = new DoPut(store, new ResourceLocks(), !readOnly,
+                lazyFolderCreationOnPut, 100L);
+        ITransaction transaction = store.begin(null);
+        try {
+            doPut.execute(transaction, req, resp);
+            fail("the request didn't fail");
+        } catch (RequestFailedException e) {
+            assertEquals(WebdavStatus.SC_REQUEST_TOO_LONG, e.getStatus());
+        }
+        store.rollback(transaction);
+    }
+
+    @Test
+    public void testDoPutWithContentRangeIfStoreCantStageParts()
+            throws Exception {
+
+        _mockery.checking(new Expectations() {
+            {
+                one(mockReq).getAttribute("javax.servlet.include.request_uri");
+                will(returnValue(null));
+
+                one(mockReq).getPathInfo();
+                will(returnValue(path));
+
+                one(mockReq).getHeader("User-Agent");
+                will(returnValue("Goliath agent"));
+
+                one(mockReq).getHeader("Content-Range");
+                will(returnValue("bytes 0-7/16"));
+
+                one(mockRes).sendError(WebdavStatus.SC_BAD_REQUEST);
+            }
+        });
+
+        DoPut doPut = new DoPut(mockStore, new ResourceLocks(), !readOnly,
+                lazyFolderCreationOnPut);
+        doPut.execute(mockTransaction, mockReq, mockRes);
+
+        _mockery.assertIsSatisfied();
+    }
+
+    @Test
+    public void testDoPutWithContentRangeStagesPart() throws Exception {
+
+        _mockery.checking(new Expectations() {
+            {
+                one(mockReq).getAttribute("javax.servlet.include.request_uri");
+                will(returnValue(null));
+
+                one(mockReq).getPathInfo();
+                will(returnValue(path));
+
+                one(mockReq).getHeader("User-Agent");
+                will(returnValue("Goliath agent"));
+
+                one(mockReq).getHeader("Content-Range");
+                will(returnValue("bytes 0-7/16"));
+
+                StoredObject parentSo = initFolderStoredObject();
+
+                one(mockPartialStore).getStoredObject(mockTransaction,
+                        parentPath);
+                will(returnValue(parentSo));
+
+                StoredObject fileSo = null;
+
+                one(mockPartialStore).getStoredObject(mockTransaction, path);
+                will(returnValue(fileSo));
+
+                one(mockRes).setStatus(WebdavStatus.SC_CREATED);
+
+                one(mockReq).getInputStream();
+                will(returnValue(dsis));
+
+                one(mockPartialStore).writeResourceContent(mockTransaction,
+                        path, 0L, 8L, 16L, dsis);
+                will(returnValue(new long[][] { { 0L, 7L } }));
+
+                one(mockRes).setStatus(WebdavStatus.SC_ACCEPTED);
+
+                one(mockRes).setHeader("Range", "bytes=0-7");
+            }
+        });
+
+        DoPut doPut = new DoPut(mockPartialStore, new ResourceLocks(),
+                !readOnly, lazyFolderCreationOnPut);
+        doPut.execute(mockTransaction, mockReq, mockRes);
+
+        _mockery.assertIsSatisfied();
+    }
+
     @Test
     public void testDoPutIfLazyFolderCreationOnPutIsFalse() throws Exception {
 
@@ -123,6 +268,9 @@ public class DoPutTest extends MockTest {
                 one(mockReq).getHeader("User-Agent");
                 will(returnValue("Transmit agent"));
 
+                one(mockReq).getHeader("Content-Range");
+                will(returnValue(null));
+
                 StoredObject parentSo = null;
 
                 one(mockStore).getStoredObject(mockTransaction, parentPath);
@@ -160,6 +308,9 @@ public class DoPutTest extends MockTest {
                 one(mockReq).getHeader("User-Agent");
                 will(returnValue("WebDAVFS/1.5.0 (01500000) ....."));
 
+                one(mockReq).getHeader("Content-Range");
+                will(returnValue(null));
+
                 StoredObject parentSo = null;
 
                 one(mockStore).getStoredObject(mockTransaction, parentPath);
@@ -212,6 +363,9 @@ public class DoPutTest extends MockTest {
                 one(mockReq).getHeader("User-Agent");
                 will(returnValue("WebDAVFS/1.5.0 (01500000) ....."));
 
+                one(mockReq).getHeader("Content-Range");
+                will(returnValue(null));
+
                 StoredObject parentSo = initFileStoredObject(resourceContent);
 
                 one(mockStore).getStoredObject(mockTransaction, parentPath);
@@ -343,6 +497,9 @@ public class DoPutTest extends MockTest {
                 one(mockReq).getHeader("User-Agent");
                 will(returnValue("Transmit agent"));
 
+                one(mockReq).getHeader("Content-Range");
+                will(returnValue(null));
+
                 one(mockResourceLocks).getLockedObjectByPath(mockTransaction,
                         parentPath);
                 will(returnValue(parentLo));
@@ -4,6 +4,7 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 
 import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
 
 import org.junit.Ignore;
 
@@ -12,11 +13,64 @@ public class TestingOutputStream extends ServletOutputStream {
 
     private ByteArrayOutputStream baos = new ByteArrayOutputStream();
 
+    private WriteListener _listener;
+
+    /**
+     * writes the client takes before it blocks, -1 for no limit
+     */
+    private int _writes = -1;
+
     public void write(int i) throws IOException {
+        count();
         baos.write(i);
     }
 
+    public void write(byte[] b, int off, int len) throws IOException {
+        count();
+        baos.write(b, off, len);
+    }
+
+    private void count() {
+        if (_writes == 0) {
+            throw new IllegalStateException("written while not ready");
+        }
+        if (_writes > 0) {
+            _writes--;
+        }
+    }
+
     public String toString() {
         return baos.toString();
     }
+
+    public byte[] toByteArray() {
+        return baos.toByteArray();
+    }
+
+    public boolean isReady() {
+        return _writes != 0;
+    }
+
+    /**
+     * the listener is called by {@link #writePossible(int)}, as a container
+     * would when the client takes more
+     */
+    public void setWriteListener(WriteListener writeListener) {
+        _listener = writeListener;
+    }
+
+    public WriteListener getWriteListener() {
+        return _listener;
+    }
+
+    /**
+     * lets the client take some more writes and tells the listener
+     * 
+     * @param writes
+     *      writes taken before the client blocks again, -1 for no limit
+     */
+    public void writePossible(int writes) throws IOException {
+        _writes = writes;
+        _listener.onWritePossible();
+    }
 }
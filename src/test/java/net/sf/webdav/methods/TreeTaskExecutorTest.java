@@ -0,0 +1,137 @@
+package net.sf.webdav.methods;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.Assert;
+import net.sf.webdav.ITransaction;
+import net.sf.webdav.MemoryStore;
+import net.sf.webdav.StoreDecorator;
+import net.sf.webdav.WebdavStatus;
+import net.sf.webdav.locking.ResourceLocks;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+public class TreeTaskExecutorTest extends Assert {
+
+    private TreeTaskExecutor _executor;
+
+    @Before
+    public void setUp() {
+        _executor = new TreeTaskExecutor(4);
+    }
+
+    @After
+    public void tearDown() {
+        _executor.shutdown();
+    }
+
+    @Test
+    public void testInvokeAllReturnsWhenAllTasksAreDone() throws Exception {
+
+        final AtomicInteger done = new AtomicInteger();
+        List<Runnable> tasks = new ArrayList<Runnable>();
+        for (int i = 0; i < 50; i++) {
+            tasks.add(new Runnable() {
+                public void run() {
+                    try {
+                        Thread.sleep(2);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    done.incrementAndGet();
+                }
+            });
+        }
+
+        _executor.invokeAll(tasks);
+
+        assertEquals(50, done.get());
+    }
+
+    @Test
+    public void testInvokeAllThrowsTheFailureAfterAllTasksAreDone()
+            throws Exception {
+
+        final AtomicInteger done = new AtomicInteger();
+        List<Runnable> tasks = new ArrayList<Runnable>();
+        for (int i = 0; i < 20; i++) {
+            final boolean fail = i == 3;
+            tasks.add(new Runnable() {
+                public void run() {
+                    if (fail) {
+                        throw new IllegalArgumentException("task failed");
+                    }
+                    done.incrementAndGet();
+                }
+            });
+        }
+
+        try {
+            _executor.invokeAll(tasks);
+            fail("the failure of the task got lost");
+        } catch (IllegalArgumentException e) {
+            assertEquals("task failed", e.getMessage());
+        }
+        assertEquals(19, done.get());
+    }
+
+    @Test
+    public void testParallelDeleteRemovesChildrenBeforeTheirFolder()
+            throws Exception {
+
+        MemoryStore memoryStore = new MemoryStore();
+        final List<String> removed = Collections
+                .synchronizedList(new ArrayList<String>());
+        StoreDecorator store = new StoreDecorator(memoryStore) {
+            public void removeObject(ITransaction transaction, String uri) {
+                super.removeObject(transaction, uri);
+                removed.add(uri);
+            }
+        };
+
+        ITransaction transaction = store.begin(null);
+        store.createFolder(transaction, "/tree");
+        for (int i = 0; i < 5; i++) {
+            String folder = "/tree/folder" + i;
+            store.createFolder(transaction, folder);
+            for (int j = 0; j < 5; j++) {
+                store.createFolder(transaction, folder + "/sub" + j);
+                for (int k = 0; k < 4; k++) {
+                    store.createResource(transaction, folder + "/sub" + j
+                            + "/file" + k);
+                }
+            }
+            store.createResource(transaction, folder + "/file");
+        }
+
+        DoDelete doDelete = new DoDelete(store, new ResourceLocks(), false,
+                _executor);
+        Hashtable<String, Integer> errorList = new Hashtable<String, Integer>();
+        MockHttpServletResponse resp = new MockHttpServletResponse();
+        doDelete.deleteResource(transaction, "/tree", errorList,
+                new MockHttpServletRequest(), resp);
+
+        assertTrue(errorList.isEmpty());
+        assertEquals(WebdavStatus.SC_NO_CONTENT, resp.getStatus());
+        assertNull(store.getStoredObject(transaction, "/tree"));
+        assertEquals(1 + 5 * (1 + 5 * (1 + 4) + 1), removed.size());
+        assertEquals("/tree", removed.get(removed.size() - 1));
+
+        // a folder is removed only after everything below it
+        for (int i = 0; i < removed.size(); i++) {
+            String prefix = removed.get(i) + "/";
+            for (int j = i + 1; j < removed.size(); j++) {
+                assertFalse(removed.get(j) + " removed after its parent",
+                        removed.get(j).startsWith(prefix));
+            }
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package net.sf.webdav.metrics;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+public class HistogramTest extends Assert {
+
+    @Test
+    public void testPercentilesAreWithinTheBucketWidth() throws Exception {
+
+        Histogram histogram = new Histogram(1);
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i);
+        }
+
+        assertEquals(1000, histogram.getCount());
+        assertEquals(500500, histogram.getSum(), 0);
+        assertEquals(500.5, histogram.getMean(), 0);
+        assertEquals(1000, histogram.getMax(), 0);
+        assertEquals(500, histogram.getPercentile50(), 500 * 0.125);
+        assertEquals(900, histogram.getPercentile90(), 900 * 0.125);
+        assertEquals(990, histogram.getPercentile99(), 990 * 0.125);
+        // never beyond the largest value
+        assertEquals(1000, histogram.getPercentile(100), 0);
+        assertTrue(histogram.getPercentile999() <= 1000);
+    }
+
+    @Test
+    public void testSmallValuesAreExact() throws Exception {
+
+        Histogram histogram = new Histogram(1);
+        for (int i = 0; i < 8; i++) {
+            histogram.record(i);
+        }
+
+        assertEquals(0, histogram.getPercentile(10), 0);
+        assertEquals(3, histogram.getPercentile50(), 0);
+        assertEquals(7, histogram.getPercentile(100), 0);
+    }
+
+    @Test
+    public void testValuesAreReportedInTheScale() throws Exception {
+
+        Histogram histogram = new Histogram(Metrics.NANOS);
+        histogram.record(2000000000L);
+        histogram.record(Long.MAX_VALUE);
+
+        assertEquals(2, histogram.getPercentile(50), 2 * 0.125);
+        assertEquals(Long.MAX_VALUE * Metrics.NANOS, histogram.getMax(), 1);
+    }
+
+    @Test
+    public void testEmptyAndNegative() throws Exception {
+
+        Histogram histogram = new Histogram(1);
+        assertEquals(0, histogram.getPercentile50(), 0);
+        assertEquals(0, histogram.getMean(), 0);
+
+        histogram.record(-5);
+
+        assertEquals(1, histogram.getCount());
+        assertEquals(0, histogram.getSum(), 0);
+        assertEquals(0, histogram.getMax(), 0);
+    }
+
+    @Test
+    public void testConcurrentRecordsAreAllCounted() throws Exception {
+
+        final Histogram histogram = new Histogram(1);
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            final int offset = i;
+            threads[i] = new Thread() {
+                public void run() {
+                    for (int j = 0; j < 10000; j++) {
+                        histogram.record(j + offset);
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (int i = 0; i < threads.length; i++) {
+            threads[i].join();
+        }
+
+        assertEquals(40000, histogram.getCount());
+        assertEquals(10002, histogram.getMax(), 0);
+    }
+}
@@ -0,0 +1,95 @@
+package net.sf.webdav.metrics;
+
+import java.util.List;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+public class HotSpotsTest extends Assert {
+
+    @Test
+    public void testHeavyKeysAreKept() throws Exception {
+
+        HotSpots hotSpots = new HotSpots(4, 1);
+        for (int i = 0; i < 100; i++) {
+            hotSpots.record("/heavy", 10);
+            hotSpots.record("/light" + i, 1);
+            hotSpots.record("/light" + (i + 1000), 1);
+        }
+
+        List<HotSpots.Entry> entries = hotSpots.getEntries();
+        assertEquals(4, entries.size());
+        HotSpots.Entry heaviest = entries.get(0);
+        assertEquals("/heavy", heaviest.getKey());
+        // overestimated by at most the error
+        assertTrue(heaviest.getWeight() >= 1000);
+        assertTrue(heaviest.getWeight() - heaviest.getError() <= 1000);
+        assertEquals(100, heaviest.getCount());
+        for (int i = 1; i < entries.size(); i++) {
+            assertTrue(entries.get(i - 1).getWeight() >= entries.get(i)
+                    .getWeight());
+        }
+    }
+
+    @Test
+    public void testReplacedKeyLeavesItsWeightAsError() throws Exception {
+
+        HotSpots hotSpots = new HotSpots(1, 0.5);
+        hotSpots.record("/a", 6);
+        hotSpots.record("/a", 4);
+        hotSpots.record("/b", 2);
+
+        List<HotSpots.Entry> entries = hotSpots.getEntries();
+        assertEquals(1, entries.size());
+        HotSpots.Entry entry = entries.get(0);
+        assertEquals("/b", entry.getKey());
+        assertEquals(6, entry.getWeight(), 0);
+        assertEquals(5, entry.getError(), 0);
+        assertEquals(1, entry.getCount());
+        assertEquals("/b weight=6.0 error=5.0 count=1", hotSpots.getTop()[0]);
+    }
+
+    @Test
+    public void testNoCapacityKeepsNothing() throws Exception {
+
+        HotSpots hotSpots = new HotSpots(0, 1);
+        hotSpots.record("/a", 1);
+
+        assertEquals(0, hotSpots.getEntries().size());
+        assertEquals(0, hotSpots.getTop().length);
+    }
+
+    @Test
+    public void testConcurrentRecordsAreAllCounted()
+            throws Exception {
+
+        final HotSpots hotSpots = new HotSpots(8, 1);
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread() {
+                public void run() {
+                    for (int j = 0; j < 10000; j++) {
+                        hotSpots.record("/path" + j % 20, 1);
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (int i = 0; i < threads.length; i++) {
+            threads[i].join();
+        }
+
+        List<HotSpots.Entry> entries = hotSpots.getEntries();
+        assertEquals(8, entries.size());
+        double weight = 0;
+        for (int i = 0; i < entries.size(); i++) {
+            HotSpots.Entry entry = entries.get(i);
+            weight += entry.getWeight();
+            // each path was recorded 2000 times
+            assertTrue(entry.getWeight() >= 2000);
+            assertTrue(entry.getWeight() - entry.getError() <= 2000);
+        }
+        assertEquals(40000, weight, 0);
+    }
+}
@@ -0,0 +1,128 @@
+package net.sf.webdav.metrics;
+
+import java.io.StringWriter;
+import java.lang.management.ManagementFactory;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+public class MetricsTest extends Assert {
+
+    @Test
+    public void testSummariesAreWrittenAsText() throws Exception {
+
+        Metrics metrics = new Metrics();
+        metrics.getRequestTimes("GET").record(2000000000L);
+        metrics.getStoreTimes("getStoredObject").record(1000000L);
+        metrics.getMultistatusSizes().record(300);
+        metrics.addBytesOut(1234);
+
+        String text = write(metrics);
+
+        assertTrue(text.contains("# TYPE webdav_request_seconds summary\n"));
+        assertTrue(text.contains("webdav_request_seconds_sum{method=\"GET\"} "
+                + 2.0 + "\n"));
+        assertTrue(text.contains(
+                "webdav_request_seconds_count{method=\"GET\"} 1\n"));
+        assertTrue(text.contains("webdav_store_call_seconds{operation="
+                + "\"getStoredObject\",quantile=\"0.5\"} "));
+        assertTrue(text.contains("webdav_multistatus_characters_count 1\n"));
+        assertTrue(text.contains("webdav_sent_bytes_total 1234\n"));
+        assertTrue(text.contains("webdav_lock_wait_seconds_count 0\n"));
+        // only with an InstrumentedStore
+        assertFalse(text.contains("webdav_store_path_seconds"));
+        assertEquals(text, metrics.getReport());
+    }
+
+    @Test
+    public void testHotSpotPathsAreEscaped() throws Exception {
+
+        Metrics metrics = new Metrics();
+        HotSpots hotSpots = new HotSpots(10, Metrics.NANOS);
+        metrics.setStoreHotSpots(hotSpots);
+        hotSpots.record("/a\"b\\c", 1000000000L);
+        metrics.addSlowStoreCall();
+
+        String text = write(metrics);
+
+        assertTrue(text.contains("webdav_slow_store_calls_total 1\n"));
+        assertTrue(text.contains(
+                "webdav_store_path_seconds{path=\"/a\\\"b\\\\c\"} 1.0\n"));
+    }
+
+    @Test
+    public void testMBeansAreRegisteredUntilUnregistered() throws Exception {
+
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        String name = "metrics-test-" + System.nanoTime();
+        Metrics metrics = new Metrics();
+        metrics.getRequestTimes("PUT");
+
+        metrics.register(name);
+        // created after the registration
+        metrics.getStoreTimes("commit");
+        metrics.setStoreHotSpots(new HotSpots(10, Metrics.NANOS));
+
+        ObjectName metricsName = objectName(name, "Metrics", null);
+        ObjectName putName = objectName(name, "Request", "PUT");
+        ObjectName commitName = objectName(name, "StoreCall", "commit");
+        ObjectName hotSpotsName = objectName(name, "StoreHotSpots", null);
+        try {
+            assertTrue(server.isRegistered(metricsName));
+            assertTrue(server.isRegistered(putName));
+            assertTrue(server.isRegistered(commitName));
+            assertTrue(server.isRegistered(hotSpotsName));
+            assertEquals(Long.valueOf(0), server.getAttribute(putName,
+                    "Count"));
+        } finally {
+            metrics.unregister();
+        }
+
+        assertFalse(server.isRegistered(metricsName));
+        assertFalse(server.isRegistered(putName));
+        assertFalse(server.isRegistered(commitName));
+        assertFalse(server.isRegistered(hotSpotsName));
+    }
+
+    @Test
+    public void testCurrentMethodIsPerThread() throws Exception {
+
+        Metrics.setCurrentMethod("PROPFIND");
+        try {
+            final String[] seen = new String[1];
+            Thread thread = new Thread() {
+                public void run() {
+                    seen[0] = Metrics.getCurrentMethod();
+                }
+            };
+            thread.start();
+            thread.join();
+
+            assertNull(seen[0]);
+            assertEquals("PROPFIND", Metrics.getCurrentMethod());
+        } finally {
+            Metrics.setCurrentMethod(null);
+        }
+        assertNull(Metrics.getCurrentMethod());
+    }
+
+    private static String write(Metrics metrics) throws Exception {
+        StringWriter writer = new StringWriter();
+        metrics.write(writer);
+        return writer.toString();
+    }
+
+    private static ObjectName objectName(String name, String type, String key)
+            throws Exception {
+        String objectName = Metrics.DOMAIN + ":servlet="
+                + ObjectName.quote(name) + ",type=" + type;
+        if (key != null) {
+            objectName += ",name=" + ObjectName.quote(key);
+        }
+        return new ObjectName(objectName);
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.sf.webdav.testutil;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import net.sf.webdav.ITransaction;
+import net.sf.webdav.IWebdavStore;
+import net.sf.webdav.StoreDecorator;
+import net.sf.webdav.StoredObject;
+
+/**
+ * remembers which objects and folders were read from the store
+ */
+public class CountingStore extends StoreDecorator {
+
+    public final List<String> _read = new ArrayList<String>();
+
+    public final List<String> _listed = new ArrayList<String>();
+
+    public final List<String> _named = new ArrayList<String>();
+
+    public CountingStore(IWebdavStore store) {
+        super(store);
+    }
+
+    public synchronized StoredObject getStoredObject(
+            ITransaction transaction, String uri) {
+        _read.add(uri);
+        return super.getStoredObject(transaction, uri);
+    }
+
+    public synchronized Map<String, StoredObject> getChildren(
+            ITransaction transaction, String folderUri) {
+        _listed.add(folderUri);
+        return super.getChildren(transaction, folderUri);
+    }
+
+    public synchronized String[] getChildrenNames(ITransaction transaction,
+            String folderUri) {
+        _named.add(folderUri);
+        return super.getChildrenNames(transaction, folderUri);
+    }
+
+    /**
+     * @return how often the object was read
+     */
+    public synchronized int count(String uri) {
+        int count = 0;
+        for (String read : _read) {
+            if (read.equals(uri)) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,210 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.sf.webdav.testutil;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletInputStream;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+/**
+ * AsyncContext of a container run by the test: the listeners are told
+ * about timeouts when the test says so, and started tasks run on threads
+ * the test can wait for.
+ */
+public class MockAsyncContext implements AsyncContext {
+
+    private final HttpServletRequest _req;
+
+    private final HttpServletResponse _resp;
+
+    private final List<AsyncListener> _listeners = new ArrayList<AsyncListener>();
+
+    private final List<Thread> _threads = new ArrayList<Thread>();
+
+    private long _timeout = 30000;
+
+    private int _completed = 0;
+
+    private volatile boolean _started = false;
+
+    private MockAsyncContext(HttpServletRequest req, HttpServletResponse resp) {
+        _req = req;
+        _resp = resp;
+    }
+
+    /**
+     * @param in
+     *      the body of the request, <code>null</code> for the one of req
+     * @return a request supporting async mode, and the AsyncContext it
+     *  starts as its attribute "asyncContext"
+     */
+    public static HttpServletRequest asyncRequest(HttpServletRequest req,
+            HttpServletResponse resp, final ServletInputStream in) {
+        final MockAsyncContext[] context = new MockAsyncContext[1];
+        HttpServletRequest asyncReq = new HttpServletRequestWrapper(req) {
+
+            public boolean isAsyncSupported() {
+                return true;
+            }
+
+            public boolean isAsyncStarted() {
+                return context[0]._started;
+            }
+
+            public AsyncContext startAsync() {
+                context[0]._started = true;
+                return context[0];
+            }
+
+            public AsyncContext getAsyncContext() {
+                if (!context[0]._started) {
+                    throw new IllegalStateException("not started");
+                }
+                return context[0];
+            }
+
+            public ServletInputStream getInputStream() throws IOException {
+                return in != null ? in : super.getInputStream();
+            }
+        };
+        context[0] = new MockAsyncContext(asyncReq, resp);
+        req.setAttribute("asyncContext", context[0]);
+        return asyncReq;
+    }
+
+    /**
+     * @return a response writing its body to out
+     */
+    public static HttpServletResponse response(HttpServletResponse resp,
+            final ServletOutputStream out) {
+        return new HttpServletResponseWrapper(resp) {
+
+            public ServletOutputStream getOutputStream() {
+                return out;
+            }
+        };
+    }
+
+    /**
+     * @return the AsyncContext started by a request of
+     *  {@link #asyncRequest(HttpServletRequest, HttpServletResponse, ServletInputStream)}
+     */
+    public static MockAsyncContext of(HttpServletRequest req) {
+        return (MockAsyncContext) req.getAttribute("asyncContext");
+    }
+
+    /**
+     * tells the listeners the request timed out
+     */
+    public void timeOut() throws IOException {
+        List<AsyncListener> listeners;
+        synchronized (this) {
+            listeners = new ArrayList<AsyncListener>(_listeners);
+        }
+        for (AsyncListener listener : listeners) {
+            listener.onTimeout(new AsyncEvent(this));
+        }
+    }
+
+    /**
+     * waits for the tasks started so far
+     */
+    public void join() throws InterruptedException {
+        List<Thread> threads;
+        synchronized (this) {
+            threads = new ArrayList<Thread>(_threads);
+        }
+        for (Thread thread : threads) {
+            thread.join(10000);
+        }
+    }
+
+    /**
+     * @return how often complete() was called
+     */
+    public synchronized int getCompleted() {
+        return _completed;
+    }
+
+    public synchronized void complete() {
+        _completed++;
+    }
+
+    public void start(Runnable run) {
+        Thread thread = new Thread(run);
+        synchronized (this) {
+            _threads.add(thread);
+        }
+        thread.start();
+    }
+
+    public synchronized void addListener(AsyncListener listener) {
+        _listeners.add(listener);
+    }
+
+    public void addListener(AsyncListener listener,
+            ServletRequest servletRequest, ServletResponse servletResponse) {
+        addListener(listener);
+    }
+
+    public <T extends AsyncListener> T createListener(Class<T> clazz) {
+        throw new UnsupportedOperationException();
+    }
+
+    public ServletRequest getRequest() {
+        return _req;
+    }
+
+    public ServletResponse getResponse() {
+        return _resp;
+    }
+
+    public boolean hasOriginalRequestAndResponse() {
+        return true;
+    }
+
+    public void dispatch() {
+        throw new UnsupportedOperationException();
+    }
+
+    public void dispatch(String path) {
+        throw new UnsupportedOperationException();
+    }
+
+    public void dispatch(ServletContext context, String path) {
+        throw new UnsupportedOperationException();
+    }
+
+    public synchronized void setTimeout(long timeout) {
+        _timeout = timeout;
+    }
+
+    public synchronized long getTimeout() {
+        return _timeout;
+    }
+}